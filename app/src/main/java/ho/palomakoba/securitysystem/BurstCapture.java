@@ -0,0 +1,241 @@
+package ho.palomakoba.securitysystem;
+
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CaptureRequest;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Takes {@code burstSize} frames per trigger and saves the sharpest
+ * {@code keepCount} of them.
+ * <p>
+ * The reader has to be created with {@link #getBurstSize()} images. Frames
+ * go through a {@link BurstRound}, the ones that are not kept are closed as
+ * soon as they lose, so no more than {@code keepCount + 1} images are held. A
+ * burst that is not complete after {@value #TIMEOUT_MILLIS} ms keeps the best
+ * of the frames that came.
+ * <p>
+ * "Sharpest" is approximated by the JPEG size: at the same quality a blurred
+ * frame compresses better, and the size is known without decoding. It is only
+ * a proxy. Sensor noise in a dark frame also adds bytes, and so does a change
+ * of exposure within the burst, so among frames that differ in light the
+ * noisier one can win. Within a burst of one request in steady light it
+ * tracks the detail of the frame.
+ * <p>
+ * Kept frames are written through {@link CapturePersistence}, so the camera
+ * can be closed as soon as the burst is captured. Their images still belong to
+ * the reader, which has to be given to {@link #closeReaderWhenSaved} instead
+ * of being closed.
+ */
+public class BurstCapture implements ImageReader.OnImageAvailableListener {
+    private static final String TAG = "SecuritySystem";
+    private static final long TIMEOUT_MILLIS = 3000;
+
+    public interface Listener {
+        // called on the handler thread once the frames are handed to the writer
+        void onBurstCaptured();
+
+        // called on the writer thread with the frames that were written
+        void onBurstSaved(List<File> files);
+    }
+
+    private final BurstRound<Image> mRound;
+    private final File mImageFolder;
+    private final String mPrefix;
+    private final boolean mSyncWrites;
+    private final Handler mHandler;
+    private final Listener mListener;
+    private final FrameDeduplicator mDeduplicator;
+    private final CaptureEncryption mEncryption;
+
+    private CaptureLatency.Trace mTrace;
+
+    // guarded by this, the savers finish on the writer thread
+    private int mPendingSaves;
+    private ImageReader mReaderToClose;
+
+    private final Runnable mTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(TAG, "Burst timed out after " + mRound.getReceived() + " frames");
+            finish();
+        }
+    };
+
+    /**
+     * @param prefix       starts the file names, see
+     *                     {@link CaptureStorage#imagePrefix(int)}
+     * @param deduplicator drops or counts frames of a scene already saved, or
+     *                     null
+     * @param encryption   encrypts the frames as they are written, or null
+     */
+    public BurstCapture(int burstSize, int keepCount, File imageFolder, String prefix,
+                        boolean syncWrites, FrameDeduplicator deduplicator,
+                        CaptureEncryption encryption, Handler handler, Listener listener) {
+        mRound = new BurstRound<>(burstSize, keepCount);
+        mImageFolder = imageFolder;
+        mPrefix = prefix;
+        mSyncWrites = syncWrites;
+        mHandler = handler;
+        mListener = listener;
+        mDeduplicator = deduplicator;
+        mEncryption = encryption;
+    }
+
+    public int getBurstSize() {
+        return mRound.getBurstSize();
+    }
+
+    /**
+     * @param trace marked when the first frame arrives and when the burst is
+     *              written, for the next capture
+     */
+    public void setTrace(CaptureLatency.Trace trace) {
+        mTrace = trace;
+    }
+
+    /**
+     * Sends the request once, or as a burst of {@code burstSize} copies.
+     */
+    public void capture(CameraCaptureSession session, CaptureRequest request,
+                        CameraCaptureSession.CaptureCallback callback) throws CameraAccessException {
+        mRound.start();
+        mHandler.postDelayed(mTimeout, TIMEOUT_MILLIS);
+
+        int burstSize = mRound.getBurstSize();
+        if (burstSize == 1) {
+            session.capture(request, callback, mHandler);
+        } else {
+            session.captureBurst(Collections.nCopies(burstSize, request), callback, mHandler);
+        }
+    }
+
+    /**
+     * Closes the reader now, or after the last queued frame of it is written.
+     */
+    public void closeReaderWhenSaved(ImageReader reader) {
+        synchronized (this) {
+            if (mPendingSaves > 0) {
+                mReaderToClose = reader;
+                return;
+            }
+        }
+        reader.close();
+    }
+
+    /**
+     * Drops a burst in progress, before its reader is closed.
+     */
+    public void cancel() {
+        mHandler.removeCallbacks(mTimeout);
+        for (Image image : mRound.cancel()) {
+            image.close();
+        }
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader imageReader) {
+        Image image = imageReader.acquireNextImage();
+        if (image == null) {
+            return;
+        }
+        if (mTrace != null && mRound.isActive()) {
+            mTrace.mark(CaptureLatency.STAGE_IMAGE_AVAILABLE, SystemClock.elapsedRealtimeNanos());
+        }
+
+        // the JPEG size stands in for the sharpness, see the class comment
+        long score = image.getPlanes()[0].getBuffer().remaining();
+        Image dropped = mRound.offer(image, score);
+        if (dropped != null) {
+            dropped.close();
+        }
+
+        if (mRound.isComplete()) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (!mRound.isActive()) {
+            return;
+        }
+        int received = mRound.getReceived();
+        List<Image> kept = mRound.finish();
+        mHandler.removeCallbacks(mTimeout);
+
+        final List<ImageSaver> savers = new ArrayList<>();
+        final AtomicInteger remaining = new AtomicInteger();
+        // the next capture may have its own trace by the time this one is written
+        final CaptureLatency.Trace trace = mTrace;
+        Runnable onSaved = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                if (trace != null) {
+                    trace.mark(CaptureLatency.STAGE_WRITTEN, SystemClock.elapsedRealtimeNanos());
+                }
+                List<File> files = new ArrayList<>();
+                for (ImageSaver saver : savers) {
+                    if (saver.isSaved()) {
+                        files.add(saver.getFile());
+                    }
+                }
+                mListener.onBurstSaved(files);
+            }
+            onSaveDone();
+        };
+        long burst = SystemClock.elapsedRealtimeNanos();
+        for (Image image : kept) {
+            try {
+                ImageSaver saver = new ImageSaver(image,
+                        CaptureStorage.reserveImageFile(mImageFolder, mPrefix), mSyncWrites, onSaved);
+                if (mDeduplicator != null) {
+                    saver.setDeduplicator(mDeduplicator, burst);
+                }
+                saver.setEncryption(mEncryption);
+                savers.add(saver);
+            } catch (IOException e) {
+                e.printStackTrace();
+                image.close();
+            }
+        }
+        Log.i(TAG, "Burst of " + received + " frames, keeping " + savers.size());
+
+        remaining.set(savers.size());
+        synchronized (this) {
+            mPendingSaves += savers.size();
+        }
+        WriteBehindQueue queue = CapturePersistence.queue();
+        for (ImageSaver saver : savers) {
+            if (!queue.submit(saver)) {
+                Log.e(TAG, "Writer queue full, dropped " + saver.getFile());
+            }
+        }
+        if (savers.isEmpty()) {
+            mListener.onBurstSaved(new ArrayList<File>());
+        }
+        mListener.onBurstCaptured();
+    }
+
+    private void onSaveDone() {
+        ImageReader reader = null;
+        synchronized (this) {
+            if (--mPendingSaves == 0) {
+                reader = mReaderToClose;
+                mReaderToClose = null;
+            }
+        }
+        if (reader != null) {
+            reader.close();
+        }
+    }
+}
@@ -4,26 +4,21 @@ import android.Manifest;
 import android.app.Activity;
 import android.app.KeyguardManager;
 import android.content.Context;
-import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.ImageFormat;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
-import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.TotalCaptureResult;
-import android.hardware.camera2.params.StreamConfigurationMap;
-import android.media.Image;
 import android.media.ImageReader;
-import android.net.Uri;
 import android.os.Bundle;
-import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
-import android.util.Size;
 import android.view.Surface;
 import android.view.View;
 
@@ -31,20 +26,21 @@ import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 public class CameraActivity extends Activity {
+    // elapsed realtime nanos of the sensor event that started the activity
+    public static final String EXTRA_TRIGGER_NANOS = "ho.palomakoba.securitysystem.TRIGGER_NANOS";
+    // accelerometer values of that event
+    public static final String EXTRA_TRIGGER_VALUES = "ho.palomakoba.securitysystem.TRIGGER_VALUES";
+    // CaptureIndex reason of the trigger, a pickup if missing
+    public static final String EXTRA_TRIGGER_REASON = "ho.palomakoba.securitysystem.TRIGGER_REASON";
+    // the CaptureScheduler job the activity runs, finished when the camera is closed
+    public static final String EXTRA_JOB_ID = "ho.palomakoba.securitysystem.JOB_ID";
+
     private static final String TAG = "SecuritySystem";
     private static final int REQUEST_CAMERA_PERMISSION_RESULT = 0;
     private static final int REQUEST_WRITE_EXTERNAL_STORAGE_PERMISSION_RESULT = 1;
@@ -53,26 +49,38 @@ public class CameraActivity extends Activity {
 
     private CameraDevice mCameraDevice;
 
-    private  File imageFile;
-
     private String mCameraId;
     private final Semaphore mCameraOpenCloseLock = new Semaphore(1);
 
-    private String mImageFileName;
     private File mImageFolder;
-
-    private final ImageReader.OnImageAvailableListener mOnImageAvailableListener = new ImageReader.OnImageAvailableListener() {
+    private long mJobId;
+    private long mTriggerNanos;
+    private float[] mTriggerValues;
+    private int mTriggerReason;
+    private CaptureLatency.Trace mTrace;
+    private int mCameraFacingOpen = CaptureIndex.CAMERA_UNKNOWN;
+
+    private int mBurstSize;
+    private int mBurstKeepCount;
+    private boolean mSyncWrites;
+    private int mCameraFacing;
+    private CapturePolicy mCapturePolicy;
+    private CapturePolicy.Choice mCaptureChoice;
+    private BurstCapture mBurstCapture;
+
+    private final BurstCapture.Listener mBurstListener = new BurstCapture.Listener() {
         @Override
-        public void onImageAvailable(ImageReader imageReader) {
-            mBackgroundHandler.post(new ImageSaver(imageReader.acquireLatestImage()));
-
-            Intent mediaScanIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
-
-            Uri uri = Uri.fromFile(imageFile);
-            mediaScanIntent.setData(uri);
-            sendBroadcast(mediaScanIntent);
+        public void onBurstCaptured() {
+            // the frames are written behind, the camera does not wait for them
+            runOnUiThread(CameraActivity.this::closeCamera);
+        }
 
-            closeCamera();
+        @Override
+        public void onBurstSaved(List<File> files) {
+            for (File file : files) {
+                CaptureStorage.registerCapture(getApplicationContext(), file, mCameraFacingOpen,
+                        mTriggerReason, mTriggerNanos, mTriggerValues);
+            }
         }
     };
     private ImageReader mImageReader;
@@ -84,6 +92,7 @@ public class CameraActivity extends Activity {
         @Override
         public void onOpened(@NonNull CameraDevice cameraDevice) {
             mCameraDevice = cameraDevice;
+            mTrace.mark(CaptureLatency.STAGE_OPENED, SystemClock.elapsedRealtimeNanos());
             Log.i(TAG, "Camera opened");
             mCameraOpenCloseLock.release();
             createCameraCaptureSession();
@@ -95,6 +104,7 @@ public class CameraActivity extends Activity {
             mCameraOpenCloseLock.release();
             cameraDevice.close();
             mCameraDevice = null;
+            finishJob();
         }
 
         @Override
@@ -102,6 +112,7 @@ public class CameraActivity extends Activity {
             mCameraOpenCloseLock.release();
             cameraDevice.close();
             mCameraDevice = null;
+            finishJob();
         }
     };
 
@@ -114,12 +125,14 @@ public class CameraActivity extends Activity {
                 @Override
                 public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
                     mCameraCaptureSession = cameraCaptureSession;
+                    mTrace.mark(CaptureLatency.STAGE_CONFIGURED, SystemClock.elapsedRealtimeNanos());
                     createCameraCaptureRequest();
                 }
 
                 @Override
                 public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
-
+                    Log.e(TAG, "Can't configure the camera");
+                    runOnUiThread(CameraActivity.this::closeCamera);
                 }
             }, null);
         } catch (CameraAccessException e) {
@@ -128,6 +141,12 @@ public class CameraActivity extends Activity {
     }
 
     private void createCameraCaptureRequest() {
+        // timed out or the service went away while the camera opened
+        if (!CaptureScheduler.get().startCapture(mJobId)) {
+            Log.i(TAG, "Capture cancelled");
+            runOnUiThread(this::closeCamera);
+            return;
+        }
         try {
             CaptureRequest.Builder captureRequestBuilder = mCameraDevice.createCaptureRequest(
                     CameraDevice.TEMPLATE_STILL_CAPTURE
@@ -139,18 +158,32 @@ public class CameraActivity extends Activity {
 
 
             captureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, sensorOrientation);
-
-            mCameraCaptureSession.capture(captureRequestBuilder.build(),
+            captureRequestBuilder.set(CaptureRequest.JPEG_QUALITY,
+                    (byte) mCaptureChoice.getJpegQuality());
+
+            Handler handler = mBackgroundHandler != null ? mBackgroundHandler
+                    : new Handler(Looper.getMainLooper());
+            mBurstCapture = new BurstCapture(mBurstSize, mBurstKeepCount, mImageFolder,
+                    CaptureStorage.imagePrefix(mCameraFacingOpen), mSyncWrites,
+                    FrameDeduplicator.get(this), CaptureEncryption.get(this), handler,
+                    mBurstListener);
+            mBurstCapture.setTrace(mTrace);
+            mImageReader.setOnImageAvailableListener(mBurstCapture, handler);
+
+            mBurstCapture.capture(mCameraCaptureSession, captureRequestBuilder.build(),
                     new CameraCaptureSession.CaptureCallback() {
+                        private boolean mStarted;
+
                         @Override
                         public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, long timestamp, long frameNumber) {
                             super.onCaptureStarted(session, request, timestamp, frameNumber);
-                            try {
-                                createImageFileName();
-                                Log.i(TAG, "File created");
-                            } catch (IOException e) {
-                                e.printStackTrace();
+                            mTrace.mark(CaptureLatency.STAGE_CAPTURE_STARTED,
+                                    SystemClock.elapsedRealtimeNanos());
+                            if (mTriggerNanos > 0 && !mStarted) {
+                                Log.i(TAG, "Trigger to shutter (cold): " + TimeUnit.NANOSECONDS
+                                        .toMillis(SystemClock.elapsedRealtimeNanos() - mTriggerNanos) + " ms");
                             }
+                            mStarted = true;
                         }
 
                         @Override
@@ -158,8 +191,7 @@ public class CameraActivity extends Activity {
                             super.onCaptureCompleted(session, request, result);
                             Log.i(TAG, "Picture captured");
                         }
-                    }
-                    , mBackgroundHandler);
+                    });
 
         } catch (CameraAccessException e) {
             e.printStackTrace();
@@ -177,16 +209,12 @@ public class CameraActivity extends Activity {
     }
 
     private void stopBackgroundThread() {
+        // only camera callbacks run there, the writes are in CapturePersistence
         mBackgroundHandlerThread.quitSafely();
-        try {
-            mBackgroundHandlerThread.join();
-            mBackgroundHandlerThread = null;
-            mBackgroundHandler = null;
-            Log.i(TAG, "stop bg thread");
-            new Handler().postDelayed(this::finish, 2000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        mBackgroundHandlerThread = null;
+        mBackgroundHandler = null;
+        Log.i(TAG, "stop bg thread");
+        new Handler().postDelayed(this::finish, 2000);
     }
 
     @Override
@@ -201,6 +229,20 @@ public class CameraActivity extends Activity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        mJobId = getIntent().getLongExtra(EXTRA_JOB_ID, 0);
+        mTriggerNanos = getIntent().getLongExtra(EXTRA_TRIGGER_NANOS, 0);
+        mTriggerValues = getIntent().getFloatArrayExtra(EXTRA_TRIGGER_VALUES);
+        mTriggerReason = getIntent().getIntExtra(EXTRA_TRIGGER_REASON, CaptureIndex.REASON_PICKUP);
+        mTrace = CaptureLatency.get().trace(CaptureLatency.PATH_COLD, mTriggerNanos);
+        mTrace.mark(CaptureLatency.STAGE_ACTIVITY_START, SystemClock.elapsedRealtimeNanos());
+
+        SecurityPreferences preferences = new SecurityPreferences(this);
+        mBurstSize = preferences.getBurstSize();
+        mBurstKeepCount = preferences.getBurstKeepCount();
+        mSyncWrites = preferences.isSyncWritesEnabled();
+        mCameraFacing = preferences.getCameraFacing();
+        mCapturePolicy = preferences.getCapturePolicy();
+
         createImageFolder();
 
         // must be before setupCamera();
@@ -223,6 +265,13 @@ public class CameraActivity extends Activity {
 
     }
 
+    @Override
+    protected void onDestroy() {
+        // nothing if the camera was closed
+        finishJob();
+        super.onDestroy();
+    }
+
     @Override
     protected void onPause() {
 
@@ -265,61 +314,28 @@ public class CameraActivity extends Activity {
         }
     }
 
-    private static Size chooseOptimalSize(Size[] choices) {
-        List<Size> bigEnough = new ArrayList<>();
-        for (Size option : choices) {
-            if (option.getHeight() == option.getWidth() * 768 / 1080 &&
-                    option.getWidth() >= 1080 && option.getHeight() >= 768) {
-                bigEnough.add(option);
-            }
-        }
-        if (bigEnough.size() > 0) {
-            return fixOrientation(Collections.min(bigEnough, new CompareSizeByArea()));
-        } else {
-            return fixOrientation(choices[0]);
-        }
-    }
-
-    private static Size fixOrientation(Size choice) {
-        if (choice.getWidth() > choice.getHeight()) {
-            return new Size(choice.getHeight(), choice.getWidth());
-        }
-        return choice;
-    }
-
     private void setupCamera() {
-        CameraManager cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
-        try {
-            //for (String cameraId : cameraManager.getCameraIdList()) {
-            String cameraId = "1";
-            CameraCharacteristics cameraCharacteristics
-                    = cameraManager.getCameraCharacteristics(cameraId);
-
-            sensorOrientation = cameraCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-
-            StreamConfigurationMap map =
-                    cameraCharacteristics
-                            .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-
-            Size mImageSize = chooseOptimalSize(map.getOutputSizes(ImageFormat.JPEG)
-            );
+        // characteristics come from the cache, no camera service calls here
+        CameraInfo camera = CameraRegistry.get(this).find(mCameraFacing);
+        if (camera == null) {
+            Log.e(TAG, "No camera found");
+            finishJob();
+            return;
+        }
 
-            //int orientation = getResources().getConfiguration().orientation;
+        sensorOrientation = camera.getSensorOrientation();
+        mCameraFacingOpen = camera.getFacing();
 
-            int width = mImageSize.getWidth();
-            int height = mImageSize.getHeight();
+        mCaptureChoice = mCapturePolicy.choose(camera);
+        Log.i(TAG, "Capturing " + mCaptureChoice);
 
-            mImageReader = ImageReader.newInstance(width,
-                    height, ImageFormat.JPEG, 1);
+        int width = mCaptureChoice.getSize().getWidth();
+        int height = mCaptureChoice.getSize().getHeight();
 
-            mImageReader.setOnImageAvailableListener(mOnImageAvailableListener,
-                    mBackgroundHandler);
-            mCameraId = cameraId;
-            connectCamera();
-            //}
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        }
+        mImageReader = ImageReader.newInstance(width,
+                height, ImageFormat.JPEG, mBurstSize);
+        mCameraId = camera.getId();
+        connectCamera();
     }
 
     private void connectCamera() {
@@ -338,9 +354,12 @@ public class CameraActivity extends Activity {
                 requestPermissions(new String[]{Manifest.permission.CAMERA},
                         REQUEST_CAMERA_PERMISSION_RESULT);
             }
-        } catch (CameraAccessException e) {
+        } catch (CameraAccessException | IllegalArgumentException e) {
             Log.e(TAG, "Erro ao abrir a camera");
             e.printStackTrace();
+            // the camera may be gone, read them again next time
+            CameraRegistry.get(this).invalidate();
+            finishJob();
         } catch (InterruptedException e) {
             Log.e(TAG, "Interrupted while trying to lock camera opening.");
         }
@@ -356,7 +375,11 @@ public class CameraActivity extends Activity {
             mCameraCaptureSession = null;
         }
         if (null != mImageReader) {
-            mImageReader.close();
+            if (null != mBurstCapture) {
+                mBurstCapture.closeReaderWhenSaved(mImageReader);
+            } else {
+                mImageReader.close();
+            }
             mImageReader = null;
         }
         try {
@@ -367,25 +390,20 @@ public class CameraActivity extends Activity {
             mCameraOpenCloseLock.release();
         }
         Log.i(TAG, "Camera closed");
+        finishJob();
         new Handler().postDelayed(this::finish, 1500);
     }
 
-    private File createImageFileName() throws IOException {
-        String timestamp = new SimpleDateFormat("ddMMyyyy_HHmmss", Locale.US)
-                .format(new Date());
-        String prepend = "front_" + timestamp + "_";
-         imageFile = File.createTempFile(prepend, ".jpg", mImageFolder);
-        mImageFileName = imageFile.getAbsolutePath();
-        return imageFile;
+    // the next capture can open the camera
+    private void finishJob() {
+        CaptureScheduler.get().finish(mJobId, SystemClock.elapsedRealtimeNanos());
     }
 
     private void createImageFolder() {
         if (!hasWritePermission()) {
             return;
         }
-        File imageFile = Environment
-                .getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
-        mImageFolder = new File(imageFile, "security");
+        mImageFolder = CaptureStorage.getCaptureFolder(this);
         if (!mImageFolder.exists()) {
             boolean mkdirs = mImageFolder.mkdirs();
             if (mkdirs) {
@@ -407,47 +425,4 @@ public class CameraActivity extends Activity {
         }
         return false;
     }
-
-    private static class CompareSizeByArea implements Comparator<Size> {
-
-        @Override
-        public int compare(Size lhs, Size rhs) {
-            return Long.signum((long) lhs.getWidth() * lhs.getHeight() /
-                    (long) rhs.getWidth() * rhs.getHeight());
-        }
-    }
-
-    private class ImageSaver implements Runnable {
-
-        private final Image mImage;
-
-        public ImageSaver(Image mImage) {
-            this.mImage = mImage;
-        }
-
-        @Override
-        public void run() {
-            ByteBuffer byteBuffer = mImage.getPlanes()[0].getBuffer();
-            byte[] bytes = new byte[byteBuffer.remaining()];
-            byteBuffer.get(bytes);
-
-            FileOutputStream fileOutputStream = null;
-            try {
-
-                fileOutputStream = new FileOutputStream(mImageFileName);
-                fileOutputStream.write(bytes);
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                mImage.close();
-                if (fileOutputStream != null) {
-                    try {
-                        fileOutputStream.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package ho.palomakoba.securitysystem;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The process wide {@link CameraInfoCache}, filled from the
+ * {@link CameraManager} and told about new cameras by its availability
+ * callback.
+ */
+public final class CameraRegistry {
+    private static CameraInfoCache sCache;
+
+    private CameraRegistry() {
+    }
+
+    public static synchronized CameraInfoCache get(Context context) {
+        if (sCache == null) {
+            CameraManager cameraManager = (CameraManager) context.getApplicationContext()
+                    .getSystemService(Context.CAMERA_SERVICE);
+            final CameraInfoCache cache = new CameraInfoCache(new CameraManagerProvider(cameraManager));
+            cameraManager.registerAvailabilityCallback(new CameraManager.AvailabilityCallback() {
+                @Override
+                public void onCameraAvailable(@NonNull String cameraId) {
+                    cache.onCameraAvailable(cameraId);
+                }
+            }, new Handler(Looper.getMainLooper()));
+            sCache = cache;
+        }
+        return sCache;
+    }
+
+    private static class CameraManagerProvider implements CameraInfoCache.Provider {
+        private final CameraManager mCameraManager;
+
+        CameraManagerProvider(CameraManager cameraManager) {
+            mCameraManager = cameraManager;
+        }
+
+        @Override
+        public String[] getCameraIds() throws CameraAccessException {
+            return mCameraManager.getCameraIdList();
+        }
+
+        @Override
+        public CameraInfo getCameraInfo(String id) throws CameraAccessException {
+            CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(id);
+            StreamConfigurationMap map =
+                    characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+            Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            int[] capabilities =
+                    characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+
+            Size[] jpegSizes = map != null ? map.getOutputSizes(ImageFormat.JPEG) : null;
+            long[] jpegStallNanos = new long[jpegSizes != null ? jpegSizes.length : 0];
+            for (int i = 0; i < jpegStallNanos.length; i++) {
+                jpegStallNanos[i] = map.getOutputStallDuration(ImageFormat.JPEG, jpegSizes[i]);
+            }
+
+            return new CameraInfo(id,
+                    facing != null ? facing : CameraInfo.FACING_EXTERNAL,
+                    orientation != null ? orientation : 0,
+                    toCaptureSizes(jpegSizes),
+                    jpegStallNanos,
+                    toCaptureSizes(map != null ? map.getOutputSizes(ImageFormat.YUV_420_888) : null),
+                    capabilities != null ? capabilities : new int[0]);
+        }
+
+        @Override
+        public Collection<Set<String>> getConcurrentCameraIds() throws CameraAccessException {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+                return Collections.emptySet();
+            }
+            return mCameraManager.getConcurrentCameraIds();
+        }
+
+        private static CaptureSize[] toCaptureSizes(Size[] sizes) {
+            if (sizes == null) {
+                return new CaptureSize[0];
+            }
+            CaptureSize[] captureSizes = new CaptureSize[sizes.length];
+            for (int i = 0; i < sizes.length; i++) {
+                captureSizes[i] = new CaptureSize(sizes[i].getWidth(), sizes[i].getHeight());
+            }
+            return captureSizes;
+        }
+    }
+}
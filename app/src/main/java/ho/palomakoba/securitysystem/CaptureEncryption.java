@@ -0,0 +1,139 @@
+package ho.palomakoba.securitysystem;
+
+import android.content.Context;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * Encrypts captures at rest with {@link EncryptedCaptureWriter}, see
+ * {@link SecurityPreferences#isCaptureEncryptionEnabled()}.
+ * <p>
+ * The master key lives in the Android Keystore and never leaves it, it only
+ * wraps the data key of each file, the segments are encrypted in the process.
+ * It needs no user authentication: captures are written and their thumbnails
+ * made while the device is locked.
+ */
+public class CaptureEncryption {
+    private static final String TAG = "SecuritySystem";
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String KEY_ALIAS = "capture_key";
+
+    private static CaptureEncryption sInstance;
+
+    private final SecretKey mKey;
+
+    private CaptureEncryption(SecretKey key) {
+        mKey = key;
+    }
+
+    /**
+     * @return the process wide encryption, or null if it is turned off or the
+     * key can't be loaded, then captures are written in the clear
+     */
+    public static synchronized CaptureEncryption get(Context context) {
+        if (!new SecurityPreferences(context).isCaptureEncryptionEnabled()) {
+            return null;
+        }
+        return getInstance(true);
+    }
+
+    /**
+     * @return the encryption of the captures already written, also once it is
+     * turned off again, or null if there is no key
+     */
+    public static synchronized CaptureEncryption getExisting() {
+        return getInstance(false);
+    }
+
+    /**
+     * @return whether the file was written by {@link #write}
+     */
+    public static boolean isEncrypted(File file) {
+        return EncryptedCaptureReader.isEncrypted(file);
+    }
+
+    /**
+     * @return where the encrypted picture reserved as {@code file} goes
+     */
+    public static File target(File file) {
+        return new File(file.getParentFile(), file.getName() + EncryptedCaptureWriter.EXTENSION);
+    }
+
+    /**
+     * Encrypts {@code jpeg} to {@code target} through a temporary file.
+     */
+    public void write(ByteBuffer jpeg, File target, boolean sync) throws IOException {
+        EncryptedCaptureWriter.write(jpeg, target, mKey,
+                EncryptedCaptureWriter.DEFAULT_SEGMENT_SIZE, sync);
+    }
+
+    /**
+     * Opens an encrypted capture. Reading fails with an {@link IOException}
+     * at the first segment that was tampered with.
+     */
+    public InputStream open(File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            EncryptedCaptureReader reader = new EncryptedCaptureReader(in.getChannel(), mKey);
+            return new FilterInputStream(Channels.newInputStream(reader)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        in.close();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static CaptureEncryption getInstance(boolean create) {
+        if (sInstance == null) {
+            try {
+                SecretKey key = loadKey(create);
+                if (key != null) {
+                    sInstance = new CaptureEncryption(key);
+                }
+            } catch (GeneralSecurityException | IOException e) {
+                Log.e(TAG, "Can't load the capture key", e);
+            }
+        }
+        return sInstance;
+    }
+
+    private static SecretKey loadKey(boolean create) throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        SecretKey key = (SecretKey) keyStore.getKey(KEY_ALIAS, null);
+        if (key != null || !create) {
+            return key;
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        Log.i(TAG, "Created the capture key");
+        return generator.generateKey();
+    }
+}
@@ -0,0 +1,299 @@
+package ho.palomakoba.securitysystem;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes the thumbnails of new captures and recompresses the originals, while
+ * the device is charging and idle, so the capture path never decodes a JPEG.
+ * <p>
+ * A thumbnail is decoded with {@code inSampleSize}, the full resolution bitmap
+ * is never allocated for it. The captures are done in batches, the position
+ * is saved after each one and a stopped pass resumes from it on the next run.
+ * <p>
+ * Encrypted captures are decoded from the decrypting stream and get an
+ * encrypted thumbnail, they are not recompressed.
+ */
+public class CaptureProcessingWorker extends Worker {
+    private static final String TAG = "SecuritySystem";
+    private static final String WORK_NAME = "capture_processing";
+    private static final String PROGRESS_NAME = "processing.progress";
+    private static final long PERIOD_HOURS = 6;
+    private static final int BATCH = 16;
+
+    static final String KEY_PROCESSED = "processed";
+
+    public CaptureProcessingWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .build();
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                CaptureProcessingWorker.class, PERIOD_HOURS, TimeUnit.HOURS)
+                .setConstraints(constraints)
+                .build();
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(WORK_NAME,
+                ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        CaptureIndex index = CaptureStorage.getIndex(context);
+        if (index == null) {
+            return Result.retry();
+        }
+        File folder = CaptureStorage.getImageFolder();
+        File thumbnails = CaptureStorage.getThumbnailFolder(context);
+        if (!thumbnails.isDirectory() && !thumbnails.mkdirs()) {
+            Log.e(TAG, "Can't create " + thumbnails);
+            return Result.failure();
+        }
+        int recompressQuality = new SecurityPreferences(context).getRecompressQuality();
+        ProcessingProgress progress = new ProcessingProgress(
+                new File(context.getFilesDir(), PROGRESS_NAME));
+
+        long start = System.nanoTime();
+        int done = 0;
+        while (!isStopped()) {
+            List<CaptureIndex.Entry> batch = progress.next(index, BATCH);
+            if (batch.isEmpty()) {
+                deleteOrphanThumbnails(index, thumbnails);
+                break;
+            }
+            for (CaptureIndex.Entry entry : batch) {
+                if (isStopped()) {
+                    break;
+                }
+                try {
+                    process(context, entry, folder, thumbnails, recompressQuality);
+                } catch (IOException | RuntimeException e) {
+                    // a capture that can't be decoded must not stall the pass
+                    Log.e(TAG, "Can't process " + entry.getFileName(), e);
+                }
+                try {
+                    progress.advance(entry);
+                } catch (IOException e) {
+                    Log.e(TAG, "Can't save the processing progress", e);
+                    return Result.retry();
+                }
+                done++;
+            }
+            setProgressAsync(new Data.Builder()
+                    .putLong(KEY_PROCESSED, progress.getProcessedCount())
+                    .build());
+        }
+        Log.i(TAG, "Processed " + done + " captures in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms"
+                + (isStopped() ? ", stopped" : ""));
+        return Result.success();
+    }
+
+    private static void process(Context context, CaptureIndex.Entry entry,
+                                File folder, File thumbnails, int recompressQuality)
+            throws IOException {
+        File file = new File(folder, entry.getFileName());
+        if (!file.exists()) {
+            // evicted since
+            return;
+        }
+        CaptureEncryption encryption = null;
+        if (CaptureEncryption.isEncrypted(file)) {
+            encryption = CaptureEncryption.getExisting();
+            if (encryption == null) {
+                throw new IOException("No key for " + file);
+            }
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeBounds(file, encryption, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            // not a picture
+            return;
+        }
+        int width = options.outWidth;
+        int height = options.outHeight;
+
+        File thumbnail = new File(thumbnails, entry.getFileName());
+        if (!thumbnail.exists()) {
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = ThumbnailPolicy.sampleSize(width, height,
+                    ThumbnailPolicy.THUMBNAIL_SHORT_SIDE);
+            if (encryption != null) {
+                writeEncryptedJpeg(decode(file, encryption, options), thumbnail,
+                        ThumbnailPolicy.THUMBNAIL_QUALITY, encryption);
+            } else {
+                writeJpeg(decode(file, options), thumbnail, ThumbnailPolicy.THUMBNAIL_QUALITY,
+                        null);
+            }
+        }
+
+        // an encrypted capture would lose its EXIF, it is kept as taken
+        if (encryption == null && ThumbnailPolicy.shouldRecompress(file.length(),
+                new CaptureSize(width, height), recompressQuality)) {
+            recompress(context, entry, file, recompressQuality);
+        }
+    }
+
+    private static void recompress(Context context, CaptureIndex.Entry entry, File file,
+                                   int quality) throws IOException {
+        StorageRetention retention = CaptureStorage.getRetention(context);
+        if (retention == null) {
+            return;
+        }
+        long before = file.length();
+        // full size and colour depth, only the JPEG quality changes
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        File temp = AtomicFileWriter.tempFile(file);
+        writeJpeg(decode(file, options), temp, quality, new ExifInterface(file.getPath()));
+
+        if (!retention.replace(entry, temp)) {
+            // evicted while it was being compressed
+            return;
+        }
+        CaptureStorage.scanMedia(context, file);
+        Log.i(TAG, "Recompressed " + file.getName() + " from " + before / 1024 + " KB to "
+                + file.length() / 1024 + " KB");
+    }
+
+    private static Bitmap decode(File file, BitmapFactory.Options options) throws IOException {
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) {
+            throw new IOException("Can't decode " + file);
+        }
+        return bitmap;
+    }
+
+    private static void decodeBounds(File file, CaptureEncryption encryption,
+                                     BitmapFactory.Options options) throws IOException {
+        if (encryption == null) {
+            BitmapFactory.decodeFile(file.getPath(), options);
+            return;
+        }
+        try (InputStream in = encryption.open(file)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+    }
+
+    private static Bitmap decode(File file, CaptureEncryption encryption,
+                                 BitmapFactory.Options options) throws IOException {
+        Bitmap bitmap;
+        try (InputStream in = encryption.open(file)) {
+            bitmap = BitmapFactory.decodeStream(in, null, options);
+            // the decoder swallows read errors, a bad segment it did not
+            // reach or stopped at fails here
+            byte[] buffer = new byte[8192];
+            try {
+                //noinspection StatementWithEmptyBody
+                while (in.read(buffer) >= 0) {
+                }
+            } catch (IOException e) {
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+                throw e;
+            }
+        }
+        if (bitmap == null) {
+            throw new IOException("Can't decode " + file);
+        }
+        return bitmap;
+    }
+
+    // compresses and recycles bitmap, it is small enough to be encrypted from memory
+    private static void writeEncryptedJpeg(Bitmap bitmap, File target, int quality,
+                                           CaptureEncryption encryption) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out)) {
+                throw new IOException("Can't compress " + target);
+            }
+        } finally {
+            bitmap.recycle();
+        }
+        encryption.write(ByteBuffer.wrap(out.toByteArray()), target, false);
+    }
+
+    /**
+     * Compresses and recycles {@code bitmap}. Without {@code exif} the file is
+     * written under a temporary name and renamed to {@code target}, with it
+     * {@code target} is the temporary file and gets its orientation.
+     */
+    private static void writeJpeg(Bitmap bitmap, File target, int quality, ExifInterface exif)
+            throws IOException {
+        File temp = exif == null ? AtomicFileWriter.tempFile(target) : target;
+        boolean written = false;
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out)) {
+                    throw new IOException("Can't compress " + target);
+                }
+            }
+            if (exif == null) {
+                AtomicFileWriter.commit(temp, target);
+            } else {
+                // the bitmap lost the EXIF, keep how the picture is turned
+                String orientation = exif.getAttribute(ExifInterface.TAG_ORIENTATION);
+                if (orientation != null) {
+                    ExifInterface copy = new ExifInterface(temp.getPath());
+                    copy.setAttribute(ExifInterface.TAG_ORIENTATION, orientation);
+                    copy.saveAttributes();
+                }
+            }
+            written = true;
+        } finally {
+            bitmap.recycle();
+            if (!written) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+            }
+        }
+    }
+
+    // thumbnails of evicted captures, the folder is private and small
+    private static void deleteOrphanThumbnails(CaptureIndex index, File thumbnails) {
+        File[] files = thumbnails.listFiles();
+        if (files == null) {
+            return;
+        }
+        Set<String> names = new HashSet<>();
+        for (CaptureIndex.Entry entry : index.query(Long.MIN_VALUE, Long.MAX_VALUE)) {
+            names.add(entry.getFileName());
+        }
+        for (File file : files) {
+            if (!names.contains(file.getName())) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package ho.palomakoba.securitysystem;
+
+import android.content.Context;
+import android.os.Environment;
+import android.os.SystemClock;
+import android.os.UserManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+public class CaptureStorage {
+    private static final String TAG = "SecuritySystem";
+    private static final String FOLDER_NAME = "security";
+    private static final String INDEX_NAME = "captures.idx";
+    private static final String THUMBNAIL_FOLDER_NAME = "thumbnails";
+    private static final String TRACE_FOLDER_NAME = "traces";
+    private static final String LOCKED_FOLDER_NAME = "locked_captures";
+    private static final String LOCKED_INDEX_NAME = "locked_captures.idx";
+    private static final int RETENTION_BATCH = 8;
+
+    private static CaptureIndex sIndex;
+    private static CaptureIndex sLockedIndex;
+    private static StorageRetention sRetention;
+    private static MediaScanBatcher sMediaScan;
+
+    private CaptureStorage() {
+    }
+
+    public static File getImageFolder() {
+        File picturesFolder = Environment
+                .getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
+        return new File(picturesFolder, FOLDER_NAME);
+    }
+
+    /**
+     * Where new pictures go. Until the user unlocks for the first time after
+     * a boot the shared storage is not there, they are kept in device
+     * protected storage and moved by {@link #adoptLockedCaptures(Context)}.
+     */
+    public static File getCaptureFolder(Context context) {
+        return isUserUnlocked(context) ? getImageFolder() : getLockedFolder(context);
+    }
+
+    public static boolean isUserUnlocked(Context context) {
+        UserManager userManager = context.getSystemService(UserManager.class);
+        return userManager == null || userManager.isUserUnlocked();
+    }
+
+    private static File getLockedFolder(Context context) {
+        return new File(context.createDeviceProtectedStorageContext().getFilesDir(),
+                LOCKED_FOLDER_NAME);
+    }
+
+    /**
+     * @return the private folder of the thumbnails, named like their captures
+     */
+    public static File getThumbnailFolder(Context context) {
+        return new File(context.getFilesDir(), THUMBNAIL_FOLDER_NAME);
+    }
+
+    /**
+     * @return the folder of the sensor traces, where adb can pull them from
+     * without a permission, or null if the storage is not available
+     */
+    public static File getTraceFolder(Context context) {
+        return context.getExternalFilesDir(TRACE_FOLDER_NAME);
+    }
+
+    /**
+     * @return the name prefix of the captures of a camera facing that way,
+     * read back by the index when it is rebuilt
+     */
+    public static String imagePrefix(int facing) {
+        switch (facing) {
+            case CameraInfo.FACING_FRONT:
+                return "front";
+            case CameraInfo.FACING_BACK:
+                return "back";
+            default:
+                return "external";
+        }
+    }
+
+    /**
+     * Picks a unique name for a new image. Only its hidden temporary file is
+     * created, see {@link AtomicFileWriter#tempFile(File)}, the image itself
+     * appears once it is completely written.
+     */
+    public static File reserveImageFile(File folder, String prefix) throws IOException {
+        String timestamp = new SimpleDateFormat("ddMMyyyy_HHmmss", Locale.US)
+                .format(new Date());
+        String prepend = prefix + "_" + timestamp + "_";
+        File temp = File.createTempFile("." + prepend, ".jpg.tmp", folder);
+        String name = temp.getName();
+        return new File(folder, name.substring(1, name.length() - ".tmp".length()));
+    }
+
+    /**
+     * @return the capture index, opened on first use, or null if it can't be
+     */
+    public static synchronized CaptureIndex getIndex(Context context) {
+        if (sIndex == null) {
+            try {
+                sIndex = new CaptureIndex(new File(context.getFilesDir(), INDEX_NAME),
+                        getImageFolder());
+                Log.i(TAG, "Capture index: " + sIndex.size() + " captures"
+                        + (sIndex.wasRebuilt() ? ", rebuilt" : ""));
+            } catch (IOException e) {
+                Log.e(TAG, "Can't open the capture index", e);
+            }
+        }
+        return sIndex;
+    }
+
+    private static synchronized CaptureIndex getLockedIndex(Context context) {
+        if (sLockedIndex == null) {
+            Context storage = context.createDeviceProtectedStorageContext();
+            try {
+                sLockedIndex = new CaptureIndex(new File(storage.getFilesDir(), LOCKED_INDEX_NAME),
+                        getLockedFolder(context));
+            } catch (IOException e) {
+                Log.e(TAG, "Can't open the locked capture index", e);
+            }
+        }
+        return sLockedIndex;
+    }
+
+    /**
+     * Records a written picture in the index and queues it for the media
+     * scanner. Called on the writer thread.
+     *
+     * @param triggerNanos elapsed realtime of the trigger, 0 if unknown
+     * @param values       the accelerometer at the trigger, or null
+     */
+    public static void registerCapture(Context context, File file, int camera, int reason,
+                                       long triggerNanos, float[] values) {
+        long timeMillis = System.currentTimeMillis();
+        if (triggerNanos > 0) {
+            timeMillis -= (SystemClock.elapsedRealtimeNanos() - triggerNanos) / 1_000_000;
+        }
+        if (!getImageFolder().equals(file.getParentFile())) {
+            // taken before the first unlock, the index and the scanner wait for it
+            registerLockedCapture(context, new CaptureIndex.Entry(timeMillis, camera, reason,
+                    values, file.length(), file.getName()));
+            return;
+        }
+        CaptureIndex index = getIndex(context);
+        if (index != null) {
+            try {
+                index.append(new CaptureIndex.Entry(timeMillis, camera, reason, values,
+                        file.length(), file.getName()));
+            } catch (IOException e) {
+                Log.e(TAG, "Can't index " + file, e);
+            }
+        }
+        evictBatch(context);
+        scanMedia(context, file);
+    }
+
+    private static void registerLockedCapture(Context context, CaptureIndex.Entry entry) {
+        CaptureIndex locked = getLockedIndex(context);
+        if (locked == null) {
+            return;
+        }
+        try {
+            locked.append(entry);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't index " + entry.getFileName(), e);
+        }
+    }
+
+    /**
+     * Queues the move of the pictures taken before the first unlock to the
+     * pictures folder, with what was known about their triggers.
+     */
+    public static void adoptLockedCaptures(final Context context) {
+        CapturePersistence.queue().submit(new WriteBehindQueue.Task() {
+            @Override
+            public void write() {
+                moveLockedCaptures(context);
+            }
+
+            @Override
+            public void discard() {
+                // they stay where they are until the next start
+            }
+        });
+    }
+
+    private static void moveLockedCaptures(Context context) {
+        CaptureIndex locked = getLockedIndex(context);
+        CaptureIndex index = getIndex(context);
+        if (locked == null || index == null || locked.size() == 0) {
+            return;
+        }
+        File folder = getImageFolder();
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            Log.e(TAG, "Can't create " + folder);
+            return;
+        }
+        File lockedFolder = getLockedFolder(context);
+        int moved = 0;
+        for (CaptureIndex.Entry entry : locked.query(Long.MIN_VALUE, Long.MAX_VALUE)) {
+            File source = new File(lockedFolder, entry.getFileName());
+            File target = new File(folder, entry.getFileName());
+            try {
+                // another file system, it can't be renamed
+                try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+                    AtomicFileWriter.write(in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()),
+                            target, true);
+                }
+                index.append(new CaptureIndex.Entry(entry.getTimeMillis(), entry.getCamera(),
+                        entry.getReason(), entry.getValues(), target.length(), target.getName()));
+                scanMedia(context, target);
+                //noinspection ResultOfMethodCallIgnored
+                source.delete();
+                locked.remove(entry);
+                moved++;
+            } catch (IOException e) {
+                Log.e(TAG, "Can't move " + source, e);
+            }
+        }
+        Log.i(TAG, "Moved " + moved + " captures taken before the unlock");
+        evictBatch(context);
+    }
+
+    /**
+     * Queues a new, rewritten or deleted picture for the media scanner,
+     * encrypted ones are left out.
+     */
+    public static void scanMedia(Context context, File file) {
+        if (CaptureEncryption.isEncrypted(file)) {
+            // the gallery can't open it
+            return;
+        }
+        synchronized (CaptureStorage.class) {
+            if (sMediaScan == null) {
+                sMediaScan = new MediaScanBatcher(context);
+            }
+        }
+        sMediaScan.add(file);
+    }
+
+    public static synchronized StorageRetention getRetention(Context context) {
+        if (sRetention == null) {
+            CaptureIndex index = getIndex(context);
+            if (index != null) {
+                sRetention = new SecurityPreferences(context)
+                        .getStorageRetention(index, getImageFolder());
+                final Context appContext = context.getApplicationContext();
+                sRetention.setListener(new StorageRetention.Listener() {
+                    @Override
+                    public void onEvicted(File file) {
+                        // the scanner drops a path that is gone from the media store
+                        scanMedia(appContext, file);
+                    }
+
+                    @Override
+                    public void onDeleteFailed(File file) {
+                        Log.e(TAG, "Can't delete " + file + ", left out of the index");
+                    }
+                });
+            }
+        }
+        return sRetention;
+    }
+
+    /**
+     * Queues the eviction of captures over the retention limits.
+     */
+    public static void trimStorage(final Context context) {
+        CapturePersistence.queue().submit(new WriteBehindQueue.Task() {
+            @Override
+            public void write() {
+                evictBatch(context);
+            }
+
+            @Override
+            public void discard() {
+                // the next capture evicts
+            }
+        });
+    }
+
+    // a few files at a time, the rest waits until the writer is idle
+    private static void evictBatch(Context context) {
+        StorageRetention retention = getRetention(context);
+        if (retention == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            int evicted = retention.evict(now, RETENTION_BATCH);
+            if (evicted > 0) {
+                Log.i(TAG, "Evicted " + evicted + " captures, "
+                        + getIndex(context).getTotalBytes() / 1024 + " KB left");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Can't evict captures", e);
+            return;
+        }
+        if (retention.isOverLimit(now) && CapturePersistence.queue().getQueueDepth() == 0) {
+            trimStorage(context);
+        }
+    }
+}
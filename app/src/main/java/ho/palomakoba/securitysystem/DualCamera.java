@@ -0,0 +1,457 @@
+package ho.palomakoba.securitysystem;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Captures a trigger with the front and the back camera, see
+ * {@link SecurityPreferences#isDualCameraEnabled()}.
+ * <p>
+ * The cameras are chosen by {@link DualCameraPlan}: opened together when the
+ * device can stream them concurrently, otherwise the second one is opened as
+ * soon as the first has its burst. Each camera has its own
+ * {@link ImageReader} and {@link BurstCapture}, their frames are written by
+ * the writer threads of {@link CapturePersistence} side by side. A camera
+ * that fails is left out and the job ends with the other one, the
+ * {@link CaptureGroup} of the trigger reports the latency to the last file.
+ * <p>
+ * Nothing stays open between triggers. All the camera work happens on the
+ * camera thread.
+ */
+public class DualCamera {
+    private static final String TAG = "SecuritySystem";
+
+    public interface Callback {
+        // no camera could be used, the job has to go the cold way
+        void onCaptureFailed(CaptureScheduler.Job job);
+    }
+
+    private final Context mContext;
+    private final int mBurstSize;
+    private final int mBurstKeepCount;
+    private final boolean mSyncWrites;
+    private final int mCameraFacing;
+    private final CapturePolicy mCapturePolicy;
+    private final Callback mCallback;
+
+    private HandlerThread mCameraThread;
+    private Handler mCameraHandler;
+
+    // the capture in flight, on the camera thread
+    private Capture mCapture;
+    private long mDegraded;
+    private int mLastMode = -1;
+
+    public DualCamera(Context context, SecurityPreferences preferences, Callback callback) {
+        mContext = context;
+        mBurstSize = preferences.getBurstSize();
+        mBurstKeepCount = preferences.getBurstKeepCount();
+        mSyncWrites = preferences.isSyncWritesEnabled();
+        mCameraFacing = preferences.getCameraFacing();
+        mCapturePolicy = preferences.getCapturePolicy();
+        mCallback = callback;
+    }
+
+    public void start() {
+        mCameraThread = new HandlerThread("SecuritySystemDualCamera");
+        mCameraThread.start();
+        mCameraHandler = new Handler(mCameraThread.getLooper());
+    }
+
+    public void stop() {
+        mCameraHandler.post(() -> {
+            if (mCapture != null) {
+                mCapture.close();
+            }
+        });
+        // queued writes go on in the writer, nobody waits for them
+        mCameraThread.quitSafely();
+    }
+
+    /**
+     * Runs the job of the {@link CaptureScheduler} on both cameras, it is
+     * finished once every camera is written or failed.
+     *
+     * @return false without the permissions, the caller has to take the
+     * picture another way
+     */
+    public boolean capture(final CaptureScheduler.Job job) {
+        if (ContextCompat.checkSelfPermission(mContext, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED
+                || ContextCompat.checkSelfPermission(mContext, Manifest.permission.WRITE_EXTERNAL_STORAGE)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.i(TAG, "Dual camera needs camera and storage permissions");
+            return false;
+        }
+        mCameraHandler.post(() -> startCapture(job));
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "DualCamera{" + (mLastMode >= 0 ? DualCameraPlan.toString(mLastMode) : "unused")
+                + ", degraded=" + mDegraded + "}";
+    }
+
+    private void startCapture(CaptureScheduler.Job job) {
+        if (job.isCancelled()) {
+            return;
+        }
+        if (mCapture != null) {
+            // the last job timed out with a camera still open
+            mCapture.close();
+        }
+        File folder = CaptureStorage.getCaptureFolder(mContext);
+        if (!folder.exists() && !folder.mkdirs()) {
+            Log.e(TAG, "Can't create " + folder);
+            mCallback.onCaptureFailed(job);
+            return;
+        }
+        DualCameraPlan plan = DualCameraPlan.choose(CameraRegistry.get(mContext), mCameraFacing);
+        if (plan == null) {
+            Log.e(TAG, "No camera found");
+            mCallback.onCaptureFailed(job);
+            return;
+        }
+        mLastMode = plan.getMode();
+        Log.i(TAG, "Dual capture " + plan);
+        mCapture = new Capture(job, plan, folder);
+        mCapture.start();
+    }
+
+    /**
+     * One job on the cameras of its plan.
+     */
+    private final class Capture {
+        private final CaptureScheduler.Job mJob;
+        private final DualCameraPlan mPlan;
+        private final CaptureGroup mGroup;
+        private final CaptureLatency.Trace mTrace;
+        private final Shot[] mShots;
+        private boolean mCapturing;
+        private boolean mClosed;
+
+        Capture(CaptureScheduler.Job job, DualCameraPlan plan, File folder) {
+            mJob = job;
+            mPlan = plan;
+            List<CameraInfo> cameras = plan.getCameras();
+            mGroup = new CaptureGroup(cameras.size(), job.getTriggerNanos());
+            mTrace = CaptureLatency.get().trace(CaptureLatency.PATH_DUAL, job.getTriggerNanos());
+            mShots = new Shot[cameras.size()];
+            for (int i = 0; i < mShots.length; i++) {
+                mShots[i] = new Shot(this, i, cameras.get(i), folder,
+                        plan.getMode() == DualCameraPlan.MODE_CONCURRENT);
+            }
+        }
+
+        void start() {
+            if (mPlan.getMode() == DualCameraPlan.MODE_CONCURRENT) {
+                for (Shot shot : mShots) {
+                    shot.open();
+                }
+            } else {
+                mShots[0].open();
+            }
+        }
+
+        /**
+         * Called by each camera before its capture request, the first one
+         * ends the merging of triggers into the job.
+         *
+         * @return false if the job was cancelled
+         */
+        boolean startCapture() {
+            if (mCapturing) {
+                return !mJob.isCancelled();
+            }
+            mCapturing = CaptureScheduler.get().startCapture(mJob.getId());
+            return mCapturing;
+        }
+
+        // on the camera thread, the camera has its frames or failed
+        void onShotDone(Shot shot) {
+            int next = shot.mIndex + 1;
+            if (mPlan.getMode() != DualCameraPlan.MODE_CONCURRENT && next < mShots.length
+                    && !mClosed && !mJob.isCancelled()) {
+                mShots[next].open();
+            }
+        }
+
+        // on the writer thread or the camera thread, once per camera
+        void report(Shot shot, boolean saved) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            if (!mGroup.report(shot.mIndex, saved, now)) {
+                return;
+            }
+            if (mGroup.getSavedCount() == 0) {
+                mCameraHandler.post(this::fail);
+                return;
+            }
+            if (mGroup.getSavedCount() == mGroup.getCameraCount()
+                    && mGroup.getCameraCount() > 1) {
+                mTrace.mark(CaptureLatency.STAGE_ALL_WRITTEN, now);
+            }
+            if (mGroup.isDegraded()) {
+                mCameraHandler.post(() -> mDegraded++);
+            }
+            Log.i(TAG, "Trigger to last file (" + DualCameraPlan.toString(mPlan.getMode())
+                    + "): " + TimeUnit.NANOSECONDS.toMillis(mGroup.getLatencyNanos()) + " ms, "
+                    + mGroup);
+            CaptureScheduler.get().finish(mJob.getId(), now);
+            mCameraHandler.post(this::release);
+        }
+
+        // nothing was saved, the cold path gets a go unless the job is over
+        private void fail() {
+            release();
+            if (!mJob.isCancelled() && !mCapturing) {
+                mCallback.onCaptureFailed(mJob);
+            } else {
+                CaptureScheduler.get().finish(mJob.getId(), SystemClock.elapsedRealtimeNanos());
+            }
+        }
+
+        private void release() {
+            if (mCapture == this) {
+                mCapture = null;
+            }
+            close();
+        }
+
+        void close() {
+            mClosed = true;
+            for (Shot shot : mShots) {
+                shot.close();
+            }
+        }
+    }
+
+    /**
+     * One camera of a capture, with its own reader and burst.
+     */
+    private final class Shot {
+        private final Capture mCapture;
+        private final int mIndex;
+        private final CameraInfo mCamera;
+        private final File mFolder;
+        private final boolean mConcurrent;
+
+        private CameraDevice mCameraDevice;
+        private CameraCaptureSession mCaptureSession;
+        private ImageReader mImageReader;
+        private BurstCapture mBurstCapture;
+        private CapturePolicy.Choice mChoice;
+        private CaptureSize mSize;
+        private boolean mOpening;
+        private boolean mDone;
+        private boolean mReported;
+
+        Shot(Capture capture, int index, CameraInfo camera, File folder, boolean concurrent) {
+            mCapture = capture;
+            mIndex = index;
+            mCamera = camera;
+            mFolder = folder;
+            mConcurrent = concurrent;
+        }
+
+        private final BurstCapture.Listener mBurstListener = new BurstCapture.Listener() {
+            @Override
+            public void onBurstCaptured() {
+                // the frames are written behind, the next camera can open
+                close();
+                done();
+            }
+
+            @Override
+            public void onBurstSaved(List<File> files) {
+                CaptureScheduler.Job job = mCapture.mJob;
+                for (File file : files) {
+                    CaptureStorage.registerCapture(mContext, file, mCamera.getFacing(),
+                            job.getReason(), job.getTriggerNanos(), job.getValues());
+                }
+                // nothing written, all duplicates or no frames, is no picture of that side
+                report(!files.isEmpty());
+            }
+        };
+
+        private final CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
+            @Override
+            public void onOpened(@NonNull CameraDevice cameraDevice) {
+                if (!mOpening) {
+                    // closed while opening
+                    cameraDevice.close();
+                    return;
+                }
+                mCameraDevice = cameraDevice;
+                mCapture.mTrace.mark(CaptureLatency.STAGE_OPENED, SystemClock.elapsedRealtimeNanos());
+                createCaptureSession();
+            }
+
+            @Override
+            public void onDisconnected(@NonNull CameraDevice cameraDevice) {
+                cameraDevice.close();
+                fail("disconnected");
+            }
+
+            @Override
+            public void onError(@NonNull CameraDevice cameraDevice, int error) {
+                cameraDevice.close();
+                fail("error " + error);
+            }
+        };
+
+        void open() {
+            mChoice = mCapturePolicy.choose(mCamera);
+            mSize = mChoice.getSize();
+            if (mConcurrent) {
+                mSize = DualCameraPlan.limitSize(mSize, mCamera.getJpegSizes());
+                if (mSize == null) {
+                    fail("no concurrent JPEG size");
+                    return;
+                }
+            }
+            CameraManager cameraManager =
+                    (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+            try {
+                mBurstCapture = new BurstCapture(mBurstSize, mBurstKeepCount, mFolder,
+                        CaptureStorage.imagePrefix(mCamera.getFacing()), mSyncWrites,
+                        FrameDeduplicator.get(mContext), CaptureEncryption.get(mContext),
+                        mCameraHandler, mBurstListener);
+                mBurstCapture.setTrace(mCapture.mTrace);
+                mImageReader = ImageReader.newInstance(mSize.getWidth(), mSize.getHeight(),
+                        ImageFormat.JPEG, mBurstCapture.getBurstSize());
+                mImageReader.setOnImageAvailableListener(mBurstCapture, mCameraHandler);
+                mOpening = true;
+                cameraManager.openCamera(mCamera.getId(), mStateCallback, mCameraHandler);
+            } catch (CameraAccessException | SecurityException | IllegalArgumentException e) {
+                // the camera may be gone, read them again next time
+                CameraRegistry.get(mContext).invalidate();
+                fail("can't open", e);
+            }
+        }
+
+        private void createCaptureSession() {
+            try {
+                mCameraDevice.createCaptureSession(
+                        Collections.singletonList(mImageReader.getSurface()),
+                        new CameraCaptureSession.StateCallback() {
+                            @Override
+                            public void onConfigured(@NonNull CameraCaptureSession session) {
+                                if (mCameraDevice == null) {
+                                    return;
+                                }
+                                mCaptureSession = session;
+                                mCapture.mTrace.mark(CaptureLatency.STAGE_CONFIGURED,
+                                        SystemClock.elapsedRealtimeNanos());
+                                capture();
+                            }
+
+                            @Override
+                            public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                                fail("session failed");
+                            }
+                        }, mCameraHandler);
+            } catch (CameraAccessException | IllegalStateException e) {
+                fail("can't configure", e);
+            }
+        }
+
+        private void capture() {
+            if (!mCapture.startCapture()) {
+                Log.i(TAG, "Capture cancelled");
+                mCapture.release();
+                return;
+            }
+            try {
+                CaptureRequest.Builder builder = mCameraDevice.createCaptureRequest(
+                        CameraDevice.TEMPLATE_STILL_CAPTURE);
+                builder.addTarget(mImageReader.getSurface());
+                builder.set(CaptureRequest.CONTROL_AF_MODE,
+                        CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+                builder.set(CaptureRequest.JPEG_ORIENTATION, mCamera.getSensorOrientation());
+                builder.set(CaptureRequest.JPEG_QUALITY, (byte) mChoice.getJpegQuality());
+                mBurstCapture.capture(mCaptureSession, builder.build(),
+                        new CameraCaptureSession.CaptureCallback() {
+                            @Override
+                            public void onCaptureStarted(@NonNull CameraCaptureSession session,
+                                                         @NonNull CaptureRequest request,
+                                                         long timestamp, long frameNumber) {
+                                mCapture.mTrace.mark(CaptureLatency.STAGE_CAPTURE_STARTED,
+                                        SystemClock.elapsedRealtimeNanos());
+                            }
+                        });
+            } catch (CameraAccessException | IllegalStateException e) {
+                fail("can't capture", e);
+            }
+        }
+
+        private void fail(String why) {
+            fail(why, null);
+        }
+
+        private void fail(String why, Exception e) {
+            Log.e(TAG, "Dual capture: camera " + mCamera.getId() + " " + why, e);
+            close();
+            done();
+            report(false);
+        }
+
+        private void done() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            mCapture.onShotDone(this);
+        }
+
+        private void report(boolean saved) {
+            synchronized (this) {
+                if (mReported) {
+                    return;
+                }
+                mReported = true;
+            }
+            mCapture.report(this, saved);
+        }
+
+        void close() {
+            mOpening = false;
+            if (null != mBurstCapture) {
+                mBurstCapture.cancel();
+            }
+            if (null != mCaptureSession) {
+                mCaptureSession.close();
+                mCaptureSession = null;
+            }
+            if (null != mCameraDevice) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+            if (null != mImageReader) {
+                // the frames of the burst may still be in the writer queue
+                mBurstCapture.closeReaderWhenSaved(mImageReader);
+                mImageReader = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package ho.palomakoba.securitysystem;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds captures of a scene that was already saved, a phone nudged again and
+ * again on a desk. Depending on {@link SecurityPreferences#getDuplicateMode()}
+ * they are only counted or not written at all.
+ * <p>
+ * The JPEG is decoded at about 1/32 of its size into a reused bitmap and
+ * hashed with {@link FrameHash}, on the writer thread before the file is
+ * written. The hashes of the last frames are kept by a {@link DuplicateFilter}.
+ */
+public class FrameDeduplicator {
+    public static final int MODE_OFF = 0;
+    public static final int MODE_COUNT = 1;
+    public static final int MODE_DROP = 2;
+
+    private static final int HISTORY = 16;
+    private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(30);
+    private static final int DECODE_SHORT_SIDE = 64;
+
+    private static FrameDeduplicator sInstance;
+
+    private final boolean mDrop;
+    private final int mMaxDistance;
+    private final DuplicateFilter mFilter;
+    private final FrameHash mHash = new FrameHash();
+    private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+    private Bitmap mBitmap;
+    private int[] mPixels = new int[0];
+
+    private FrameDeduplicator(boolean drop, int maxDistance) {
+        mDrop = drop;
+        mMaxDistance = maxDistance;
+        mFilter = new DuplicateFilter(HISTORY, maxDistance, WINDOW_NANOS);
+        mOptions.inMutable = true;
+    }
+
+    /**
+     * @return the process wide deduplicator, or null if it is turned off
+     */
+    public static synchronized FrameDeduplicator get(Context context) {
+        SecurityPreferences preferences = new SecurityPreferences(context);
+        int mode = preferences.getDuplicateMode();
+        if (mode == MODE_OFF) {
+            return null;
+        }
+        int maxDistance = preferences.getDuplicateMaxDistance();
+        if (sInstance == null || sInstance.mDrop != (mode == MODE_DROP)
+                || sInstance.mMaxDistance != maxDistance) {
+            sInstance = new FrameDeduplicator(mode == MODE_DROP, maxDistance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param jpeg  the picture, its position is not moved
+     * @param burst the same for the frames of one burst, they are not
+     *              compared with each other
+     * @return whether the picture should not be written
+     */
+    public synchronized boolean shouldDrop(ByteBuffer jpeg, long burst) throws IOException {
+        long hash = hash(jpeg);
+        return mFilter.isDuplicate(hash, burst, SystemClock.elapsedRealtimeNanos()) && mDrop;
+    }
+
+    public DuplicateFilter getFilter() {
+        return mFilter;
+    }
+
+    private long hash(ByteBuffer jpeg) throws IOException {
+        mOptions.inJustDecodeBounds = true;
+        mOptions.inBitmap = null;
+        BitmapFactory.decodeStream(new BufferInputStream(jpeg.duplicate()), null, mOptions);
+        if (mOptions.outWidth <= 0 || mOptions.outHeight <= 0) {
+            throw new IOException("Not a JPEG");
+        }
+        mOptions.inJustDecodeBounds = false;
+        mOptions.inSampleSize = ThumbnailPolicy.sampleSize(mOptions.outWidth, mOptions.outHeight,
+                DECODE_SHORT_SIDE);
+        mOptions.inBitmap = mBitmap;
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeStream(new BufferInputStream(jpeg.duplicate()), null, mOptions);
+        } catch (IllegalArgumentException e) {
+            // the reused bitmap is too small for this size
+            mOptions.inBitmap = null;
+            bitmap = BitmapFactory.decodeStream(new BufferInputStream(jpeg.duplicate()), null, mOptions);
+        }
+        if (bitmap == null) {
+            throw new IOException("Can't decode the JPEG");
+        }
+        mBitmap = bitmap;
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (mPixels.length < width * height) {
+            mPixels = new int[width * height];
+        }
+        bitmap.getPixels(mPixels, 0, width, 0, 0, width, height);
+        return mHash.hashArgb(mPixels, width, height, width);
+    }
+
+    // reads a direct buffer without copying it to a byte array first
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, mBuffer.remaining());
+            mBuffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+}
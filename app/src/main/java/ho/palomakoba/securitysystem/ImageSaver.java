@@ -0,0 +1,109 @@
+package ho.palomakoba.securitysystem;
+
+import android.media.Image;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes one JPEG through the {@link WriteBehindQueue}. The image is closed
+ * and {@code onDone} runs whether it was written, dropped as a duplicate,
+ * failed or discarded.
+ */
+public class ImageSaver implements WriteBehindQueue.Task {
+    private static final String TAG = "SecuritySystem";
+
+    private final Image mImage;
+    private final boolean mSync;
+    private final Runnable mOnDone;
+    private volatile File mFile;
+    private volatile boolean mSaved;
+
+    private FrameDeduplicator mDeduplicator;
+    private long mBurst;
+    private CaptureEncryption mEncryption;
+
+    public ImageSaver(Image mImage, File mFile, boolean mSync, Runnable mOnDone) {
+        this.mImage = mImage;
+        this.mFile = mFile;
+        this.mSync = mSync;
+        this.mOnDone = mOnDone;
+    }
+
+    /**
+     * Checks the picture against the last ones before it is written.
+     *
+     * @param burst the same for the frames of one burst
+     */
+    public void setDeduplicator(FrameDeduplicator deduplicator, long burst) {
+        mDeduplicator = deduplicator;
+        mBurst = burst;
+    }
+
+    /**
+     * Writes the picture encrypted, to {@link CaptureEncryption#target}.
+     *
+     * @param encryption null writes it in the clear
+     */
+    public void setEncryption(CaptureEncryption encryption) {
+        mEncryption = encryption;
+    }
+
+    /**
+     * @return the file the picture was written to
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    public boolean isSaved() {
+        return mSaved;
+    }
+
+    @Override
+    public void write() throws IOException {
+        try {
+            ByteBuffer jpeg = mImage.getPlanes()[0].getBuffer();
+            if (mDeduplicator != null && isDuplicate(jpeg)) {
+                //noinspection ResultOfMethodCallIgnored
+                AtomicFileWriter.tempFile(mFile).delete();
+                return;
+            }
+            if (mEncryption != null) {
+                File reserved = mFile;
+                File target = CaptureEncryption.target(reserved);
+                mEncryption.write(jpeg, target, mSync);
+                mFile = target;
+                //noinspection ResultOfMethodCallIgnored
+                AtomicFileWriter.tempFile(reserved).delete();
+            } else {
+                // the plane is a direct buffer, it goes to the file without a copy
+                AtomicFileWriter.write(jpeg, mFile, mSync);
+            }
+            mSaved = true;
+        } finally {
+            mImage.close();
+            mOnDone.run();
+        }
+    }
+
+    private boolean isDuplicate(ByteBuffer jpeg) {
+        try {
+            return mDeduplicator.shouldDrop(jpeg, mBurst);
+        } catch (IOException e) {
+            // keep what can't be compared
+            Log.e(TAG, "Can't hash " + mFile, e);
+            return false;
+        }
+    }
+
+    @Override
+    public void discard() {
+        mImage.close();
+        // the file was reserved by its temp file
+        AtomicFileWriter.tempFile(mFile).delete();
+        mOnDone.run();
+    }
+}
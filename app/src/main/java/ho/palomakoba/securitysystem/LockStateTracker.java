@@ -0,0 +1,97 @@
+package ho.palomakoba.securitysystem;
+
+import android.app.KeyguardManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.PowerManager;
+
+/**
+ * Follows the lock and screen state from broadcasts, so reading it is a
+ * field access instead of a KeyguardManager call.
+ * <p>
+ * Turning the screen off counts as locked right away, the keyguard may only
+ * lock after a timeout and there is no broadcast for it. Turning it on asks
+ * the keyguard once, and a user present broadcast means it was unlocked.
+ */
+public class LockStateTracker extends BroadcastReceiver {
+
+    public interface Listener {
+        void onLockStateChanged(boolean locked);
+
+        void onScreenStateChanged(boolean screenOn);
+    }
+
+    private final Context mContext;
+    private final Listener mListener;
+
+    private volatile boolean mLocked = true;
+    private volatile boolean mScreenOn = false;
+
+    public LockStateTracker(Context context, Listener listener) {
+        mContext = context;
+        mListener = listener;
+    }
+
+    public void start() {
+        PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        mScreenOn = powerManager == null || powerManager.isInteractive();
+        mLocked = !mScreenOn || isKeyguardLocked();
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_USER_PRESENT);
+        mContext.registerReceiver(this, filter);
+    }
+
+    public void stop() {
+        mContext.unregisterReceiver(this);
+    }
+
+    public boolean isLocked() {
+        return mLocked;
+    }
+
+    public boolean isScreenOn() {
+        return mScreenOn;
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        if (Intent.ACTION_SCREEN_OFF.equals(action)) {
+            setScreenOn(false);
+            setLocked(true);
+        } else if (Intent.ACTION_SCREEN_ON.equals(action)) {
+            setScreenOn(true);
+            setLocked(isKeyguardLocked());
+        } else if (Intent.ACTION_USER_PRESENT.equals(action)) {
+            setLocked(false);
+        }
+    }
+
+    private void setScreenOn(boolean screenOn) {
+        if (mScreenOn != screenOn) {
+            mScreenOn = screenOn;
+            mListener.onScreenStateChanged(screenOn);
+        }
+    }
+
+    private void setLocked(boolean locked) {
+        if (mLocked != locked) {
+            mLocked = locked;
+            mListener.onLockStateChanged(locked);
+        }
+    }
+
+    private boolean isKeyguardLocked() {
+        KeyguardManager keyguardManager =
+                (KeyguardManager) mContext.getSystemService(Context.KEYGUARD_SERVICE);
+        if (keyguardManager != null) {
+            return keyguardManager.isKeyguardLocked();
+        }
+
+        return true;
+    }
+}
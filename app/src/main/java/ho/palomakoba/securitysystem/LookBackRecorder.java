@@ -0,0 +1,178 @@
+package ho.palomakoba.securitysystem;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last seconds of a low resolution YUV stream in a
+ * {@link FrameRingBuffer}, so a trigger can also save what the camera saw
+ * before the pickup.
+ * <p>
+ * Frames are packed as NV21 straight into the ring slots. They are stamped
+ * with the elapsed realtime clock, the same one as the sensor events. The
+ * frames before a trigger are pinned by {@link #snapshot} on the camera
+ * thread as the trigger is handled, before streaming can overwrite them, and
+ * only those are encoded, to JPEG, by {@link #persist} on the writer thread.
+ * The window is limited to what the ring holds, see {@link #getMaxWindowNanos()}.
+ */
+public class LookBackRecorder {
+    private static final String TAG = "SecuritySystem";
+    private static final int TARGET_WIDTH = 320;
+    private static final int TARGET_HEIGHT = 240;
+    private static final int JPEG_QUALITY = 80;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final long mFrameIntervalNanos;
+    private final FrameRingBuffer mFrames;
+
+    private long mLastFrameNanos;
+    private volatile boolean mRecording;
+
+    public LookBackRecorder(CaptureSize size, int framesPerSecond, long maxBytes) {
+        mWidth = size.getWidth();
+        mHeight = size.getHeight();
+        mFrameIntervalNanos = TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+        mFrames = new FrameRingBuffer(mWidth * mHeight * 3 / 2, maxBytes);
+    }
+
+    /**
+     * @return the smallest YUV size that covers 320x240, or the largest one
+     */
+    public static CaptureSize chooseSize(CaptureSize[] choices) {
+        CaptureSize best = null;
+        CaptureSize largest = choices[0];
+        for (CaptureSize option : choices) {
+            long area = option.getArea();
+            if (area > largest.getArea()) {
+                largest = option;
+            }
+            if (option.getWidth() >= TARGET_WIDTH && option.getHeight() >= TARGET_HEIGHT
+                    && (best == null || area < best.getArea())) {
+                best = option;
+            }
+        }
+        return best != null ? best : largest;
+    }
+
+    public CaptureSize getSize() {
+        return new CaptureSize(mWidth, mHeight);
+    }
+
+    /**
+     * @return how far back the ring reaches at the recording rate
+     */
+    public long getMaxWindowNanos() {
+        return mFrames.getSlotCount() * mFrameIntervalNanos;
+    }
+
+    public void setRecording(boolean recording) {
+        mRecording = recording;
+    }
+
+    /**
+     * Keeps a frame of the stream, the caller closes it.
+     */
+    public void onFrame(Image image) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (!mRecording || now - mLastFrameNanos < mFrameIntervalNanos) {
+            return;
+        }
+        ByteBuffer slot = mFrames.acquire();
+        if (slot == null) {
+            return;
+        }
+        packNv21(image, slot);
+        mFrames.commit(now, slot.position());
+        mLastFrameNanos = now;
+    }
+
+    /**
+     * Pins the frames from {@code windowNanos} before the trigger on, until
+     * they are persisted or discarded.
+     *
+     * @return false if the frames of the last trigger are still being
+     * written, this trigger then has none
+     */
+    public boolean snapshot(long triggerNanos, long windowNanos) {
+        int count = mFrames.snapshot(triggerNanos - Math.min(windowNanos, getMaxWindowNanos()));
+        if (count < 0) {
+            Log.w(TAG, "Look-back of the last trigger still being written, skipped");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the frames of the snapshot and releases it.
+     */
+    public List<File> persist(File folder) {
+        List<File> files = new ArrayList<>();
+        try {
+            byte[] nv21 = new byte[mFrames.getFrameBytes()];
+            Rect rect = new Rect(0, 0, mWidth, mHeight);
+            for (int i = 0; i < mFrames.getSnapshotSize(); i++) {
+                mFrames.getSnapshotFrame(i).get(nv21);
+                File file = CaptureStorage.reserveImageFile(folder, "lookback");
+                File temp = AtomicFileWriter.tempFile(file);
+                try (FileOutputStream out = new FileOutputStream(temp)) {
+                    new YuvImage(nv21, ImageFormat.NV21, mWidth, mHeight, null)
+                            .compressToJpeg(rect, JPEG_QUALITY, out);
+                }
+                AtomicFileWriter.commit(temp, file);
+                files.add(file);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Can't save the look-back frames", e);
+        } finally {
+            mFrames.releaseSnapshot();
+        }
+        Log.i(TAG, "Look-back saved " + files.size() + " frames");
+        return files;
+    }
+
+    /**
+     * Releases the snapshot without writing it.
+     */
+    public void discard() {
+        mFrames.releaseSnapshot();
+    }
+
+    private void packNv21(Image image, ByteBuffer out) {
+        Image.Plane[] planes = image.getPlanes();
+
+        ByteBuffer y = planes[0].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        for (int row = 0; row < mHeight; row++) {
+            int start = row * yRowStride;
+            y.clear();
+            y.position(start);
+            y.limit(start + mWidth);
+            out.put(y);
+        }
+
+        ByteBuffer u = planes[1].getBuffer();
+        ByteBuffer v = planes[2].getBuffer();
+        int uvRowStride = planes[1].getRowStride();
+        int uvPixelStride = planes[1].getPixelStride();
+        for (int row = 0; row < mHeight / 2; row++) {
+            for (int col = 0; col < mWidth / 2; col++) {
+                int index = row * uvRowStride + col * uvPixelStride;
+                out.put(v.get(index));
+                out.put(u.get(index));
+            }
+        }
+    }
+}
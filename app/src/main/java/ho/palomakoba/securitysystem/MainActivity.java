@@ -43,6 +43,10 @@ public class MainActivity extends Activity implements ActivityCompat.OnRequestPe
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // settings come as extras in a debug build, see SecurityPreferences
+        if (savedInstanceState == null && SecurityPreferences.isDebuggable(this)) {
+            new SecurityPreferences(this).apply(getIntent().getExtras());
+        }
         checkPermissions();
     }
 
@@ -0,0 +1,55 @@
+package ho.palomakoba.securitysystem;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects new pictures and hands them to the media scanner together, a
+ * burst and its look-back frames become one scan instead of a broadcast per
+ * file.
+ */
+public class MediaScanBatcher {
+    private static final long DELAY_MILLIS = 2000;
+    private static final int MAX_BATCH = 32;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<String> mPending = new ArrayList<>();
+
+    private final Runnable mFlush = this::flush;
+
+    public MediaScanBatcher(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    public void add(File file) {
+        synchronized (mPending) {
+            mPending.add(file.getAbsolutePath());
+            if (mPending.size() >= MAX_BATCH) {
+                mHandler.removeCallbacks(mFlush);
+                mHandler.post(mFlush);
+            } else if (mPending.size() == 1) {
+                mHandler.postDelayed(mFlush, DELAY_MILLIS);
+            }
+        }
+    }
+
+    public void flush() {
+        String[] paths;
+        synchronized (mPending) {
+            mHandler.removeCallbacks(mFlush);
+            if (mPending.isEmpty()) {
+                return;
+            }
+            paths = mPending.toArray(new String[0]);
+            mPending.clear();
+        }
+        MediaScannerConnection.scanFile(mContext, paths, null, null);
+    }
+}
@@ -3,14 +3,20 @@ package ho.palomakoba.securitysystem;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 
 public class MyReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        if (intent.getAction().equals("android.intent.action.BOOT_COMPLETED")) {
-            // init the service after a boot completed
-            context.startService(new Intent(context, SensorsService.class));
+        String action = intent.getAction();
+        if (Intent.ACTION_LOCKED_BOOT_COMPLETED.equals(action)
+                || Intent.ACTION_BOOT_COMPLETED.equals(action)) {
+            StartupTrace.get().mark(Intent.ACTION_LOCKED_BOOT_COMPLETED.equals(action)
+                    ? "locked boot completed" : "boot completed", SystemClock.elapsedRealtimeNanos());
+            // the locked boot comes before the first unlock, the service arms
+            // right away; the second start after the unlock only reaches it again
+            context.startForegroundService(new Intent(context, SensorsService.class));
         }
     }
-}
\ No newline at end of file
+}
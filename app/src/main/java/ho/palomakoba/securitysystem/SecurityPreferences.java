@@ -0,0 +1,322 @@
+package ho.palomakoba.securitysystem;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The settings of the service. There is no settings screen, in a debuggable
+ * build they are set with extras of the intent that starts
+ * {@link MainActivity}, named after the keys below, for example
+ * {@code adb shell am start -n ho.palomakoba.securitysystem/.MainActivity --ez warm_camera true}.
+ * The activity is exported, so a release build ignores them. The service
+ * reads them when it starts.
+ */
+public class SecurityPreferences {
+    private static final String TAG = "SecuritySystem";
+    private static final String NAME = "security_system";
+
+    static final String KEY_SENSOR_BATCHING = "sensor_batching";
+    static final String KEY_WARM_CAMERA = "warm_camera";
+    static final String KEY_DUAL_CAMERA = "dual_camera";
+    static final String KEY_WARM_CAMERA_IDLE_SECONDS = "warm_camera_idle_seconds";
+    static final String KEY_BURST_SIZE = "burst_size";
+    static final String KEY_BURST_KEEP_COUNT = "burst_keep_count";
+    static final String KEY_LOOK_BACK_SECONDS = "look_back_seconds";
+    static final String KEY_SYNC_WRITES = "sync_writes";
+    static final String KEY_CAMERA_FACING = "camera_facing";
+    static final String KEY_CAPTURE_MAX_STALL_MILLIS = "capture_max_stall_millis";
+    static final String KEY_CAPTURE_MAX_FILE_KB = "capture_max_file_kb";
+    static final String KEY_CAPTURE_MIN_FACE_PIXELS = "capture_min_face_pixels";
+    static final String KEY_RETENTION_MAX_MB = "retention_max_mb";
+    static final String KEY_RETENTION_MAX_DAYS = "retention_max_days";
+    static final String KEY_RETENTION_MAX_COUNT = "retention_max_count";
+    static final String KEY_RETENTION_LOW_VALUE_FIRST = "retention_low_value_first";
+    static final String KEY_RECOMPRESS_QUALITY = "recompress_quality";
+    static final String KEY_DUPLICATE_MODE = "duplicate_mode";
+    static final String KEY_MOTION_DETECTION = "motion_detection";
+    static final String KEY_DUPLICATE_MAX_DISTANCE = "duplicate_max_distance";
+    static final String KEY_SENSOR_TRACE = "sensor_trace";
+    static final String KEY_MOTION_TRIGGER = "motion_trigger";
+    static final String KEY_CAPTURE_ENCRYPTION = "capture_encryption";
+    static final String KEY_MOVED = "moved_to_device_storage";
+
+    // the settings that can be set with extras, see apply(Bundle)
+    private static final Set<String> BOOLEAN_KEYS = new HashSet<>(Arrays.asList(
+            KEY_WARM_CAMERA, KEY_SENSOR_BATCHING, KEY_SYNC_WRITES, KEY_RETENTION_LOW_VALUE_FIRST,
+            KEY_MOTION_DETECTION, KEY_SENSOR_TRACE, KEY_MOTION_TRIGGER, KEY_CAPTURE_ENCRYPTION,
+            KEY_DUAL_CAMERA));
+    private static final Set<String> INT_KEYS = new HashSet<>(Arrays.asList(
+            KEY_WARM_CAMERA_IDLE_SECONDS, KEY_BURST_SIZE, KEY_BURST_KEEP_COUNT,
+            KEY_LOOK_BACK_SECONDS, KEY_CAMERA_FACING, KEY_CAPTURE_MAX_STALL_MILLIS,
+            KEY_CAPTURE_MAX_FILE_KB, KEY_CAPTURE_MIN_FACE_PIXELS, KEY_RETENTION_MAX_MB,
+            KEY_RETENTION_MAX_DAYS, KEY_RETENTION_MAX_COUNT, KEY_RECOMPRESS_QUALITY,
+            KEY_DUPLICATE_MODE, KEY_DUPLICATE_MAX_DISTANCE));
+
+    private static final int DEFAULT_WARM_CAMERA_IDLE_SECONDS = 300;
+    private static final int DEFAULT_CAPTURE_MIN_FACE_PIXELS = 80;
+    private static final int DEFAULT_RETENTION_MAX_MB = 1024;
+    private static final int DEFAULT_RETENTION_MAX_DAYS = 30;
+    private static final int DEFAULT_DUPLICATE_MAX_DISTANCE = 10;
+
+    private static boolean sMoved;
+
+    private final SharedPreferences mPreferences;
+
+    /**
+     * The preferences are in device protected storage, the service reads
+     * them to arm before the first unlock after a boot.
+     */
+    public SecurityPreferences(Context context) {
+        mPreferences = context.createDeviceProtectedStorageContext()
+                .getSharedPreferences(NAME, Context.MODE_PRIVATE);
+        moveFromCredentialStorage(context, mPreferences);
+    }
+
+    /**
+     * Copies what was kept in credential encrypted storage before, once the
+     * user unlocks. Copied through the editor, a moved file would not be seen
+     * by preferences already loaded before the unlock.
+     */
+    @SuppressWarnings("unchecked")
+    private static synchronized void moveFromCredentialStorage(Context context,
+                                                               SharedPreferences preferences) {
+        if (sMoved || context.isDeviceProtectedStorage()
+                || !CaptureStorage.isUserUnlocked(context)) {
+            return;
+        }
+        sMoved = true;
+        if (preferences.getBoolean(KEY_MOVED, false)) {
+            return;
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        Map<String, ?> old = context.getSharedPreferences(NAME, Context.MODE_PRIVATE).getAll();
+        for (Map.Entry<String, ?> entry : old.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(entry.getKey(), (Float) value);
+            } else if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            } else if (value instanceof Set) {
+                editor.putStringSet(entry.getKey(), (Set<String>) value);
+            }
+        }
+        if (!editor.putBoolean(KEY_MOVED, true).commit()) {
+            Log.e(TAG, "Can't move the preferences to device protected storage");
+            return;
+        }
+        context.deleteSharedPreferences(NAME);
+        Log.i(TAG, "Moved " + old.size() + " preferences to device protected storage");
+    }
+
+    /**
+     * Stores the extras named after a key, a value of the wrong type is
+     * logged and left out. Only for a debuggable build, see
+     * {@link #isDebuggable(Context)}.
+     *
+     * @return how many settings were stored
+     */
+    public int apply(Bundle extras) {
+        if (extras == null) {
+            return 0;
+        }
+        SharedPreferences.Editor editor = mPreferences.edit();
+        int applied = 0;
+        for (String key : extras.keySet()) {
+            Object value = extras.get(key);
+            if (BOOLEAN_KEYS.contains(key) && value instanceof Boolean) {
+                editor.putBoolean(key, (Boolean) value);
+            } else if (INT_KEYS.contains(key) && value instanceof Integer) {
+                editor.putInt(key, (Integer) value);
+            } else {
+                if (BOOLEAN_KEYS.contains(key) || INT_KEYS.contains(key)) {
+                    Log.w(TAG, "Wrong type for setting " + key + ": " + value);
+                }
+                continue;
+            }
+            Log.i(TAG, "Setting " + key + " = " + value);
+            applied++;
+        }
+        editor.apply();
+        return applied;
+    }
+
+    /**
+     * @return whether settings may come from intent extras, any app can start
+     * an exported activity
+     */
+    public static boolean isDebuggable(Context context) {
+        return (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+    }
+
+    /**
+     * Let the sensor hub hold events in its FIFO and deliver them in batches,
+     * otherwise every event is handled as it comes.
+     */
+    public boolean isSensorBatchingEnabled() {
+        return mPreferences.getBoolean(KEY_SENSOR_BATCHING, true);
+    }
+
+    /**
+     * Keep the accelerometer off while the device lies still and start it
+     * when a one-shot motion sensor fires, if the device has one.
+     */
+    public boolean isMotionTriggerEnabled() {
+        return mPreferences.getBoolean(KEY_MOTION_TRIGGER, true);
+    }
+
+    /**
+     * Keep the camera open while the device is locked, so a trigger goes
+     * straight to the capture request.
+     */
+    public boolean isWarmCameraEnabled() {
+        return mPreferences.getBoolean(KEY_WARM_CAMERA, false);
+    }
+
+    /**
+     * Capture every trigger with the front and the back camera, see
+     * {@link DualCamera}. Takes the place of the warm camera, which would
+     * hold one of them open.
+     */
+    public boolean isDualCameraEnabled() {
+        return mPreferences.getBoolean(KEY_DUAL_CAMERA, false);
+    }
+
+    /**
+     * The warm camera is released after this long without a capture, 0 keeps
+     * it open until the device is unlocked.
+     */
+    public int getWarmCameraIdleSeconds() {
+        return mPreferences.getInt(KEY_WARM_CAMERA_IDLE_SECONDS, DEFAULT_WARM_CAMERA_IDLE_SECONDS);
+    }
+
+    /**
+     * Frames taken per trigger, 1 takes a single picture.
+     */
+    public int getBurstSize() {
+        return Math.max(1, mPreferences.getInt(KEY_BURST_SIZE, 1));
+    }
+
+    /**
+     * The sharpest frames of a burst that are saved.
+     */
+    public int getBurstKeepCount() {
+        return Math.max(1, Math.min(getBurstSize(), mPreferences.getInt(KEY_BURST_KEEP_COUNT, 1)));
+    }
+
+    /**
+     * Seconds of low resolution frames from before the trigger saved next to
+     * the picture, 0 turns it off. Needs the warm camera.
+     */
+    public int getLookBackSeconds() {
+        return Math.max(0, mPreferences.getInt(KEY_LOOK_BACK_SECONDS, 0));
+    }
+
+    /**
+     * Force every picture to the storage before it is renamed into place.
+     */
+    public boolean isSyncWritesEnabled() {
+        return mPreferences.getBoolean(KEY_SYNC_WRITES, false);
+    }
+
+    /**
+     * Which way the camera that takes the pictures faces, one of
+     * {@link CameraInfo}'s FACING constants. Another camera is used if there
+     * is none facing that way.
+     */
+    public int getCameraFacing() {
+        return mPreferences.getInt(KEY_CAMERA_FACING, CameraInfo.FACING_FRONT);
+    }
+
+    /**
+     * How pictures are sized: the JPEG stall budget in milliseconds, the file
+     * size budget in KB and the pixels a face needs, 0 is no limit.
+     */
+    public CapturePolicy getCapturePolicy() {
+        return new TargetCapturePolicy(
+                TimeUnit.MILLISECONDS.toNanos(mPreferences.getInt(KEY_CAPTURE_MAX_STALL_MILLIS, 0)),
+                mPreferences.getInt(KEY_CAPTURE_MAX_FILE_KB, 0) * 1024L,
+                mPreferences.getInt(KEY_CAPTURE_MIN_FACE_PIXELS, DEFAULT_CAPTURE_MIN_FACE_PIXELS));
+    }
+
+    /**
+     * Limits of the capture folder: its size in MB, the age in days and the
+     * number of pictures, 0 is no limit. Past them the oldest captures are
+     * evicted, or the least valuable of the oldest ones.
+     */
+    public StorageRetention getStorageRetention(CaptureIndex index, File folder) {
+        return new StorageRetention(index, folder,
+                mPreferences.getInt(KEY_RETENTION_MAX_MB, DEFAULT_RETENTION_MAX_MB) * 1024L * 1024,
+                TimeUnit.DAYS.toMillis(mPreferences.getInt(KEY_RETENTION_MAX_DAYS,
+                        DEFAULT_RETENTION_MAX_DAYS)),
+                mPreferences.getInt(KEY_RETENTION_MAX_COUNT, 0),
+                mPreferences.getBoolean(KEY_RETENTION_LOW_VALUE_FIRST, false)
+                        ? StorageRetention.DEFAULT_VALUE : null);
+    }
+
+    /**
+     * JPEG quality the originals are recompressed to while charging and idle,
+     * 0 keeps them as they were captured.
+     */
+    public int getRecompressQuality() {
+        return Math.max(0, Math.min(100, mPreferences.getInt(KEY_RECOMPRESS_QUALITY, 0)));
+    }
+
+    /**
+     * What happens to a capture of a scene saved a moment ago, see
+     * {@link FrameDeduplicator}: nothing, it is counted or it is not written.
+     */
+    public int getDuplicateMode() {
+        return mPreferences.getInt(KEY_DUPLICATE_MODE, FrameDeduplicator.MODE_COUNT);
+    }
+
+    /**
+     * How many of the 64 bits of the frame hashes may differ for two frames
+     * to be the same scene.
+     */
+    public int getDuplicateMaxDistance() {
+        return mPreferences.getInt(KEY_DUPLICATE_MAX_DISTANCE, DEFAULT_DUPLICATE_MAX_DISTANCE);
+    }
+
+    /**
+     * Look for motion in a low resolution stream of the warm camera while it
+     * lies in the light, and take a picture like on a pickup. Needs the warm
+     * camera.
+     */
+    public boolean isMotionDetectionEnabled() {
+        return mPreferences.getBoolean(KEY_MOTION_DETECTION, false);
+    }
+
+    /**
+     * Record every sensor event the service gets to a trace file, to tune
+     * the trigger with TraceReplay. Read when the service starts.
+     */
+    public boolean isSensorTraceEnabled() {
+        return mPreferences.getBoolean(KEY_SENSOR_TRACE, false);
+    }
+
+    /**
+     * Encrypt new captures with a key of the Android Keystore, see
+     * {@link CaptureEncryption}. They are saved as .jpg.enc and don't show up
+     * in the gallery.
+     */
+    public boolean isCaptureEncryptionEnabled() {
+        return mPreferences.getBoolean(KEY_CAPTURE_ENCRYPTION, false);
+    }
+
+}
@@ -1,143 +1,685 @@
 package ho.palomakoba.securitysystem;
 
-import android.app.KeyguardManager;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 
-import java.text.DecimalFormat;
-import java.time.Duration;
-import java.time.LocalTime;
-import java.time.temporal.ChronoUnit;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
-public class SensorsService extends Service implements SensorEventListener {
+public class SensorsService extends Service implements SensorEventListener2 {
     private final String TAG = "SecuritySystem";
     private final static int SECONDS_TO_CHECK_SENSOR_VALUES = 10;
+    private final static int ACCELEROMETER_PERIOD_US = 40000;
+    private final static int SENSOR_PERIOD_US = 3000000;
+    private final static int MAX_BATCH_LATENCY_US = 10000000;
+    // the accelerometer, light and proximity sensors share the fifo
+    private final static int BATCHED_SENSORS = 3;
+    // room for light and proximity events in an accelerometer batch
+    private final static int BATCH_SLACK = 32;
+    // a motion trigger has no accelerometer values
+    private final static float[] NO_VALUES = {Float.NaN, Float.NaN, Float.NaN};
+    // how long it has to be dark or in a pocket before the accelerometer stops
+    private final static int SCHEDULE_HOLD_SECONDS = 3;
+    // how long the accelerometer looks for a pickup after the first stage fired
+    private final static int ANALYSIS_SECONDS = 5;
+    // full trace buffers waiting for the storage, the writer holds at most three
+    private final static int TRACE_QUEUE_CAPACITY = 4;
 
     private SensorManager mSensorManager = null;
-    private boolean hasLight = true;
-    private boolean inPocket = false;
+    private Sensor mAccelerometerSensor = null;
+    private Sensor mAnalysisSensor = null;
+    private Sensor mMotionSensor = null;
+    private int mTier = TriggerTier.TIER_CONTINUOUS;
+    private boolean mMotionRequested = false;
+    private boolean mMotionPending = false;
+    private int mMotions = 0;
+    private final float[] mRestValues = new float[3];
+    private boolean mHasRest = false;
+    private Sensor mLightSensor = null;
+    private Sensor mProximitySensor = null;
+    private int mAccelerometerLatencyUs = SENSOR_PERIOD_US;
+    private int mAccelerometerRate = SensorScheduler.RATE_OFF;
+    private int mLightRate = SensorScheduler.RATE_OFF;
+    private int mProximityRate = SensorScheduler.RATE_OFF;
+
+    private SensorScheduler mScheduler = null;
+    private final SensorEventStats mEventStats = new SensorEventStats();
+    private final Runnable mUpdateSchedule = this::updateSchedule;
+
+    // one-shot, it has to be requested again after each motion
+    private final TriggerEventListener mMotionListener = new TriggerEventListener() {
+        @Override
+        public void onTrigger(TriggerEvent event) {
+            mMotionRequested = false;
+            mMotionPending = true;
+            mMotions++;
+            mScheduler.onMotion(SystemClock.elapsedRealtimeNanos());
+            updateSchedule();
+        }
+    };
+
+    // the scheduler calls it on the thread that ended the previous job
+    private final CaptureScheduler.Runner mCaptureRunner =
+            job -> mHandler.post(() -> startCapture(job));
+    private final Runnable mExpireCaptures = this::expireCaptures;
+
+    private final TriggerEngine mTriggerEngine = new TriggerEngine(
+            new TriggerGate(TimeUnit.SECONDS.toNanos(SECONDS_TO_CHECK_SENSOR_VALUES)));
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private SensorBatch mSensorBatch = null;
+    private boolean mBatchScheduled = false;
+    private final float[] mPickupValues = new float[3];
+    private SensorTraceWriter mTraceWriter = null;
+    // the trace file is written on its own thread, not the main looper
+    private WriteBehindQueue mTraceQueue = null;
+
+    // all the events of a batch are dispatched in the same looper message,
+    // so this runs once the whole batch has been delivered
+    private final Runnable mProcessBatch = new Runnable() {
+        @Override
+        public void run() {
+            mBatchScheduled = false;
+            processBatch();
+        }
+    };
+
+    private LockStateTracker mLockStateTracker = null;
+    private WarmCamera mWarmCamera = null;
+    private DualCamera mDualCamera = null;
+    private boolean mStarted = false;
+
+    // what is not needed to detect a pickup, run once the sensors are listening
+    private final Runnable mFinishStartup = this::finishStartup;
+
+    private final BroadcastReceiver mUserUnlockedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            unregisterReceiver(this);
+            mUserUnlockedRegistered = false;
+            onUserUnlocked();
+        }
+    };
+    private boolean mUserUnlockedRegistered = false;
+
+    private final WarmCamera.Callback mWarmCameraCallback = new WarmCamera.Callback() {
+        @Override
+        public void onCaptureFailed(final CaptureScheduler.Job job) {
+            mHandler.post(() -> startCameraActivity(job));
+        }
+
+        @Override
+        public void onMotion(final long timestampNanos) {
+            mHandler.post(() -> SensorsService.this.onMotion(timestampNanos));
+        }
+    };
+
+    private final DualCamera.Callback mDualCameraCallback =
+            job -> mHandler.post(() -> startCameraActivity(job));
+
+    private final LockStateTracker.Listener mLockStateListener = new LockStateTracker.Listener() {
+        @Override
+        public void onLockStateChanged(boolean locked) {
+            // nothing to protect while the owner is using the device
+            updateSchedule();
+            if (locked) {
+                if (mWarmCamera != null) {
+                    mWarmCamera.open();
+                }
+            } else {
+                if (mWarmCamera != null) {
+                    mWarmCamera.release();
+                }
+                // the locked period is complete in the file when it is pulled
+                flushTrace();
+                CaptureScheduler.get().cancelPending();
+            }
+            updateFrameStreaming();
+        }
 
-    private LocalTime previousAccelerometerSensorEventTime = LocalTime.now().minus(
-            Duration.ofSeconds(SECONDS_TO_CHECK_SENSOR_VALUES)
-    );
+        @Override
+        public void onScreenStateChanged(boolean screenOn) {
+            // hand over what is in the fifo before the device goes idle, and
+            // when it wakes up so a pickup is not kept waiting in the fifo
+            if (mSensorBatch != null && mAccelerometerRate != SensorScheduler.RATE_OFF) {
+                mSensorManager.flush(SensorsService.this);
+            }
+        }
+    };
 
     public SensorsService() {
     }
 
+    /**
+     * Arms first, after a boot this runs before the first unlock and every
+     * moment until the sensors listen is a moment without protection.
+     */
     @Override
     public void onCreate() {
         super.onCreate();
+        StartupTrace startup = StartupTrace.get();
+        startup.mark("service created", SystemClock.elapsedRealtimeNanos());
         Log.i(TAG, "Service created");
 
-        registerSensors();
+        Trace.beginSection("arm");
+        try {
+            registerSensors();
+        } finally {
+            Trace.endSection();
+        }
+        startup.mark("armed", SystemClock.elapsedRealtimeNanos());
+        Log.i(TAG, "Armed: " + startup);
+
+        // a capture of the previous instance may still be in flight
+        CaptureScheduler.get().setRunner(mCaptureRunner);
+        scheduleCaptureExpiry();
+
+        mHandler.post(mFinishStartup);
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        // after onCreate, the notification channel is made once the sensors listen
         startForeground(1, createNotification());
+        StartupTrace.get().mark("foreground", SystemClock.elapsedRealtimeNanos());
         return Service.START_STICKY;
     }
 
+    private void finishStartup() {
+        Trace.beginSection("finish startup");
+        try {
+            SecurityPreferences preferences = new SecurityPreferences(this);
+            // read the camera characteristics now, not on the first trigger
+            Log.i(TAG, "Using " + CameraRegistry.get(this).find(preferences.getCameraFacing()));
+            if (preferences.isSensorTraceEnabled()) {
+                startTrace();
+            }
+            if (preferences.isDualCameraEnabled()) {
+                mDualCamera = new DualCamera(this, preferences, mDualCameraCallback);
+                mDualCamera.start();
+            } else if (preferences.isWarmCameraEnabled()) {
+                mWarmCamera = new WarmCamera(this, preferences, mWarmCameraCallback);
+                mWarmCamera.start();
+                if (mLockStateTracker.isLocked()) {
+                    mWarmCamera.open();
+                }
+                updateFrameStreaming();
+            }
+
+            // the shared storage, the index and WorkManager need the user unlocked
+            if (CaptureStorage.isUserUnlocked(this)) {
+                onUserUnlocked();
+            } else {
+                registerReceiver(mUserUnlockedReceiver, new IntentFilter(Intent.ACTION_USER_UNLOCKED));
+                mUserUnlockedRegistered = true;
+                Log.i(TAG, "Armed before the first unlock");
+            }
+        } finally {
+            Trace.endSection();
+        }
+        mStarted = true;
+        StartupTrace.get().mark("started", SystemClock.elapsedRealtimeNanos());
+    }
+
+    private void onUserUnlocked() {
+        StartupTrace.get().mark("user unlocked", SystemClock.elapsedRealtimeNanos());
+        CaptureStorage.adoptLockedCaptures(this);
+        // captures may have aged past the retention limit while we were gone
+        CaptureStorage.trimStorage(this);
+        CaptureProcessingWorker.schedule(this);
+    }
+
     private void registerSensors() {
         mSensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
 
+        mAccelerometerSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        mLightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
+        mProximitySensor = mSensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY);
+
+        int batchLatencyUs = 0;
+        if (new SecurityPreferences(this).isSensorBatchingEnabled()) {
+            batchLatencyUs = BatchingPolicy.reportLatencyUs(
+                    mAccelerometerSensor.getFifoMaxEventCount(),
+                    mAccelerometerSensor.getFifoReservedEventCount(),
+                    BATCHED_SENSORS, ACCELEROMETER_PERIOD_US, MAX_BATCH_LATENCY_US);
+        }
 
-        Sensor accelerometerSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        mSensorManager.registerListener(this, accelerometerSensor, 3000000, 3000000);
+        if (batchLatencyUs > 0) {
+            mSensorBatch = new SensorBatch(
+                    BatchingPolicy.batchSize(batchLatencyUs, ACCELEROMETER_PERIOD_US) + BATCH_SLACK);
+            mAccelerometerLatencyUs = batchLatencyUs;
+            Log.i(TAG, "Batching every " + batchLatencyUs + " us");
+        } else {
+            mSensorBatch = null;
+            mAccelerometerLatencyUs = SENSOR_PERIOD_US;
+        }
+        chooseTier();
 
-        Sensor lightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
-        mSensorManager.registerListener(this, lightSensor, 3000000, 3000000);
+        mLockStateTracker = new LockStateTracker(this, mLockStateListener);
+        mLockStateTracker.start();
+        updateSchedule();
+    }
 
-        Sensor proximitySensor = mSensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY);
-        mSensorManager.registerListener(this, proximitySensor, 3000000, 3000000);
+    private void chooseTier() {
+        Sensor pickUp = mSensorManager.getDefaultSensor(TriggerTier.TYPE_PICK_UP_GESTURE);
+        if (pickUp != null && pickUp.getReportingMode() != Sensor.REPORTING_MODE_ONE_SHOT) {
+            pickUp = null;
+        }
+        Sensor significantMotion = mSensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+        mTier = TriggerTier.choose(new SecurityPreferences(this).isMotionTriggerEnabled(),
+                pickUp != null, significantMotion != null);
+
+        long holdNanos = TimeUnit.SECONDS.toNanos(SCHEDULE_HOLD_SECONDS);
+        if (mTier == TriggerTier.TIER_CONTINUOUS) {
+            mMotionSensor = null;
+            mAnalysisSensor = mAccelerometerSensor;
+            mScheduler = new SensorScheduler(holdNanos);
+        } else {
+            mMotionSensor = mTier == TriggerTier.TIER_PICK_UP_GESTURE ? pickUp : significantMotion;
+            // keeps the processor awake while it looks, the screen is off
+            mAnalysisSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER, true);
+            if (mAnalysisSensor == null) {
+                mAnalysisSensor = mAccelerometerSensor;
+            }
+            mScheduler = new SensorScheduler(holdNanos, TimeUnit.SECONDS.toNanos(ANALYSIS_SECONDS));
+        }
+        Log.i(TAG, "Trigger tier " + TriggerTier.toString(mTier));
+    }
 
-        Log.i(TAG, "Sensors registered");
+    // registers each sensor at the rate the state of the device needs
+    private void updateSchedule() {
+        mHandler.removeCallbacks(mUpdateSchedule);
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (mScheduler.update(mLockStateTracker.isLocked(), mTriggerEngine.getGate(), now)) {
+            int accelerometerRate = mScheduler.getAccelerometerRate();
+            if (accelerometerRate != mAccelerometerRate) {
+                if (accelerometerRate == SensorScheduler.RATE_OFF) {
+                    // how the device rests, a pickup is measured from it
+                    mHasRest |= mTriggerEngine.copyNewest(mRestValues);
+                }
+                mAccelerometerRate = accelerometerRate;
+                mSensorManager.unregisterListener(this, mAnalysisSensor);
+                if (accelerometerRate != SensorScheduler.RATE_OFF) {
+                    registerAccelerometer(now);
+                }
+            }
+            // light and proximity ride along in the accelerometer batches, on
+            // their own or next to an analysis they are delivered when they change
+            int latencyUs = accelerometerRate != SensorScheduler.RATE_OFF && mMotionSensor == null
+                    ? mAccelerometerLatencyUs : 0;
+            mLightRate = register(mLightSensor, mLightRate, mScheduler.getLightRate(), latencyUs);
+            mProximityRate = register(mProximitySensor, mProximityRate,
+                    mScheduler.getProximityRate(), latencyUs);
+
+            Log.i(TAG, "Sensors " + mScheduler);
+        }
+        mMotionPending = false;
+        requestMotion(mScheduler.getMotionRate() != SensorScheduler.RATE_OFF);
+        long next = mScheduler.getNextUpdateNanos();
+        if (next >= 0) {
+            mHandler.postDelayed(mUpdateSchedule,
+                    TimeUnit.NANOSECONDS.toMillis(Math.max(0, next - now)) + 1);
+        }
+    }
+
+    private void registerAccelerometer(long nowNanos) {
+        mTriggerEngine.clear();
+        if (mMotionSensor == null) {
+            mSensorManager.registerListener(this, mAnalysisSensor,
+                    ACCELEROMETER_PERIOD_US, mAccelerometerLatencyUs, mHandler);
+            return;
+        }
+        // the first stage fires during or after the pickup, the samples
+        // before it were never taken
+        if (mMotionPending && mHasRest) {
+            mTriggerEngine.onAccelerometer(nowNanos, mRestValues);
+        }
+        mSensorManager.registerListener(this, mAnalysisSensor, ACCELEROMETER_PERIOD_US, 0, mHandler);
+    }
+
+    private void requestMotion(boolean requested) {
+        if (mMotionSensor == null || requested == mMotionRequested) {
+            return;
+        }
+        if (requested) {
+            mMotionRequested = mSensorManager.requestTriggerSensor(mMotionListener, mMotionSensor);
+            if (!mMotionRequested) {
+                Log.e(TAG, "Can't request " + mMotionSensor.getName());
+            }
+        } else {
+            mSensorManager.cancelTriggerSensor(mMotionListener, mMotionSensor);
+            mMotionRequested = false;
+        }
+    }
+
+    private int register(Sensor sensor, int registered, int rate, int latencyUs) {
+        if (sensor == null) {
+            return registered;
+        }
+        mSensorManager.unregisterListener(this, sensor);
+        if (rate == SensorScheduler.RATE_NORMAL) {
+            mSensorManager.registerListener(this, sensor, SENSOR_PERIOD_US, latencyUs, mHandler);
+        } else if (rate == SensorScheduler.RATE_SLOW) {
+            mSensorManager.registerListener(this, sensor, SENSOR_PERIOD_US,
+                    MAX_BATCH_LATENCY_US, mHandler);
+        }
+        return rate;
     }
 
     private void unregisterSensors() {
+        mLockStateTracker.stop();
+        mHandler.removeCallbacks(mUpdateSchedule);
+        requestMotion(false);
         mSensorManager.unregisterListener(this);
+        mAccelerometerRate = SensorScheduler.RATE_OFF;
+        mLightRate = SensorScheduler.RATE_OFF;
+        mProximityRate = SensorScheduler.RATE_OFF;
+
+        if (mSensorBatch != null) {
+            mHandler.removeCallbacks(mProcessBatch);
+            mBatchScheduled = false;
+            mSensorBatch.clear();
+        }
 
         Log.i(TAG, "Sensors unregistered");
     }
 
     @Override
     public void onDestroy() {
+        mHandler.removeCallbacks(mFinishStartup);
+        mHandler.removeCallbacks(mExpireCaptures);
+        // the capture in flight finishes, nothing starts after it
+        CaptureScheduler scheduler = CaptureScheduler.get();
+        scheduler.setRunner(null);
+        scheduler.cancelPending();
+        if (mUserUnlockedRegistered) {
+            unregisterReceiver(mUserUnlockedReceiver);
+            mUserUnlockedRegistered = false;
+        }
         unregisterSensors();
+        Log.i(TAG, mEventStats + ", " + mScheduler);
+        stopTrace();
+        if (mWarmCamera != null) {
+            mWarmCamera.stop();
+        }
+        if (mDualCamera != null) {
+            mDualCamera.stop();
+        }
+        // queued pictures are still written, the service does not wait
+        WriteBehindQueue writer = CapturePersistence.shutdown();
+        if (writer != null) {
+            Log.i(TAG, "Writer " + writer);
+        }
+        FrameDeduplicator deduplicator = FrameDeduplicator.get(this);
+        if (deduplicator != null) {
+            Log.i(TAG, "Duplicates " + deduplicator.getFilter());
+        }
         super.onDestroy();
     }
 
+    // adb shell dumpsys activity service ho.palomakoba.securitysystem/.SensorsService [reset]
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        StartupTrace.get().dump(writer);
+        if (!mStarted) {
+            writer.println("  still starting");
+        }
+        CaptureLatency latency = CaptureLatency.get();
+        latency.dump(writer);
+        writer.println("Trigger tier " + TriggerTier.toString(mTier) + ", " + mMotions + " motions, "
+                + mScheduler);
+        mEventStats.dump(writer);
+        writer.println(CaptureScheduler.get());
+        writer.println("Writes: " + CapturePersistence.queue());
+        if (mTraceQueue != null) {
+            writer.println("Trace writes: " + mTraceQueue);
+        }
+        writer.println("Cameras: " + CameraRegistry.get(this));
+        if (mDualCamera != null) {
+            writer.println(mDualCamera);
+        }
+        if (args != null && args.length > 0 && "reset".equals(args[0])) {
+            latency.clear();
+            mEventStats.clear();
+            writer.println("Latencies and sensor events cleared");
+        }
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         throw new UnsupportedOperationException("Not yet implemented");
     }
 
-    private boolean IsLocked() {
-        KeyguardManager keyguardManager =
-                (KeyguardManager) getSystemService(Context.KEYGUARD_SERVICE);
-        if (keyguardManager != null) {
-            return keyguardManager.isKeyguardLocked();
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        int type = event.sensor.getType();
+        if (mTraceWriter != null) {
+            try {
+                mTraceWriter.write(type, event.timestamp, event.values);
+            } catch (IOException e) {
+                Log.e(TAG, "Can't write the sensor trace", e);
+                stopTrace();
+            }
         }
+        mEventStats.onEvent(type, event.timestamp, event.values[0],
+                mLockStateTracker.isLocked(), mTriggerEngine.getGate());
 
-        return true;
+        if (mSensorBatch != null) {
+            if (mSensorBatch.isFull()) {
+                processBatch();
+            }
+            mSensorBatch.add(type, event.timestamp, event.values);
+            if (!mBatchScheduled) {
+                mBatchScheduled = true;
+                mHandler.post(mProcessBatch);
+            }
+            return;
+        }
+
+        switch (type) {
+            case Sensor.TYPE_ACCELEROMETER:
+                if (mTriggerEngine.onAccelerometer(event.timestamp, event.values)) {
+                    onPickup(event.timestamp, event.values);
+                }
+                break;
+            case Sensor.TYPE_LIGHT:
+                mTriggerEngine.onLight(event.values[0]);
+                updateSchedule();
+                updateFrameStreaming();
+                break;
+            case Sensor.TYPE_PROXIMITY:
+                mTriggerEngine.onProximity(event.values[0]);
+                updateSchedule();
+                updateFrameStreaming();
+                break;
+        }
     }
 
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        LocalTime currentAccelerometerSensorEventTime = LocalTime.now();
-        long differenceInSeconds = ChronoUnit.SECONDS.between(previousAccelerometerSensorEventTime,
-                currentAccelerometerSensorEventTime);
+    private void startTrace() {
+        File folder = CaptureStorage.getTraceFolder(this);
+        if (folder == null) {
+            Log.e(TAG, "No storage for the sensor trace");
+            return;
+        }
+        String name = "trace_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US)
+                .format(new Date()) + SensorTraceWriter.EXTENSION;
+        File file = new File(folder, name);
+        mTraceQueue = new WriteBehindQueue("SecuritySystemTrace", TRACE_QUEUE_CAPACITY, 1,
+                WriteBehindQueue.OverflowPolicy.REJECT_NEWEST);
+        try {
+            mTraceWriter = new SensorTraceWriter(file, System.currentTimeMillis(), mTraceQueue);
+            Log.i(TAG, "Recording sensors to " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't create " + file, e);
+            mTraceQueue.shutdown();
+            mTraceQueue = null;
+        }
+    }
 
-        int type = event.sensor.getType();
+    private void flushTrace() {
+        if (mTraceWriter == null) {
+            return;
+        }
+        try {
+            mTraceWriter.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Can't write the sensor trace", e);
+            stopTrace();
+        }
+    }
 
-        if (differenceInSeconds >= SECONDS_TO_CHECK_SENSOR_VALUES) {
+    private void stopTrace() {
+        if (mTraceWriter == null) {
+            return;
+        }
+        try {
+            mTraceWriter.close();
+            Log.i(TAG, "Recorded " + mTraceWriter.getCount() + " sensor events, dropped "
+                    + mTraceWriter.getDropped());
+        } catch (IOException e) {
+            Log.e(TAG, "Can't close the sensor trace", e);
+        }
+        // the close is queued, the thread ends once it is done
+        mTraceQueue.shutdown();
+        mTraceWriter = null;
+        mTraceQueue = null;
+    }
 
-            if (type == Sensor.TYPE_ACCELEROMETER) {
-                if (event.values[1] > 4 && IsLocked() && hasLight && !inPocket) {
-                    Log.i(TAG, valuesToString(event.values));
-                    previousAccelerometerSensorEventTime = currentAccelerometerSensorEventTime;
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        if (mSensorBatch != null) {
+            processBatch();
+        }
+    }
 
-                    Intent takePictureIntent
-                            = new Intent(getApplicationContext(), CameraActivity.class);
-                    takePictureIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+    private void processBatch() {
+        int pickup = mSensorBatch.process(mTriggerEngine);
+        if (pickup >= 0) {
+            mSensorBatch.copyValues(pickup, mPickupValues);
+            onPickup(mSensorBatch.getTimestamp(pickup), mPickupValues);
+        }
+        mSensorBatch.clear();
+        updateSchedule();
+        updateFrameStreaming();
+    }
 
-                    startActivity(takePictureIntent);
-                    Log.i(TAG, "started camera activity");
+    // camera frames are only worth streaming when it is lying in the light
+    private void updateFrameStreaming() {
+        if (mWarmCamera == null) {
+            return;
+        }
+        TriggerGate gate = mTriggerEngine.getGate();
+        mWarmCamera.setFrameStreaming(mLockStateTracker.isLocked()
+                && gate.hasLight() && !gate.isInPocket());
+    }
 
-                }
-            }
+    private void onPickup(long timestampNanos, float[] values) {
+        if (!mLockStateTracker.isLocked()) {
+            return;
         }
+        Log.i(TAG, SensorFormat.valuesToString(values));
+        trigger(timestampNanos, values, CaptureIndex.REASON_PICKUP);
+    }
 
-        if (type == Sensor.TYPE_LIGHT) {
-            hasLight = !(event.values[0] <= 3);
+    // someone in front of the camera who doesn't move the phone
+    private void onMotion(long timestampNanos) {
+        if (!mLockStateTracker.isLocked()
+                || !mTriggerEngine.getGate().isArmed(timestampNanos)) {
+            return;
         }
+        Log.i(TAG, "Motion in front of the camera");
+        trigger(timestampNanos, NO_VALUES, CaptureIndex.REASON_MOTION);
+    }
+
+    private void trigger(long timestampNanos, float[] values, int reason) {
+        mTriggerEngine.onTriggered(timestampNanos);
+        // nothing can trigger again until the cooldown is over
+        updateSchedule();
 
-        if (type == Sensor.TYPE_PROXIMITY) {
-            inPocket = event.values[0] == 0;
+        int result = CaptureScheduler.get().submit(timestampNanos, values.clone(), reason,
+                SystemClock.elapsedRealtimeNanos());
+        if (result != CaptureScheduler.RESULT_STARTED) {
+            Log.i(TAG, "Trigger not started: " + result + ", " + CaptureScheduler.get());
         }
+    }
 
+    private void startCapture(CaptureScheduler.Job job) {
+        if (job.isCancelled()) {
+            return;
+        }
+        // how late the event reached us, batching and a capture in flight included
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (mDualCamera != null && mDualCamera.capture(job)) {
+            CaptureLatency.get().trace(CaptureLatency.PATH_DUAL, job.getTriggerNanos())
+                    .mark(CaptureLatency.STAGE_SENSOR_EVENT, now);
+            Log.i(TAG, "capture sent to both cameras");
+        } else if (mWarmCamera != null && mWarmCamera.capture(job)) {
+            CaptureLatency.get().trace(CaptureLatency.PATH_WARM, job.getTriggerNanos())
+                    .mark(CaptureLatency.STAGE_SENSOR_EVENT, now);
+            Log.i(TAG, "capture sent to warm camera");
+        } else {
+            CaptureLatency.get().trace(CaptureLatency.PATH_COLD, job.getTriggerNanos())
+                    .mark(CaptureLatency.STAGE_SENSOR_EVENT, now);
+            startCameraActivity(job);
+        }
+        scheduleCaptureExpiry();
     }
 
-    private String valuesToString(float[] values) {
-        DecimalFormat df = new DecimalFormat("#");
+    private void startCameraActivity(CaptureScheduler.Job job) {
+        Intent takePictureIntent
+                = new Intent(getApplicationContext(), CameraActivity.class);
+        takePictureIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        takePictureIntent.putExtra(CameraActivity.EXTRA_JOB_ID, job.getId());
+        takePictureIntent.putExtra(CameraActivity.EXTRA_TRIGGER_NANOS, job.getTriggerNanos());
+        takePictureIntent.putExtra(CameraActivity.EXTRA_TRIGGER_VALUES, job.getValues());
+        takePictureIntent.putExtra(CameraActivity.EXTRA_TRIGGER_REASON, job.getReason());
+
+        startActivity(takePictureIntent);
+        Log.i(TAG, "started camera activity");
+    }
+
+    private void scheduleCaptureExpiry() {
+        mHandler.removeCallbacks(mExpireCaptures);
+        long deadline = CaptureScheduler.get().getDeadlineNanos();
+        if (deadline >= 0) {
+            mHandler.postDelayed(mExpireCaptures, TimeUnit.NANOSECONDS.toMillis(
+                    Math.max(0, deadline - SystemClock.elapsedRealtimeNanos())) + 1);
+        }
+    }
 
-        return "X: " + df.format(values[0]) +
-                " Y: " +
-                df.format(values[1]) +
-                " Z: " +
-                df.format(values[2]);
+    // a job that never finished, the camera service or the activity is stuck
+    private void expireCaptures() {
+        if (CaptureScheduler.get().expire(SystemClock.elapsedRealtimeNanos())) {
+            Log.e(TAG, "Capture timed out, " + CaptureScheduler.get());
+        }
+        scheduleCaptureExpiry();
     }
 
     @Override
@@ -149,11 +691,14 @@ public class SensorsService extends Service implements SensorEventListener {
         NotificationManager mNotificationManager =
                 (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
 
-        NotificationChannel notificationChannel = new
-                NotificationChannel("ho.palomakoba.securitysystem",
-                "Security Service", NotificationManager.IMPORTANCE_NONE);
-        notificationChannel.setLockscreenVisibility(Notification.VISIBILITY_PRIVATE);
-        mNotificationManager.createNotificationChannel(notificationChannel);
+        NotificationChannel notificationChannel =
+                mNotificationManager.getNotificationChannel("ho.palomakoba.securitysystem");
+        if (notificationChannel == null) {
+            notificationChannel = new NotificationChannel("ho.palomakoba.securitysystem",
+                    "Security Service", NotificationManager.IMPORTANCE_NONE);
+            notificationChannel.setLockscreenVisibility(Notification.VISIBILITY_PRIVATE);
+            mNotificationManager.createNotificationChannel(notificationChannel);
+        }
 
         Intent intent = new Intent(SensorsService.this, SensorsService.class);
         PendingIntent pendingIntent = PendingIntent
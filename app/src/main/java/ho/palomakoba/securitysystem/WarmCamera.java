@@ -0,0 +1,518 @@
+package ho.palomakoba.securitysystem;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the camera open with a configured capture session while the device
+ * is locked, so a trigger only has to send the capture request instead of
+ * going through the activity start, camera open and session setup.
+ * <p>
+ * No repeating request is sent while waiting, unless look-back or motion
+ * detection want the low resolution frames, the sensor does not stream and
+ * 3A starts from the still capture request just like on the cold path. All the
+ * camera work happens on the camera thread. The camera is released after the
+ * idle timeout without captures, or when {@link #release()} is called on
+ * unlock.
+ */
+public class WarmCamera {
+    private static final String TAG = "SecuritySystem";
+    private static final int LOOK_BACK_FPS = 10;
+    private static final long LOOK_BACK_MAX_BYTES = 8 * 1024 * 1024;
+    private static final int MOTION_FPS = 10;
+
+    public interface Callback {
+        // the camera was not ready anymore, the job has to go the cold way
+        void onCaptureFailed(CaptureScheduler.Job job);
+
+        // called on the camera thread when the frames show motion
+        void onMotion(long timestampNanos);
+    }
+
+    private final Context mContext;
+    private final long mIdleTimeoutMillis;
+    private final int mBurstSize;
+    private final int mBurstKeepCount;
+    private final boolean mSyncWrites;
+    private final long mLookBackNanos;
+    private final boolean mMotionDetection;
+    private final int mCameraFacing;
+    private final CapturePolicy mCapturePolicy;
+    private final Callback mCallback;
+
+    private HandlerThread mCameraThread;
+    private Handler mCameraHandler;
+
+    private CameraDevice mCameraDevice;
+    private CameraCaptureSession mCaptureSession;
+    private ImageReader mImageReader;
+    private CaptureRequest mCaptureRequest;
+    private BurstCapture mBurstCapture;
+    private LookBackRecorder mLookBack;
+    private MotionDetector mMotion;
+    private long mLastMotionNanos;
+    private ImageReader mFrameReader;
+    private CaptureRequest mFrameRequest;
+    private volatile boolean mFrameStreamWanted;
+    private File mImageFolder;
+    private int mSensorOrientation;
+    private CapturePolicy.Choice mCaptureChoice;
+    private boolean mOpening;
+    private int mCameraFacingOpen;
+    // read by the writer thread when the burst is saved
+    private volatile CaptureScheduler.Job mJob;
+    private volatile long mTriggerNanos;
+    private volatile float[] mTriggerValues;
+    private volatile int mTriggerReason;
+    private volatile boolean mReady;
+
+    private final Runnable mIdleRelease = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(TAG, "Warm camera idle");
+            closeCamera();
+        }
+    };
+
+    public WarmCamera(Context context, SecurityPreferences preferences, Callback callback) {
+        mContext = context;
+        mIdleTimeoutMillis = TimeUnit.SECONDS.toMillis(preferences.getWarmCameraIdleSeconds());
+        mBurstSize = preferences.getBurstSize();
+        mBurstKeepCount = preferences.getBurstKeepCount();
+        mSyncWrites = preferences.isSyncWritesEnabled();
+        mLookBackNanos = TimeUnit.SECONDS.toNanos(preferences.getLookBackSeconds());
+        mMotionDetection = preferences.isMotionDetectionEnabled();
+        mCameraFacing = preferences.getCameraFacing();
+        mCapturePolicy = preferences.getCapturePolicy();
+        mCallback = callback;
+    }
+
+    public void start() {
+        mCameraThread = new HandlerThread("SecuritySystemCamera");
+        mCameraThread.start();
+        mCameraHandler = new Handler(mCameraThread.getLooper());
+    }
+
+    public void stop() {
+        mCameraHandler.post(this::closeCamera);
+        // queued writes go on in the writer, nobody waits for them
+        mCameraThread.quitSafely();
+    }
+
+    public void open() {
+        mCameraHandler.post(this::openCamera);
+    }
+
+    public void release() {
+        mCameraHandler.post(this::closeCamera);
+    }
+
+    public boolean isReady() {
+        return mReady;
+    }
+
+    /**
+     * Streams low resolution frames into the look-back buffer and the motion
+     * detector while the camera is warm, when one of them is turned on.
+     */
+    public void setFrameStreaming(boolean streaming) {
+        if ((mLookBackNanos == 0 && !mMotionDetection) || mFrameStreamWanted == streaming) {
+            return;
+        }
+        mFrameStreamWanted = streaming;
+        mCameraHandler.post(this::updateFrameStreaming);
+    }
+
+    /**
+     * Runs the job of the {@link CaptureScheduler}, it is finished once its
+     * frames are written.
+     *
+     * @return false if the camera is not warm, the caller has to take the
+     * picture the cold way
+     */
+    public boolean capture(final CaptureScheduler.Job job) {
+        if (!mReady) {
+            return false;
+        }
+        mCameraHandler.post(() -> takePicture(job, job.getTriggerNanos(), job.getValues(),
+                job.getReason()));
+        return true;
+    }
+
+    // the low resolution stream feeds the look-back buffer and the motion detector
+    private final ImageReader.OnImageAvailableListener mFrameListener =
+            new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image = reader.acquireLatestImage();
+            if (image == null) {
+                return;
+            }
+            try {
+                if (mLookBack != null) {
+                    mLookBack.onFrame(image);
+                }
+                long now = SystemClock.elapsedRealtimeNanos();
+                if (mMotion != null
+                        && now - mLastMotionNanos >= TimeUnit.SECONDS.toNanos(1) / MOTION_FPS) {
+                    mLastMotionNanos = now;
+                    Image.Plane luma = image.getPlanes()[0];
+                    if (mMotion.process(luma.getBuffer(), luma.getRowStride(),
+                            luma.getPixelStride())) {
+                        Log.i(TAG, "Motion in " + mMotion.getChangedBlocks() + " of "
+                                + mMotion.getBlockCount() + " blocks");
+                        mCallback.onMotion(now);
+                    }
+                }
+            } finally {
+                image.close();
+            }
+        }
+    };
+
+    private final BurstCapture.Listener mBurstListener = new BurstCapture.Listener() {
+        @Override
+        public void onBurstCaptured() {
+            scheduleIdleRelease();
+        }
+
+        @Override
+        public void onBurstSaved(List<File> files) {
+            for (File file : files) {
+                CaptureStorage.registerCapture(mContext, file, mCameraFacingOpen,
+                        mTriggerReason, mTriggerNanos, mTriggerValues);
+            }
+            // the frames are out of the reader, a trigger that came during
+            // the burst is taken with the camera still open
+            final CaptureScheduler.Job job = mJob;
+            CaptureScheduler scheduler = CaptureScheduler.get();
+            final CaptureScheduler.Job extension = scheduler.takeExtension(job.getId());
+            if (extension != null) {
+                Log.i(TAG, "Extending the burst");
+                mCameraHandler.post(() -> takePicture(job, extension.getTriggerNanos(),
+                        extension.getValues(), extension.getReason()));
+            } else {
+                scheduler.finish(job.getId(), SystemClock.elapsedRealtimeNanos());
+            }
+        }
+    };
+
+    private final CameraDevice.StateCallback mCameraDeviceStateCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(@NonNull CameraDevice cameraDevice) {
+            if (!mOpening) {
+                // released while opening
+                cameraDevice.close();
+                return;
+            }
+            mCameraDevice = cameraDevice;
+            Log.i(TAG, "Warm camera opened");
+            createCaptureSession();
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice cameraDevice) {
+            cameraDevice.close();
+            closeCamera();
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice cameraDevice, int i) {
+            Log.e(TAG, "Warm camera error " + i);
+            cameraDevice.close();
+            closeCamera();
+        }
+    };
+
+    private void openCamera() {
+        if (mOpening || mCameraDevice != null) {
+            return;
+        }
+        if (ContextCompat.checkSelfPermission(mContext, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED
+                || ContextCompat.checkSelfPermission(mContext, Manifest.permission.WRITE_EXTERNAL_STORAGE)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.i(TAG, "Warm camera needs camera and storage permissions");
+            return;
+        }
+
+        mImageFolder = CaptureStorage.getCaptureFolder(mContext);
+        if (!mImageFolder.exists() && !mImageFolder.mkdirs()) {
+            Log.e(TAG, "Can't create " + mImageFolder);
+            return;
+        }
+
+        CameraInfo camera = CameraRegistry.get(mContext).find(mCameraFacing);
+        if (camera == null) {
+            Log.e(TAG, "No camera found");
+            return;
+        }
+
+        CameraManager cameraManager = (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            mSensorOrientation = camera.getSensorOrientation();
+            mCameraFacingOpen = camera.getFacing();
+            mCaptureChoice = mCapturePolicy.choose(camera);
+            Log.i(TAG, "Warm camera capturing " + mCaptureChoice);
+            CaptureSize imageSize = mCaptureChoice.getSize();
+
+            mBurstCapture = new BurstCapture(mBurstSize, mBurstKeepCount, mImageFolder,
+                    CaptureStorage.imagePrefix(mCameraFacingOpen), mSyncWrites,
+                    FrameDeduplicator.get(mContext), CaptureEncryption.get(mContext),
+                    mCameraHandler, mBurstListener);
+            mImageReader = ImageReader.newInstance(imageSize.getWidth(), imageSize.getHeight(),
+                    ImageFormat.JPEG, mBurstCapture.getBurstSize());
+            mImageReader.setOnImageAvailableListener(mBurstCapture, mCameraHandler);
+
+            if (mLookBackNanos > 0 || mMotionDetection) {
+                CaptureSize frameSize = LookBackRecorder.chooseSize(camera.getYuvSizes());
+                if (mLookBackNanos > 0
+                        && (mLookBack == null || !mLookBack.getSize().equals(frameSize))) {
+                    mLookBack = new LookBackRecorder(frameSize, LOOK_BACK_FPS, LOOK_BACK_MAX_BYTES);
+                    if (mLookBackNanos > mLookBack.getMaxWindowNanos()) {
+                        Log.w(TAG, "Look-back limited to " + TimeUnit.NANOSECONDS.toMillis(
+                                mLookBack.getMaxWindowNanos()) + " ms by the frame buffer");
+                    }
+                }
+                if (mMotionDetection) {
+                    mMotion = new MotionDetector(frameSize.getWidth(), frameSize.getHeight());
+                }
+                mFrameReader = ImageReader.newInstance(frameSize.getWidth(),
+                        frameSize.getHeight(), ImageFormat.YUV_420_888, 2);
+                mFrameReader.setOnImageAvailableListener(mFrameListener, mCameraHandler);
+            }
+
+            mOpening = true;
+            cameraManager.openCamera(camera.getId(), mCameraDeviceStateCallback, mCameraHandler);
+        } catch (CameraAccessException | SecurityException | IllegalArgumentException e) {
+            Log.e(TAG, "Can't open the warm camera", e);
+            // the camera may be gone, read them again next time
+            CameraRegistry.get(mContext).invalidate();
+            closeCamera();
+        }
+    }
+
+    private void createCaptureSession() {
+        try {
+            List<Surface> outputSurfaces = new ArrayList<>();
+            outputSurfaces.add(mImageReader.getSurface());
+            if (mFrameReader != null) {
+                outputSurfaces.add(mFrameReader.getSurface());
+            }
+
+            mCameraDevice.createCaptureSession(outputSurfaces,
+                    new CameraCaptureSession.StateCallback() {
+                        @Override
+                        public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
+                            if (mCameraDevice == null) {
+                                return;
+                            }
+                            mCaptureSession = cameraCaptureSession;
+                            try {
+                                mCaptureRequest = createCaptureRequest();
+                            } catch (CameraAccessException e) {
+                                Log.e(TAG, "Can't create the warm capture request", e);
+                                closeCamera();
+                                return;
+                            }
+                            mOpening = false;
+                            mReady = true;
+                            scheduleIdleRelease();
+                            Log.i(TAG, "Warm camera ready");
+
+                            updateFrameStreaming();
+                        }
+
+                        @Override
+                        public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
+                            Log.e(TAG, "Warm camera session failed");
+                            closeCamera();
+                        }
+                    }, mCameraHandler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Can't create the warm camera session", e);
+            closeCamera();
+        }
+    }
+
+    private CaptureRequest createCaptureRequest() throws CameraAccessException {
+        CaptureRequest.Builder captureRequestBuilder = mCameraDevice.createCaptureRequest(
+                CameraDevice.TEMPLATE_STILL_CAPTURE
+        );
+        captureRequestBuilder.addTarget(mImageReader.getSurface());
+        captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
+                CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+        captureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, mSensorOrientation);
+        captureRequestBuilder.set(CaptureRequest.JPEG_QUALITY,
+                (byte) mCaptureChoice.getJpegQuality());
+
+        if (mFrameReader != null) {
+            CaptureRequest.Builder frameRequestBuilder = mCameraDevice.createCaptureRequest(
+                    CameraDevice.TEMPLATE_PREVIEW
+            );
+            frameRequestBuilder.addTarget(mFrameReader.getSurface());
+            frameRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
+                    CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            mFrameRequest = frameRequestBuilder.build();
+        }
+        return captureRequestBuilder.build();
+    }
+
+    private void updateFrameStreaming() {
+        if (mCaptureSession == null || mFrameRequest == null) {
+            return;
+        }
+        try {
+            if (mFrameStreamWanted) {
+                if (mMotion != null) {
+                    // the scene may have changed while the stream was off
+                    mMotion.reset();
+                }
+                mCaptureSession.setRepeatingRequest(mFrameRequest, null, mCameraHandler);
+                Log.i(TAG, "Frames streaming");
+            } else {
+                mCaptureSession.stopRepeating();
+                Log.i(TAG, "Frames stopped");
+            }
+            if (mLookBack != null) {
+                mLookBack.setRecording(mFrameStreamWanted);
+            }
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Can't change the frame streaming", e);
+        }
+    }
+
+    private void persistLookBack(final long triggerNanos, final float[] values) {
+        if (mLookBack == null) {
+            return;
+        }
+        final LookBackRecorder lookBack = mLookBack;
+        // pinned now, streaming goes on until the writer gets to it
+        if (!lookBack.snapshot(triggerNanos, mLookBackNanos)) {
+            return;
+        }
+        final File folder = mImageFolder;
+        final int camera = mCameraFacingOpen;
+        CapturePersistence.queue().submit(new WriteBehindQueue.Task() {
+            @Override
+            public void write() {
+                for (File file : lookBack.persist(folder)) {
+                    CaptureStorage.registerCapture(mContext, file, camera,
+                            CaptureIndex.REASON_LOOK_BACK, triggerNanos, values);
+                }
+            }
+
+            @Override
+            public void discard() {
+                lookBack.discard();
+                Log.e(TAG, "Writer queue full, look-back dropped");
+            }
+        });
+    }
+
+    private void takePicture(CaptureScheduler.Job job, long triggerNanos, float[] values,
+                             int reason) {
+        if (mCaptureSession == null) {
+            mCallback.onCaptureFailed(job);
+            return;
+        }
+        if (!CaptureScheduler.get().startCapture(job.getId())) {
+            Log.i(TAG, "Capture cancelled");
+            return;
+        }
+        mCameraHandler.removeCallbacks(mIdleRelease);
+        mJob = job;
+        mTriggerNanos = triggerNanos;
+        mTriggerValues = values;
+        mTriggerReason = reason;
+        final CaptureLatency.Trace trace = CaptureLatency.get().trace(
+                CaptureLatency.PATH_WARM, triggerNanos);
+        mBurstCapture.setTrace(trace);
+        if (mFrameReader != null) {
+            persistLookBack(triggerNanos, values);
+        }
+        try {
+            mBurstCapture.capture(mCaptureSession, mCaptureRequest, new CameraCaptureSession.CaptureCallback() {
+                private boolean mStarted;
+
+                @Override
+                public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, long timestamp, long frameNumber) {
+                    super.onCaptureStarted(session, request, timestamp, frameNumber);
+                    trace.mark(CaptureLatency.STAGE_CAPTURE_STARTED, SystemClock.elapsedRealtimeNanos());
+                    if (!mStarted) {
+                        Log.i(TAG, "Trigger to shutter (warm): " + TimeUnit.NANOSECONDS
+                                .toMillis(SystemClock.elapsedRealtimeNanos() - mTriggerNanos) + " ms");
+                    }
+                    mStarted = true;
+                }
+            });
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Warm capture failed", e);
+            closeCamera();
+            mCallback.onCaptureFailed(job);
+        }
+    }
+
+    private void scheduleIdleRelease() {
+        mCameraHandler.removeCallbacks(mIdleRelease);
+        if (mIdleTimeoutMillis > 0) {
+            mCameraHandler.postDelayed(mIdleRelease, mIdleTimeoutMillis);
+        }
+    }
+
+    private void closeCamera() {
+        mReady = false;
+        mOpening = false;
+        mCameraHandler.removeCallbacks(mIdleRelease);
+        if (null != mBurstCapture) {
+            mBurstCapture.cancel();
+        }
+        if (null != mCaptureSession) {
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        if (null != mCameraDevice) {
+            mCameraDevice.close();
+            mCameraDevice = null;
+            Log.i(TAG, "Warm camera closed");
+        }
+        if (null != mImageReader) {
+            // frames of the last burst may still be in the writer queue
+            mBurstCapture.closeReaderWhenSaved(mImageReader);
+            mImageReader = null;
+        }
+        if (null != mFrameReader) {
+            if (mLookBack != null) {
+                mLookBack.setRecording(false);
+            }
+            mFrameReader.close();
+            mFrameReader = null;
+        }
+        mMotion = null;
+        mCaptureRequest = null;
+        mFrameRequest = null;
+        mBurstCapture = null;
+    }
+}
@@ -0,0 +1,97 @@
+package ho.palomakoba.securitysystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The camera setup of a trigger reading the characteristics every time, like
+ * CameraActivity did, against reading them from {@link CameraInfoCache}. Each
+ * call to the fake camera service costs {@value #CALL_MICROS} us, about a
+ * characteristics Binder call on a mid range phone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CameraInfoCacheBenchmark {
+    private static final long CALL_MICROS = 500;
+
+    private CameraInfoCache mCache;
+
+    @Setup
+    public void setUp() {
+        mCache = new CameraInfoCache(new SlowProvider(
+                camera("0", CameraInfo.FACING_BACK), camera("1", CameraInfo.FACING_FRONT)));
+    }
+
+    @Benchmark
+    public CameraInfo uncached() {
+        mCache.invalidate();
+        return mCache.find(CameraInfo.FACING_FRONT);
+    }
+
+    @Benchmark
+    public CameraInfo cached() {
+        return mCache.find(CameraInfo.FACING_FRONT);
+    }
+
+    private static CameraInfo camera(String id, int facing) {
+        return new CameraInfo(id, facing, 270,
+                new CaptureSize[]{new CaptureSize(1920, 1080), new CaptureSize(1280, 720)},
+                new long[]{50_000_000L, 20_000_000L},
+                new CaptureSize[]{new CaptureSize(640, 480), new CaptureSize(320, 240)},
+                new int[]{CameraInfo.CAPABILITY_BACKWARD_COMPATIBLE});
+    }
+
+    // stands in for the camera service
+    private static class SlowProvider implements CameraInfoCache.Provider {
+        private final CameraInfo[] mCameras;
+
+        SlowProvider(CameraInfo... cameras) {
+            mCameras = cameras;
+        }
+
+        @Override
+        public String[] getCameraIds() {
+            call();
+            String[] ids = new String[mCameras.length];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = mCameras[i].getId();
+            }
+            return ids;
+        }
+
+        @Override
+        public CameraInfo getCameraInfo(String id) {
+            call();
+            for (CameraInfo camera : mCameras) {
+                if (camera.getId().equals(id)) {
+                    return camera;
+                }
+            }
+            throw new IllegalArgumentException("No camera " + id);
+        }
+
+        @Override
+        public Collection<Set<String>> getConcurrentCameraIds() {
+            call();
+            return Collections.emptySet();
+        }
+
+        private static void call() {
+            long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(CALL_MICROS);
+            while (System.nanoTime() < end) {
+                // busy wait, sleeping is too coarse
+            }
+        }
+    }
+}
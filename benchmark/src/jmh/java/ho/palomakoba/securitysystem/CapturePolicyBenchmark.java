@@ -0,0 +1,74 @@
+package ho.palomakoba.securitysystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size selection, what chooseOptimalSize did before {@link TargetCapturePolicy}:
+ * the JPEG size and quality for the front and back camera of a common phone,
+ * with the default targets and with stall and file size budgets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CapturePolicyBenchmark {
+    private static final long STALL_NANOS_PER_PIXEL = 20;
+
+    private static final int[][] FRONT = {
+            {3264, 2448}, {3264, 1836}, {2448, 2448}, {2560, 1440}, {1920, 1440}, {1920, 1080},
+            {1600, 1200}, {1440, 1080}, {1280, 960}, {1280, 720}, {1024, 768}, {960, 720},
+            {800, 600}, {720, 720}, {720, 480}, {640, 480}, {352, 288}, {320, 240}, {176, 144}};
+    private static final int[][] BACK = {
+            {4032, 3024}, {4032, 2268}, {4032, 1908}, {3024, 3024}, {3840, 2160}, {3264, 2448},
+            {3264, 1836}, {2976, 2976}, {2880, 2160}, {2560, 1920}, {2560, 1440}, {2448, 2448},
+            {2304, 1728}, {2160, 2160}, {1920, 1440}, {1920, 1080}, {1920, 864}, {1600, 1200},
+            {1536, 864}, {1440, 1080}, {1280, 960}, {1280, 720}, {1088, 1088}, {1024, 768},
+            {960, 720}, {800, 600}, {800, 480}, {720, 720}, {720, 480}, {640, 480}, {640, 360},
+            {480, 360}, {352, 288}, {320, 240}, {176, 144}};
+
+    private CameraInfo mFront;
+    private CameraInfo mBack;
+    private CapturePolicy mDefaults;
+    private CapturePolicy mBudgets;
+
+    @Setup
+    public void setUp() {
+        mFront = camera("1", CameraInfo.FACING_FRONT, FRONT);
+        mBack = camera("0", CameraInfo.FACING_BACK, BACK);
+        mDefaults = new TargetCapturePolicy(0, 0, 80);
+        mBudgets = new TargetCapturePolicy(TimeUnit.MILLISECONDS.toNanos(100), 400 * 1024, 80);
+    }
+
+    @Benchmark
+    public CapturePolicy.Choice frontDefaults() {
+        return mDefaults.choose(mFront);
+    }
+
+    @Benchmark
+    public CapturePolicy.Choice backDefaults() {
+        return mDefaults.choose(mBack);
+    }
+
+    @Benchmark
+    public CapturePolicy.Choice backBudgets() {
+        return mBudgets.choose(mBack);
+    }
+
+    private static CameraInfo camera(String id, int facing, int[][] dimensions) {
+        CaptureSize[] sizes = new CaptureSize[dimensions.length];
+        long[] stalls = new long[dimensions.length];
+        for (int i = 0; i < dimensions.length; i++) {
+            sizes[i] = new CaptureSize(dimensions[i][0], dimensions[i][1]);
+            stalls[i] = sizes[i].getArea() * STALL_NANOS_PER_PIXEL;
+        }
+        return new CameraInfo(id, facing, facing == CameraInfo.FACING_FRONT ? 270 : 90,
+                sizes, stalls, new CaptureSize[0], new int[0]);
+    }
+}
@@ -0,0 +1,109 @@
+package ho.palomakoba.securitysystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * Saving a JPEG plane with {@link EncryptedCaptureWriter} against the plain
+ * {@link AtomicFileWriter} write of {@link ImageSaveBenchmark}, and reading
+ * it back through {@link EncryptedCaptureReader}. The master key is a
+ * software key here, on a device it only wraps the data key once per file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EncryptionBenchmark {
+    @Param({"2", "8"})
+    public int sizeMb;
+
+    @Param({"64", "256"})
+    public int segmentKb;
+
+    private ByteBuffer mPlane;
+    private ByteBuffer mReadBuffer;
+    private SecretKey mKey;
+    private File mFolder;
+    private File mPlain;
+    private File mEncrypted;
+
+    @Setup
+    public void setUp() throws IOException, GeneralSecurityException {
+        byte[] jpeg = new byte[sizeMb * 1024 * 1024];
+        new Random(sizeMb).nextBytes(jpeg);
+        mPlane = ByteBuffer.allocateDirect(jpeg.length);
+        mPlane.put(jpeg);
+        mReadBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        mKey = generator.generateKey();
+
+        String dir = System.getProperty("benchmark.dir");
+        mFolder = dir != null
+                ? new File(dir)
+                : Files.createTempDirectory("benchmark").toFile();
+        mPlain = new File(mFolder, "front.jpg");
+        mEncrypted = new File(mFolder, "front.jpg" + EncryptedCaptureWriter.EXTENSION);
+        mPlane.clear();
+        EncryptedCaptureWriter.write(mPlane, mEncrypted, mKey, segmentKb * 1024, false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mPlain.delete();
+        //noinspection ResultOfMethodCallIgnored
+        mEncrypted.delete();
+        if (System.getProperty("benchmark.dir") == null) {
+            //noinspection ResultOfMethodCallIgnored
+            mFolder.delete();
+        }
+    }
+
+    @Benchmark
+    public long savePlain() throws IOException {
+        mPlane.clear();
+        AtomicFileWriter.write(mPlane, mPlain, false);
+        return mPlain.length();
+    }
+
+    @Benchmark
+    public long saveEncrypted() throws IOException {
+        mPlane.clear();
+        EncryptedCaptureWriter.write(mPlane, mEncrypted, mKey, segmentKb * 1024, false);
+        return mEncrypted.length();
+    }
+
+    @Benchmark
+    public long readEncrypted() throws IOException {
+        long read = 0;
+        try (FileInputStream in = new FileInputStream(mEncrypted);
+             EncryptedCaptureReader reader = new EncryptedCaptureReader(in.getChannel(), mKey)) {
+            int count;
+            while ((count = reader.read(mReadBuffer)) >= 0) {
+                read += count;
+                mReadBuffer.clear();
+            }
+        }
+        return read;
+    }
+}
@@ -0,0 +1,107 @@
+package ho.palomakoba.securitysystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per frame work on the 320x240 look-back stream: the duplicate hash and
+ * motion detection, on noisy Y planes. Also the hash of a 12 MP plane and of
+ * the ARGB pixels of a sampled JPEG decode, the duplicate check that follows
+ * it, and motion on 640x480, the other common stream size. With
+ * {@code -prof gc} every one of them should allocate nothing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameAnalysisBenchmark {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int FRAMES = 16;
+    private static final int VGA_WIDTH = 640;
+    private static final int VGA_HEIGHT = 480;
+    private static final int LARGE_WIDTH = 4000;
+    private static final int LARGE_HEIGHT = 3000;
+    private static final int ARGB_WIDTH = 125;
+    private static final int ARGB_HEIGHT = 94;
+
+    private final ByteBuffer[] mPlanes = new ByteBuffer[FRAMES];
+    private final FrameHash mHash = new FrameHash();
+    private final ByteBuffer[] mVgaPlanes = new ByteBuffer[FRAMES];
+    private ByteBuffer mLargePlane;
+    private final int[] mArgb = new int[ARGB_WIDTH * ARGB_HEIGHT];
+    private final DuplicateFilter mFilter = new DuplicateFilter(16, 10, Long.MAX_VALUE);
+    private MotionDetector mDetector;
+    private MotionDetector mVgaDetector;
+    private int mFrame;
+    private long mFilterFrame;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < FRAMES; i++) {
+            mPlanes[i] = randomPlane(WIDTH, HEIGHT, random);
+            mVgaPlanes[i] = randomPlane(VGA_WIDTH, VGA_HEIGHT, random);
+        }
+        mLargePlane = randomPlane(LARGE_WIDTH, LARGE_HEIGHT, random);
+        for (int i = 0; i < mArgb.length; i++) {
+            mArgb[i] = random.nextInt();
+        }
+        mDetector = new MotionDetector(WIDTH, HEIGHT);
+        mVgaDetector = new MotionDetector(VGA_WIDTH, VGA_HEIGHT);
+    }
+
+    @Benchmark
+    public long hashLuma() {
+        return mHash.hashLuma(nextPlane(), WIDTH, HEIGHT, WIDTH, 1);
+    }
+
+    @Benchmark
+    public boolean detectMotion() {
+        return mDetector.process(nextPlane(), WIDTH, 1);
+    }
+
+    @Benchmark
+    public long hashLuma12Mp() {
+        return mHash.hashLuma(mLargePlane, LARGE_WIDTH, LARGE_HEIGHT, LARGE_WIDTH, 1);
+    }
+
+    @Benchmark
+    public long hashArgb() {
+        return mHash.hashArgb(mArgb, ARGB_WIDTH, ARGB_HEIGHT, ARGB_WIDTH);
+    }
+
+    @Benchmark
+    public boolean duplicateFilter() {
+        mFilterFrame++;
+        return mFilter.isDuplicate(mFilterFrame * 0x9e3779b97f4a7c15L, mFilterFrame,
+                mFilterFrame);
+    }
+
+    @Benchmark
+    public boolean detectMotionVga() {
+        mFrame = (mFrame + 1) % FRAMES;
+        return mVgaDetector.process(mVgaPlanes[mFrame], VGA_WIDTH, 1);
+    }
+
+    private static ByteBuffer randomPlane(int width, int height, Random random) {
+        byte[] luma = new byte[width * height];
+        random.nextBytes(luma);
+        ByteBuffer plane = ByteBuffer.allocateDirect(luma.length);
+        plane.put(luma).flip();
+        return plane;
+    }
+
+    private ByteBuffer nextPlane() {
+        mFrame = (mFrame + 1) % FRAMES;
+        return mPlanes[mFrame];
+    }
+}
@@ -0,0 +1,86 @@
+package ho.palomakoba.securitysystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persisting a JPEG plane the way ImageSaver does, with {@link AtomicFileWriter}
+ * from a direct buffer, against the heap copy and stream write it did before.
+ * The files go to a temporary folder, or to the one in the
+ * {@code benchmark.dir} system property to measure a given disk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageSaveBenchmark {
+    @Param({"2", "8"})
+    public int sizeMb;
+
+    @Param({"false", "true"})
+    public boolean sync;
+
+    private ByteBuffer mPlane;
+    private File mFolder;
+    private File mTarget;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] jpeg = new byte[sizeMb * 1024 * 1024];
+        new Random(sizeMb).nextBytes(jpeg);
+        mPlane = ByteBuffer.allocateDirect(jpeg.length);
+        mPlane.put(jpeg);
+
+        String dir = System.getProperty("benchmark.dir");
+        mFolder = dir != null
+                ? new File(dir)
+                : Files.createTempDirectory("benchmark").toFile();
+        mTarget = new File(mFolder, "front.jpg");
+    }
+
+    @TearDown
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mTarget.delete();
+        if (System.getProperty("benchmark.dir") == null) {
+            //noinspection ResultOfMethodCallIgnored
+            mFolder.delete();
+        }
+    }
+
+    @Benchmark
+    public long save() throws IOException {
+        mPlane.clear();
+        AtomicFileWriter.write(mPlane, mTarget, sync);
+        return mTarget.length();
+    }
+
+    // what ImageSaver did before, synced too when the other one is
+    @Benchmark
+    public long saveHeapCopy() throws IOException {
+        mPlane.clear();
+        byte[] bytes = new byte[mPlane.remaining()];
+        mPlane.get(bytes);
+        try (FileOutputStream out = new FileOutputStream(mTarget)) {
+            out.write(bytes);
+            if (sync) {
+                out.getFD().sync();
+            }
+        }
+        return mTarget.length();
+    }
+}
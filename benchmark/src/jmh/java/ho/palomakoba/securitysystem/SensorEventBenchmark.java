@@ -0,0 +1,88 @@
+package ho.palomakoba.securitysystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The accelerometer path of SensorsService: 20 s of events at 50 Hz fed to the
+ * {@link TriggerEngine} one by one, as onSensorChanged did, and through a
+ * {@link SensorBatch} flushed every 64 events, as the batched listener does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SensorEventBenchmark {
+    private static final int EVENTS = 1000;
+    private static final long PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final int FLUSH = 64;
+
+    // a phone left on a desk, or one picked up every 5 s
+    @Param({"desk", "pickups"})
+    public String scene;
+
+    private final float[][] mValues = new float[EVENTS][];
+    private final long[] mTimestamps = new long[EVENTS];
+    private TriggerEngine mEngine;
+    private SensorBatch mBatch;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        boolean pickups = "pickups".equals(scene);
+        for (int i = 0; i < EVENTS; i++) {
+            mTimestamps[i] = i * PERIOD_NANOS;
+            // the second half of every 5 s is spent tilted up in a hand
+            boolean held = pickups && i % 250 >= 125;
+            float noise = held ? 1.5f : 0.05f;
+            mValues[i] = held
+                    ? new float[]{noise(random, noise), 6.9f + noise(random, noise),
+                    6.9f + noise(random, noise)}
+                    : new float[]{noise(random, noise), noise(random, noise),
+                    9.81f + noise(random, noise)};
+        }
+        mEngine = new TriggerEngine(new TriggerGate(TimeUnit.SECONDS.toNanos(10)));
+        mBatch = new SensorBatch(FLUSH);
+    }
+
+    @Benchmark
+    public int perEvent() {
+        mEngine.clear();
+        int pickups = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            if (mEngine.onAccelerometer(mTimestamps[i], mValues[i])) {
+                pickups++;
+            }
+        }
+        return pickups;
+    }
+
+    @Benchmark
+    public int batched() {
+        mEngine.clear();
+        mBatch.clear();
+        int pickups = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            mBatch.add(SensorBatch.TYPE_ACCELEROMETER, mTimestamps[i], mValues[i]);
+            if (mBatch.isFull() || i == EVENTS - 1) {
+                if (mBatch.process(mEngine) >= 0) {
+                    pickups++;
+                }
+                mBatch.clear();
+            }
+        }
+        return pickups;
+    }
+
+    private static float noise(Random random, float amplitude) {
+        return (float) random.nextGaussian() * amplitude;
+    }
+}
@@ -0,0 +1,25 @@
+package ho.palomakoba.securitysystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The log line of a pickup, {@link SensorFormat#valuesToString(float[])}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SensorFormatBenchmark {
+    private final float[] mValues = {0.42f, 6.93f, 7.12f};
+
+    @Benchmark
+    public String valuesToString() {
+        return SensorFormat.valuesToString(mValues);
+    }
+}
@@ -0,0 +1,68 @@
+package ho.palomakoba.securitysystem;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a file under a temporary name and renames it into place, so the
+ * target either doesn't exist or is complete.
+ * <p>
+ * The buffer goes straight to the file channel, a direct buffer like an image
+ * plane is written without a copy on the Java heap.
+ */
+public class AtomicFileWriter {
+    private static final String TEMP_PREFIX = ".";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private AtomicFileWriter() {
+    }
+
+    public static File tempFile(File target) {
+        return new File(target.getParentFile(), TEMP_PREFIX + target.getName() + TEMP_SUFFIX);
+    }
+
+    public static boolean isTempFile(File file) {
+        String name = file.getName();
+        return name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX);
+    }
+
+    /**
+     * Writes the remaining bytes of {@code data} to {@code target}.
+     *
+     * @param sync force the data to the storage before the rename
+     */
+    public static void write(ByteBuffer data, File target, boolean sync) throws IOException {
+        File temp = tempFile(target);
+        boolean written = false;
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                FileChannel channel = out.getChannel();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                if (sync) {
+                    channel.force(false);
+                }
+            }
+            commit(temp, target);
+            written = true;
+        } finally {
+            if (!written) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Renames a finished temporary file into place.
+     */
+    public static void commit(File temp, File target) throws IOException {
+        if (!temp.renameTo(target)) {
+            throw new IOException("Can't rename " + temp + " to " + target);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package ho.palomakoba.securitysystem;
+
+/**
+ * Sizes the max report latency of a batched sensor from its hardware FIFO.
+ * <p>
+ * The latency is chosen so the FIFO is flushed before it overflows, leaving a
+ * safety margin for jitter in the sampling period. When the FIFO is shared the
+ * reserved part is used if the HAL guarantees one, otherwise only a fair share
+ * of the whole FIFO is counted on.
+ */
+public class BatchingPolicy {
+    private static final float FIFO_FILL_RATIO = 0.8f;
+
+    private BatchingPolicy() {
+    }
+
+    /**
+     * @return the report latency in microseconds, or 0 if the sensor can't
+     * batch and has to be registered per event
+     */
+    public static int reportLatencyUs(int fifoMaxEventCount, int fifoReservedEventCount,
+                                      int sharingSensors, int samplingPeriodUs,
+                                      int maxReportLatencyUs) {
+        int events = fifoReservedEventCount > 0
+                ? fifoReservedEventCount
+                : fifoMaxEventCount / Math.max(1, sharingSensors);
+        if (events <= 1 || samplingPeriodUs <= 0) {
+            return 0;
+        }
+
+        long latency = (long) (events * FIFO_FILL_RATIO) * samplingPeriodUs;
+        return (int) Math.min(latency, maxReportLatencyUs);
+    }
+
+    /**
+     * @return how many events a batch of the given latency delivers, used to
+     * size the buffer that receives it
+     */
+    public static int batchSize(int reportLatencyUs, int samplingPeriodUs) {
+        if (reportLatencyUs <= 0 || samplingPeriodUs <= 0) {
+            return 1;
+        }
+        return reportLatencyUs / samplingPeriodUs + 1;
+    }
+}
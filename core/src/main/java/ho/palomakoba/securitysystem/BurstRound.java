@@ -0,0 +1,92 @@
+package ho.palomakoba.securitysystem;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The bookkeeping of one burst: which frames of it are kept, when it is
+ * complete, and what happens to frames that come after it ended.
+ * <p>
+ * A burst ends with its last frame, or early when its timeout calls
+ * {@link #finish()}, and then keeps the best of what did arrive. Frames that
+ * arrive late, or while no burst is running, are handed back to be closed.
+ * Used from the camera thread only.
+ */
+public class BurstRound<T> {
+    private final int mBurstSize;
+    private final BurstSelector<T> mSelector;
+
+    private int mReceived;
+    private boolean mActive;
+
+    public BurstRound(int burstSize, int keepCount) {
+        mBurstSize = Math.max(1, burstSize);
+        mSelector = new BurstSelector<>(Math.max(1, Math.min(keepCount, mBurstSize)));
+    }
+
+    public int getBurstSize() {
+        return mBurstSize;
+    }
+
+    public int getReceived() {
+        return mReceived;
+    }
+
+    public boolean isActive() {
+        return mActive;
+    }
+
+    /**
+     * Starts a burst, frames of the last one must have been taken out.
+     */
+    public void start() {
+        if (mSelector.size() > 0) {
+            throw new IllegalStateException("Last burst still holds " + mSelector.size()
+                    + " frames");
+        }
+        mReceived = 0;
+        mActive = true;
+    }
+
+    /**
+     * @return the frame to close, the offered one if no burst is running or
+     * the one that lost, or null if both are kept
+     */
+    public T offer(T frame, long score) {
+        if (!mActive) {
+            return frame;
+        }
+        mReceived++;
+        return mSelector.offer(frame, score);
+    }
+
+    /**
+     * @return whether every frame of the burst arrived
+     */
+    public boolean isComplete() {
+        return mActive && mReceived >= mBurstSize;
+    }
+
+    /**
+     * Ends the burst, complete or not.
+     *
+     * @return the kept frames, best first, or nothing if it had already ended
+     */
+    public List<T> finish() {
+        if (!mActive) {
+            return Collections.emptyList();
+        }
+        mActive = false;
+        return mSelector.drain();
+    }
+
+    /**
+     * Drops the burst.
+     *
+     * @return the frames it held, to close
+     */
+    public List<T> cancel() {
+        mActive = false;
+        return mSelector.drain();
+    }
+}
@@ -0,0 +1,79 @@
+package ho.palomakoba.securitysystem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the best {@code keepCount} frames of a burst by score.
+ * <p>
+ * Only the kept frames are held, a frame that doesn't make it, or one pushed
+ * out by a better one, is handed back right away so its buffer can be
+ * released before the rest of the burst arrives.
+ */
+public class BurstSelector<T> {
+    private final Object[] mItems;
+    private final long[] mScores;
+    private int mSize;
+
+    public BurstSelector(int keepCount) {
+        if (keepCount < 1) {
+            throw new IllegalArgumentException("Invalid keep count " + keepCount);
+        }
+        mItems = new Object[keepCount];
+        mScores = new long[keepCount];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the frame that is not kept, the offered one or the worst one
+     * it replaced, or null while there is room
+     */
+    @SuppressWarnings("unchecked")
+    public T offer(T item, long score) {
+        if (mSize < mItems.length) {
+            mItems[mSize] = item;
+            mScores[mSize] = score;
+            mSize++;
+            return null;
+        }
+
+        int worst = 0;
+        for (int i = 1; i < mSize; i++) {
+            if (mScores[i] < mScores[worst]) {
+                worst = i;
+            }
+        }
+        if (score <= mScores[worst]) {
+            return item;
+        }
+        T dropped = (T) mItems[worst];
+        mItems[worst] = item;
+        mScores[worst] = score;
+        return dropped;
+    }
+
+    /**
+     * @return the kept frames, best first, and empties the selector
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> drain() {
+        List<T> best = new ArrayList<>(mSize);
+        while (mSize > 0) {
+            int top = 0;
+            for (int i = 1; i < mSize; i++) {
+                if (mScores[i] > mScores[top]) {
+                    top = i;
+                }
+            }
+            best.add((T) mItems[top]);
+            mSize--;
+            mItems[top] = mItems[mSize];
+            mScores[top] = mScores[mSize];
+            mItems[mSize] = null;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,90 @@
+package ho.palomakoba.securitysystem;
+
+/**
+ * What the capture path needs to know about one camera, read once from its
+ * characteristics.
+ */
+public final class CameraInfo {
+    // same values as CameraCharacteristics.LENS_FACING_*
+    public static final int FACING_FRONT = 0;
+    public static final int FACING_BACK = 1;
+    public static final int FACING_EXTERNAL = 2;
+    // REQUEST_AVAILABLE_CAPABILITIES_BACKWARD_COMPATIBLE
+    public static final int CAPABILITY_BACKWARD_COMPATIBLE = 0;
+
+    private final String mId;
+    private final int mFacing;
+    private final int mSensorOrientation;
+    private final CaptureSize[] mJpegSizes;
+    private final long[] mJpegStallNanos;
+    private final CaptureSize[] mYuvSizes;
+    private final int[] mCapabilities;
+
+    /**
+     * @param jpegStallNanos the JPEG stall duration of each of the JPEG sizes
+     */
+    public CameraInfo(String id, int facing, int sensorOrientation, CaptureSize[] jpegSizes,
+                      long[] jpegStallNanos, CaptureSize[] yuvSizes, int[] capabilities) {
+        if (jpegStallNanos.length != jpegSizes.length) {
+            throw new IllegalArgumentException(jpegSizes.length + " JPEG sizes but "
+                    + jpegStallNanos.length + " stall durations");
+        }
+        mId = id;
+        mFacing = facing;
+        mSensorOrientation = sensorOrientation;
+        mJpegSizes = jpegSizes.clone();
+        mJpegStallNanos = jpegStallNanos.clone();
+        mYuvSizes = yuvSizes.clone();
+        mCapabilities = capabilities.clone();
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public int getFacing() {
+        return mFacing;
+    }
+
+    public int getSensorOrientation() {
+        return mSensorOrientation;
+    }
+
+    public CaptureSize[] getJpegSizes() {
+        return mJpegSizes.clone();
+    }
+
+    /**
+     * @return the stall durations in the order of {@link #getJpegSizes()}
+     */
+    public long[] getJpegStallNanos() {
+        return mJpegStallNanos.clone();
+    }
+
+    public CaptureSize[] getYuvSizes() {
+        return mYuvSizes.clone();
+    }
+
+    public boolean hasCapability(int capability) {
+        for (int c : mCapabilities) {
+            if (c == capability) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether it takes pictures at all, a depth or monochrome only
+     * camera may have no JPEG output
+     */
+    public boolean canCapture() {
+        return hasCapability(CAPABILITY_BACKWARD_COMPATIBLE) && mJpegSizes.length > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "camera " + mId + " facing " + mFacing + ", orientation " + mSensorOrientation
+                + ", " + mJpegSizes.length + " JPEG sizes";
+    }
+}
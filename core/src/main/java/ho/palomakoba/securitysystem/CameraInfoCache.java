@@ -0,0 +1,139 @@
+package ho.palomakoba.securitysystem;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Characteristics of every camera, and which of them can stream at the same
+ * time, read once and kept until the set of cameras changes, so choosing and setting up a camera on trigger makes no
+ * calls to the camera service.
+ * <p>
+ * The camera service reports a camera available again every time an app
+ * closes it, this one included, so only a camera the cache has never seen
+ * drops it, through {@link #onCameraAvailable(String)}. A camera that went
+ * away is noticed when opening it fails, and {@link #invalidate()} is called.
+ * A failed read leaves no camera, it is counted and its error kept for
+ * dumpsys, and the next call reads again.
+ */
+public class CameraInfoCache {
+
+    public interface Provider {
+        String[] getCameraIds() throws Exception;
+
+        CameraInfo getCameraInfo(String id) throws Exception;
+
+        // empty before Android 11
+        Collection<Set<String>> getConcurrentCameraIds() throws Exception;
+    }
+
+    private final Provider mProvider;
+    private Map<String, CameraInfo> mCameras;
+    private List<Set<String>> mConcurrent = Collections.emptyList();
+    private int mLoads;
+    private int mFailures;
+    private Exception mLastFailure;
+
+    public CameraInfoCache(Provider provider) {
+        mProvider = provider;
+    }
+
+    /**
+     * @return the first camera facing that way, any other camera if there is
+     * none, or null if there are no cameras; cameras that can't take a
+     * picture are left out
+     */
+    public synchronized CameraInfo find(int facing) {
+        Map<String, CameraInfo> cameras = cameras();
+        CameraInfo fallback = null;
+        for (CameraInfo camera : cameras.values()) {
+            if (!camera.canCapture()) {
+                continue;
+            }
+            if (camera.getFacing() == facing) {
+                return camera;
+            }
+            if (fallback == null) {
+                fallback = camera;
+            }
+        }
+        return fallback;
+    }
+
+    public synchronized CameraInfo get(String id) {
+        return cameras().get(id);
+    }
+
+    /**
+     * @return the sets of camera ids that can stream together
+     */
+    public synchronized List<Set<String>> getConcurrentCameraIds() {
+        cameras();
+        return mConcurrent;
+    }
+
+    public synchronized void onCameraAvailable(String id) {
+        if (mCameras != null && !mCameras.containsKey(id)) {
+            mCameras = null;
+        }
+    }
+
+    public synchronized void invalidate() {
+        mCameras = null;
+    }
+
+    /**
+     * How many times the characteristics were read from the provider.
+     */
+    public synchronized int getLoadCount() {
+        return mLoads;
+    }
+
+    public synchronized int getFailureCount() {
+        return mFailures;
+    }
+
+    /**
+     * @return what the last failed read threw, or null
+     */
+    public synchronized Exception getLastFailure() {
+        return mLastFailure;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return (mCameras != null ? mCameras.size() + " cameras" : "not loaded")
+                + ", " + mLoads + " loads, " + mFailures + " failures"
+                + (mLastFailure != null ? ", last " + mLastFailure : "");
+    }
+
+    private Map<String, CameraInfo> cameras() {
+        if (mCameras != null) {
+            return mCameras;
+        }
+        Map<String, CameraInfo> cameras = new LinkedHashMap<>();
+        List<Set<String>> concurrent = new ArrayList<>();
+        try {
+            for (String id : mProvider.getCameraIds()) {
+                cameras.put(id, mProvider.getCameraInfo(id));
+            }
+            for (Set<String> ids : mProvider.getConcurrentCameraIds()) {
+                concurrent.add(Collections.unmodifiableSet(new HashSet<>(ids)));
+            }
+        } catch (Exception e) {
+            mFailures++;
+            mLastFailure = e;
+            mConcurrent = Collections.emptyList();
+            return Collections.emptyMap();
+        }
+        mLoads++;
+        mCameras = cameras;
+        mConcurrent = Collections.unmodifiableList(concurrent);
+        return cameras;
+    }
+}
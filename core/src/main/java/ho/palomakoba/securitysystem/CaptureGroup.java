@@ -0,0 +1,83 @@
+package ho.palomakoba.securitysystem;
+
+/**
+ * The captures of one trigger on several cameras. Each camera reports once,
+ * saved or failed, from whatever thread it finished on, and the group is
+ * complete when all of them have. A failed camera does not hold up the
+ * others, the group is then only degraded.
+ */
+public class CaptureGroup {
+    private final int mCameras;
+    private final long mTriggerNanos;
+    // one bit per camera that reported
+    private int mReported;
+    private int mSaved;
+    private long mCompleteNanos = -1;
+
+    /**
+     * @param triggerNanos elapsed realtime of the trigger, the latency is
+     *                     measured from it
+     */
+    public CaptureGroup(int cameras, long triggerNanos) {
+        if (cameras < 1 || cameras > 31) {
+            throw new IllegalArgumentException("Invalid camera count " + cameras);
+        }
+        mCameras = cameras;
+        mTriggerNanos = triggerNanos;
+    }
+
+    /**
+     * @param camera the index of the camera in the group
+     * @param saved  whether its frames were written
+     * @return true if this was the last camera to report, only once
+     */
+    public synchronized boolean report(int camera, boolean saved, long nowNanos) {
+        if (camera < 0 || camera >= mCameras) {
+            throw new IllegalArgumentException("No camera " + camera + " of " + mCameras);
+        }
+        if ((mReported & (1 << camera)) != 0) {
+            return false;
+        }
+        mReported |= 1 << camera;
+        if (saved) {
+            mSaved++;
+        }
+        if (Integer.bitCount(mReported) < mCameras) {
+            return false;
+        }
+        mCompleteNanos = nowNanos;
+        return true;
+    }
+
+    public int getCameraCount() {
+        return mCameras;
+    }
+
+    public synchronized boolean isComplete() {
+        return mCompleteNanos >= 0;
+    }
+
+    public synchronized int getSavedCount() {
+        return mSaved;
+    }
+
+    /**
+     * @return whether some camera failed, known once the group is complete
+     */
+    public synchronized boolean isDegraded() {
+        return isComplete() && mSaved < mCameras;
+    }
+
+    /**
+     * @return from the trigger to the last camera, or -1 until it is complete
+     */
+    public synchronized long getLatencyNanos() {
+        return mCompleteNanos < 0 ? -1 : mCompleteNanos - mTriggerNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CaptureGroup{" + mSaved + " of " + mCameras + " saved"
+                + (isComplete() ? ", " + getLatencyNanos() / 1_000_000 + " ms" : "") + "}";
+    }
+}
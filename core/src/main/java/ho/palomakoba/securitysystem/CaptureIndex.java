@@ -0,0 +1,447 @@
+package ho.palomakoba.securitysystem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of every capture, kept in memory sorted by time so "what
+ * was taken last night" is a binary search instead of a folder listing.
+ * <p>
+ * The file is a header followed by records of a payload length, the payload
+ * and its CRC32. A record cut short by a crash can only be the last one, it
+ * is cut off when the index is opened. Any other damage, or a missing index,
+ * rebuilds it from the names of the pictures in the folder, those entries
+ * have no sensor values.
+ * <p>
+ * Removing a capture appends a record naming it. When those outnumber the
+ * captures the file is rewritten with only the live entries.
+ */
+public class CaptureIndex {
+    public static final int CAMERA_UNKNOWN = -1;
+    public static final int REASON_UNKNOWN = 0;
+    public static final int REASON_PICKUP = 1;
+    public static final int REASON_LOOK_BACK = 2;
+    public static final int REASON_MOTION = 3;
+
+    private static final int MAGIC = 0x53534958;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final byte TYPE_CAPTURE = 1;
+    private static final byte TYPE_REMOVE = 2;
+    private static final int MIN_COMPACT_RECORDS = 256;
+    private static final int MAX_PAYLOAD_BYTES = 4096;
+
+    // prefix_ddMMyyyy_HHmmss_random.jpg, or .jpg.enc if encrypted, see CaptureStorage
+    private static final Pattern FILE_NAME =
+            Pattern.compile("([a-z]+)_(\\d{8}_\\d{6})_\\d+\\.jpg(\\.enc)?");
+
+    public static final class Entry {
+        private final long mTimeMillis;
+        private final int mCamera;
+        private final int mReason;
+        private final float mX;
+        private final float mY;
+        private final float mZ;
+        private final long mSizeBytes;
+        private final String mFileName;
+
+        /**
+         * @param camera one of the {@link CameraInfo} FACING constants
+         * @param values the accelerometer at the trigger, or null
+         */
+        public Entry(long timeMillis, int camera, int reason, float[] values, long sizeBytes,
+                     String fileName) {
+            mTimeMillis = timeMillis;
+            mCamera = camera;
+            mReason = reason;
+            mX = values != null ? values[0] : Float.NaN;
+            mY = values != null ? values[1] : Float.NaN;
+            mZ = values != null ? values[2] : Float.NaN;
+            mSizeBytes = sizeBytes;
+            mFileName = fileName;
+        }
+
+        public long getTimeMillis() {
+            return mTimeMillis;
+        }
+
+        public int getCamera() {
+            return mCamera;
+        }
+
+        public int getReason() {
+            return mReason;
+        }
+
+        /**
+         * @return x, y and z, NaN when the entry was rebuilt from the folder
+         */
+        public float[] getValues() {
+            return new float[]{mX, mY, mZ};
+        }
+
+        public long getSizeBytes() {
+            return mSizeBytes;
+        }
+
+        public String getFileName() {
+            return mFileName;
+        }
+
+        @Override
+        public String toString() {
+            return mFileName + " at " + mTimeMillis + ", " + mSizeBytes + " bytes";
+        }
+    }
+
+    private final File mIndexFile;
+    private final File mFolder;
+    private final List<Entry> mEntries = new ArrayList<>();
+    private FileOutputStream mOut;
+    private long mTotalBytes;
+    private int mRemoveRecords;
+    private boolean mRebuilt;
+    private long mTruncatedBytes;
+
+    /**
+     * Opens the index, recovering or rebuilding it when needed.
+     *
+     * @param folder where the pictures are, for rebuilding
+     */
+    public CaptureIndex(File indexFile, File folder) throws IOException {
+        mIndexFile = indexFile;
+        mFolder = folder;
+        if (!load()) {
+            rebuild();
+        }
+        mOut = new FileOutputStream(mIndexFile, true);
+        compactIfNeeded();
+    }
+
+    public synchronized void append(Entry entry) throws IOException {
+        writeRecord(encode(entry));
+        insert(entry);
+    }
+
+    /**
+     * Forgets a capture, its file has to be deleted first.
+     *
+     * @return false if the index does not have it
+     */
+    public synchronized boolean remove(Entry entry) throws IOException {
+        if (!removeEntry(entry.mTimeMillis, entry.mFileName)) {
+            return false;
+        }
+        writeRecord(encodeRemove(entry));
+        mRemoveRecords++;
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * @return up to {@code count} entries, oldest first
+     */
+    public synchronized List<Entry> oldest(int count) {
+        return new ArrayList<>(mEntries.subList(0, Math.min(count, mEntries.size())));
+    }
+
+    /**
+     * The bytes of every indexed capture, kept as they come and go.
+     */
+    public synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * @return the entries from {@code fromMillis} until before
+     * {@code toMillis}, oldest first
+     */
+    public synchronized List<Entry> query(long fromMillis, long toMillis) {
+        int from = lowerBound(fromMillis);
+        int to = lowerBound(toMillis);
+        return from < to ? new ArrayList<>(mEntries.subList(from, to)) : new ArrayList<Entry>();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return true if the index was rebuilt from the folder when opened
+     */
+    public synchronized boolean wasRebuilt() {
+        return mRebuilt;
+    }
+
+    /**
+     * @return the bytes of a torn last record cut off when opened
+     */
+    public synchronized long getTruncatedBytes() {
+        return mTruncatedBytes;
+    }
+
+    public synchronized void close() throws IOException {
+        if (mOut != null) {
+            mOut.close();
+            mOut = null;
+        }
+    }
+
+    private boolean load() throws IOException {
+        if (!mIndexFile.exists()) {
+            return false;
+        }
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(mIndexFile.toPath()));
+        if (data.remaining() < HEADER_BYTES || data.getInt() != MAGIC || data.getInt() != VERSION) {
+            return false;
+        }
+
+        while (data.hasRemaining()) {
+            int start = data.position();
+            if (data.remaining() < 4) {
+                return truncate(start);
+            }
+            int length = data.getInt();
+            if (length <= 0 || length > MAX_PAYLOAD_BYTES) {
+                return false;
+            }
+            if (data.remaining() < length + 4) {
+                return truncate(start);
+            }
+            int payload = data.position();
+            data.position(payload + length);
+            if (data.getInt() != crc(data.array(), payload, length)) {
+                // a bad last record is torn, anywhere else it is damage
+                return !data.hasRemaining() && truncate(start);
+            }
+            if (!apply(ByteBuffer.wrap(data.array(), payload, length))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean truncate(long validBytes) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(mIndexFile, "rw")) {
+            mTruncatedBytes = file.length() - validBytes;
+            file.setLength(validBytes);
+        }
+        return true;
+    }
+
+    private void rebuild() throws IOException {
+        mEntries.clear();
+        mTotalBytes = 0;
+        mRebuilt = true;
+        mTruncatedBytes = 0;
+
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            SimpleDateFormat format = new SimpleDateFormat("ddMMyyyy_HHmmss", Locale.US);
+            for (File file : files) {
+                Matcher matcher = FILE_NAME.matcher(file.getName());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                try {
+                    long time = format.parse(matcher.group(2)).getTime();
+                    String prefix = matcher.group(1);
+                    insert(new Entry(time, cameraOf(prefix),
+                            prefix.equals("lookback") ? REASON_LOOK_BACK : REASON_UNKNOWN,
+                            null, file.length(), file.getName()));
+                } catch (ParseException e) {
+                    // not one of ours
+                }
+            }
+        }
+
+        writeAll();
+    }
+
+    // the prefix of the file name, see CaptureStorage.imagePrefix
+    private static int cameraOf(String prefix) {
+        switch (prefix) {
+            case "front":
+                return CameraInfo.FACING_FRONT;
+            case "back":
+                return CameraInfo.FACING_BACK;
+            case "external":
+                return CameraInfo.FACING_EXTERNAL;
+            default:
+                return CAMERA_UNKNOWN;
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (mRemoveRecords < MIN_COMPACT_RECORDS || mRemoveRecords < mEntries.size()) {
+            return;
+        }
+        mOut.close();
+        mOut = null;
+        writeAll();
+        mOut = new FileOutputStream(mIndexFile, true);
+    }
+
+    // replaces the file with the live entries only
+    private void writeAll() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        for (Entry entry : mEntries) {
+            byte[] payload = encode(entry);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.writeInt(crc(payload, 0, payload.length));
+        }
+        AtomicFileWriter.write(ByteBuffer.wrap(bytes.toByteArray()), mIndexFile, true);
+        mRemoveRecords = 0;
+    }
+
+    private void writeRecord(byte[] payload) throws IOException {
+        if (mOut == null) {
+            throw new IOException("Index closed");
+        }
+        ByteBuffer record = ByteBuffer.allocate(payload.length + 8);
+        record.putInt(payload.length).put(payload).putInt(crc(payload, 0, payload.length));
+        // one write, a crash leaves at most this record torn
+        mOut.write(record.array());
+    }
+
+    private void insert(Entry entry) {
+        // appends come in time order, so this is nearly always the end
+        int i = mEntries.size();
+        while (i > 0 && mEntries.get(i - 1).mTimeMillis > entry.mTimeMillis) {
+            i--;
+        }
+        mEntries.add(i, entry);
+        mTotalBytes += entry.mSizeBytes;
+    }
+
+    private boolean removeEntry(long timeMillis, String fileName) {
+        for (int i = lowerBound(timeMillis); i < mEntries.size(); i++) {
+            Entry entry = mEntries.get(i);
+            if (entry.mTimeMillis != timeMillis) {
+                break;
+            }
+            if (entry.mFileName.equals(fileName)) {
+                mEntries.remove(i);
+                mTotalBytes -= entry.mSizeBytes;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int lowerBound(long timeMillis) {
+        int low = 0;
+        int high = mEntries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mEntries.get(mid).mTimeMillis < timeMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static byte[] encode(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TYPE_CAPTURE);
+        out.writeLong(entry.mTimeMillis);
+        out.writeByte(entry.mCamera);
+        out.writeByte(entry.mReason);
+        out.writeFloat(entry.mX);
+        out.writeFloat(entry.mY);
+        out.writeFloat(entry.mZ);
+        out.writeLong(entry.mSizeBytes);
+        byte[] name = entry.mFileName.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(name.length);
+        out.write(name);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeRemove(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(48);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TYPE_REMOVE);
+        out.writeLong(entry.mTimeMillis);
+        byte[] name = entry.mFileName.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(name.length);
+        out.write(name);
+        return bytes.toByteArray();
+    }
+
+    // false if the record makes no sense
+    private boolean apply(ByteBuffer payload) {
+        if (payload.remaining() < 1) {
+            return false;
+        }
+        byte type = payload.get();
+        if (type == TYPE_REMOVE) {
+            if (payload.remaining() < 10) {
+                return false;
+            }
+            long time = payload.getLong();
+            String name = readName(payload);
+            if (name == null) {
+                return false;
+            }
+            removeEntry(time, name);
+            mRemoveRecords++;
+            return true;
+        }
+        Entry entry = type == TYPE_CAPTURE ? decode(payload) : null;
+        if (entry == null) {
+            return false;
+        }
+        insert(entry);
+        return true;
+    }
+
+    private static Entry decode(ByteBuffer payload) {
+        if (payload.remaining() < 32) {
+            return null;
+        }
+        long time = payload.getLong();
+        int camera = payload.get();
+        int reason = payload.get();
+        float[] values = {payload.getFloat(), payload.getFloat(), payload.getFloat()};
+        long size = payload.getLong();
+        String name = readName(payload);
+        return name != null ? new Entry(time, camera, reason, values, size, name) : null;
+    }
+
+    private static String readName(ByteBuffer payload) {
+        int nameLength = payload.getShort() & 0xffff;
+        if (payload.remaining() != nameLength) {
+            return null;
+        }
+        return new String(payload.array(), payload.arrayOffset() + payload.position(),
+                nameLength, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
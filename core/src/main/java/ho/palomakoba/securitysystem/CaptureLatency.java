@@ -0,0 +1,143 @@
+package ho.palomakoba.securitysystem;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How long after the trigger each stage of a capture is reached, kept per
+ * capture path in {@link LatencyHistogram}s for the life of the process.
+ * <p>
+ * A capture carries a {@link Trace} made from the elapsed realtime of its
+ * sensor event, each stage marks it with the current elapsed realtime.
+ */
+public class CaptureLatency {
+    public static final int PATH_COLD = 0;
+    public static final int PATH_WARM = 1;
+    // both cameras, see DualCameraPlan
+    public static final int PATH_DUAL = 2;
+
+    public static final int STAGE_SENSOR_EVENT = 0;
+    public static final int STAGE_ACTIVITY_START = 1;
+    public static final int STAGE_OPENED = 2;
+    public static final int STAGE_CONFIGURED = 3;
+    public static final int STAGE_CAPTURE_STARTED = 4;
+    public static final int STAGE_IMAGE_AVAILABLE = 5;
+    public static final int STAGE_WRITTEN = 6;
+    // the last camera of a dual capture written, only on PATH_DUAL
+    public static final int STAGE_ALL_WRITTEN = 7;
+
+    private static final String[] PATHS = {"cold", "warm", "dual"};
+    private static final String[] STAGES = {"sensor event", "activity start", "camera opened",
+            "session configured", "capture started", "image available", "write complete",
+            "all written"};
+
+    private static final CaptureLatency sInstance = new CaptureLatency();
+
+    private final LatencyHistogram[][] mHistograms =
+            new LatencyHistogram[PATHS.length][STAGES.length];
+
+    CaptureLatency() {
+        for (int path = 0; path < PATHS.length; path++) {
+            for (int stage = 0; stage < STAGES.length; stage++) {
+                mHistograms[path][stage] = new LatencyHistogram();
+            }
+        }
+    }
+
+    public static CaptureLatency get() {
+        return sInstance;
+    }
+
+    /**
+     * @param triggerNanos elapsed realtime of the sensor event, a capture
+     *                     without one is not recorded
+     */
+    public Trace trace(int path, long triggerNanos) {
+        return new Trace(this, path, triggerNanos);
+    }
+
+    public LatencyHistogram getHistogram(int path, int stage) {
+        return mHistograms[path][stage];
+    }
+
+    public void clear() {
+        for (LatencyHistogram[] stages : mHistograms) {
+            for (LatencyHistogram histogram : stages) {
+                histogram.clear();
+            }
+        }
+    }
+
+    /**
+     * Prints the percentiles of the stages that were reached, in ms.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("Trigger to stage latency (ms):");
+        writer.println(String.format(Locale.US, "  %-20s %6s %8s %8s %8s %8s",
+                "", "count", "p50", "p90", "p99", "max"));
+        for (int path = 0; path < PATHS.length; path++) {
+            boolean header = false;
+            for (int stage = 0; stage < STAGES.length; stage++) {
+                LatencyHistogram histogram = mHistograms[path][stage];
+                long count = histogram.getCount();
+                if (count == 0) {
+                    continue;
+                }
+                if (!header) {
+                    writer.println("  " + PATHS[path]);
+                    header = true;
+                }
+                writer.println(String.format(Locale.US, "    %-18s %6d %8.1f %8.1f %8.1f %8.1f",
+                        STAGES[stage], count,
+                        millis(histogram.getPercentileNanos(0.5)),
+                        millis(histogram.getPercentileNanos(0.9)),
+                        millis(histogram.getPercentileNanos(0.99)),
+                        millis(histogram.getMaxNanos())));
+            }
+            if (!header) {
+                writer.println("  " + PATHS[path] + ": no captures");
+            }
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * The stages of one capture. Each stage is recorded once, the first time
+     * it is marked, the frames of a burst after the first are ignored.
+     */
+    public static final class Trace {
+        private final CaptureLatency mLatency;
+        private final int mPath;
+        private final long mTriggerNanos;
+        // one bit per stage already recorded
+        private final AtomicInteger mMarked = new AtomicInteger();
+
+        Trace(CaptureLatency latency, int path, long triggerNanos) {
+            mLatency = latency;
+            mPath = path;
+            mTriggerNanos = triggerNanos;
+        }
+
+        public long getTriggerNanos() {
+            return mTriggerNanos;
+        }
+
+        public void mark(int stage, long nowNanos) {
+            if (mTriggerNanos <= 0) {
+                return;
+            }
+            int marked;
+            do {
+                marked = mMarked.get();
+                if ((marked & (1 << stage)) != 0) {
+                    return;
+                }
+            } while (!mMarked.compareAndSet(marked, marked | 1 << stage));
+            mLatency.mHistograms[mPath][stage].record(nowNanos - mTriggerNanos);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package ho.palomakoba.securitysystem;
+
+/**
+ * The process wide queue every capture is written through.
+ * <p>
+ * Two writer threads, so the frames of the front and the back camera of a
+ * dual capture are written side by side, and the encryption of one overlaps
+ * the write of the other. Past the capacity new writes are rejected, the
+ * first pictures after a pickup are the ones worth keeping.
+ */
+public final class CapturePersistence {
+    private static final int QUEUE_CAPACITY = 8;
+    private static final int WRITER_THREADS = 2;
+
+    private static WriteBehindQueue sQueue;
+
+    private CapturePersistence() {
+    }
+
+    /**
+     * @return the running queue, a new one if the last was shut down
+     */
+    public static synchronized WriteBehindQueue queue() {
+        if (sQueue == null || sQueue.isShutdown()) {
+            sQueue = new WriteBehindQueue("SecuritySystemIo", QUEUE_CAPACITY, WRITER_THREADS,
+                    WriteBehindQueue.OverflowPolicy.REJECT_NEWEST);
+        }
+        return sQueue;
+    }
+
+    /**
+     * Stops taking writes without waiting, the queued ones still finish.
+     *
+     * @return the queue that was shut down, or null if there was none
+     */
+    public static synchronized WriteBehindQueue shutdown() {
+        WriteBehindQueue queue = sQueue;
+        if (queue != null) {
+            queue.shutdown();
+            sQueue = null;
+        }
+        return queue;
+    }
+}
@@ -0,0 +1,45 @@
+package ho.palomakoba.securitysystem;
+
+/**
+ * Picks the JPEG size and quality a camera captures with.
+ */
+public interface CapturePolicy {
+
+    Choice choose(CameraInfo camera);
+
+    final class Choice {
+        private final CaptureSize mSize;
+        private final int mJpegQuality;
+        private final long mStallNanos;
+        private final long mEstimatedBytes;
+
+        public Choice(CaptureSize size, int jpegQuality, long stallNanos, long estimatedBytes) {
+            mSize = size;
+            mJpegQuality = jpegQuality;
+            mStallNanos = stallNanos;
+            mEstimatedBytes = estimatedBytes;
+        }
+
+        public CaptureSize getSize() {
+            return mSize;
+        }
+
+        public int getJpegQuality() {
+            return mJpegQuality;
+        }
+
+        public long getStallNanos() {
+            return mStallNanos;
+        }
+
+        public long getEstimatedBytes() {
+            return mEstimatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return mSize + " at quality " + mJpegQuality + ", stall "
+                    + mStallNanos / 1_000_000 + " ms, about " + mEstimatedBytes / 1024 + " KB";
+        }
+    }
+}
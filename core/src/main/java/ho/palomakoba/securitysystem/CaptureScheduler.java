@@ -0,0 +1,327 @@
+package ho.palomakoba.securitysystem;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs one capture at a time for the whole process, warm or cold.
+ * <p>
+ * A trigger while a job is in flight never opens a second camera. Until the
+ * job has sent its capture request the trigger is merged into it, the same
+ * frames cover both. After that it becomes the follow-up job, later triggers
+ * are coalesced into it, and it starts when the job finishes. A runner that
+ * still has the camera open can take the follow-up as an extension of its
+ * burst with {@link #takeExtension}.
+ * <p>
+ * A job that does not finish within the timeout is cancelled by
+ * {@link #expire} and the follow-up starts anyway, a capture stuck in the
+ * camera service does not hold up the next one. Finishing a job that timed
+ * out or was cancelled does nothing.
+ * <p>
+ * Jobs are handed to the {@link Runner} outside of the lock, on the thread
+ * that submitted the trigger or finished the previous job.
+ */
+public class CaptureScheduler {
+    public static final int RESULT_STARTED = 0;
+    // into the job in flight, before its capture request
+    public static final int RESULT_MERGED = 1;
+    // the follow-up job was created
+    public static final int RESULT_QUEUED = 2;
+    // into the follow-up job
+    public static final int RESULT_COALESCED = 3;
+    // nothing runs captures, the trigger is dropped
+    public static final int RESULT_NO_RUNNER = 4;
+
+    public static final long DEFAULT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(15);
+    public static final int DEFAULT_MAX_EXTENSIONS = 2;
+
+    public interface Runner {
+        // opens the camera for the job, or gives it to the one already open
+        void start(Job job);
+    }
+
+    public static final class Job {
+        private final long mId;
+        private final long mTriggerNanos;
+        private final float[] mValues;
+        private final int mReason;
+        // guarded by the scheduler
+        private long mStartNanos;
+        private int mTriggers = 1;
+        private int mExtensions;
+        private boolean mCapturing;
+        private volatile boolean mCancelled;
+
+        private Job(long id, long triggerNanos, float[] values, int reason) {
+            mId = id;
+            mTriggerNanos = triggerNanos;
+            mValues = values;
+            mReason = reason;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public long getTriggerNanos() {
+            return mTriggerNanos;
+        }
+
+        public float[] getValues() {
+            return mValues;
+        }
+
+        public int getReason() {
+            return mReason;
+        }
+
+        /**
+         * @return true once the job timed out or was cancelled, its runner
+         * should let the camera go
+         */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public String toString() {
+            return "Job{" + mId + "}";
+        }
+    }
+
+    private static CaptureScheduler sInstance;
+
+    private final long mTimeoutNanos;
+    private final int mMaxExtensions;
+
+    private Runner mRunner;
+    private long mNextId = 1;
+    private Job mCurrent;
+    private Job mFollowUp;
+
+    private long mStarted;
+    private long mMerged;
+    private long mCoalesced;
+    private long mExtended;
+    private long mTimedOut;
+    private long mCancelled;
+
+    /**
+     * @param timeoutNanos  how long a job may run before the next one starts
+     * @param maxExtensions follow-ups a job can take while its camera is open
+     */
+    public CaptureScheduler(long timeoutNanos, int maxExtensions) {
+        mTimeoutNanos = timeoutNanos;
+        mMaxExtensions = maxExtensions;
+    }
+
+    public static synchronized CaptureScheduler get() {
+        if (sInstance == null) {
+            sInstance = new CaptureScheduler(DEFAULT_TIMEOUT_NANOS, DEFAULT_MAX_EXTENSIONS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param runner starts the jobs, null drops the triggers until there is
+     *               one again
+     */
+    public synchronized void setRunner(Runner runner) {
+        mRunner = runner;
+    }
+
+    /**
+     * @return one of the {@code RESULT_} constants
+     */
+    public int submit(long triggerNanos, float[] values, int reason, long nowNanos) {
+        Job job;
+        Runner runner;
+        synchronized (this) {
+            if (mRunner == null) {
+                return RESULT_NO_RUNNER;
+            }
+            if (mCurrent != null && !mCurrent.mCapturing) {
+                mCurrent.mTriggers++;
+                mMerged++;
+                return RESULT_MERGED;
+            }
+            if (mCurrent != null && mFollowUp != null) {
+                mFollowUp.mTriggers++;
+                mCoalesced++;
+                return RESULT_COALESCED;
+            }
+            job = new Job(mNextId++, triggerNanos, values, reason);
+            if (mCurrent != null) {
+                mFollowUp = job;
+                return RESULT_QUEUED;
+            }
+            start(job, nowNanos);
+            runner = mRunner;
+        }
+        runner.start(job);
+        return RESULT_STARTED;
+    }
+
+    /**
+     * Called by the runner just before it sends the capture request, later
+     * triggers can't be merged into it anymore.
+     *
+     * @return false if the job was cancelled and must not capture
+     */
+    public synchronized boolean startCapture(long id) {
+        if (!isCurrent(id)) {
+            return false;
+        }
+        mCurrent.mCapturing = true;
+        return true;
+    }
+
+    /**
+     * Called by the runner once a burst is captured, with the camera still
+     * open.
+     *
+     * @return the follow-up, now part of this job and to be captured right
+     * away, or null if the job can finish
+     */
+    public synchronized Job takeExtension(long id) {
+        if (!isCurrent(id) || mFollowUp == null || mCurrent.mExtensions >= mMaxExtensions) {
+            return null;
+        }
+        Job extension = mFollowUp;
+        mFollowUp = null;
+        mCurrent.mExtensions++;
+        mCurrent.mTriggers += extension.mTriggers;
+        mExtended++;
+        return extension;
+    }
+
+    /**
+     * Ends the job and starts the follow-up if there is one.
+     *
+     * @return false if the job was not in flight anymore
+     */
+    public boolean finish(long id, long nowNanos) {
+        Job next;
+        Runner runner;
+        synchronized (this) {
+            if (!isCurrent(id)) {
+                return false;
+            }
+            mCurrent = null;
+            next = promote(nowNanos);
+            runner = mRunner;
+        }
+        if (next != null) {
+            runner.start(next);
+        }
+        return true;
+    }
+
+    /**
+     * Cancels the job in flight if it ran past the timeout, and starts the
+     * follow-up.
+     *
+     * @return true if a job timed out
+     */
+    public boolean expire(long nowNanos) {
+        Job next;
+        Runner runner;
+        synchronized (this) {
+            if (mCurrent == null || nowNanos - mCurrent.mStartNanos < mTimeoutNanos) {
+                return false;
+            }
+            mCurrent.mCancelled = true;
+            mCurrent = null;
+            mTimedOut++;
+            next = promote(nowNanos);
+            runner = mRunner;
+        }
+        if (next != null) {
+            runner.start(next);
+        }
+        return true;
+    }
+
+    /**
+     * @return when {@link #expire} has to be called, or -1 if no job is in
+     * flight
+     */
+    public synchronized long getDeadlineNanos() {
+        return mCurrent == null ? -1 : mCurrent.mStartNanos + mTimeoutNanos;
+    }
+
+    /**
+     * Drops the follow-up, the job in flight finishes.
+     */
+    public synchronized void cancelPending() {
+        if (mFollowUp != null) {
+            mFollowUp.mCancelled = true;
+            mFollowUp = null;
+            mCancelled++;
+        }
+    }
+
+    /**
+     * Drops the follow-up and cancels the job in flight.
+     */
+    public synchronized void cancel() {
+        cancelPending();
+        if (mCurrent != null) {
+            mCurrent.mCancelled = true;
+            mCurrent = null;
+            mCancelled++;
+        }
+    }
+
+    public synchronized boolean isBusy() {
+        return mCurrent != null || mFollowUp != null;
+    }
+
+    /**
+     * @return how many triggers the job in flight covers, 0 if there is none
+     */
+    public synchronized int getTriggerCount(long id) {
+        return isCurrent(id) ? mCurrent.mTriggers : 0;
+    }
+
+    public synchronized long getStartedCount() {
+        return mStarted;
+    }
+
+    public synchronized long getTimedOutCount() {
+        return mTimedOut;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CaptureScheduler{started=" + mStarted + ", merged=" + mMerged
+                + ", coalesced=" + mCoalesced + ", extended=" + mExtended
+                + ", timedOut=" + mTimedOut + ", cancelled=" + mCancelled
+                + (mCurrent != null ? ", running " + mCurrent : "")
+                + (mFollowUp != null ? ", then " + mFollowUp : "") + "}";
+    }
+
+    private void start(Job job, long nowNanos) {
+        job.mStartNanos = nowNanos;
+        mCurrent = job;
+        mStarted++;
+    }
+
+    private Job promote(long nowNanos) {
+        Job next = mFollowUp;
+        mFollowUp = null;
+        if (next == null) {
+            return null;
+        }
+        if (mRunner == null) {
+            next.mCancelled = true;
+            mCancelled++;
+            return null;
+        }
+        start(next, nowNanos);
+        return next;
+    }
+
+    private boolean isCurrent(long id) {
+        return mCurrent != null && mCurrent.mId == id;
+    }
+}
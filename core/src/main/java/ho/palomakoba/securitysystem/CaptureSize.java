@@ -0,0 +1,49 @@
+package ho.palomakoba.securitysystem;
+
+/**
+ * Width and height of a camera output, like {@code android.util.Size} but
+ * usable off the device.
+ */
+public final class CaptureSize {
+    private final int mWidth;
+    private final int mHeight;
+
+    public CaptureSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public long getArea() {
+        return (long) mWidth * mHeight;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CaptureSize)) {
+            return false;
+        }
+        CaptureSize other = (CaptureSize) o;
+        return mWidth == other.mWidth && mHeight == other.mHeight;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mWidth + mHeight;
+    }
+
+    @Override
+    public String toString() {
+        return mWidth + "x" + mHeight;
+    }
+}
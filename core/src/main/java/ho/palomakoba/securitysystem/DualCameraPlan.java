@@ -0,0 +1,113 @@
+package ho.palomakoba.securitysystem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Which cameras a trigger is captured with when both sides are wanted, and
+ * whether they can stream at the same time.
+ * <p>
+ * Two cameras are opened together only if they are in one of the sets of
+ * {@link CameraInfoCache#getConcurrentCameraIds()}, otherwise the second one is
+ * opened once the first has its burst. Concurrent streams are only guaranteed
+ * up to 1440p, so their JPEG size is limited with {@link #limitSize}. A device
+ * with one side only gets a single camera plan.
+ */
+public final class DualCameraPlan {
+    public static final int MODE_SINGLE = 0;
+    public static final int MODE_SEQUENTIAL = 1;
+    public static final int MODE_CONCURRENT = 2;
+
+    // the s1440p size of the concurrent stream combinations
+    public static final CaptureSize MAX_CONCURRENT_SIZE = new CaptureSize(1920, 1440);
+
+    private static final String[] MODES = {"single", "sequential", "concurrent"};
+
+    private final int mMode;
+    private final List<CameraInfo> mCameras;
+
+    private DualCameraPlan(int mode, List<CameraInfo> cameras) {
+        mMode = mode;
+        mCameras = Collections.unmodifiableList(cameras);
+    }
+
+    /**
+     * @param facing the side captured first
+     * @return null if there is no camera
+     */
+    public static DualCameraPlan choose(CameraInfoCache cameras, int facing) {
+        CameraInfo first = cameras.find(facing);
+        if (first == null) {
+            return null;
+        }
+        List<CameraInfo> list = new ArrayList<>(2);
+        list.add(first);
+        // find() falls back to any camera, only the other side will do
+        int otherFacing = first.getFacing() == CameraInfo.FACING_BACK
+                ? CameraInfo.FACING_FRONT : CameraInfo.FACING_BACK;
+        CameraInfo second = cameras.find(otherFacing);
+        if (second == null || second.getFacing() != otherFacing
+                || second.getId().equals(first.getId())) {
+            return new DualCameraPlan(MODE_SINGLE, list);
+        }
+        list.add(second);
+        for (Set<String> ids : cameras.getConcurrentCameraIds()) {
+            if (ids.contains(first.getId()) && ids.contains(second.getId())) {
+                return new DualCameraPlan(MODE_CONCURRENT, list);
+            }
+        }
+        return new DualCameraPlan(MODE_SEQUENTIAL, list);
+    }
+
+    /**
+     * @return {@code chosen} if it fits in {@link #MAX_CONCURRENT_SIZE}, or
+     * else the largest of {@code sizes} that does, or null if none does
+     */
+    public static CaptureSize limitSize(CaptureSize chosen, CaptureSize[] sizes) {
+        if (fits(chosen)) {
+            return chosen;
+        }
+        CaptureSize best = null;
+        for (CaptureSize size : sizes) {
+            if (fits(size) && (best == null || size.getArea() > best.getArea())) {
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    /**
+     * @return the cameras in the order they are captured, the wanted side
+     * first
+     */
+    public List<CameraInfo> getCameras() {
+        return mCameras;
+    }
+
+    public static String toString(int mode) {
+        return mode >= 0 && mode < MODES.length ? MODES[mode] : "mode " + mode;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(toString(mMode)).append(':');
+        for (CameraInfo camera : mCameras) {
+            builder.append(' ').append(camera.getId());
+        }
+        return builder.toString();
+    }
+
+    private static boolean fits(CaptureSize size) {
+        // either way round, the sensor may be portrait
+        int longSide = Math.max(size.getWidth(), size.getHeight());
+        int shortSide = Math.min(size.getWidth(), size.getHeight());
+        return longSide <= MAX_CONCURRENT_SIZE.getWidth()
+                && shortSide <= MAX_CONCURRENT_SIZE.getHeight();
+    }
+}
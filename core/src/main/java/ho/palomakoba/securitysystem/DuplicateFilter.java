@@ -0,0 +1,71 @@
+package ho.palomakoba.securitysystem;
+
+/**
+ * Remembers the hashes of the last frames in a ring and tells whether a new
+ * one is within {@code maxDistance} bits of one of them, see
+ * {@link FrameHash#distance}.
+ * <p>
+ * Frames are compared only with frames of other groups, the frames of one
+ * burst look alike on purpose. Hashes older than the window are forgotten, a
+ * scene that is still the same an hour later is saved again. Duplicates are
+ * not remembered, so a slow drift of the scene is caught when it is far
+ * enough from the last frame kept.
+ */
+public class DuplicateFilter {
+    private final long[] mHashes;
+    private final long[] mGroups;
+    private final long[] mTimes;
+    private final int mMaxDistance;
+    private final long mWindowNanos;
+
+    private int mNext;
+    private int mSize;
+    private long mOffered;
+    private long mDuplicates;
+
+    public DuplicateFilter(int capacity, int maxDistance, long windowNanos) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        mHashes = new long[capacity];
+        mGroups = new long[capacity];
+        mTimes = new long[capacity];
+        mMaxDistance = maxDistance;
+        mWindowNanos = windowNanos;
+    }
+
+    /**
+     * @return whether {@code hash} is close to a frame of another group seen
+     * in the window, if not it is remembered
+     */
+    public synchronized boolean isDuplicate(long hash, long group, long nowNanos) {
+        mOffered++;
+        for (int i = 0; i < mSize; i++) {
+            if (mGroups[i] != group && nowNanos - mTimes[i] <= mWindowNanos
+                    && FrameHash.distance(mHashes[i], hash) <= mMaxDistance) {
+                mDuplicates++;
+                return true;
+            }
+        }
+        mHashes[mNext] = hash;
+        mGroups[mNext] = group;
+        mTimes[mNext] = nowNanos;
+        mNext = (mNext + 1) % mHashes.length;
+        mSize = Math.min(mSize + 1, mHashes.length);
+        return false;
+    }
+
+    public synchronized long getOfferedCount() {
+        return mOffered;
+    }
+
+    public synchronized long getDuplicateCount() {
+        return mDuplicates;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DuplicateFilter{offered=" + mOffered + ", duplicates=" + mDuplicates
+                + ", maxDistance=" + mMaxDistance + "}";
+    }
+}
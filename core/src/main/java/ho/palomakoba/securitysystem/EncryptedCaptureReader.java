@@ -0,0 +1,179 @@
+package ho.palomakoba.securitysystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Reads back a file of {@link EncryptedCaptureWriter}, one segment at a time.
+ * <p>
+ * Every segment is authenticated before any of its bytes are returned. A
+ * segment that fails its tag, which is also what a reordered, truncated or
+ * extended file does, throws an {@link IOException}, the bytes returned
+ * before it are genuine. {@code Channels.newInputStream} makes a stream of it
+ * for the bitmap decoder.
+ */
+public class EncryptedCaptureReader implements ReadableByteChannel {
+    private static final int FIXED_HEADER_BYTES = 4 + 1 + 4 + EncryptedCaptureWriter.NONCE_PREFIX_BYTES + 2;
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_WRAPPED_KEY_BYTES = 1024;
+
+    private final FileChannel mChannel;
+    private final int mSegmentSize;
+    private final Cipher mCipher;
+    private final SecretKey mDataKey;
+    private final byte[] mHeader;
+    private final byte[] mNonce = new byte[EncryptedCaptureWriter.NONCE_BYTES];
+    private final ByteBuffer mCiphertext;
+    private final ByteBuffer mPlaintext;
+    private int mSegment;
+    private boolean mLastRead;
+    private boolean mOpen = true;
+
+    /**
+     * Reads the header at the position of {@code channel} and unwraps the
+     * data key.
+     */
+    public EncryptedCaptureReader(FileChannel channel, SecretKey masterKey) throws IOException {
+        mChannel = channel;
+
+        ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER_BYTES);
+        if (!readFully(fixed)) {
+            throw new IOException("Not an encrypted capture");
+        }
+        fixed.flip();
+        if (fixed.getInt() != EncryptedCaptureWriter.MAGIC) {
+            throw new IOException("Not an encrypted capture");
+        }
+        int version = fixed.get();
+        if (version != EncryptedCaptureWriter.VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+        mSegmentSize = fixed.getInt();
+        if (mSegmentSize <= 0 || mSegmentSize > MAX_SEGMENT_SIZE) {
+            throw new IOException("Invalid segment size " + mSegmentSize);
+        }
+        fixed.get(mNonce, 0, EncryptedCaptureWriter.NONCE_PREFIX_BYTES);
+        int wrappedBytes = fixed.getShort() & 0xffff;
+        if (wrappedBytes <= EncryptedCaptureWriter.NONCE_BYTES
+                || wrappedBytes > MAX_WRAPPED_KEY_BYTES) {
+            throw new IOException("Invalid wrapped key of " + wrappedBytes + " bytes");
+        }
+        ByteBuffer wrapped = ByteBuffer.allocate(wrappedBytes);
+        if (!readFully(wrapped)) {
+            throw new IOException("Truncated header");
+        }
+
+        mHeader = new byte[FIXED_HEADER_BYTES + wrappedBytes];
+        System.arraycopy(fixed.array(), 0, mHeader, 0, FIXED_HEADER_BYTES);
+        System.arraycopy(wrapped.array(), 0, mHeader, FIXED_HEADER_BYTES, wrappedBytes);
+
+        try {
+            mDataKey = unwrapKey(masterKey, wrapped.array());
+            mCipher = Cipher.getInstance(EncryptedCaptureWriter.TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Can't unwrap the key, wrong master key or corrupt header", e);
+        }
+
+        mCiphertext = ByteBuffer.allocateDirect(mSegmentSize + EncryptedCaptureWriter.TAG_BYTES);
+        mPlaintext = ByteBuffer.allocateDirect(mSegmentSize);
+        mPlaintext.limit(0);
+    }
+
+    public static boolean isEncrypted(File file) {
+        return file.getName().endsWith(EncryptedCaptureWriter.EXTENSION);
+    }
+
+    public int getSegmentSize() {
+        return mSegmentSize;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!mOpen) {
+            throw new IOException("Closed");
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        while (!mPlaintext.hasRemaining()) {
+            if (mLastRead) {
+                return -1;
+            }
+            readSegment();
+        }
+        int count = Math.min(dst.remaining(), mPlaintext.remaining());
+        ByteBuffer part = mPlaintext.duplicate();
+        part.limit(mPlaintext.position() + count);
+        dst.put(part);
+        mPlaintext.position(mPlaintext.position() + count);
+        return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    /**
+     * Does not close the channel it reads from.
+     */
+    @Override
+    public void close() {
+        mOpen = false;
+    }
+
+    private void readSegment() throws IOException {
+        mCiphertext.clear();
+        boolean full = readFully(mCiphertext);
+        // only the last segment is short, and nothing follows it
+        boolean last = !full || mChannel.position() >= mChannel.size();
+        if (mCiphertext.position() < EncryptedCaptureWriter.TAG_BYTES) {
+            throw new IOException("Truncated at segment " + mSegment);
+        }
+        mCiphertext.flip();
+
+        EncryptedCaptureWriter.setSegmentNonce(mNonce, mSegment, last);
+        mPlaintext.clear();
+        try {
+            mCipher.init(Cipher.DECRYPT_MODE, mDataKey,
+                    new GCMParameterSpec(EncryptedCaptureWriter.TAG_BYTES * 8, mNonce));
+            mCipher.updateAAD(mHeader);
+            mCipher.doFinal(mCiphertext, mPlaintext);
+        } catch (GeneralSecurityException e) {
+            mPlaintext.limit(0);
+            throw new IOException("Segment " + mSegment + " is corrupt or out of place", e);
+        }
+        mPlaintext.flip();
+        mSegment++;
+        mLastRead = last;
+    }
+
+    // false if the channel ended before the buffer was full
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static SecretKey unwrapKey(SecretKey masterKey, byte[] wrapped)
+            throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(EncryptedCaptureWriter.TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(
+                EncryptedCaptureWriter.TAG_BYTES * 8, wrapped, 0, EncryptedCaptureWriter.NONCE_BYTES));
+        byte[] key = cipher.doFinal(wrapped, EncryptedCaptureWriter.NONCE_BYTES,
+                wrapped.length - EncryptedCaptureWriter.NONCE_BYTES);
+        return new SecretKeySpec(key, "AES");
+    }
+}
@@ -0,0 +1,245 @@
+package ho.palomakoba.securitysystem;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encrypts a file with AES-GCM in segments, each with its own tag, so it is
+ * written and read back in a buffer of one segment whatever its size.
+ * <pre>
+ * header  magic, version, segment size, nonce prefix (7 bytes),
+ *         wrapped key length (2 bytes), wrapped key
+ * segment ciphertext of up to segment size bytes, 16 byte tag
+ * </pre>
+ * Every file has its own random data key, encrypted with the master key,
+ * which can be a hardware backed key that only wraps: the segments are
+ * encrypted in software. The nonce of a segment is the prefix, its index and
+ * whether it is the last one, and the header is the associated data of all
+ * of them. Reordered, dropped, appended or truncated segments and a changed
+ * header fail the tag, see {@link EncryptedCaptureReader}.
+ * <p>
+ * A segment is encrypted straight from the buffer given to {@link #write} or
+ * {@link #finish} when it is whole, only the rest is copied.
+ */
+public class EncryptedCaptureWriter implements Closeable {
+    public static final int MAGIC = 0x53534543;
+    public static final int VERSION = 1;
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    // an encrypted capture is front_..._123.jpg.enc
+    public static final String EXTENSION = ".enc";
+
+    static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    static final int TAG_BYTES = 16;
+    static final int NONCE_BYTES = 12;
+    static final int NONCE_PREFIX_BYTES = 7;
+    static final int DATA_KEY_BITS = 256;
+
+    private static final SecureRandom sRandom = new SecureRandom();
+
+    private final FileChannel mChannel;
+    private final int mSegmentSize;
+    private final Cipher mCipher;
+    private final SecretKey mDataKey;
+    private final byte[] mHeader;
+    private final byte[] mNonce = new byte[NONCE_BYTES];
+    private final ByteBuffer mPlaintext;
+    private final ByteBuffer mCiphertext;
+    private int mSegment;
+    private boolean mFinished;
+
+    /**
+     * Writes the header at the position of {@code channel}.
+     *
+     * @param masterKey wraps the data key of the file, AES with GCM
+     */
+    public EncryptedCaptureWriter(FileChannel channel, SecretKey masterKey, int segmentSize)
+            throws IOException, GeneralSecurityException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+        }
+        mChannel = channel;
+        mSegmentSize = segmentSize;
+        mCipher = Cipher.getInstance(TRANSFORMATION);
+
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(DATA_KEY_BITS, sRandom);
+        mDataKey = generator.generateKey();
+        byte[] wrapped = wrapKey(masterKey, mDataKey);
+
+        sRandom.nextBytes(mNonce);
+        mHeader = header(segmentSize, mNonce, wrapped);
+        ByteBuffer header = ByteBuffer.wrap(mHeader);
+        while (header.hasRemaining()) {
+            mChannel.write(header);
+        }
+
+        mPlaintext = ByteBuffer.allocateDirect(segmentSize);
+        mCiphertext = ByteBuffer.allocateDirect(segmentSize + TAG_BYTES);
+    }
+
+    /**
+     * Encrypts {@code data} to {@code target} through a temporary file, like
+     * {@link AtomicFileWriter#write}.
+     */
+    public static void write(ByteBuffer data, File target, SecretKey masterKey, int segmentSize,
+                             boolean sync) throws IOException {
+        File temp = AtomicFileWriter.tempFile(target);
+        boolean written = false;
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                FileChannel channel = out.getChannel();
+                new EncryptedCaptureWriter(channel, masterKey, segmentSize).finish(data);
+                if (sync) {
+                    channel.force(false);
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Can't encrypt " + target, e);
+            }
+            AtomicFileWriter.commit(temp, target);
+            written = true;
+        } finally {
+            if (!written) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Encrypts the remaining bytes of {@code data}, the last segment is kept
+     * until more data or {@link #close()} tells whether it is the last one.
+     */
+    public void write(ByteBuffer data) throws IOException {
+        checkNotFinished();
+        while (data.hasRemaining()) {
+            if (mPlaintext.position() == mSegmentSize) {
+                // more data follows the full segment
+                mPlaintext.flip();
+                encrypt(mPlaintext, false);
+                mPlaintext.clear();
+            }
+            if (mPlaintext.position() == 0 && data.remaining() > mSegmentSize) {
+                encrypt(slice(data, mSegmentSize), false);
+                continue;
+            }
+            int count = Math.min(data.remaining(), mPlaintext.remaining());
+            ByteBuffer part = slice(data, count);
+            mPlaintext.put(part);
+        }
+    }
+
+    /**
+     * Encrypts the remaining bytes of {@code data} as the end of the file.
+     * Nothing is copied if nothing was written before.
+     */
+    public void finish(ByteBuffer data) throws IOException {
+        checkNotFinished();
+        if (mPlaintext.position() > 0) {
+            write(data);
+            close();
+            return;
+        }
+        while (data.remaining() > mSegmentSize) {
+            encrypt(slice(data, mSegmentSize), false);
+        }
+        encrypt(data, true);
+        mFinished = true;
+    }
+
+    /**
+     * Encrypts what is left as the last segment. The channel stays open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mFinished) {
+            return;
+        }
+        mPlaintext.flip();
+        encrypt(mPlaintext, true);
+        mPlaintext.clear();
+        mFinished = true;
+    }
+
+    public int getSegmentCount() {
+        return mSegment;
+    }
+
+    private void encrypt(ByteBuffer plaintext, boolean last) throws IOException {
+        setSegmentNonce(mNonce, mSegment, last);
+        mCiphertext.clear();
+        try {
+            mCipher.init(Cipher.ENCRYPT_MODE, mDataKey, new GCMParameterSpec(TAG_BYTES * 8, mNonce));
+            mCipher.updateAAD(mHeader);
+            mCipher.doFinal(plaintext, mCiphertext);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Can't encrypt segment " + mSegment, e);
+        }
+        mCiphertext.flip();
+        while (mCiphertext.hasRemaining()) {
+            mChannel.write(mCiphertext);
+        }
+        mSegment++;
+    }
+
+    private void checkNotFinished() {
+        if (mFinished) {
+            throw new IllegalStateException("Already finished");
+        }
+    }
+
+    // the next count bytes of data, which moves past them
+    private static ByteBuffer slice(ByteBuffer data, int count) {
+        ByteBuffer slice = data.duplicate();
+        slice.limit(data.position() + count);
+        data.position(data.position() + count);
+        return slice;
+    }
+
+    static void setSegmentNonce(byte[] nonce, int segment, boolean last) {
+        nonce[NONCE_PREFIX_BYTES] = (byte) (segment >>> 24);
+        nonce[NONCE_PREFIX_BYTES + 1] = (byte) (segment >>> 16);
+        nonce[NONCE_PREFIX_BYTES + 2] = (byte) (segment >>> 8);
+        nonce[NONCE_PREFIX_BYTES + 3] = (byte) segment;
+        nonce[NONCE_PREFIX_BYTES + 4] = (byte) (last ? 1 : 0);
+    }
+
+    static byte[] header(int segmentSize, byte[] nonce, byte[] wrappedKey) {
+        ByteBuffer header = ByteBuffer.allocate(4 + 1 + 4 + NONCE_PREFIX_BYTES + 2 + wrappedKey.length)
+                .order(ByteOrder.BIG_ENDIAN);
+        header.putInt(MAGIC);
+        header.put((byte) VERSION);
+        header.putInt(segmentSize);
+        header.put(nonce, 0, NONCE_PREFIX_BYTES);
+        header.putShort((short) wrappedKey.length);
+        header.put(wrappedKey);
+        return header.array();
+    }
+
+    // the master key picks the IV, a hardware backed key may not take one
+    private static byte[] wrapKey(SecretKey masterKey, SecretKey dataKey)
+            throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, masterKey);
+        byte[] iv = cipher.getIV();
+        if (iv == null || iv.length != NONCE_BYTES) {
+            throw new GeneralSecurityException("Unexpected IV from " + cipher.getProvider());
+        }
+        byte[] encrypted = cipher.doFinal(dataKey.getEncoded());
+        byte[] wrapped = new byte[iv.length + encrypted.length];
+        System.arraycopy(iv, 0, wrapped, 0, iv.length);
+        System.arraycopy(encrypted, 0, wrapped, iv.length, encrypted.length);
+        return wrapped;
+    }
+}
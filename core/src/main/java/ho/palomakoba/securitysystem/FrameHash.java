@@ -0,0 +1,106 @@
+package ho.palomakoba.securitysystem;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A 64 bit difference hash (dHash) of a frame: the luma is averaged over a
+ * 9x8 grid and every bit tells whether a cell is brighter than the one on its
+ * right. Frames of the same scene, with a little noise, another exposure or
+ * nudged by a few pixels, differ in a few bits.
+ * <p>
+ * Each cell is averaged from {@value #SAMPLES}x{@value #SAMPLES} samples, so
+ * the cost doesn't depend on the frame size. An instance reuses its buffers,
+ * hashing doesn't allocate, and is not thread safe.
+ */
+public class FrameHash {
+    static final int COLUMNS = 9;
+    static final int ROWS = 8;
+    static final int SAMPLES = 8;
+
+    private final int[] mCells = new int[COLUMNS * ROWS];
+    private final int[] mXs = new int[COLUMNS * SAMPLES];
+    private final int[] mYs = new int[ROWS * SAMPLES];
+
+    /**
+     * Hashes a luma plane, like the Y plane of a YUV_420_888 image.
+     */
+    public long hashLuma(ByteBuffer plane, int width, int height, int rowStride, int pixelStride) {
+        sampleAt(width, height);
+        int base = plane.position();
+        for (int cy = 0; cy < ROWS; cy++) {
+            for (int cx = 0; cx < COLUMNS; cx++) {
+                int sum = 0;
+                for (int sy = 0; sy < SAMPLES; sy++) {
+                    int row = base + mYs[cy * SAMPLES + sy] * rowStride;
+                    for (int sx = 0; sx < SAMPLES; sx++) {
+                        sum += plane.get(row + mXs[cx * SAMPLES + sx] * pixelStride) & 0xff;
+                    }
+                }
+                mCells[cy * COLUMNS + cx] = sum;
+            }
+        }
+        return bits();
+    }
+
+    /**
+     * Hashes ARGB pixels, like the ones of a decoded bitmap.
+     */
+    public long hashArgb(int[] pixels, int width, int height, int stride) {
+        sampleAt(width, height);
+        for (int cy = 0; cy < ROWS; cy++) {
+            for (int cx = 0; cx < COLUMNS; cx++) {
+                int sum = 0;
+                for (int sy = 0; sy < SAMPLES; sy++) {
+                    int row = mYs[cy * SAMPLES + sy] * stride;
+                    for (int sx = 0; sx < SAMPLES; sx++) {
+                        int pixel = pixels[row + mXs[cx * SAMPLES + sx]];
+                        sum += (77 * ((pixel >> 16) & 0xff) + 150 * ((pixel >> 8) & 0xff)
+                                + 29 * (pixel & 0xff)) >> 8;
+                    }
+                }
+                mCells[cy * COLUMNS + cx] = sum;
+            }
+        }
+        return bits();
+    }
+
+    /**
+     * @return how many bits differ, 0 for the same picture, about 32 for
+     * unrelated ones
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    // the samples are spread evenly over each cell
+    private void sampleAt(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid frame " + width + "x" + height);
+        }
+        for (int cx = 0; cx < COLUMNS; cx++) {
+            int x0 = cx * width / COLUMNS;
+            int x1 = (cx + 1) * width / COLUMNS;
+            for (int sx = 0; sx < SAMPLES; sx++) {
+                mXs[cx * SAMPLES + sx] = x0 + (2 * sx + 1) * (x1 - x0) / (2 * SAMPLES);
+            }
+        }
+        for (int cy = 0; cy < ROWS; cy++) {
+            int y0 = cy * height / ROWS;
+            int y1 = (cy + 1) * height / ROWS;
+            for (int sy = 0; sy < SAMPLES; sy++) {
+                mYs[cy * SAMPLES + sy] = y0 + (2 * sy + 1) * (y1 - y0) / (2 * SAMPLES);
+            }
+        }
+    }
+
+    private long bits() {
+        long hash = 0;
+        for (int cy = 0; cy < ROWS; cy++) {
+            for (int cx = 0; cx < COLUMNS - 1; cx++) {
+                int i = cy * COLUMNS + cx;
+                hash = hash << 1 | (mCells[i] > mCells[i + 1] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+}
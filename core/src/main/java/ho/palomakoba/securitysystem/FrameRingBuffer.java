@@ -0,0 +1,172 @@
+package ho.palomakoba.securitysystem;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed set of frame slots in one direct buffer, the newest frame overwrites
+ * the oldest one.
+ * <p>
+ * The writer fills the slot returned by {@link #acquire()} in place and
+ * {@link #commit(long, int)}s it, nothing is allocated per frame. On trigger
+ * {@link #snapshot(long)} pins the frames since a given time, oldest first,
+ * until {@link #releaseSnapshot()}. Pinned slots are skipped by the writer, so
+ * streaming can go on while the snapshot is persisted.
+ */
+public class FrameRingBuffer {
+    private final int mFrameBytes;
+    private final ByteBuffer[] mSlots;
+    private final long[] mTimestamps;
+    private final int[] mLengths;
+    private final boolean[] mPinned;
+    private final int[] mSnapshot;
+
+    private int mNext;
+    private int mWriting = -1;
+    private int mSnapshotSize = -1;
+    private long mDropped;
+
+    /**
+     * @param frameBytes the largest frame
+     * @param maxBytes   memory cap, it has to fit at least two frames
+     */
+    public FrameRingBuffer(int frameBytes, long maxBytes) {
+        long slots = frameBytes > 0 ? maxBytes / frameBytes : 0;
+        if (slots < 2) {
+            throw new IllegalArgumentException("Can't fit two frames of " + frameBytes
+                    + " bytes in " + maxBytes + " bytes");
+        }
+        int slotCount = (int) Math.min(slots, Integer.MAX_VALUE / frameBytes);
+        mFrameBytes = frameBytes;
+
+        ByteBuffer memory = ByteBuffer.allocateDirect(slotCount * frameBytes);
+        mSlots = new ByteBuffer[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            memory.limit((i + 1) * frameBytes).position(i * frameBytes);
+            mSlots[i] = memory.slice();
+        }
+        mTimestamps = new long[slotCount];
+        mLengths = new int[slotCount];
+        mPinned = new boolean[slotCount];
+        mSnapshot = new int[slotCount];
+    }
+
+    public int getSlotCount() {
+        return mSlots.length;
+    }
+
+    public int getFrameBytes() {
+        return mFrameBytes;
+    }
+
+    /**
+     * Frames that could not be written because every slot was pinned.
+     */
+    public synchronized long getDroppedFrames() {
+        return mDropped;
+    }
+
+    /**
+     * @return the slot to write the next frame into, cleared, or null if all
+     * of them are pinned and the frame has to be dropped
+     */
+    public synchronized ByteBuffer acquire() {
+        if (mWriting >= 0) {
+            throw new IllegalStateException("Previous frame not committed");
+        }
+        for (int i = 0; i < mSlots.length; i++) {
+            int slot = (mNext + i) % mSlots.length;
+            if (!mPinned[slot]) {
+                mWriting = slot;
+                mLengths[slot] = 0;
+                mSlots[slot].clear();
+                return mSlots[slot];
+            }
+        }
+        mDropped++;
+        return null;
+    }
+
+    public synchronized void commit(long timestampNanos, int length) {
+        if (mWriting < 0) {
+            throw new IllegalStateException("No frame acquired");
+        }
+        mTimestamps[mWriting] = timestampNanos;
+        mLengths[mWriting] = length;
+        mNext = (mWriting + 1) % mSlots.length;
+        mWriting = -1;
+    }
+
+    /**
+     * Pins the frames taken at or after {@code sinceNanos}.
+     *
+     * @return how many frames the snapshot has, or -1 if the last snapshot is
+     * not released yet and nothing was pinned
+     */
+    public synchronized int snapshot(long sinceNanos) {
+        if (mSnapshotSize >= 0) {
+            return -1;
+        }
+        int size = 0;
+        for (int slot = 0; slot < mSlots.length; slot++) {
+            if (mLengths[slot] > 0 && slot != mWriting && mTimestamps[slot] >= sinceNanos) {
+                // insertion sort by timestamp, the ring is small
+                int i = size++;
+                while (i > 0 && mTimestamps[mSnapshot[i - 1]] > mTimestamps[slot]) {
+                    mSnapshot[i] = mSnapshot[i - 1];
+                    i--;
+                }
+                mSnapshot[i] = slot;
+                mPinned[slot] = true;
+            }
+        }
+        mSnapshotSize = size;
+        return size;
+    }
+
+    /**
+     * @return the frames of the pinned snapshot, 0 if there is none
+     */
+    public synchronized int getSnapshotSize() {
+        return Math.max(0, mSnapshotSize);
+    }
+
+    public synchronized long getSnapshotTimestamp(int index) {
+        return mTimestamps[snapshotSlot(index)];
+    }
+
+    /**
+     * @return a read only view of the pinned frame, valid until the snapshot
+     * is released
+     */
+    public synchronized ByteBuffer getSnapshotFrame(int index) {
+        int slot = snapshotSlot(index);
+        ByteBuffer frame = mSlots[slot].asReadOnlyBuffer();
+        frame.clear().limit(mLengths[slot]);
+        return frame;
+    }
+
+    public synchronized void releaseSnapshot() {
+        for (int i = 0; i < mSnapshotSize; i++) {
+            mPinned[mSnapshot[i]] = false;
+        }
+        mSnapshotSize = -1;
+    }
+
+    public synchronized void clear() {
+        if (mSnapshotSize >= 0) {
+            throw new IllegalStateException("Snapshot not released");
+        }
+        for (int slot = 0; slot < mSlots.length; slot++) {
+            mLengths[slot] = 0;
+        }
+        mWriting = -1;
+        mNext = 0;
+    }
+
+    private int snapshotSlot(int index) {
+        if (index < 0 || index >= mSnapshotSize) {
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + mSnapshotSize);
+        }
+        return mSnapshot[index];
+    }
+}
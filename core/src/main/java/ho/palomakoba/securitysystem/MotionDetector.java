@@ -0,0 +1,191 @@
+package ho.palomakoba.securitysystem;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds motion in a low resolution luma stream by frame differencing.
+ * <p>
+ * Every {@code step}-th pixel of every {@code step}-th row is kept, and the
+ * small frame is compared with the previous one block by block as a sum of
+ * absolute differences (SAD), less the change of the mean brightness so auto
+ * exposure or a lamp turned on is not motion, clipped highlights are left
+ * out. Each block learns the SAD of its background, sensor noise or a
+ * flickering screen, as a running mean and variance, and has changed when it
+ * goes past {@code sensitivity} deviations above it. Motion is reported once
+ * enough blocks changed in a row of frames, a glitch changes only two.
+ * <p>
+ * The buffers are allocated once, a frame doesn't allocate. Not thread safe.
+ */
+public class MotionDetector {
+    public static final int DEFAULT_STEP = 2;
+    public static final int DEFAULT_BLOCK = 8;
+    public static final float DEFAULT_SENSITIVITY = 4;
+    public static final float DEFAULT_MIN_CHANGED_FRACTION = 0.02f;
+    public static final int DEFAULT_MIN_FRAMES = 3;
+    public static final int DEFAULT_LEARN_FRAMES = 10;
+
+    // below this mean difference per sample a block is only noise
+    private static final int MIN_SAD_PER_SAMPLE = 3;
+    // clipped pixels don't follow a change of exposure
+    private static final int CLIPPED = 250;
+    private static final float ADAPT = 0.05f;
+    private static final float ADAPT_CHANGED = 0.005f;
+
+    private final int mStep;
+    private final int mBlock;
+    private final int mSmallWidth;
+    private final int mSmallHeight;
+    private final int mBlocksX;
+    private final int mBlocksY;
+    private final float mSensitivity;
+    private final int mMinChangedBlocks;
+    private final int mMinFrames;
+    private final int mLearnFrames;
+    private final int mMinSad;
+
+    private int[] mCurrent;
+    private int[] mPrevious;
+    private final float[] mMean;
+    private final float[] mVariance;
+
+    private int mPreviousBrightness;
+    private long mFrames;
+    private int mChangedBlocks;
+    private int mMotionFrames;
+
+    public MotionDetector(int width, int height) {
+        this(width, height, DEFAULT_STEP, DEFAULT_BLOCK, DEFAULT_SENSITIVITY,
+                DEFAULT_MIN_CHANGED_FRACTION, DEFAULT_MIN_FRAMES, DEFAULT_LEARN_FRAMES);
+    }
+
+    /**
+     * @param step               distance between the pixels kept
+     * @param block              side of a block, in pixels kept
+     * @param sensitivity        deviations above the background SAD a block
+     *                           has to change by
+     * @param minChangedFraction of the blocks that have to change
+     * @param minFrames          frames in a row with motion before it is
+     *                           reported
+     * @param learnFrames        frames that only learn the background
+     */
+    public MotionDetector(int width, int height, int step, int block, float sensitivity,
+                          float minChangedFraction, int minFrames, int learnFrames) {
+        if (step < 1 || block < 1 || width / step < block || height / step < block) {
+            throw new IllegalArgumentException("Invalid blocks of " + block + " every " + step
+                    + " pixels in " + width + "x" + height);
+        }
+        mStep = step;
+        mBlock = block;
+        mSmallWidth = width / step;
+        mSmallHeight = height / step;
+        mBlocksX = mSmallWidth / block;
+        mBlocksY = mSmallHeight / block;
+        mSensitivity = sensitivity;
+        mMinChangedBlocks = Math.max(1, (int) Math.ceil(minChangedFraction * mBlocksX * mBlocksY));
+        mMinFrames = Math.max(1, minFrames);
+        mLearnFrames = Math.max(2, learnFrames);
+        mMinSad = MIN_SAD_PER_SAMPLE * block * block;
+
+        mCurrent = new int[mSmallWidth * mSmallHeight];
+        mPrevious = new int[mSmallWidth * mSmallHeight];
+        mMean = new float[mBlocksX * mBlocksY];
+        mVariance = new float[mBlocksX * mBlocksY];
+    }
+
+    /**
+     * Compares a frame with the previous one, like the Y plane of a
+     * YUV_420_888 image.
+     *
+     * @return true on the frame where motion starts, not again until it
+     * stopped
+     */
+    public boolean process(ByteBuffer plane, int rowStride, int pixelStride) {
+        int base = plane.position();
+        long sum = 0;
+        int i = 0;
+        for (int y = 0; y < mSmallHeight; y++) {
+            int row = base + y * mStep * rowStride;
+            for (int x = 0; x < mSmallWidth; x++) {
+                int value = plane.get(row + x * mStep * pixelStride) & 0xff;
+                mCurrent[i++] = value;
+                sum += value;
+            }
+        }
+        int brightness = (int) (sum / mCurrent.length);
+
+        boolean started = false;
+        if (mFrames > 0) {
+            mChangedBlocks = compare(brightness - mPreviousBrightness);
+            mMotionFrames = mChangedBlocks >= mMinChangedBlocks ? mMotionFrames + 1 : 0;
+            started = mMotionFrames == mMinFrames;
+        }
+
+        int[] previous = mPrevious;
+        mPrevious = mCurrent;
+        mCurrent = previous;
+        mPreviousBrightness = brightness;
+        mFrames++;
+        return started;
+    }
+
+    /**
+     * @return how many blocks changed in the last frame
+     */
+    public int getChangedBlocks() {
+        return mChangedBlocks;
+    }
+
+    public int getBlockCount() {
+        return mBlocksX * mBlocksY;
+    }
+
+    public boolean isLearning() {
+        return mFrames < mLearnFrames;
+    }
+
+    /**
+     * Forgets the background, when the stream starts again after a pause.
+     */
+    public void reset() {
+        mFrames = 0;
+        mChangedBlocks = 0;
+        mMotionFrames = 0;
+    }
+
+    private int compare(int brightnessChange) {
+        boolean learning = isLearning();
+        float learnRate = 1f / mFrames;
+        int changed = 0;
+        for (int by = 0; by < mBlocksY; by++) {
+            for (int bx = 0; bx < mBlocksX; bx++) {
+                int sad = 0;
+                for (int y = 0; y < mBlock; y++) {
+                    int index = (by * mBlock + y) * mSmallWidth + bx * mBlock;
+                    for (int x = 0; x < mBlock; x++, index++) {
+                        int current = mCurrent[index];
+                        int previous = mPrevious[index];
+                        if (current >= CLIPPED || previous >= CLIPPED) {
+                            continue;
+                        }
+                        int difference = current - previous - brightnessChange;
+                        sad += difference < 0 ? -difference : difference;
+                    }
+                }
+
+                int b = by * mBlocksX + bx;
+                float mean = mMean[b];
+                float deviation = sad - mean;
+                boolean isChanged = !learning
+                        && sad > mMinSad && deviation > mSensitivity * (float) Math.sqrt(mVariance[b]);
+                if (isChanged) {
+                    changed++;
+                }
+                // motion only nudges the background, so it is not learned
+                float rate = learning ? learnRate : isChanged ? ADAPT_CHANGED : ADAPT;
+                mMean[b] = mean + rate * deviation;
+                mVariance[b] = (1 - rate) * (mVariance[b] + rate * deviation * deviation);
+            }
+        }
+        return changed;
+    }
+}
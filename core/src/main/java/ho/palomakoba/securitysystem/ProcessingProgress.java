@@ -0,0 +1,95 @@
+package ho.palomakoba.securitysystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * How far a pass over the {@link CaptureIndex} got, saved after every capture
+ * so a pass that is stopped resumes where it was.
+ * <p>
+ * Captures are visited by time, then by name. The position is the last one
+ * done, a capture indexed later with an older time is not visited.
+ */
+public class ProcessingProgress {
+    private static final Comparator<CaptureIndex.Entry> ORDER = (a, b) -> {
+        int byTime = Long.compare(a.getTimeMillis(), b.getTimeMillis());
+        return byTime != 0 ? byTime : a.getFileName().compareTo(b.getFileName());
+    };
+
+    private final File mFile;
+    private long mTimeMillis = Long.MIN_VALUE;
+    private String mFileName = "";
+    private long mProcessedCount;
+
+    /**
+     * @param file where the position is kept, a missing or damaged one starts
+     *             from the oldest capture
+     */
+    public ProcessingProgress(File file) {
+        mFile = file;
+        try {
+            ByteBuffer saved = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            long timeMillis = saved.getLong();
+            long processedCount = saved.getLong();
+            byte[] name = new byte[saved.remaining()];
+            saved.get(name);
+            mTimeMillis = timeMillis;
+            mProcessedCount = processedCount;
+            mFileName = new String(name, StandardCharsets.UTF_8);
+        } catch (IOException | RuntimeException e) {
+            // nothing done yet
+        }
+    }
+
+    public synchronized boolean isDone(CaptureIndex.Entry entry) {
+        int byTime = Long.compare(entry.getTimeMillis(), mTimeMillis);
+        return byTime < 0 || (byTime == 0 && entry.getFileName().compareTo(mFileName) <= 0);
+    }
+
+    /**
+     * @return up to {@code count} captures not done yet, in order
+     */
+    public synchronized List<CaptureIndex.Entry> next(CaptureIndex index, int count) {
+        List<CaptureIndex.Entry> next = new ArrayList<>();
+        for (CaptureIndex.Entry entry : index.query(mTimeMillis, Long.MAX_VALUE)) {
+            // past the batch, but captures of the same time still sort by name
+            if (next.size() >= count
+                    && entry.getTimeMillis() > next.get(next.size() - 1).getTimeMillis()) {
+                break;
+            }
+            if (!isDone(entry)) {
+                next.add(entry);
+            }
+        }
+        Collections.sort(next, ORDER);
+        return next.subList(0, Math.min(count, next.size()));
+    }
+
+    /**
+     * Marks {@code entry} and every capture before it as done.
+     */
+    public synchronized void advance(CaptureIndex.Entry entry) throws IOException {
+        byte[] name = entry.getFileName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer saved = ByteBuffer.allocate(16 + name.length);
+        saved.putLong(entry.getTimeMillis()).putLong(mProcessedCount + 1).put(name).flip();
+        AtomicFileWriter.write(saved, mFile, false);
+
+        mTimeMillis = entry.getTimeMillis();
+        mFileName = entry.getFileName();
+        mProcessedCount++;
+    }
+
+    /**
+     * @return how many captures were done, over every pass
+     */
+    public synchronized long getProcessedCount() {
+        return mProcessedCount;
+    }
+}
@@ -0,0 +1,95 @@
+package ho.palomakoba.securitysystem;
+
+/**
+ * Collects the events of one sensor batch so they can go through the
+ * {@link TriggerEngine} in a single pass once the batch has been delivered.
+ * <p>
+ * Events are kept in preallocated primitive arrays, adding and processing do
+ * not allocate.
+ */
+public class SensorBatch {
+    // same values as android.hardware.Sensor.TYPE_*
+    public static final int TYPE_ACCELEROMETER = 1;
+    public static final int TYPE_LIGHT = 5;
+    public static final int TYPE_PROXIMITY = 8;
+
+    private final int[] mTypes;
+    private final long[] mTimestamps;
+    private final float[] mValues;
+    private final float[] mSample = new float[3];
+    private int mSize;
+
+    public SensorBatch(int capacity) {
+        mTypes = new int[capacity];
+        mTimestamps = new long[capacity];
+        mValues = new float[capacity * 3];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public boolean isFull() {
+        return mSize == mTypes.length;
+    }
+
+    public void add(int type, long timestampNanos, float[] values) {
+        if (isFull()) {
+            throw new IllegalStateException("Batch is full");
+        }
+        mTypes[mSize] = type;
+        mTimestamps[mSize] = timestampNanos;
+        int offset = mSize * 3;
+        mValues[offset] = values[0];
+        if (type == TYPE_ACCELEROMETER) {
+            mValues[offset + 1] = values[1];
+            mValues[offset + 2] = values[2];
+        }
+        mSize++;
+    }
+
+    /**
+     * Feeds every event to the engine in delivery order.
+     *
+     * @return the index of the first pickup, or -1 if there was none
+     */
+    public int process(TriggerEngine engine) {
+        int pickup = -1;
+        for (int i = 0; i < mSize; i++) {
+            int offset = i * 3;
+            switch (mTypes[i]) {
+                case TYPE_ACCELEROMETER:
+                    mSample[0] = mValues[offset];
+                    mSample[1] = mValues[offset + 1];
+                    mSample[2] = mValues[offset + 2];
+                    if (engine.onAccelerometer(mTimestamps[i], mSample) && pickup < 0) {
+                        pickup = i;
+                    }
+                    break;
+                case TYPE_LIGHT:
+                    engine.onLight(mValues[offset]);
+                    break;
+                case TYPE_PROXIMITY:
+                    engine.onProximity(mValues[offset]);
+                    break;
+            }
+        }
+        return pickup;
+    }
+
+    public long getTimestamp(int index) {
+        return mTimestamps[index];
+    }
+
+    public void copyValues(int index, float[] values) {
+        System.arraycopy(mValues, index * 3, values, 0, 3);
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+}
@@ -0,0 +1,94 @@
+package ho.palomakoba.securitysystem;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Counts the sensor events delivered to the service against the ones that
+ * could have led to a capture: accelerometer events while locked and armed,
+ * light and proximity events that changed the gate. The rest woke the
+ * processor for nothing, which is what {@link SensorScheduler} cuts.
+ */
+public class SensorEventStats {
+    private static final int[] TYPES = {SensorBatch.TYPE_ACCELEROMETER, SensorBatch.TYPE_LIGHT,
+            SensorBatch.TYPE_PROXIMITY};
+    private static final String[] NAMES = {"accelerometer", "light", "proximity"};
+
+    private final long[] mDelivered = new long[TYPES.length];
+    private final long[] mUseful = new long[TYPES.length];
+
+    /**
+     * Counts an event, before it is given to the gate.
+     */
+    public void onEvent(int type, long timestampNanos, float value, boolean locked,
+                        TriggerGate gate) {
+        int index = index(type);
+        if (index < 0) {
+            return;
+        }
+        mDelivered[index]++;
+        boolean useful;
+        switch (type) {
+            case SensorBatch.TYPE_ACCELEROMETER:
+                useful = locked && gate.isArmed(timestampNanos);
+                break;
+            case SensorBatch.TYPE_LIGHT:
+                useful = TriggerGate.isLight(value) != gate.hasLight();
+                break;
+            default:
+                useful = TriggerGate.isNear(value) != gate.isInPocket();
+                break;
+        }
+        if (useful) {
+            mUseful[index]++;
+        }
+    }
+
+    public long getDelivered(int type) {
+        int index = index(type);
+        return index < 0 ? 0 : mDelivered[index];
+    }
+
+    public long getUseful(int type) {
+        int index = index(type);
+        return index < 0 ? 0 : mUseful[index];
+    }
+
+    public void clear() {
+        for (int i = 0; i < TYPES.length; i++) {
+            mDelivered[i] = 0;
+            mUseful[i] = 0;
+        }
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println("Sensor events, delivered / could trigger:");
+        for (int i = 0; i < TYPES.length; i++) {
+            writer.println(String.format(Locale.US, "  %-14s %10d %10d %5.1f%%", NAMES[i],
+                    mDelivered[i], mUseful[i],
+                    mDelivered[i] == 0 ? 0 : 100.0 * mUseful[i] / mDelivered[i]));
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("SensorEventStats{");
+        for (int i = 0; i < TYPES.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(NAMES[i]).append('=').append(mUseful[i]).append('/')
+                    .append(mDelivered[i]);
+        }
+        return builder.append('}').toString();
+    }
+
+    private static int index(int type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i] == type) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
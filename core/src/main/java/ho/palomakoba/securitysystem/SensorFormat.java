@@ -0,0 +1,25 @@
+package ho.palomakoba.securitysystem;
+
+import java.text.DecimalFormat;
+
+/**
+ * Formats sensor values for the log.
+ */
+public class SensorFormat {
+
+    private SensorFormat() {
+    }
+
+    /**
+     * @return the accelerometer values rounded to m/s^2, like "X: 0 Y: 7 Z: 7"
+     */
+    public static String valuesToString(float[] values) {
+        DecimalFormat df = new DecimalFormat("#");
+
+        return "X: " + df.format(values[0]) +
+                " Y: " +
+                df.format(values[1]) +
+                " Z: " +
+                df.format(values[2]);
+    }
+}
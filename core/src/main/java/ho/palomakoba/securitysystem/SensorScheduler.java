@@ -0,0 +1,177 @@
+package ho.palomakoba.securitysystem;
+
+/**
+ * Decides how each sensor is registered from the state of the device, so
+ * the accelerometer only streams while a pickup could start a capture.
+ * <pre>
+ * state         accelerometer  light   proximity  motion
+ * unlocked      off            off     off        off
+ * armed         normal         normal  normal     off
+ * cooling down  off            slow    slow       off
+ * pocketed      off            off     normal     off
+ * dark          off            normal  slow       off
+ * still         off            normal  normal     normal
+ * </pre>
+ * Going back to armed is immediate. Going into pocketed or dark waits until
+ * the sensors have said so for the hold time, a hand over the proximity
+ * sensor or a passing shadow does not turn the accelerometer off and on.
+ * Locking, unlocking and the cooldown are exact and change the state at once.
+ * <p>
+ * With an analysis time, armed only lasts that long after {@link #onMotion}
+ * from the one-shot sensor of the {@link TriggerTier}, or after the
+ * accelerometer was started for any other reason, and then the device is
+ * still until the next motion.
+ * <p>
+ * The state is only computed when {@link #update} is called: after every
+ * light, proximity and lock change, and at {@link #getNextUpdateNanos()}.
+ */
+public class SensorScheduler {
+    public static final int STATE_UNLOCKED = 0;
+    public static final int STATE_ARMED = 1;
+    public static final int STATE_COOLING_DOWN = 2;
+    public static final int STATE_POCKETED = 3;
+    public static final int STATE_DARK = 4;
+    public static final int STATE_STILL = 5;
+
+    public static final int RATE_OFF = 0;
+    // on change events delivered late, in long batches
+    public static final int RATE_SLOW = 1;
+    public static final int RATE_NORMAL = 2;
+
+    private static final String[] STATES = {"unlocked", "armed", "cooling down", "pocketed", "dark",
+            "still"};
+    // accelerometer, light, proximity, motion for each state
+    private static final int[][] RATES = {
+            {RATE_OFF, RATE_OFF, RATE_OFF, RATE_OFF},
+            {RATE_NORMAL, RATE_NORMAL, RATE_NORMAL, RATE_OFF},
+            {RATE_OFF, RATE_SLOW, RATE_SLOW, RATE_OFF},
+            {RATE_OFF, RATE_OFF, RATE_NORMAL, RATE_OFF},
+            {RATE_OFF, RATE_NORMAL, RATE_SLOW, RATE_OFF},
+            {RATE_OFF, RATE_NORMAL, RATE_NORMAL, RATE_NORMAL},
+    };
+
+    private final long mHoldNanos;
+    private final long mAnalysisNanos;
+    private long mAnalysisEndNanos;
+    private int mState = STATE_UNLOCKED;
+    private int mPending = -1;
+    private long mPendingSinceNanos;
+    private long mNextUpdateNanos = -1;
+    private int mTransitions;
+
+    /**
+     * @param holdNanos how long the device has to be dark or in a pocket
+     *                  before the accelerometer is turned off
+     */
+    public SensorScheduler(long holdNanos) {
+        this(holdNanos, 0);
+    }
+
+    /**
+     * @param analysisNanos how long the accelerometer runs after a motion,
+     *                      0 if it is never waiting for one
+     */
+    public SensorScheduler(long holdNanos, long analysisNanos) {
+        mHoldNanos = holdNanos;
+        mAnalysisNanos = analysisNanos;
+    }
+
+    /**
+     * The one-shot sensor fired, {@link #update} starts the accelerometer.
+     */
+    public void onMotion(long nowNanos) {
+        mAnalysisEndNanos = nowNanos + mAnalysisNanos;
+    }
+
+    /**
+     * @return true if the state, and so the rates, changed
+     */
+    public boolean update(boolean locked, TriggerGate gate, long nowNanos) {
+        int wanted;
+        if (!locked) {
+            wanted = STATE_UNLOCKED;
+        } else if (gate.isCoolingDown(nowNanos)) {
+            wanted = STATE_COOLING_DOWN;
+        } else if (gate.isInPocket()) {
+            wanted = STATE_POCKETED;
+        } else if (!gate.hasLight()) {
+            wanted = STATE_DARK;
+        } else {
+            wanted = STATE_ARMED;
+        }
+
+        mNextUpdateNanos = wanted == STATE_COOLING_DOWN ? gate.getCooldownEndNanos() : -1;
+        if (wanted == STATE_ARMED && mAnalysisNanos > 0) {
+            if (mState != STATE_ARMED && mState != STATE_STILL) {
+                // the accelerometer starts anyway, learn how the device rests
+                onMotion(nowNanos);
+            }
+            if (nowNanos < mAnalysisEndNanos) {
+                mNextUpdateNanos = mAnalysisEndNanos;
+            } else {
+                wanted = STATE_STILL;
+            }
+        }
+        if (wanted == mState) {
+            mPending = -1;
+            return false;
+        }
+        if ((wanted == STATE_POCKETED || wanted == STATE_DARK) && mState == STATE_ARMED) {
+            if (mPending != wanted) {
+                mPending = wanted;
+                mPendingSinceNanos = nowNanos;
+            }
+            if (nowNanos - mPendingSinceNanos < mHoldNanos) {
+                mNextUpdateNanos = mPendingSinceNanos + mHoldNanos;
+                return false;
+            }
+        }
+        mState = wanted;
+        mPending = -1;
+        mTransitions++;
+        return true;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public int getAccelerometerRate() {
+        return RATES[mState][0];
+    }
+
+    public int getLightRate() {
+        return RATES[mState][1];
+    }
+
+    public int getProximityRate() {
+        return RATES[mState][2];
+    }
+
+    /**
+     * @return off, or normal when the one-shot sensor of the first stage
+     * has to be requested
+     */
+    public int getMotionRate() {
+        return RATES[mState][3];
+    }
+
+    /**
+     * @return the elapsed realtime {@link #update} has to be called at even
+     * if nothing changes, or -1
+     */
+    public long getNextUpdateNanos() {
+        return mNextUpdateNanos;
+    }
+
+    public int getTransitions() {
+        return mTransitions;
+    }
+
+    @Override
+    public String toString() {
+        return "SensorScheduler{" + STATES[mState]
+                + (mPending >= 0 ? ", going " + STATES[mPending] : "")
+                + ", transitions=" + mTransitions + "}";
+    }
+}
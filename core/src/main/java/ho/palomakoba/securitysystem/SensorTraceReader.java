@@ -0,0 +1,99 @@
+package ho.palomakoba.securitysystem;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the records of a {@link SensorTraceWriter} trace one by one, without
+ * allocating. A record cut short at the end of the file is ignored.
+ */
+public class SensorTraceReader implements Closeable {
+    private static final int BUFFER_RECORDS = 16384;
+
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(
+            BUFFER_RECORDS * SensorTraceWriter.RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final long mStartMillis;
+    private final float[] mValues = new float[3];
+    private int mType;
+    private long mTimestampNanos;
+    private boolean mEnd;
+
+    public SensorTraceReader(File file) throws IOException {
+        mChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        mBuffer.flip();
+        try {
+            if (!fill(SensorTraceWriter.HEADER_BYTES)
+                    || mBuffer.getInt() != SensorTraceWriter.MAGIC) {
+                throw new IOException(file + " is not a sensor trace");
+            }
+            int version = mBuffer.getInt();
+            if (version != SensorTraceWriter.VERSION) {
+                throw new IOException(file + " has trace version " + version);
+            }
+        } catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+        mStartMillis = mBuffer.getLong();
+    }
+
+    public long getStartMillis() {
+        return mStartMillis;
+    }
+
+    /**
+     * @return false at the end of the trace
+     */
+    public boolean next() throws IOException {
+        if (mEnd || !fill(SensorTraceWriter.RECORD_BYTES)) {
+            mEnd = true;
+            return false;
+        }
+        mType = mBuffer.get();
+        mTimestampNanos = mBuffer.getLong();
+        mValues[0] = mBuffer.getFloat();
+        mValues[1] = mBuffer.getFloat();
+        mValues[2] = mBuffer.getFloat();
+        return true;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    /**
+     * @return the values of the current record, overwritten by {@link #next()}
+     */
+    public float[] getValues() {
+        return mValues;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    private boolean fill(int bytes) throws IOException {
+        if (mBuffer.remaining() >= bytes) {
+            return true;
+        }
+        mBuffer.compact();
+        while (mBuffer.position() < bytes) {
+            if (mChannel.read(mBuffer) < 0) {
+                break;
+            }
+        }
+        mBuffer.flip();
+        return mBuffer.remaining() >= bytes;
+    }
+}
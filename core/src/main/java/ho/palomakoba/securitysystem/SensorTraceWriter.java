@@ -0,0 +1,200 @@
+package ho.palomakoba.securitysystem;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Records sensor events to a trace file for {@link TraceReplay}.
+ * <p>
+ * The file is a header and fixed width little endian records, so it is read
+ * back without parsing:
+ * <pre>
+ * header  int magic "SSTR", int version, long start wall clock millis
+ * record  byte type ({@link SensorBatch} TYPE_*), long timestamp nanos,
+ *         float x, float y, float z (light and proximity only use x)
+ * </pre>
+ * Records are gathered in a direct buffer and written when it is full, a
+ * process that is killed loses at most the last buffers.
+ * <p>
+ * Given a {@link WriteBehindQueue}, full buffers are written by its threads
+ * and the sensor thread never waits on the storage. While every buffer is
+ * still waiting for the storage, new records are dropped and counted in
+ * {@link #getDropped()}. A write that failed is thrown by the next
+ * {@link #write}.
+ */
+public class SensorTraceWriter implements Closeable {
+    public static final int MAGIC = 0x53535452;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 16;
+    public static final int RECORD_BYTES = 21;
+    public static final String EXTENSION = ".sstrace";
+
+    // about a minute of the three sensors at the service's rates
+    private static final int BUFFER_RECORDS = 4096;
+    // buffers filled while the queue writes the others
+    private static final int MAX_BUFFERS = 3;
+
+    private final FileChannel mChannel;
+    private final WriteBehindQueue mQueue;
+    private final ArrayBlockingQueue<ByteBuffer> mFree = new ArrayBlockingQueue<>(MAX_BUFFERS);
+    // in file order, written by whichever drain runs first
+    private final ConcurrentLinkedQueue<ByteBuffer> mFull = new ConcurrentLinkedQueue<>();
+    private int mAllocated;
+    private ByteBuffer mBuffer;
+    private long mCount;
+    private long mDropped;
+    private volatile IOException mFailure;
+
+    private final WriteBehindQueue.Task mDrain = new WriteBehindQueue.Task() {
+        @Override
+        public void write() throws IOException {
+            drain();
+        }
+
+        @Override
+        public void discard() {
+            // the buffers stay in order for the next drain or the close
+        }
+    };
+
+    /**
+     * Writes on the calling thread.
+     */
+    public SensorTraceWriter(File file, long startMillis) throws IOException {
+        this(file, startMillis, null);
+    }
+
+    public SensorTraceWriter(File file, long startMillis, WriteBehindQueue queue)
+            throws IOException {
+        mChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        mQueue = queue;
+        mBuffer = nextBuffer();
+        mBuffer.putInt(MAGIC).putInt(VERSION).putLong(startMillis);
+    }
+
+    public void write(int type, long timestampNanos, float[] values) throws IOException {
+        IOException failure = mFailure;
+        if (failure != null) {
+            throw failure;
+        }
+        if (mBuffer != null && mBuffer.remaining() < RECORD_BYTES) {
+            flush();
+        }
+        if (mBuffer == null && (mBuffer = nextBuffer()) == null) {
+            mDropped++;
+            return;
+        }
+        mBuffer.put((byte) type).putLong(timestampNanos).putFloat(values[0]);
+        if (type == SensorBatch.TYPE_ACCELEROMETER) {
+            mBuffer.putFloat(values[1]).putFloat(values[2]);
+        } else {
+            mBuffer.putFloat(0).putFloat(0);
+        }
+        mCount++;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the records given up because no buffer was free
+     */
+    public long getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * Hands the records gathered so far to the file, through the queue if
+     * there is one.
+     */
+    public void flush() throws IOException {
+        if (mBuffer == null || mBuffer.position() == 0) {
+            return;
+        }
+        mBuffer.flip();
+        mFull.add(mBuffer);
+        mBuffer = null;
+        if (mQueue == null) {
+            drain();
+        } else {
+            mQueue.submit(mDrain);
+        }
+    }
+
+    /**
+     * Closes the file once every record is written. With a queue that is done
+     * by its threads, and a failure is only counted by the queue.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (mQueue == null) {
+            closeChannel();
+            return;
+        }
+        mQueue.submit(new WriteBehindQueue.Task() {
+            @Override
+            public void write() throws IOException {
+                closeChannel();
+            }
+
+            @Override
+            public void discard() {
+                // the queue is full or shut down, don't leave the file open
+                try {
+                    closeChannel();
+                } catch (IOException e) {
+                    mFailure = e;
+                }
+            }
+        });
+    }
+
+    private ByteBuffer nextBuffer() {
+        ByteBuffer buffer = mFree.poll();
+        if (buffer == null && mAllocated < MAX_BUFFERS) {
+            mAllocated++;
+            buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return buffer;
+    }
+
+    private void drain() throws IOException {
+        synchronized (mChannel) {
+            ByteBuffer buffer;
+            while ((buffer = mFull.peek()) != null) {
+                try {
+                    while (buffer.hasRemaining()) {
+                        mChannel.write(buffer);
+                    }
+                } catch (IOException e) {
+                    mFailure = e;
+                    throw e;
+                }
+                mFull.poll();
+                buffer.clear();
+                mFree.offer(buffer);
+            }
+        }
+    }
+
+    private void closeChannel() throws IOException {
+        synchronized (mChannel) {
+            try {
+                drain();
+            } finally {
+                mChannel.close();
+            }
+        }
+    }
+}
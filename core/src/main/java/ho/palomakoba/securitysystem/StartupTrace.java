@@ -0,0 +1,80 @@
+package ho.palomakoba.securitysystem;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * The steps of bringing the protection up after a boot, with the elapsed
+ * realtime each one was reached. Elapsed realtime starts at boot, so a mark
+ * is also how long the device went unprotected.
+ * <p>
+ * Only the first time of each step is kept, a service restarted later does
+ * not hide how long the boot took.
+ */
+public class StartupTrace {
+    private static final int MAX_MARKS = 16;
+
+    private static final StartupTrace sInstance = new StartupTrace();
+
+    private final String[] mNames = new String[MAX_MARKS];
+    private final long[] mNanos = new long[MAX_MARKS];
+    private int mCount;
+
+    StartupTrace() {
+    }
+
+    public static StartupTrace get() {
+        return sInstance;
+    }
+
+    /**
+     * @param elapsedNanos elapsed realtime of the step
+     */
+    public synchronized void mark(String name, long elapsedNanos) {
+        if (mCount == MAX_MARKS || indexOf(name) >= 0) {
+            return;
+        }
+        mNames[mCount] = name;
+        mNanos[mCount] = elapsedNanos;
+        mCount++;
+    }
+
+    /**
+     * @return the elapsed realtime of the step, -1 if it was not reached
+     */
+    public synchronized long getNanos(String name) {
+        int index = indexOf(name);
+        return index < 0 ? -1 : mNanos[index];
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println("Startup, seconds since boot:");
+        synchronized (this) {
+            for (int i = 0; i < mCount; i++) {
+                writer.println(String.format(Locale.US, "  %-22s %8.3f %+8.3f", mNames[i],
+                        mNanos[i] / 1e9, i == 0 ? 0 : (mNanos[i] - mNanos[i - 1]) / 1e9));
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < mCount; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(mNames[i]).append(String.format(Locale.US, " %.3f s", mNanos[i] / 1e9));
+        }
+        return builder.toString();
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < mCount; i++) {
+            if (mNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,192 @@
+package ho.palomakoba.securitysystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Keeps the pictures under a total size, an age and a count, a limit of 0 is
+ * no limit.
+ * <p>
+ * Everything comes from the {@link CaptureIndex} and its running byte total,
+ * the folder is never listed. {@link #evict(long, int)} deletes a few files
+ * per call, so it can run between captures on the writer thread. Captures
+ * older than the maximum age always go. Otherwise the oldest one goes, or,
+ * with a {@link ValueFunction}, the least valuable of the oldest
+ * {@value #LOOK_AHEAD}, so a valuable old picture is only kept a while longer.
+ * A file that can't be deleted leaves the index all the same, otherwise it
+ * would be picked again on every pass and nothing else would ever go.
+ */
+public class StorageRetention {
+    static final int LOOK_AHEAD = 64;
+
+    public interface Listener {
+        // the file of a capture was deleted
+        void onEvicted(File file);
+
+        // the file is still there but no longer indexed
+        void onDeleteFailed(File file);
+    }
+
+    public interface ValueFunction {
+        // lower is evicted first
+        long value(CaptureIndex.Entry entry);
+    }
+
+    /**
+     * Look-back frames before pictures, then smaller files first: at the same
+     * size a dark, flat or blurred frame compresses to fewer bytes.
+     */
+    public static final ValueFunction DEFAULT_VALUE = new ValueFunction() {
+        @Override
+        public long value(CaptureIndex.Entry entry) {
+            long rank;
+            switch (entry.getReason()) {
+                case CaptureIndex.REASON_LOOK_BACK:
+                    rank = 0;
+                    break;
+                case CaptureIndex.REASON_PICKUP:
+                case CaptureIndex.REASON_MOTION:
+                    rank = 2;
+                    break;
+                default:
+                    rank = 1;
+            }
+            return rank << 48 | Math.min(entry.getSizeBytes(), (1L << 48) - 1);
+        }
+    };
+
+    private final CaptureIndex mIndex;
+    private final File mFolder;
+    private final long mMaxBytes;
+    private final long mMaxAgeMillis;
+    private final int mMaxCount;
+    private final ValueFunction mValue;
+
+    private Listener mListener;
+    private long mEvictedCount;
+    private long mEvictedBytes;
+    private long mFailedDeletes;
+
+    /**
+     * @param value null evicts the oldest first
+     */
+    public StorageRetention(CaptureIndex index, File folder, long maxBytes, long maxAgeMillis,
+                            int maxCount, ValueFunction value) {
+        mIndex = index;
+        mFolder = folder;
+        mMaxBytes = maxBytes;
+        mMaxAgeMillis = maxAgeMillis;
+        mMaxCount = maxCount;
+        mValue = value;
+    }
+
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public synchronized boolean isOverLimit(long nowMillis) {
+        return nextVictim(nowMillis) != null;
+    }
+
+    /**
+     * Deletes captures until the folder is within its limits, or
+     * {@code maxFiles} were deleted.
+     *
+     * @return how many captures were deleted, or dropped from the index
+     * because their file could not be
+     */
+    public synchronized int evict(long nowMillis, int maxFiles) throws IOException {
+        int evicted = 0;
+        while (evicted < maxFiles) {
+            CaptureIndex.Entry victim = nextVictim(nowMillis);
+            if (victim == null) {
+                break;
+            }
+            File file = new File(mFolder, victim.getFileName());
+            // a file already gone only has to leave the index
+            boolean deleted = file.delete() || !file.exists();
+            mIndex.remove(victim);
+            if (deleted) {
+                mEvictedCount++;
+                mEvictedBytes += victim.getSizeBytes();
+            } else {
+                mFailedDeletes++;
+            }
+            if (mListener != null) {
+                if (deleted) {
+                    mListener.onEvicted(file);
+                } else {
+                    mListener.onDeleteFailed(file);
+                }
+            }
+            evicted++;
+        }
+        return evicted;
+    }
+
+    /**
+     * Puts {@code temp}, a rewrite of the capture of {@code entry}, in its
+     * place and indexes it at its new size. It holds the eviction lock, so the
+     * capture can't be evicted between the check and the rename.
+     *
+     * @return false, and {@code temp} deleted, if the capture was evicted
+     */
+    public synchronized boolean replace(CaptureIndex.Entry entry, File temp) throws IOException {
+        File file = new File(mFolder, entry.getFileName());
+        if (!file.exists() || !mIndex.remove(entry)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return false;
+        }
+        AtomicFileWriter.commit(temp, file);
+        mIndex.append(new CaptureIndex.Entry(entry.getTimeMillis(), entry.getCamera(),
+                entry.getReason(), entry.getValues(), file.length(), entry.getFileName()));
+        return true;
+    }
+
+    public synchronized long getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    public synchronized long getEvictedBytes() {
+        return mEvictedBytes;
+    }
+
+    /**
+     * Captures dropped from the index whose file could not be deleted.
+     */
+    public synchronized long getFailedDeletes() {
+        return mFailedDeletes;
+    }
+
+    private CaptureIndex.Entry nextVictim(long nowMillis) {
+        List<CaptureIndex.Entry> oldest = mIndex.oldest(mValue != null ? LOOK_AHEAD : 1);
+        if (oldest.isEmpty()) {
+            return null;
+        }
+        CaptureIndex.Entry first = oldest.get(0);
+        if (mMaxAgeMillis > 0 && first.getTimeMillis() < nowMillis - mMaxAgeMillis) {
+            return first;
+        }
+        boolean overBytes = mMaxBytes > 0 && mIndex.getTotalBytes() > mMaxBytes;
+        boolean overCount = mMaxCount > 0 && mIndex.size() > mMaxCount;
+        if (!overBytes && !overCount) {
+            return null;
+        }
+        if (mValue == null) {
+            return first;
+        }
+
+        CaptureIndex.Entry victim = first;
+        long lowest = mValue.value(first);
+        for (int i = 1; i < oldest.size(); i++) {
+            long value = mValue.value(oldest.get(i));
+            if (value < lowest) {
+                victim = oldest.get(i);
+                lowest = value;
+            }
+        }
+        return victim;
+    }
+}
@@ -0,0 +1,136 @@
+package ho.palomakoba.securitysystem;
+
+/**
+ * Chooses the smallest JPEG size that still shows a face with enough pixels,
+ * within a stall budget, and the best quality that fits a file size budget.
+ * A limit of 0 is no limit.
+ * <p>
+ * The JPEG stall duration the camera reports for a size is how long the
+ * encoder holds the pipeline, the part of the time-to-file that depends on
+ * the size. Sizes with the aspect ratio of the largest one come first, they
+ * see the whole sensor. When no size meets both the face and the stall
+ * targets, the stall budget wins: the largest size inside it, or the
+ * quickest one if none is.
+ */
+public class TargetCapturePolicy implements CapturePolicy {
+    // how much of the frame width a face takes at the distance we care about
+    static final double FACE_FRACTION = 0.1;
+    static final int DEFAULT_JPEG_QUALITY = 95;
+
+    // JPEG bytes per pixel of a camera photo at each quality, best first
+    private static final int[] QUALITIES = {95, 90, 85, 80, 75, 70, 60, 50};
+    private static final double[] BYTES_PER_PIXEL = {0.45, 0.32, 0.25, 0.21, 0.18, 0.16, 0.13, 0.11};
+
+    private final long mMaxStallNanos;
+    private final long mMaxFileBytes;
+    private final int mMinFacePixels;
+
+    public TargetCapturePolicy(long maxStallNanos, long maxFileBytes, int minFacePixels) {
+        mMaxStallNanos = maxStallNanos;
+        mMaxFileBytes = maxFileBytes;
+        mMinFacePixels = minFacePixels;
+    }
+
+    @Override
+    public Choice choose(CameraInfo camera) {
+        CaptureSize[] sizes = camera.getJpegSizes();
+        long[] stalls = camera.getJpegStallNanos();
+        if (sizes.length == 0) {
+            throw new IllegalArgumentException("No JPEG sizes for " + camera);
+        }
+
+        int largest = 0;
+        for (int i = 1; i < sizes.length; i++) {
+            if (sizes[i].getArea() > sizes[largest].getArea()) {
+                largest = i;
+            }
+        }
+        double fullAspect = aspect(sizes[largest]);
+        long minShortSide = (long) Math.ceil(mMinFacePixels / FACE_FRACTION);
+
+        int best = -1;
+        boolean bestFull = false;
+        for (int i = 0; i < sizes.length; i++) {
+            if (shortSide(sizes[i]) < minShortSide || !withinStall(stalls[i])) {
+                continue;
+            }
+            boolean full = Math.abs(aspect(sizes[i]) - fullAspect) < 0.01;
+            if (best < 0 || (full && !bestFull)
+                    || (full == bestFull && sizes[i].getArea() < sizes[best].getArea())) {
+                best = i;
+                bestFull = full;
+            }
+        }
+
+        if (best < 0) {
+            // can't show the face in time, take the most pixels in time
+            for (int i = 0; i < sizes.length; i++) {
+                if (withinStall(stalls[i])
+                        && (best < 0 || sizes[i].getArea() > sizes[best].getArea())) {
+                    best = i;
+                }
+            }
+        }
+        if (best < 0) {
+            for (int i = 0; i < sizes.length; i++) {
+                if (best < 0 || stalls[i] < stalls[best]
+                        || (stalls[i] == stalls[best] && sizes[i].getArea() < sizes[best].getArea())) {
+                    best = i;
+                }
+            }
+        }
+
+        CaptureSize size = sizes[best];
+        int quality = QUALITIES.length - 1;
+        if (mMaxFileBytes <= 0) {
+            quality = indexOf(DEFAULT_JPEG_QUALITY);
+        } else {
+            for (int q = 0; q < QUALITIES.length; q++) {
+                if (bytesAt(size, q) <= mMaxFileBytes) {
+                    quality = q;
+                    break;
+                }
+            }
+        }
+        return new Choice(size, QUALITIES[quality], stalls[best], bytesAt(size, quality));
+    }
+
+    /**
+     * @return the expected size of a JPEG of that many pixels, at the quality
+     * from the table closest to it and not above it
+     */
+    static long estimateBytes(CaptureSize size, int jpegQuality) {
+        for (int q = 0; q < QUALITIES.length; q++) {
+            if (QUALITIES[q] <= jpegQuality) {
+                return bytesAt(size, q);
+            }
+        }
+        return bytesAt(size, QUALITIES.length - 1);
+    }
+
+    private static long bytesAt(CaptureSize size, int qualityIndex) {
+        return (long) (size.getArea() * BYTES_PER_PIXEL[qualityIndex]);
+    }
+
+    private boolean withinStall(long stallNanos) {
+        return mMaxStallNanos <= 0 || stallNanos <= mMaxStallNanos;
+    }
+
+    private static int indexOf(int quality) {
+        for (int q = 0; q < QUALITIES.length; q++) {
+            if (QUALITIES[q] == quality) {
+                return q;
+            }
+        }
+        throw new IllegalArgumentException("No quality " + quality);
+    }
+
+    private static long shortSide(CaptureSize size) {
+        return Math.min(size.getWidth(), size.getHeight());
+    }
+
+    private static double aspect(CaptureSize size) {
+        return (double) Math.max(size.getWidth(), size.getHeight())
+                / Math.min(size.getWidth(), size.getHeight());
+    }
+}
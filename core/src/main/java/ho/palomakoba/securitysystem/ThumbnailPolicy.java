@@ -0,0 +1,37 @@
+package ho.palomakoba.securitysystem;
+
+/**
+ * Sizes the thumbnails of the captures and decides which originals are worth
+ * recompressing.
+ */
+public class ThumbnailPolicy {
+    static final int THUMBNAIL_SHORT_SIDE = 240;
+    static final int THUMBNAIL_QUALITY = 80;
+    // recompressing a JPEG loses detail, only do it for a real saving
+    private static final double MIN_RECOMPRESS_RATIO = 1.25;
+
+    private ThumbnailPolicy() {
+    }
+
+    /**
+     * @return the largest power of two {@code inSampleSize} that keeps the
+     * short side of the decoded picture at least {@code shortSide} pixels
+     */
+    public static int sampleSize(int width, int height, int shortSide) {
+        int side = Math.min(width, height);
+        int sample = 1;
+        while (side / (sample * 2) >= shortSide) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /**
+     * @return whether a capture of that many bytes is clearly bigger than a
+     * JPEG of its size at {@code jpegQuality} would be
+     */
+    public static boolean shouldRecompress(long sizeBytes, CaptureSize size, int jpegQuality) {
+        return jpegQuality > 0
+                && sizeBytes > TargetCapturePolicy.estimateBytes(size, jpegQuality) * MIN_RECOMPRESS_RATIO;
+    }
+}
@@ -0,0 +1,235 @@
+package ho.palomakoba.securitysystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds recorded sensor traces through a {@link TriggerEngine} as fast as
+ * they can be read, the way SensorsService handles events one by one: a
+ * pickup is confirmed right away and starts the cooldown.
+ * <p>
+ * From the command line it takes traces or folders of them, and thresholds
+ * to try instead of the defaults:
+ * <pre>
+ * ./gradlew -PjvmOnly :core:replay --args="--force=1.4 --cooldown=5 traces/"
+ * </pre>
+ * A trace with a {@code .triggers} file next to it, holding the number of
+ * pickups in the recording, is a regression case: the tool exits with 1 when
+ * the count differs.
+ */
+public class TraceReplay {
+    private static final String EXPECTED_EXTENSION = ".triggers";
+
+    private final long mCooldownNanos;
+    private final float mMinTiltDegrees;
+    private final float mMinForce;
+    private final float mMinJerk;
+
+    public TraceReplay() {
+        this(TimeUnit.SECONDS.toNanos(10), TriggerEngine.DEFAULT_MIN_TILT_DEGREES,
+                TriggerEngine.DEFAULT_MIN_FORCE, TriggerEngine.DEFAULT_MIN_JERK);
+    }
+
+    public TraceReplay(long cooldownNanos, float minTiltDegrees, float minForce, float minJerk) {
+        mCooldownNanos = cooldownNanos;
+        mMinTiltDegrees = minTiltDegrees;
+        mMinForce = minForce;
+        mMinJerk = minJerk;
+    }
+
+    public Result replay(File trace) throws IOException {
+        TriggerEngine engine = new TriggerEngine(new TriggerGate(mCooldownNanos),
+                TriggerEngine.DEFAULT_WINDOW_NANOS, TriggerEngine.DEFAULT_CAPACITY,
+                TriggerEngine.DEFAULT_MIN_SAMPLES, mMinTiltDegrees, mMinForce, mMinJerk);
+        List<Long> triggers = new ArrayList<>();
+        long events = 0;
+        long first = 0;
+        long last = 0;
+
+        long start = System.nanoTime();
+        try (SensorTraceReader reader = new SensorTraceReader(trace)) {
+            while (reader.next()) {
+                long timestamp = reader.getTimestampNanos();
+                if (events++ == 0) {
+                    first = timestamp;
+                }
+                last = timestamp;
+                switch (reader.getType()) {
+                    case SensorBatch.TYPE_ACCELEROMETER:
+                        if (engine.onAccelerometer(timestamp, reader.getValues())) {
+                            engine.onTriggered(timestamp);
+                            triggers.add(timestamp - first);
+                        }
+                        break;
+                    case SensorBatch.TYPE_LIGHT:
+                        engine.onLight(reader.getValues()[0]);
+                        break;
+                    case SensorBatch.TYPE_PROXIMITY:
+                        engine.onProximity(reader.getValues()[0]);
+                        break;
+                }
+            }
+        }
+        return new Result(trace.getName(), events, last - first, triggers,
+                System.nanoTime() - start);
+    }
+
+    public static final class Result {
+        private final String mName;
+        private final long mEvents;
+        private final long mDurationNanos;
+        private final long[] mTriggerNanos;
+        private final long mElapsedNanos;
+
+        Result(String name, long events, long durationNanos, List<Long> triggerNanos,
+               long elapsedNanos) {
+            mName = name;
+            mEvents = events;
+            mDurationNanos = durationNanos;
+            mTriggerNanos = new long[triggerNanos.size()];
+            for (int i = 0; i < mTriggerNanos.length; i++) {
+                mTriggerNanos[i] = triggerNanos.get(i);
+            }
+            mElapsedNanos = elapsedNanos;
+        }
+
+        public long getEvents() {
+            return mEvents;
+        }
+
+        public int getTriggerCount() {
+            return mTriggerNanos.length;
+        }
+
+        /**
+         * @return when each trigger fired, from the first event of the trace
+         */
+        public long[] getTriggerNanos() {
+            return mTriggerNanos.clone();
+        }
+
+        public double getEventsPerSecond() {
+            return mElapsedNanos == 0 ? 0 : mEvents * 1e9 / mElapsedNanos;
+        }
+
+        /**
+         * @return how many times faster than the recording it was replayed
+         */
+        public double getSpeedup() {
+            return mElapsedNanos == 0 ? 0 : (double) mDurationNanos / mElapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder times = new StringBuilder();
+            for (long nanos : mTriggerNanos) {
+                times.append(times.length() == 0 ? " at " : ", ")
+                        .append(String.format(Locale.US, "%.1f s", nanos / 1e9));
+            }
+            return String.format(Locale.US, "%s: %d events, %.0f s, %d triggers%s, "
+                            + "%.1f M events/s, %.0fx real time", mName, mEvents,
+                    mDurationNanos / 1e9, mTriggerNanos.length, times,
+                    getEventsPerSecond() / 1e6, getSpeedup());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        long cooldownNanos = TimeUnit.SECONDS.toNanos(10);
+        float tilt = TriggerEngine.DEFAULT_MIN_TILT_DEGREES;
+        float force = TriggerEngine.DEFAULT_MIN_FORCE;
+        float jerk = TriggerEngine.DEFAULT_MIN_JERK;
+        List<File> traces = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--cooldown=")) {
+                cooldownNanos = (long) (value(arg) * 1e9);
+            } else if (arg.startsWith("--tilt=")) {
+                tilt = value(arg);
+            } else if (arg.startsWith("--force=")) {
+                force = value(arg);
+            } else if (arg.startsWith("--jerk=")) {
+                jerk = value(arg);
+            } else if (arg.startsWith("--")) {
+                usage("Unknown option " + arg);
+            } else {
+                addTraces(new File(arg), traces);
+            }
+        }
+        if (traces.isEmpty()) {
+            usage("No traces");
+        }
+
+        TraceReplay replay = new TraceReplay(cooldownNanos, tilt, force, jerk);
+        long events = 0;
+        long elapsed = 0;
+        int triggers = 0;
+        int failed = 0;
+        for (File trace : traces) {
+            long start = System.nanoTime();
+            Result result = replay.replay(trace);
+            elapsed += System.nanoTime() - start;
+            events += result.getEvents();
+            triggers += result.getTriggerCount();
+
+            String line = result.toString();
+            Integer expected = expectedTriggers(trace);
+            if (expected != null && expected != result.getTriggerCount()) {
+                line += ", EXPECTED " + expected;
+                failed++;
+            }
+            System.out.println(line);
+        }
+        System.out.println(String.format(Locale.US,
+                "%d traces, %d events, %d triggers, %.1f M events/s, %d failed",
+                traces.size(), events, triggers, events * 1e3 / Math.max(1, elapsed), failed));
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void addTraces(File file, List<File> traces) {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File child : files) {
+                    if (child.getName().endsWith(SensorTraceWriter.EXTENSION)) {
+                        traces.add(child);
+                    }
+                }
+            }
+        } else {
+            traces.add(file);
+        }
+    }
+
+    private static Integer expectedTriggers(File trace) throws IOException {
+        String name = trace.getName();
+        if (name.endsWith(SensorTraceWriter.EXTENSION)) {
+            name = name.substring(0, name.length() - SensorTraceWriter.EXTENSION.length());
+        }
+        File expected = new File(trace.getParentFile(), name + EXPECTED_EXTENSION);
+        if (!expected.isFile()) {
+            return null;
+        }
+        return Integer.valueOf(new String(Files.readAllBytes(expected.toPath()),
+                StandardCharsets.US_ASCII).trim());
+    }
+
+    private static float value(String option) {
+        return Float.parseFloat(option.substring(option.indexOf('=') + 1));
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: TraceReplay [--cooldown=s] [--tilt=deg] [--force=m/s2]"
+                + " [--jerk=m/s3] trace|folder...");
+        System.exit(2);
+    }
+}
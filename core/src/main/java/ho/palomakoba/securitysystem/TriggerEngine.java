@@ -0,0 +1,218 @@
+package ho.palomakoba.securitysystem;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recognizes a pickup from a sliding window of accelerometer samples.
+ * <p>
+ * A pickup has to turn the device ({@link #getTiltDegrees() tilt} between the
+ * oldest and newest sample of the window) and has to do it with some force
+ * (RMS deviation of the magnitude from gravity or mean jerk). A slow tilt has
+ * no force and a bump on the table does not turn the device, so neither
+ * fires. The window is a primitive ring buffer with running sums, every sample
+ * costs the same whatever the sampling rate is.
+ */
+public class TriggerEngine {
+    private static final float GRAVITY = 9.80665f;
+
+    public static final long DEFAULT_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(1000);
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final int DEFAULT_MIN_SAMPLES = 4;
+    public static final float DEFAULT_MIN_TILT_DEGREES = 30;
+    public static final float DEFAULT_MIN_FORCE = 1.2f;
+    public static final float DEFAULT_MIN_JERK = 15;
+
+    private final TriggerGate mGate;
+    private final long mWindowNanos;
+    private final int mMinSamples;
+    private final double mMinTiltCos;
+    private final float mMinForce;
+    private final float mMinJerk;
+
+    private final long[] mTimestamps;
+    private final float[] mX;
+    private final float[] mY;
+    private final float[] mZ;
+    private final float[] mDeviation2;
+    private final float[] mJerk;
+    private int mHead;
+    private int mCount;
+
+    private double mDeviation2Sum;
+    private double mJerkSum;
+
+    public TriggerEngine(TriggerGate gate) {
+        this(gate, DEFAULT_WINDOW_NANOS, DEFAULT_CAPACITY, DEFAULT_MIN_SAMPLES,
+                DEFAULT_MIN_TILT_DEGREES, DEFAULT_MIN_FORCE, DEFAULT_MIN_JERK);
+    }
+
+    /**
+     * @param windowNanos     samples older than this are dropped from the window
+     * @param capacity        max samples in the window, the oldest is overwritten
+     * @param minSamples      samples needed before deciding
+     * @param minTiltDegrees  orientation change across the window
+     * @param minForce        RMS deviation of |a| from gravity, in m/s^2
+     * @param minJerk         mean |da|/dt across the window, in m/s^3
+     */
+    public TriggerEngine(TriggerGate gate, long windowNanos, int capacity, int minSamples,
+                         float minTiltDegrees, float minForce, float minJerk) {
+        if (capacity < 2 || minSamples < 2 || minSamples > capacity) {
+            throw new IllegalArgumentException("Invalid window: capacity " + capacity
+                    + ", min samples " + minSamples);
+        }
+        mGate = gate;
+        mWindowNanos = windowNanos;
+        mMinSamples = minSamples;
+        mMinTiltCos = Math.cos(Math.toRadians(minTiltDegrees));
+        mMinForce = minForce;
+        mMinJerk = minJerk;
+
+        mTimestamps = new long[capacity];
+        mX = new float[capacity];
+        mY = new float[capacity];
+        mZ = new float[capacity];
+        mDeviation2 = new float[capacity];
+        mJerk = new float[capacity];
+    }
+
+    public TriggerGate getGate() {
+        return mGate;
+    }
+
+    public void onLight(float lux) {
+        mGate.onLight(lux);
+    }
+
+    public void onProximity(float distance) {
+        mGate.onProximity(distance);
+    }
+
+    /**
+     * Adds a sample to the window and returns true when it completes a pickup
+     * while the gate is armed. The caller confirms with
+     * {@link #onTriggered(long)} once the capture starts.
+     */
+    public boolean onAccelerometer(long timestampNanos, float[] values) {
+        add(timestampNanos, values[0], values[1], values[2]);
+
+        return mGate.isArmed(timestampNanos) && isPickup();
+    }
+
+    public void onTriggered(long timestampNanos) {
+        mGate.onTriggered(timestampNanos);
+        clear();
+    }
+
+    public void clear() {
+        mHead = 0;
+        mCount = 0;
+        mDeviation2Sum = 0;
+        mJerkSum = 0;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Copies the newest sample of the window into {@code values}.
+     *
+     * @return false if the window is empty
+     */
+    public boolean copyNewest(float[] values) {
+        if (mCount == 0) {
+            return false;
+        }
+        int newest = index(mCount - 1);
+        values[0] = mX[newest];
+        values[1] = mY[newest];
+        values[2] = mZ[newest];
+        return true;
+    }
+
+    public float getForce() {
+        return mCount == 0 ? 0 : (float) Math.sqrt(Math.max(0, mDeviation2Sum) / mCount);
+    }
+
+    public float getJerk() {
+        // the oldest sample has no predecessor in the window
+        return mCount < 2 ? 0 : (float) (Math.max(0, mJerkSum) / (mCount - 1));
+    }
+
+    public float getTiltDegrees() {
+        return mCount < 2 ? 0 : (float) Math.toDegrees(Math.acos(tiltCos()));
+    }
+
+    private boolean isPickup() {
+        if (mCount < mMinSamples || tiltCos() > mMinTiltCos) {
+            return false;
+        }
+        return getForce() >= mMinForce || getJerk() >= mMinJerk;
+    }
+
+    private double tiltCos() {
+        int oldest = index(0);
+        int newest = index(mCount - 1);
+        double dot = mX[oldest] * mX[newest] + mY[oldest] * mY[newest] + mZ[oldest] * mZ[newest];
+        double norms = Math.sqrt((mX[oldest] * mX[oldest] + mY[oldest] * mY[oldest] + mZ[oldest] * mZ[oldest])
+                * (mX[newest] * mX[newest] + mY[newest] * mY[newest] + mZ[newest] * mZ[newest]));
+        if (norms == 0) {
+            return 1;
+        }
+        return Math.max(-1, Math.min(1, dot / norms));
+    }
+
+    private void add(long timestampNanos, float x, float y, float z) {
+        while (mCount > 0 && timestampNanos - mTimestamps[index(0)] > mWindowNanos) {
+            evictOldest();
+        }
+        if (mCount == mTimestamps.length) {
+            evictOldest();
+        }
+
+        float deviation = (float) Math.sqrt(x * x + y * y + z * z) - GRAVITY;
+        float jerk = 0;
+        if (mCount > 0) {
+            int previous = index(mCount - 1);
+            long dt = timestampNanos - mTimestamps[previous];
+            if (dt > 0) {
+                float dx = x - mX[previous];
+                float dy = y - mY[previous];
+                float dz = z - mZ[previous];
+                jerk = (float) (Math.sqrt(dx * dx + dy * dy + dz * dz) * 1e9 / dt);
+            }
+        }
+
+        int slot = index(mCount);
+        mTimestamps[slot] = timestampNanos;
+        mX[slot] = x;
+        mY[slot] = y;
+        mZ[slot] = z;
+        mDeviation2[slot] = deviation * deviation;
+        mJerk[slot] = jerk;
+        mCount++;
+
+        mDeviation2Sum += mDeviation2[slot];
+        mJerkSum += jerk;
+    }
+
+    private void evictOldest() {
+        int oldest = index(0);
+        mDeviation2Sum -= mDeviation2[oldest];
+        mHead = (mHead + 1) % mTimestamps.length;
+        mCount--;
+        // the jerk of the new oldest sample refers to the evicted one
+        if (mCount > 0) {
+            int next = index(0);
+            mJerkSum -= mJerk[next];
+            mJerk[next] = 0;
+        } else {
+            mDeviation2Sum = 0;
+            mJerkSum = 0;
+        }
+    }
+
+    private int index(int position) {
+        return (mHead + position) % mTimestamps.length;
+    }
+}
@@ -0,0 +1,67 @@
+package ho.palomakoba.securitysystem;
+
+/**
+ * Decides if the device is in a state where a pickup may start a capture.
+ * <p>
+ * All the state is kept in primitive fields and the time base is the
+ * {@code SensorEvent.timestamp} (elapsed realtime in nanoseconds), so feeding
+ * events does not allocate and is not affected by wall clock changes.
+ */
+public class TriggerGate {
+    private static final float MIN_LIGHT_LUX = 3;
+
+    private final long mCooldownNanos;
+    private long mLastTriggerNanos;
+
+    private boolean hasLight = true;
+    private boolean inPocket = false;
+
+    public TriggerGate(long cooldownNanos) {
+        mCooldownNanos = cooldownNanos;
+        // armed right away, elapsed realtime is never negative
+        mLastTriggerNanos = -cooldownNanos;
+    }
+
+    public void onLight(float lux) {
+        hasLight = isLight(lux);
+    }
+
+    public void onProximity(float distance) {
+        inPocket = isNear(distance);
+    }
+
+    public static boolean isLight(float lux) {
+        return !(lux <= MIN_LIGHT_LUX);
+    }
+
+    public static boolean isNear(float distance) {
+        return distance == 0;
+    }
+
+    public boolean hasLight() {
+        return hasLight;
+    }
+
+    public boolean isInPocket() {
+        return inPocket;
+    }
+
+    public boolean isCoolingDown(long timestampNanos) {
+        return timestampNanos - mLastTriggerNanos < mCooldownNanos;
+    }
+
+    /**
+     * @return when the cooldown of the last trigger is over
+     */
+    public long getCooldownEndNanos() {
+        return mLastTriggerNanos + mCooldownNanos;
+    }
+
+    public boolean isArmed(long timestampNanos) {
+        return hasLight && !inPocket && !isCoolingDown(timestampNanos);
+    }
+
+    public void onTriggered(long timestampNanos) {
+        mLastTriggerNanos = timestampNanos;
+    }
+}
@@ -0,0 +1,45 @@
+package ho.palomakoba.securitysystem;
+
+/**
+ * Chooses the first stage of the trigger from the sensors of the device.
+ * <p>
+ * A one-shot wake-up sensor is detected by the sensor hub while the
+ * application processor sleeps, and only when it fires is the accelerometer
+ * registered for the {@link TriggerEngine} to confirm the pickup. The pickup
+ * gesture is the closest to what the engine looks for, significant motion
+ * also fires for walking with the device. Without either the accelerometer
+ * listens all the time the device is armed.
+ */
+public class TriggerTier {
+    public static final int TIER_CONTINUOUS = 0;
+    public static final int TIER_SIGNIFICANT_MOTION = 1;
+    public static final int TIER_PICK_UP_GESTURE = 2;
+
+    // Sensor.TYPE_PICK_UP_GESTURE, hidden from the SDK
+    public static final int TYPE_PICK_UP_GESTURE = 25;
+
+    private static final String[] NAMES = {"continuous", "significant motion", "pick up gesture"};
+
+    private TriggerTier() {
+    }
+
+    /**
+     * @param enabled              false forces the continuous listener
+     * @param hasPickUpGesture     a one-shot wake-up pick up gesture sensor
+     * @param hasSignificantMotion a significant motion sensor
+     */
+    public static int choose(boolean enabled, boolean hasPickUpGesture,
+                             boolean hasSignificantMotion) {
+        if (!enabled) {
+            return TIER_CONTINUOUS;
+        }
+        if (hasPickUpGesture) {
+            return TIER_PICK_UP_GESTURE;
+        }
+        return hasSignificantMotion ? TIER_SIGNIFICANT_MOTION : TIER_CONTINUOUS;
+    }
+
+    public static String toString(int tier) {
+        return NAMES[tier];
+    }
+}
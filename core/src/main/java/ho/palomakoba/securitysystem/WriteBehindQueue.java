@@ -0,0 +1,261 @@
+package ho.palomakoba.securitysystem;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of writes served by dedicated I/O threads, so whoever
+ * submits never waits on the storage.
+ * <p>
+ * When the queue is full the {@link OverflowPolicy} decides which write is
+ * given up, and that task is {@link Task#discard() discarded} so it can free
+ * what it holds. After {@link #shutdown()} nothing is accepted, but every
+ * write already queued is still done, {@link #awaitTermination} waits for
+ * that. A write that throws is counted in {@link #getFailed()} and the last
+ * error is kept for dumpsys, a task that needs more reports it itself.
+ */
+public class WriteBehindQueue {
+
+    public interface Task {
+        void write() throws Exception;
+
+        // the write will not happen, release what the task holds
+        void discard();
+    }
+
+    public enum OverflowPolicy {
+        // keep what is queued, the first pictures of a trigger matter most
+        REJECT_NEWEST,
+        // make room by giving up the oldest queued write
+        DROP_OLDEST
+    }
+
+    private final int mCapacity;
+    private final OverflowPolicy mPolicy;
+    private final ArrayDeque<Task> mQueue;
+    private final Thread[] mWorkers;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final Condition mTerminated = mLock.newCondition();
+    private boolean mShutdown;
+    private int mRunning;
+    private int mMaxDepth;
+
+    private final AtomicLong mSubmitted = new AtomicLong();
+    private final AtomicLong mCompleted = new AtomicLong();
+    private final AtomicLong mFailed = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mWriteNanos = new AtomicLong();
+    private final AtomicLong mMaxWriteNanos = new AtomicLong();
+    private volatile Exception mLastFailure;
+
+    public WriteBehindQueue(String name, int capacity, int threads, OverflowPolicy policy) {
+        if (capacity < 1 || threads < 1) {
+            throw new IllegalArgumentException("Invalid queue: capacity " + capacity
+                    + ", threads " + threads);
+        }
+        mCapacity = capacity;
+        mPolicy = policy;
+        mQueue = new ArrayDeque<>(capacity);
+        mWorkers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            mWorkers[i] = new Thread(this::work, threads == 1 ? name : name + "-" + i);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * Queues a write without blocking.
+     *
+     * @return false if the task was discarded, because the queue is shut down
+     * or full with {@link OverflowPolicy#REJECT_NEWEST}
+     */
+    public boolean submit(Task task) {
+        Task dropped = null;
+        boolean accepted = true;
+        mLock.lock();
+        try {
+            if (mShutdown) {
+                dropped = task;
+                accepted = false;
+            } else {
+                if (mQueue.size() == mCapacity) {
+                    if (mPolicy == OverflowPolicy.DROP_OLDEST) {
+                        dropped = mQueue.pollFirst();
+                    } else {
+                        dropped = task;
+                        accepted = false;
+                    }
+                }
+                if (accepted) {
+                    mQueue.addLast(task);
+                    mSubmitted.incrementAndGet();
+                    mMaxDepth = Math.max(mMaxDepth, mQueue.size());
+                    mNotEmpty.signal();
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        if (dropped != null) {
+            mDropped.incrementAndGet();
+            dropped.discard();
+        }
+        return accepted;
+    }
+
+    /**
+     * Stops taking writes, the queued ones still go to the storage.
+     */
+    public void shutdown() {
+        mLock.lock();
+        try {
+            mShutdown = true;
+            mNotEmpty.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public boolean isShutdown() {
+        mLock.lock();
+        try {
+            return mShutdown;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return true if every queued write is done, false on timeout
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        mLock.lock();
+        try {
+            while (!mShutdown || !mQueue.isEmpty() || mRunning > 0) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = mTerminated.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int getQueueDepth() {
+        mLock.lock();
+        try {
+            return mQueue.size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int getMaxQueueDepth() {
+        mLock.lock();
+        try {
+            return mMaxDepth;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public long getSubmitted() {
+        return mSubmitted.get();
+    }
+
+    public long getCompleted() {
+        return mCompleted.get();
+    }
+
+    public long getFailed() {
+        return mFailed.get();
+    }
+
+    /**
+     * @return what the last failed write threw, or null
+     */
+    public Exception getLastFailure() {
+        return mLastFailure;
+    }
+
+    public long getDropped() {
+        return mDropped.get();
+    }
+
+    public long getAverageWriteNanos() {
+        long writes = mCompleted.get() + mFailed.get();
+        return writes == 0 ? 0 : mWriteNanos.get() / writes;
+    }
+
+    public long getMaxWriteNanos() {
+        return mMaxWriteNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "depth " + getQueueDepth() + " (max " + getMaxQueueDepth() + ")"
+                + ", submitted " + getSubmitted()
+                + ", completed " + getCompleted()
+                + ", failed " + getFailed()
+                + ", dropped " + getDropped()
+                + ", write avg " + TimeUnit.NANOSECONDS.toMillis(getAverageWriteNanos()) + " ms"
+                + ", max " + TimeUnit.NANOSECONDS.toMillis(getMaxWriteNanos()) + " ms"
+                + (mLastFailure != null ? ", last failure " + mLastFailure : "");
+    }
+
+    private void work() {
+        while (true) {
+            Task task;
+            mLock.lock();
+            try {
+                while (mQueue.isEmpty() && !mShutdown) {
+                    mNotEmpty.awaitUninterruptibly();
+                }
+                task = mQueue.pollFirst();
+                if (task == null) {
+                    // shut down and drained
+                    mTerminated.signalAll();
+                    return;
+                }
+                mRunning++;
+            } finally {
+                mLock.unlock();
+            }
+
+            long start = System.nanoTime();
+            try {
+                task.write();
+                mCompleted.incrementAndGet();
+            } catch (Exception e) {
+                mLastFailure = e;
+                mFailed.incrementAndGet();
+            }
+            long elapsed = System.nanoTime() - start;
+            mWriteNanos.addAndGet(elapsed);
+            long max;
+            while (elapsed > (max = mMaxWriteNanos.get())
+                    && !mMaxWriteNanos.compareAndSet(max, elapsed)) {
+                // retry
+            }
+
+            mLock.lock();
+            try {
+                mRunning--;
+                if (mShutdown && mQueue.isEmpty() && mRunning == 0) {
+                    mTerminated.signalAll();
+                }
+            } finally {
+                mLock.unlock();
+            }
+        }
+    }
+}
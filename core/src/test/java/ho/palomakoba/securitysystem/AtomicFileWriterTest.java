@@ -0,0 +1,104 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class AtomicFileWriterTest {
+    private File mFolder;
+
+    @Before
+    public void createFolder() throws IOException {
+        mFolder = Files.createTempDirectory("atomic").toFile();
+    }
+
+    @After
+    public void deleteFolder() {
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mFolder.delete();
+    }
+
+    @Test
+    public void writesDirectBufferWhole() throws IOException {
+        byte[] jpeg = randomBytes(3 * 1024 * 1024 + 17);
+        ByteBuffer plane = ByteBuffer.allocateDirect(jpeg.length);
+        plane.put(jpeg).flip();
+        File target = new File(mFolder, "front.jpg");
+
+        AtomicFileWriter.write(plane, target, false);
+
+        assertFalse(plane.hasRemaining());
+        assertArrayEquals(jpeg, Files.readAllBytes(target.toPath()));
+        assertEquals(1, mFolder.list().length);
+    }
+
+    @Test
+    public void writesOnlyTheRemainingBytes() throws IOException {
+        ByteBuffer plane = ByteBuffer.allocateDirect(16);
+        for (int i = 0; i < 16; i++) {
+            plane.put((byte) i);
+        }
+        plane.position(4).limit(12);
+        File target = new File(mFolder, "front.jpg");
+
+        AtomicFileWriter.write(plane, target, true);
+
+        assertArrayEquals(new byte[]{4, 5, 6, 7, 8, 9, 10, 11}, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void replacesExistingFile() throws IOException {
+        File target = new File(mFolder, "front.jpg");
+        Files.write(target.toPath(), randomBytes(1000));
+
+        AtomicFileWriter.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), target, false);
+
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void failedWriteLeavesNothing() {
+        File target = new File(new File(mFolder, "missing"), "front.jpg");
+
+        try {
+            AtomicFileWriter.write(ByteBuffer.allocateDirect(10), target, false);
+            fail("Write to a missing folder");
+        } catch (IOException expected) {
+            assertFalse(target.exists());
+            assertFalse(AtomicFileWriter.tempFile(target).exists());
+        }
+    }
+
+    @Test
+    public void recognizesTempFiles() {
+        File target = new File(mFolder, "front.jpg");
+
+        assertTrue(AtomicFileWriter.isTempFile(AtomicFileWriter.tempFile(target)));
+        assertFalse(AtomicFileWriter.isTempFile(target));
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
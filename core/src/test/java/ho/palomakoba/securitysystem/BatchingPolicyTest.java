@@ -0,0 +1,38 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class BatchingPolicyTest {
+    private static final int PERIOD_US = 40000;
+    private static final int MAX_LATENCY_US = 10000000;
+
+    @Test
+    public void noFifoMeansNoBatching() {
+        assertEquals(0, BatchingPolicy.reportLatencyUs(0, 0, 3, PERIOD_US, MAX_LATENCY_US));
+    }
+
+    @Test
+    public void reservedFifoIsUsedWhole() {
+        // 100 events at 25 Hz, filled up to 80 %
+        assertEquals(3200000, BatchingPolicy.reportLatencyUs(300, 100, 3, PERIOD_US, MAX_LATENCY_US));
+    }
+
+    @Test
+    public void sharedFifoIsSplitBetweenSensors() {
+        assertEquals(3200000, BatchingPolicy.reportLatencyUs(300, 0, 3, PERIOD_US, MAX_LATENCY_US));
+    }
+
+    @Test
+    public void largeFifoIsCapped() {
+        assertEquals(MAX_LATENCY_US,
+                BatchingPolicy.reportLatencyUs(10000, 3000, 3, PERIOD_US, MAX_LATENCY_US));
+    }
+
+    @Test
+    public void batchSizeCoversTheLatency() {
+        assertEquals(81, BatchingPolicy.batchSize(3200000, PERIOD_US));
+        assertEquals(1, BatchingPolicy.batchSize(0, PERIOD_US));
+    }
+}
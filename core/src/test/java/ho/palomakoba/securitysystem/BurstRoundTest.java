@@ -0,0 +1,82 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class BurstRoundTest {
+
+    @Test
+    public void completeBurstKeepsTheLargestFrames() {
+        BurstRound<String> round = new BurstRound<>(4, 2);
+        round.start();
+
+        assertNull(round.offer("a", 100));
+        assertNull(round.offer("b", 400));
+        assertEquals("a", round.offer("c", 300));
+        assertFalse(round.isComplete());
+        assertEquals("d", round.offer("d", 200));
+
+        assertTrue(round.isComplete());
+        assertEquals(Arrays.asList("b", "c"), round.finish());
+        assertFalse(round.isActive());
+    }
+
+    @Test
+    public void timeoutKeepsWhatArrived() {
+        BurstRound<String> round = new BurstRound<>(5, 2);
+        round.start();
+        round.offer("a", 100);
+
+        // the timeout fires before the other four frames
+        assertFalse(round.isComplete());
+        assertEquals(Collections.singletonList("a"), round.finish());
+        assertEquals(1, round.getReceived());
+
+        // a frame that arrives late is closed, and a second finish does nothing
+        assertEquals("late", round.offer("late", 900));
+        assertTrue(round.finish().isEmpty());
+    }
+
+    @Test
+    public void timeoutWithNoFrameKeepsNothing() {
+        BurstRound<String> round = new BurstRound<>(3, 1);
+        round.start();
+
+        assertTrue(round.finish().isEmpty());
+    }
+
+    @Test
+    public void cancelHandsBackTheHeldFrames() {
+        BurstRound<String> round = new BurstRound<>(3, 2);
+        round.start();
+        round.offer("a", 100);
+        round.offer("b", 200);
+
+        assertEquals(Arrays.asList("b", "a"), round.cancel());
+        assertEquals("c", round.offer("c", 300));
+
+        // the next burst starts from nothing
+        round.start();
+        assertEquals(0, round.getReceived());
+        round.offer("d", 10);
+        assertEquals(Collections.singletonList("d"), round.finish());
+    }
+
+    @Test
+    public void keepCountIsLimitedToTheBurst() {
+        BurstRound<String> round = new BurstRound<>(1, 3);
+        round.start();
+
+        assertNull(round.offer("only", 1));
+        assertTrue(round.isComplete());
+        assertEquals(1, round.getBurstSize());
+        assertEquals(Collections.singletonList("only"), round.finish());
+    }
+}
@@ -0,0 +1,63 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class BurstSelectorTest {
+
+    @Test
+    public void keepsEverythingWhileThereIsRoom() {
+        BurstSelector<String> selector = new BurstSelector<>(3);
+
+        assertNull(selector.offer("a", 10));
+        assertNull(selector.offer("b", 30));
+
+        assertEquals(Arrays.asList("b", "a"), selector.drain());
+        assertEquals(0, selector.size());
+    }
+
+    @Test
+    public void dropsTheWorstFrames() {
+        BurstSelector<String> selector = new BurstSelector<>(2);
+
+        selector.offer("blurry", 100);
+        selector.offer("sharp", 300);
+        assertEquals("blurry", selector.offer("sharper", 400));
+        assertEquals("dark", selector.offer("dark", 50));
+
+        assertEquals(Arrays.asList("sharper", "sharp"), selector.drain());
+    }
+
+    @Test
+    public void tieKeepsTheEarlierFrame() {
+        BurstSelector<String> selector = new BurstSelector<>(1);
+
+        selector.offer("first", 100);
+        assertEquals("second", selector.offer("second", 100));
+        assertEquals(Arrays.asList("first"), selector.drain());
+    }
+
+    @Test
+    public void everyDroppedFrameIsHandedBack() {
+        BurstSelector<Integer> selector = new BurstSelector<>(3);
+        int dropped = 0;
+
+        for (int i = 0; i < 10; i++) {
+            if (selector.offer(i, (i * 7) % 10) != null) {
+                dropped++;
+            }
+        }
+
+        assertEquals(7, dropped);
+        assertEquals(Arrays.asList(7, 4, 1), selector.drain());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keepCountMustBePositive() {
+        new BurstSelector<String>(0);
+    }
+}
@@ -0,0 +1,220 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class CameraInfoCacheTest {
+
+    @Test
+    public void selectsByFacing() {
+        CameraInfoCache cache = new CameraInfoCache(new FakeProvider(
+                camera("0", CameraInfo.FACING_BACK), camera("1", CameraInfo.FACING_FRONT)));
+
+        assertEquals("1", cache.find(CameraInfo.FACING_FRONT).getId());
+        assertEquals("0", cache.find(CameraInfo.FACING_BACK).getId());
+    }
+
+    @Test
+    public void fallsBackToAnyCamera() {
+        CameraInfoCache cache = new CameraInfoCache(new FakeProvider(
+                camera("0", CameraInfo.FACING_BACK)));
+
+        assertEquals("0", cache.find(CameraInfo.FACING_FRONT).getId());
+    }
+
+    @Test
+    public void noCameras() {
+        CameraInfoCache cache = new CameraInfoCache(new FakeProvider());
+
+        assertNull(cache.find(CameraInfo.FACING_FRONT));
+    }
+
+    @Test
+    public void skipsCamerasThatCantCapture() {
+        CameraInfo depth = new CameraInfo("2", CameraInfo.FACING_FRONT, 270,
+                new CaptureSize[0], new long[0], new CaptureSize[0], new int[]{8});
+        CameraInfo noJpeg = new CameraInfo("3", CameraInfo.FACING_FRONT, 270,
+                new CaptureSize[0], new long[0], new CaptureSize[0], new int[]{0});
+        CameraInfoCache cache = new CameraInfoCache(new FakeProvider(
+                depth, noJpeg, camera("0", CameraInfo.FACING_BACK)));
+
+        assertEquals("0", cache.find(CameraInfo.FACING_FRONT).getId());
+        assertNull(new CameraInfoCache(new FakeProvider(depth, noJpeg))
+                .find(CameraInfo.FACING_FRONT));
+        // still known by id
+        assertEquals("2", cache.get("2").getId());
+    }
+
+    @Test
+    public void characteristicsAreReadOnce() {
+        FakeProvider provider = new FakeProvider(
+                camera("0", CameraInfo.FACING_BACK), camera("1", CameraInfo.FACING_FRONT));
+        CameraInfoCache cache = new CameraInfoCache(provider);
+
+        for (int i = 0; i < 100; i++) {
+            cache.find(CameraInfo.FACING_FRONT);
+            cache.get("0");
+        }
+
+        assertEquals(1, cache.getLoadCount());
+        assertEquals(1, provider.mIdCalls);
+        assertEquals(2, provider.mInfoCalls);
+    }
+
+    @Test
+    public void concurrentCamerasAreReadWithTheCharacteristics() {
+        FakeProvider provider = new FakeProvider(
+                camera("0", CameraInfo.FACING_BACK), camera("1", CameraInfo.FACING_FRONT));
+        provider.mConcurrent = Collections.singletonList(new HashSet<>(Arrays.asList("0", "1")));
+        CameraInfoCache cache = new CameraInfoCache(provider);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1, cache.getConcurrentCameraIds().size());
+            cache.find(CameraInfo.FACING_FRONT);
+        }
+        assertTrue(cache.getConcurrentCameraIds().get(0).contains("1"));
+        assertEquals(1, provider.mConcurrentCalls);
+
+        provider.mFail = true;
+        cache.invalidate();
+        assertTrue(cache.getConcurrentCameraIds().isEmpty());
+    }
+
+    @Test
+    public void knownCameraAvailableKeepsTheCache() {
+        FakeProvider provider = new FakeProvider(camera("1", CameraInfo.FACING_FRONT));
+        CameraInfoCache cache = new CameraInfoCache(provider);
+        cache.find(CameraInfo.FACING_FRONT);
+
+        // our own capture closing the camera
+        cache.onCameraAvailable("1");
+        cache.find(CameraInfo.FACING_FRONT);
+
+        assertEquals(1, cache.getLoadCount());
+    }
+
+    @Test
+    public void newCameraReloads() {
+        FakeProvider provider = new FakeProvider(camera("0", CameraInfo.FACING_BACK));
+        CameraInfoCache cache = new CameraInfoCache(provider);
+        assertEquals("0", cache.find(CameraInfo.FACING_EXTERNAL).getId());
+
+        provider.mCameras = new CameraInfo[]{
+                camera("0", CameraInfo.FACING_BACK), camera("5", CameraInfo.FACING_EXTERNAL)};
+        cache.onCameraAvailable("5");
+
+        assertEquals("5", cache.find(CameraInfo.FACING_EXTERNAL).getId());
+        assertEquals(2, cache.getLoadCount());
+    }
+
+    @Test
+    public void invalidateReloads() {
+        FakeProvider provider = new FakeProvider(camera("1", CameraInfo.FACING_FRONT));
+        CameraInfoCache cache = new CameraInfoCache(provider);
+        cache.find(CameraInfo.FACING_FRONT);
+
+        cache.invalidate();
+        cache.find(CameraInfo.FACING_FRONT);
+
+        assertEquals(2, cache.getLoadCount());
+    }
+
+    @Test
+    public void failedReadIsRetried() {
+        FakeProvider provider = new FakeProvider(camera("1", CameraInfo.FACING_FRONT));
+        provider.mFail = true;
+        CameraInfoCache cache = new CameraInfoCache(provider);
+
+        assertNull(cache.find(CameraInfo.FACING_FRONT));
+        assertEquals(1, cache.getFailureCount());
+        assertEquals("Camera service unavailable", cache.getLastFailure().getMessage());
+        provider.mFail = false;
+
+        assertEquals("1", cache.find(CameraInfo.FACING_FRONT).getId());
+        assertEquals(1, cache.getLoadCount());
+    }
+
+    @Test
+    public void infoKeepsItsCapabilities() {
+        CameraInfo camera = camera("0", CameraInfo.FACING_BACK);
+
+        assertTrue(camera.hasCapability(0));
+        assertEquals(new CaptureSize(1920, 1080), camera.getJpegSizes()[0]);
+    }
+
+    static CameraInfo camera(String id, int facing) {
+        return new CameraInfo(id, facing, 270,
+                new CaptureSize[]{new CaptureSize(1920, 1080), new CaptureSize(1280, 720)},
+                new long[]{50_000_000L, 20_000_000L},
+                new CaptureSize[]{new CaptureSize(640, 480), new CaptureSize(320, 240)},
+                new int[]{0});
+    }
+
+    /**
+     * Stands in for the camera service, {@code mCallNanos} simulates the
+     * cost of one call to it.
+     */
+    static class FakeProvider implements CameraInfoCache.Provider {
+        CameraInfo[] mCameras;
+        List<Set<String>> mConcurrent = Collections.emptyList();
+        boolean mFail;
+        long mCallNanos;
+        int mIdCalls;
+        int mInfoCalls;
+        int mConcurrentCalls;
+
+        FakeProvider(CameraInfo... cameras) {
+            mCameras = cameras;
+        }
+
+        @Override
+        public String[] getCameraIds() throws Exception {
+            mIdCalls++;
+            call();
+            String[] ids = new String[mCameras.length];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = mCameras[i].getId();
+            }
+            return ids;
+        }
+
+        @Override
+        public CameraInfo getCameraInfo(String id) throws Exception {
+            mInfoCalls++;
+            call();
+            for (CameraInfo camera : mCameras) {
+                if (camera.getId().equals(id)) {
+                    return camera;
+                }
+            }
+            throw new IllegalArgumentException("No camera " + id);
+        }
+
+        @Override
+        public Collection<Set<String>> getConcurrentCameraIds() throws Exception {
+            mConcurrentCalls++;
+            call();
+            return mConcurrent;
+        }
+
+        private void call() throws Exception {
+            if (mFail) {
+                throw new Exception("Camera service unavailable");
+            }
+            long end = System.nanoTime() + mCallNanos;
+            while (System.nanoTime() < end) {
+                // busy wait, sleeping is too coarse
+            }
+        }
+    }
+}
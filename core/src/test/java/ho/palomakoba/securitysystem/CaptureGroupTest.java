@@ -0,0 +1,100 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CaptureGroupTest {
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void completesWithTheLastCamera() {
+        CaptureGroup group = new CaptureGroup(2, 1000 * MS);
+
+        assertFalse(group.report(1, true, 1400 * MS));
+        assertFalse(group.isComplete());
+        assertEquals(-1, group.getLatencyNanos());
+        assertTrue(group.report(0, true, 1650 * MS));
+
+        assertTrue(group.isComplete());
+        assertFalse(group.isDegraded());
+        assertEquals(2, group.getSavedCount());
+        assertEquals(650 * MS, group.getLatencyNanos());
+    }
+
+    @Test
+    public void failedCameraDegradesTheGroup() {
+        CaptureGroup group = new CaptureGroup(2, 1000 * MS);
+
+        assertFalse(group.report(0, false, 1100 * MS));
+        assertTrue(group.report(1, true, 1500 * MS));
+
+        assertTrue(group.isDegraded());
+        assertEquals(1, group.getSavedCount());
+        assertEquals(500 * MS, group.getLatencyNanos());
+    }
+
+    @Test
+    public void cameraReportsOnce() {
+        CaptureGroup group = new CaptureGroup(2, 0);
+
+        group.report(0, true, 10);
+        assertFalse(group.report(0, false, 20));
+        assertFalse(group.isComplete());
+        assertTrue(group.report(1, true, 30));
+        // nothing after completion completes it again
+        assertFalse(group.report(1, true, 40));
+        assertEquals(2, group.getSavedCount());
+        assertEquals(30, group.getLatencyNanos());
+    }
+
+    @Test
+    public void singleCameraCompletesAtOnce() {
+        CaptureGroup group = new CaptureGroup(1, 0);
+
+        assertTrue(group.report(0, true, 100));
+        assertFalse(group.isDegraded());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownCameraIsRejected() {
+        new CaptureGroup(2, 0).report(2, true, 0);
+    }
+
+    @Test
+    public void concurrentReportsCompleteOnce() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            final CaptureGroup group = new CaptureGroup(2, 0);
+            final AtomicInteger completions = new AtomicInteger();
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int camera = 0; camera < 2; camera++) {
+                final int index = camera;
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (group.report(index, true, 10)) {
+                        completions.incrementAndGet();
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(1, completions.get());
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+
+public class CaptureIndexTest {
+    private static final long HOUR = 3600_000L;
+
+    private File mRoot;
+
+    @Before
+    public void createFolder() throws IOException {
+        mRoot = Files.createTempDirectory("index").toFile();
+    }
+
+    @After
+    public void deleteFolder() {
+        delete(mRoot);
+    }
+
+    @Test
+    public void entriesSurviveReopening() throws IOException {
+        File indexFile = indexFile();
+        CaptureIndex index = new CaptureIndex(indexFile, mRoot);
+        index.append(new CaptureIndex.Entry(1000, CameraInfo.FACING_FRONT,
+                CaptureIndex.REASON_PICKUP, new float[]{1, 2, 9.8f}, 4096, "front_1.jpg"));
+        index.close();
+
+        CaptureIndex reopened = new CaptureIndex(indexFile, mRoot);
+
+        CaptureIndex.Entry entry = reopened.query(0, Long.MAX_VALUE).get(0);
+        assertEquals(1000, entry.getTimeMillis());
+        assertEquals(CameraInfo.FACING_FRONT, entry.getCamera());
+        assertEquals(CaptureIndex.REASON_PICKUP, entry.getReason());
+        assertArrayEquals(new float[]{1, 2, 9.8f}, entry.getValues(), 0);
+        assertEquals(4096, entry.getSizeBytes());
+        assertEquals("front_1.jpg", entry.getFileName());
+        assertFalse(reopened.wasRebuilt());
+    }
+
+    @Test
+    public void queriesTimeRanges() throws IOException {
+        CaptureIndex index = new CaptureIndex(indexFile(), mRoot);
+        for (int hour = 0; hour < 48; hour++) {
+            append(index, hour * HOUR, "front_" + hour + ".jpg");
+        }
+
+        List<CaptureIndex.Entry> night = index.query(22 * HOUR, 30 * HOUR);
+
+        assertEquals(8, night.size());
+        assertEquals(22 * HOUR, night.get(0).getTimeMillis());
+        assertEquals(29 * HOUR, night.get(7).getTimeMillis());
+        assertTrue(index.query(100 * HOUR, 200 * HOUR).isEmpty());
+        assertTrue(index.query(5 * HOUR, 5 * HOUR).isEmpty());
+    }
+
+    @Test
+    public void lateEntriesAreSorted() throws IOException {
+        CaptureIndex index = new CaptureIndex(indexFile(), mRoot);
+        append(index, 3000, "c.jpg");
+        append(index, 1000, "a.jpg");
+        append(index, 2000, "b.jpg");
+
+        List<CaptureIndex.Entry> entries = index.query(0, Long.MAX_VALUE);
+
+        assertEquals("a.jpg", entries.get(0).getFileName());
+        assertEquals("c.jpg", entries.get(2).getFileName());
+    }
+
+    @Test
+    public void removalsSurviveReopening() throws IOException {
+        File indexFile = indexFile();
+        CaptureIndex index = new CaptureIndex(indexFile, mRoot);
+        append(index, 1000, "a.jpg");
+        append(index, 2000, "b.jpg");
+        append(index, 3000, "c.jpg");
+
+        assertTrue(index.remove(index.oldest(1).get(0)));
+        assertFalse(index.remove(new CaptureIndex.Entry(1000, CameraInfo.FACING_FRONT,
+                CaptureIndex.REASON_PICKUP, null, 1024, "a.jpg")));
+        assertEquals(2 * 1024, index.getTotalBytes());
+        index.close();
+
+        CaptureIndex reopened = new CaptureIndex(indexFile, mRoot);
+
+        assertEquals(2, reopened.size());
+        assertEquals(2 * 1024, reopened.getTotalBytes());
+        assertEquals("b.jpg", reopened.oldest(1).get(0).getFileName());
+        assertFalse(reopened.wasRebuilt());
+    }
+
+    @Test
+    public void tornLastRecordIsCutOff() throws IOException {
+        File indexFile = indexFile();
+        CaptureIndex index = new CaptureIndex(indexFile, mRoot);
+        append(index, 1000, "a.jpg");
+        long valid = indexFile.length();
+        append(index, 2000, "b.jpg");
+        index.close();
+        // crash in the middle of the second record
+        truncate(indexFile, valid + 10);
+
+        CaptureIndex recovered = new CaptureIndex(indexFile, mRoot);
+
+        assertEquals(1, recovered.size());
+        assertEquals(10, recovered.getTruncatedBytes());
+        assertEquals(valid, indexFile.length());
+        assertFalse(recovered.wasRebuilt());
+
+        append(recovered, 3000, "c.jpg");
+        recovered.close();
+        assertEquals(2, new CaptureIndex(indexFile, mRoot).size());
+    }
+
+    @Test
+    public void damagedRecordRebuildsFromTheFolder() throws IOException {
+        File indexFile = indexFile();
+        File folder = newFolder();
+        newPicture(folder, "front", "01022020_231500", 100);
+        newPicture(folder, "lookback", "01022020_231459", 50);
+        CaptureIndex index = new CaptureIndex(indexFile, folder);
+        index.close();
+        assertTrue(index.wasRebuilt());
+
+        index = new CaptureIndex(indexFile, folder);
+        append(index, 1000, "x.jpg");
+        append(index, 2000, "y.jpg");
+        index.close();
+        flipByte(indexFile, 20);
+
+        CaptureIndex rebuilt = new CaptureIndex(indexFile, folder);
+
+        assertTrue(rebuilt.wasRebuilt());
+        List<CaptureIndex.Entry> entries = rebuilt.query(0, Long.MAX_VALUE);
+        assertEquals(2, entries.size());
+        assertEquals(CaptureIndex.REASON_LOOK_BACK, entries.get(0).getReason());
+        assertEquals(CameraInfo.FACING_FRONT, entries.get(1).getCamera());
+        assertEquals(100, entries.get(1).getSizeBytes());
+        assertEquals(new SimpleDateFormat("ddMMyyyy_HHmmss", Locale.US)
+                .parse("01022020_231500", new ParsePosition(0)).getTime(),
+                entries.get(1).getTimeMillis());
+        assertTrue(Float.isNaN(entries.get(1).getValues()[0]));
+    }
+
+    @Test
+    public void rebuildKnowsTheCameraFromTheName() throws IOException {
+        File folder = newFolder();
+        newPicture(folder, "front", "01022020_231500", 100);
+        newPicture(folder, "back", "01022020_231501", 100);
+        Files.write(new File(folder, "back_01022020_231502_9.jpg.enc").toPath(), new byte[10]);
+        newPicture(folder, "external", "01022020_231503", 100);
+        newPicture(folder, "lookback", "01022020_231504", 100);
+
+        List<CaptureIndex.Entry> entries = new CaptureIndex(indexFile(), folder)
+                .query(0, Long.MAX_VALUE);
+
+        assertEquals(5, entries.size());
+        assertEquals(CameraInfo.FACING_FRONT, entries.get(0).getCamera());
+        assertEquals(CameraInfo.FACING_BACK, entries.get(1).getCamera());
+        assertEquals(CameraInfo.FACING_BACK, entries.get(2).getCamera());
+        assertEquals(CameraInfo.FACING_EXTERNAL, entries.get(3).getCamera());
+        assertEquals(CaptureIndex.CAMERA_UNKNOWN, entries.get(4).getCamera());
+    }
+
+    @Test
+    public void missingIndexIsRebuilt() throws IOException {
+        File folder = newFolder();
+        newPicture(folder, "front", "01022020_231500", 100);
+        Files.write(new File(folder, "back_01022020_231502_3.jpg.enc").toPath(), new byte[10]);
+        // temp files of writes in progress are not captures
+        Files.write(new File(folder, ".front_01022020_231501_7.jpg.tmp").toPath(), new byte[10]);
+
+        CaptureIndex index = new CaptureIndex(indexFile(), folder);
+
+        assertTrue(index.wasRebuilt());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void badHeaderIsRebuilt() throws IOException {
+        File indexFile = indexFile();
+        Files.write(indexFile.toPath(), new byte[]{1, 2, 3});
+
+        CaptureIndex index = new CaptureIndex(indexFile, mRoot);
+
+        assertTrue(index.wasRebuilt());
+        assertEquals(0, index.size());
+    }
+
+    private File newFolder() {
+        File folder = new File(mRoot, "security");
+        assertTrue(folder.mkdir());
+        return folder;
+    }
+
+    private File indexFile() {
+        return new File(mRoot, "captures.idx");
+    }
+
+    private static void append(CaptureIndex index, long timeMillis, String name) throws IOException {
+        index.append(new CaptureIndex.Entry(timeMillis, CameraInfo.FACING_FRONT,
+                CaptureIndex.REASON_PICKUP, new float[]{0, 0, 9.8f}, 1024, name));
+    }
+
+    private static void newPicture(File folder, String prefix, String time, int bytes)
+            throws IOException {
+        Files.write(new File(folder, prefix + "_" + time + "_123.jpg").toPath(), new byte[bytes]);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private static void flipByte(File file, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0xff);
+        }
+    }
+}
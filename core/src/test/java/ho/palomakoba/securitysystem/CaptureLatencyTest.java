@@ -0,0 +1,59 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+public class CaptureLatencyTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void stagesAreRecordedOncePerCapture() {
+        CaptureLatency latency = new CaptureLatency();
+        CaptureLatency.Trace trace = latency.trace(CaptureLatency.PATH_WARM, 1000 * MS);
+        trace.mark(CaptureLatency.STAGE_CAPTURE_STARTED, 1040 * MS);
+        // the other frames of the burst
+        trace.mark(CaptureLatency.STAGE_IMAGE_AVAILABLE, 1200 * MS);
+        trace.mark(CaptureLatency.STAGE_IMAGE_AVAILABLE, 1300 * MS);
+
+        assertEquals(1, latency.getHistogram(CaptureLatency.PATH_WARM,
+                CaptureLatency.STAGE_IMAGE_AVAILABLE).getCount());
+        assertEquals(200 * MS, latency.getHistogram(CaptureLatency.PATH_WARM,
+                CaptureLatency.STAGE_IMAGE_AVAILABLE).getMaxNanos());
+        assertEquals(0, latency.getHistogram(CaptureLatency.PATH_COLD,
+                CaptureLatency.STAGE_IMAGE_AVAILABLE).getCount());
+    }
+
+    @Test
+    public void captureWithoutTriggerIsNotRecorded() {
+        CaptureLatency latency = new CaptureLatency();
+        latency.trace(CaptureLatency.PATH_COLD, 0).mark(CaptureLatency.STAGE_OPENED, 500 * MS);
+        assertEquals(0, latency.getHistogram(CaptureLatency.PATH_COLD,
+                CaptureLatency.STAGE_OPENED).getCount());
+    }
+
+    @Test
+    public void dumpListsTheStagesReached() {
+        CaptureLatency latency = new CaptureLatency();
+        for (int i = 1; i <= 10; i++) {
+            long trigger = i * 10_000 * MS;
+            CaptureLatency.Trace trace = latency.trace(CaptureLatency.PATH_COLD, trigger);
+            trace.mark(CaptureLatency.STAGE_ACTIVITY_START, trigger + 100 * MS);
+            trace.mark(CaptureLatency.STAGE_WRITTEN, trigger + 900 * MS);
+        }
+
+        StringWriter out = new StringWriter();
+        latency.dump(new PrintWriter(out));
+        String dump = out.toString();
+        assertTrue(dump, dump.contains("activity start"));
+        assertTrue(dump, dump.contains("write complete"));
+        assertFalse(dump, dump.contains("camera opened"));
+        assertTrue(dump, dump.contains("warm: no captures"));
+    }
+}
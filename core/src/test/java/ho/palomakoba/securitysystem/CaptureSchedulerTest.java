@@ -0,0 +1,265 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CaptureSchedulerTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long TIMEOUT = 15 * SECOND;
+    private static final float[] VALUES = {0, 9.8f, 0};
+
+    private final List<CaptureScheduler.Job> mStarted = new ArrayList<>();
+    private final CaptureScheduler mScheduler = new CaptureScheduler(TIMEOUT, 2);
+    private long mNow = TimeUnit.MINUTES.toNanos(10);
+
+    @Test
+    public void triggerBeforeTheCaptureIsMergedIntoIt() {
+        mScheduler.setRunner(mStarted::add);
+
+        assertEquals(CaptureScheduler.RESULT_STARTED, submit());
+        assertEquals(CaptureScheduler.RESULT_MERGED, submit());
+        assertEquals(1, mStarted.size());
+
+        long id = mStarted.get(0).getId();
+        assertEquals(2, mScheduler.getTriggerCount(id));
+        assertTrue(mScheduler.startCapture(id));
+        assertTrue(mScheduler.finish(id, mNow));
+        assertFalse(mScheduler.isBusy());
+    }
+
+    @Test
+    public void triggersDuringTheCaptureCoalesceIntoOneFollowUp() {
+        mScheduler.setRunner(mStarted::add);
+        submit();
+        CaptureScheduler.Job first = mStarted.get(0);
+        mScheduler.startCapture(first.getId());
+
+        assertEquals(CaptureScheduler.RESULT_QUEUED, submit());
+        assertEquals(CaptureScheduler.RESULT_COALESCED, submit());
+        assertEquals(CaptureScheduler.RESULT_COALESCED, submit());
+        assertEquals(1, mStarted.size());
+
+        mScheduler.finish(first.getId(), mNow);
+        assertEquals(2, mStarted.size());
+        assertEquals(3, mScheduler.getTriggerCount(mStarted.get(1).getId()));
+        // a job is finished once
+        assertFalse(mScheduler.finish(first.getId(), mNow));
+        assertEquals(2, mStarted.size());
+    }
+
+    @Test
+    public void openCameraTakesTheFollowUpAsAnExtension() {
+        mScheduler.setRunner(mStarted::add);
+        submit();
+        long id = mStarted.get(0).getId();
+        mScheduler.startCapture(id);
+
+        assertNull(mScheduler.takeExtension(id));
+        for (int i = 0; i < 2; i++) {
+            submit();
+            CaptureScheduler.Job extension = mScheduler.takeExtension(id);
+            assertNotNull(extension);
+            assertEquals(CaptureIndex.REASON_PICKUP, extension.getReason());
+        }
+        // no more than two, the third one waits for its own job
+        submit();
+        assertNull(mScheduler.takeExtension(id));
+        assertEquals(3, mScheduler.getTriggerCount(id));
+
+        mScheduler.finish(id, mNow);
+        assertEquals(2, mStarted.size());
+    }
+
+    @Test
+    public void stuckJobTimesOutAndTheFollowUpStarts() {
+        mScheduler.setRunner(mStarted::add);
+        submit();
+        CaptureScheduler.Job stuck = mStarted.get(0);
+        mScheduler.startCapture(stuck.getId());
+        submit();
+
+        assertEquals(mNow + TIMEOUT, mScheduler.getDeadlineNanos());
+        mNow += TIMEOUT - 1;
+        assertFalse(mScheduler.expire(mNow));
+        mNow += 1;
+        assertTrue(mScheduler.expire(mNow));
+
+        assertTrue(stuck.isCancelled());
+        assertEquals(2, mStarted.size());
+        assertFalse(mScheduler.startCapture(stuck.getId()));
+        assertFalse(mScheduler.finish(stuck.getId(), mNow));
+        assertEquals(mNow + TIMEOUT, mScheduler.getDeadlineNanos());
+        assertEquals(1, mScheduler.getTimedOutCount());
+    }
+
+    @Test
+    public void cancelDropsEverything() {
+        mScheduler.setRunner(mStarted::add);
+        submit();
+        CaptureScheduler.Job job = mStarted.get(0);
+        mScheduler.startCapture(job.getId());
+        submit();
+
+        mScheduler.cancelPending();
+        assertFalse(job.isCancelled());
+        submit();
+        mScheduler.cancel();
+        assertTrue(job.isCancelled());
+        assertFalse(mScheduler.isBusy());
+        assertEquals(-1, mScheduler.getDeadlineNanos());
+
+        mScheduler.setRunner(null);
+        assertEquals(CaptureScheduler.RESULT_NO_RUNNER, submit());
+        assertEquals(1, mStarted.size());
+    }
+
+    @Test
+    public void triggerStormRunsOneJobAtATime() throws Exception {
+        final int threads = 8;
+        final int triggers = 20_000;
+        final BlockingQueue<CaptureScheduler.Job> queue = new LinkedBlockingQueue<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final CaptureScheduler scheduler = new CaptureScheduler(Long.MAX_VALUE, 2);
+        scheduler.setRunner(job -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            queue.add(job);
+        });
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger submitted = new AtomicInteger();
+        List<Thread> submitters = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < triggers / threads; i++) {
+                    int result = scheduler.submit(System.nanoTime(), VALUES,
+                            CaptureIndex.REASON_PICKUP, System.nanoTime());
+                    assertTrue(result != CaptureScheduler.RESULT_NO_RUNNER);
+                    submitted.incrementAndGet();
+                }
+            });
+            thread.start();
+            submitters.add(thread);
+        }
+
+        // the camera: captures, sometimes extends, then finishes
+        final AtomicLong covered = new AtomicLong();
+        final AtomicInteger finished = new AtomicInteger();
+        final Random random = new Random(42);
+        Thread camera = new Thread(() -> {
+            try {
+                while (true) {
+                    CaptureScheduler.Job job = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (job == null) {
+                        if (submitted.get() == triggers && !scheduler.isBusy()) {
+                            return;
+                        }
+                        continue;
+                    }
+                    assertTrue(scheduler.startCapture(job.getId()));
+                    if (random.nextBoolean()) {
+                        scheduler.takeExtension(job.getId());
+                    }
+                    covered.addAndGet(scheduler.getTriggerCount(job.getId()));
+                    inFlight.decrementAndGet();
+                    assertTrue(scheduler.finish(job.getId(), System.nanoTime()));
+                    finished.incrementAndGet();
+                }
+            } catch (InterruptedException ignored) {
+            }
+        });
+        camera.start();
+
+        start.countDown();
+        for (Thread thread : submitters) {
+            thread.join();
+        }
+        camera.join(TimeUnit.SECONDS.toMillis(30));
+
+        assertFalse(camera.isAlive());
+        assertEquals(1, maxInFlight.get());
+        assertEquals(0, inFlight.get());
+        assertFalse(scheduler.isBusy());
+        // every trigger is covered by exactly one job
+        assertEquals(triggers, covered.get());
+        assertEquals(scheduler.getStartedCount(), finished.get());
+        assertTrue(finished.get() < triggers);
+    }
+
+    @Test
+    public void stormWithTimeoutsEndsEveryJobOnce() throws Exception {
+        final CaptureScheduler scheduler = new CaptureScheduler(50, 2);
+        final AtomicLong current = new AtomicLong(-1);
+        scheduler.setRunner(job -> current.set(job.getId()));
+
+        final AtomicLong clock = new AtomicLong();
+        final AtomicInteger finished = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 6; t++) {
+            final int role = t % 3;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 5000; i++) {
+                    long now = clock.addAndGet(10);
+                    long id = current.get();
+                    switch (role) {
+                        case 0:
+                            scheduler.submit(now, VALUES, CaptureIndex.REASON_MOTION, now);
+                            break;
+                        case 1:
+                            scheduler.startCapture(id);
+                            // every other job is stuck until it times out
+                            if (id % 2 == 0 && scheduler.finish(id, now)) {
+                                finished.incrementAndGet();
+                            }
+                            break;
+                        default:
+                            scheduler.expire(now);
+                            break;
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        while (scheduler.isBusy()) {
+            assertTrue(scheduler.expire(scheduler.getDeadlineNanos()));
+        }
+        assertTrue(scheduler.getTimedOutCount() > 0);
+        assertEquals(scheduler.getStartedCount(), finished.get() + scheduler.getTimedOutCount());
+    }
+
+    private int submit() {
+        return mScheduler.submit(mNow, VALUES, CaptureIndex.REASON_PICKUP, mNow);
+    }
+}
@@ -0,0 +1,112 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class DualCameraPlanTest {
+    private static final List<Set<String>> NONE = Collections.emptyList();
+
+    @Test
+    public void pairInAConcurrentSetStreamsTogether() {
+        CameraInfoCache cameras = cache(Arrays.asList(ids("0", "2"), ids("1", "0")),
+                CameraInfoCacheTest.camera("0", CameraInfo.FACING_BACK),
+                CameraInfoCacheTest.camera("1", CameraInfo.FACING_FRONT));
+
+        DualCameraPlan plan = DualCameraPlan.choose(cameras, CameraInfo.FACING_FRONT);
+
+        assertEquals(DualCameraPlan.MODE_CONCURRENT, plan.getMode());
+        assertEquals("1", plan.getCameras().get(0).getId());
+        assertEquals("0", plan.getCameras().get(1).getId());
+    }
+
+    @Test
+    public void pairNotInOneSetTakesTurns() {
+        CameraInfo back = CameraInfoCacheTest.camera("0", CameraInfo.FACING_BACK);
+        CameraInfo front = CameraInfoCacheTest.camera("1", CameraInfo.FACING_FRONT);
+        CameraInfoCache cameras = cache(Arrays.asList(ids("0", "2"), ids("1", "2")), back, front);
+
+        assertEquals(DualCameraPlan.MODE_SEQUENTIAL,
+                DualCameraPlan.choose(cameras, CameraInfo.FACING_BACK).getMode());
+        // before Android 11
+        DualCameraPlan plan = DualCameraPlan.choose(cache(NONE, back, front),
+                CameraInfo.FACING_BACK);
+        assertEquals(DualCameraPlan.MODE_SEQUENTIAL, plan.getMode());
+        assertEquals("0", plan.getCameras().get(0).getId());
+    }
+
+    @Test
+    public void oneSideOnlyIsASingleCamera() {
+        CameraInfoCache cameras = cache(Collections.singletonList(ids("0", "5")),
+                CameraInfoCacheTest.camera("0", CameraInfo.FACING_BACK),
+                CameraInfoCacheTest.camera("5", CameraInfo.FACING_EXTERNAL));
+
+        // the front is missing, the back is taken instead and has no partner
+        DualCameraPlan plan = DualCameraPlan.choose(cameras, CameraInfo.FACING_FRONT);
+
+        assertEquals(DualCameraPlan.MODE_SINGLE, plan.getMode());
+        assertEquals(1, plan.getCameras().size());
+        assertEquals("0", plan.getCameras().get(0).getId());
+    }
+
+    @Test
+    public void noCameraNoPlan() {
+        assertNull(DualCameraPlan.choose(cache(NONE), CameraInfo.FACING_FRONT));
+    }
+
+    @Test
+    public void concurrentSizeIsLimitedTo1440p() {
+        CaptureSize[] sizes = {new CaptureSize(4000, 3000), new CaptureSize(1920, 1440),
+                new CaptureSize(1920, 1080), new CaptureSize(640, 480)};
+
+        assertEquals(new CaptureSize(1920, 1080),
+                DualCameraPlan.limitSize(new CaptureSize(1920, 1080), sizes));
+        assertEquals(new CaptureSize(1920, 1440),
+                DualCameraPlan.limitSize(new CaptureSize(4000, 3000), sizes));
+        // a portrait size fits the other way round
+        assertEquals(new CaptureSize(1440, 1920),
+                DualCameraPlan.limitSize(new CaptureSize(1440, 1920), sizes));
+        assertNull(DualCameraPlan.limitSize(new CaptureSize(4000, 3000),
+                new CaptureSize[]{new CaptureSize(4000, 3000)}));
+    }
+
+    private static Set<String> ids(String... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+
+    private static CameraInfoCache cache(List<Set<String>> concurrent, CameraInfo... cameras) {
+        return new CameraInfoCache(new CameraInfoCache.Provider() {
+            @Override
+            public String[] getCameraIds() {
+                String[] ids = new String[cameras.length];
+                for (int i = 0; i < cameras.length; i++) {
+                    ids[i] = cameras[i].getId();
+                }
+                return ids;
+            }
+
+            @Override
+            public CameraInfo getCameraInfo(String id) {
+                for (CameraInfo camera : cameras) {
+                    if (camera.getId().equals(id)) {
+                        return camera;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public Collection<Set<String>> getConcurrentCameraIds() {
+                return concurrent;
+            }
+        });
+    }
+}
@@ -0,0 +1,66 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DuplicateFilterTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final long SCENE = 0x0f0f_3c3c_5a5a_c3c3L;
+
+    private final DuplicateFilter mFilter = new DuplicateFilter(4, 10, 60 * SECOND);
+
+    @Test
+    public void firstFrameIsNew() {
+        assertFalse(mFilter.isDuplicate(SCENE, 1, 0));
+        assertEquals(1, mFilter.getOfferedCount());
+        assertEquals(0, mFilter.getDuplicateCount());
+    }
+
+    @Test
+    public void closeFrameOfALaterBurstIsADuplicate() {
+        mFilter.isDuplicate(SCENE, 1, 0);
+
+        assertTrue(mFilter.isDuplicate(SCENE ^ 0x3ff, 2, SECOND));
+        assertFalse(mFilter.isDuplicate(SCENE ^ 0x7ff, 3, 2 * SECOND));
+        assertEquals(1, mFilter.getDuplicateCount());
+    }
+
+    @Test
+    public void framesOfOneBurstAreNotCompared() {
+        mFilter.isDuplicate(SCENE, 1, 0);
+
+        assertFalse(mFilter.isDuplicate(SCENE, 1, 0));
+    }
+
+    @Test
+    public void oldFramesAreForgotten() {
+        mFilter.isDuplicate(SCENE, 1, 0);
+
+        assertTrue(mFilter.isDuplicate(SCENE, 2, 60 * SECOND));
+        assertFalse(mFilter.isDuplicate(SCENE, 3, 61 * SECOND));
+    }
+
+    @Test
+    public void ringKeepsTheLastFrames() {
+        mFilter.isDuplicate(SCENE, 1, 0);
+        for (int i = 0; i < 4; i++) {
+            // unrelated scenes push the first one out
+            mFilter.isDuplicate(~SCENE >>> i * 16, 2 + i, SECOND);
+        }
+
+        assertFalse(mFilter.isDuplicate(SCENE, 10, 2 * SECOND));
+    }
+
+    @Test
+    public void duplicatesAreNotRemembered() {
+        mFilter.isDuplicate(SCENE, 1, 0);
+        // drifting six bits at a time, each one close to the last but not
+        // to the first
+        assertTrue(mFilter.isDuplicate(SCENE ^ 0x3f, 2, SECOND));
+        assertFalse(mFilter.isDuplicate(SCENE ^ 0xfff, 3, 2 * SECOND));
+        assertTrue(mFilter.isDuplicate(SCENE ^ 0x3ffff, 4, 3 * SECOND));
+    }
+}
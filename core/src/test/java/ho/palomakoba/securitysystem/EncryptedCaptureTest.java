@@ -0,0 +1,218 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+public class EncryptedCaptureTest {
+    private static final int SEGMENT = 1024;
+
+    private File mRoot;
+    private File mFile;
+    private SecretKey mKey;
+
+    @Before
+    public void createFolder() throws IOException, GeneralSecurityException {
+        mRoot = Files.createTempDirectory("encrypted").toFile();
+        mFile = new File(mRoot, "front_01012024_120000_1.jpg" + EncryptedCaptureWriter.EXTENSION);
+        mKey = newKey();
+    }
+
+    @After
+    public void deleteFolder() {
+        File[] files = mRoot.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mRoot.delete();
+    }
+
+    @Test
+    public void roundTripsAroundSegmentBoundaries() throws IOException {
+        int[] sizes = {0, 1, SEGMENT - 1, SEGMENT, SEGMENT + 1, 3 * SEGMENT, 5 * SEGMENT + 17};
+        for (int size : sizes) {
+            byte[] data = bytes(size);
+            EncryptedCaptureWriter.write(direct(data), mFile, mKey, SEGMENT, false);
+
+            assertTrue(EncryptedCaptureReader.isEncrypted(mFile));
+            assertFalse(AtomicFileWriter.tempFile(mFile).exists());
+            assertArrayEquals(data, decrypt(mFile, mKey));
+        }
+    }
+
+    @Test
+    public void streamedWritesMatchOneBuffer() throws IOException, GeneralSecurityException {
+        byte[] data = bytes(7 * SEGMENT + 300);
+        Random random = new Random(1);
+        EncryptedCaptureWriter writer;
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            writer = new EncryptedCaptureWriter(out.getChannel(), mKey, SEGMENT);
+            int offset = 0;
+            while (offset < data.length) {
+                int count = Math.min(data.length - offset, random.nextInt(3 * SEGMENT));
+                writer.write(ByteBuffer.wrap(data, offset, count));
+                offset += count;
+            }
+            // writes the last segment
+            writer.close();
+        }
+        assertEquals(8, writer.getSegmentCount());
+        assertArrayEquals(data, decrypt(mFile, mKey));
+    }
+
+    @Test
+    public void changedByteFailsItsSegment() throws IOException {
+        byte[] data = bytes(4 * SEGMENT);
+        EncryptedCaptureWriter.write(direct(data), mFile, mKey, SEGMENT, false);
+        long segmentStart = mFile.length() - 2 * (SEGMENT + EncryptedCaptureWriter.TAG_BYTES);
+        flip(mFile, segmentStart + 10);
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try {
+            decrypt(mFile, mKey, read);
+            fail("Corrupt segment read");
+        } catch (IOException expected) {
+            // what came before the bad segment is genuine
+            assertEquals(2 * SEGMENT, read.size());
+        }
+    }
+
+    @Test
+    public void changedHeaderFails() throws IOException {
+        EncryptedCaptureWriter.write(direct(bytes(100)), mFile, mKey, SEGMENT, false);
+        // in the nonce prefix
+        flip(mFile, 10);
+        assertUnreadable(mFile, mKey);
+    }
+
+    @Test
+    public void truncatedAtASegmentBoundaryFails() throws IOException {
+        EncryptedCaptureWriter.write(direct(bytes(3 * SEGMENT + 5)), mFile, mKey, SEGMENT, false);
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.setLength(file.length() - 5 - EncryptedCaptureWriter.TAG_BYTES);
+        }
+        assertUnreadable(mFile, mKey);
+
+        // only the header left
+        EncryptedCaptureWriter.write(direct(bytes(0)), mFile, mKey, SEGMENT, false);
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.setLength(file.length() - EncryptedCaptureWriter.TAG_BYTES);
+        }
+        assertUnreadable(mFile, mKey);
+    }
+
+    @Test
+    public void appendedSegmentFails() throws IOException {
+        EncryptedCaptureWriter.write(direct(bytes(2 * SEGMENT)), mFile, mKey, SEGMENT, false);
+        byte[] encrypted = Files.readAllBytes(mFile.toPath());
+        try (FileOutputStream out = new FileOutputStream(mFile, true)) {
+            // a copy of the last segment
+            out.write(encrypted, encrypted.length - SEGMENT - EncryptedCaptureWriter.TAG_BYTES,
+                    SEGMENT + EncryptedCaptureWriter.TAG_BYTES);
+        }
+        assertUnreadable(mFile, mKey);
+    }
+
+    @Test
+    public void otherKeyCantRead() throws IOException, GeneralSecurityException {
+        EncryptedCaptureWriter.write(direct(bytes(100)), mFile, mKey, SEGMENT, false);
+        assertUnreadable(mFile, newKey());
+    }
+
+    @Test
+    public void plainJpegIsNotAnEncryptedCapture() throws IOException {
+        AtomicFileWriter.write(direct(bytes(100)), mFile, false);
+        assertUnreadable(mFile, mKey);
+    }
+
+    @Test
+    public void sameDataEncryptsDifferently() throws IOException {
+        byte[] data = bytes(SEGMENT);
+        EncryptedCaptureWriter.write(direct(data), mFile, mKey, SEGMENT, false);
+        byte[] first = Files.readAllBytes(mFile.toPath());
+        EncryptedCaptureWriter.write(direct(data), mFile, mKey, SEGMENT, false);
+        byte[] second = Files.readAllBytes(mFile.toPath());
+
+        assertEquals(first.length, second.length);
+        assertFalse(Arrays.equals(first, second));
+    }
+
+    private static void assertUnreadable(File file, SecretKey key) {
+        try {
+            decrypt(file, key);
+            fail("Read " + file);
+        } catch (IOException expected) {
+        }
+    }
+
+    private static byte[] decrypt(File file, SecretKey key) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        decrypt(file, key, out);
+        return out.toByteArray();
+    }
+
+    private static void decrypt(File file, SecretKey key, ByteArrayOutputStream out)
+            throws IOException {
+        try (FileInputStream in = new FileInputStream(file);
+             EncryptedCaptureReader reader = new EncryptedCaptureReader(in.getChannel(), key)) {
+            // smaller than a segment, each one takes several reads
+            ByteBuffer buffer = ByteBuffer.allocate(700);
+            while (reader.read(buffer) >= 0) {
+                out.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        }
+    }
+
+    private static void flip(File file, long position) throws IOException {
+        try (RandomAccessFile random = new RandomAccessFile(file, "rw")) {
+            random.seek(position);
+            int value = random.read();
+            random.seek(position);
+            random.write(value ^ 0x40);
+        }
+    }
+
+    private static ByteBuffer direct(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+        return buffer;
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static SecretKey newKey() throws GeneralSecurityException {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        return generator.generateKey();
+    }
+}
@@ -0,0 +1,143 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class FrameHashTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int MAX_DISTANCE = 10;
+
+    private final FrameHash mHash = new FrameHash();
+
+    @Test
+    public void sameFrameSameHash() {
+        byte[] desk = desk(0, 0);
+
+        assertEquals(hash(desk), hash(desk.clone()));
+    }
+
+    @Test
+    public void noiseIsTheSameScene() {
+        long clean = hash(desk(0, 0));
+
+        long noisy = hash(withNoise(desk(0, 0), 6, new Random(1)));
+
+        assertTrue(FrameHash.distance(clean, noisy) <= MAX_DISTANCE);
+    }
+
+    @Test
+    public void exposureIsTheSameScene() {
+        byte[] brighter = desk(0, 0);
+        for (int i = 0; i < brighter.length; i++) {
+            brighter[i] = (byte) Math.min(255, (brighter[i] & 0xff) + 25);
+        }
+
+        assertTrue(FrameHash.distance(hash(desk(0, 0)), hash(brighter)) <= MAX_DISTANCE);
+    }
+
+    @Test
+    public void nudgedPhoneIsTheSameScene() {
+        assertTrue(FrameHash.distance(hash(desk(0, 0)), hash(desk(3, 2))) <= MAX_DISTANCE);
+    }
+
+    @Test
+    public void faceInFrontIsAnotherScene() {
+        byte[] face = desk(0, 0);
+        // a lit face over dark shoulders in the middle of the frame
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (Math.hypot(x - 160, (y - 90) * 0.8) < 45) {
+                    face[y * WIDTH + x] = (byte) 190;
+                } else if (y > 140 && x > 70 && x < 250) {
+                    face[y * WIDTH + x] = (byte) 35;
+                }
+            }
+        }
+
+        assertTrue(FrameHash.distance(hash(desk(0, 0)), hash(face)) > MAX_DISTANCE);
+    }
+
+    @Test
+    public void stridesAreFollowed() {
+        byte[] desk = desk(0, 0);
+        // a YUV plane with padded rows, and a semi-planar one
+        int rowStride = WIDTH * 2 + 64;
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                plane.put(y * rowStride + x * 2, desk[y * WIDTH + x]);
+            }
+        }
+
+        assertEquals(hash(desk), mHash.hashLuma(plane, WIDTH, HEIGHT, rowStride, 2));
+    }
+
+    @Test
+    public void grayArgbHashesLikeItsLuma() {
+        byte[] desk = desk(0, 0);
+        int[] argb = new int[desk.length];
+        for (int i = 0; i < desk.length; i++) {
+            int v = desk[i] & 0xff;
+            argb[i] = 0xff000000 | v << 16 | v << 8 | v;
+        }
+
+        assertEquals(hash(desk), mHash.hashArgb(argb, WIDTH, HEIGHT, WIDTH));
+    }
+
+    @Test
+    public void tinyFramesHash() {
+        byte[] tiny = new byte[4 * 3];
+        for (int i = 0; i < tiny.length; i++) {
+            tiny[i] = (byte) (i * 20);
+        }
+
+        mHash.hashLuma(ByteBuffer.wrap(tiny), 4, 3, 4, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyFrameIsRejected() {
+        mHash.hashLuma(ByteBuffer.allocate(0), 0, 0, 0, 1);
+    }
+
+    private long hash(byte[] luma) {
+        return mHash.hashLuma(ByteBuffer.wrap(luma), WIDTH, HEIGHT, WIDTH, 1);
+    }
+
+    /**
+     * A desk seen from a phone lying on it: a lamp, a window and a shaded
+     * wall, moved by {@code dx}, {@code dy} pixels.
+     */
+    static byte[] desk(int dx, int dy) {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int sx = x + dx;
+                int sy = y + dy;
+                double v = 90 + 50 * Math.sin(sx / 41.0) + 30 * Math.cos(sy / 29.0);
+                if (sx > 200 && sx < 290 && sy > 20 && sy < 110) {
+                    v = 230;
+                }
+                double lamp = Math.hypot(sx - 70, sy - 160);
+                if (lamp < 35) {
+                    v = 250 - lamp;
+                }
+                luma[y * WIDTH + x] = (byte) Math.max(0, Math.min(255, (int) v));
+            }
+        }
+        return luma;
+    }
+
+    static byte[] withNoise(byte[] luma, int amplitude, Random random) {
+        for (int i = 0; i < luma.length; i++) {
+            int v = (luma[i] & 0xff) + random.nextInt(2 * amplitude + 1) - amplitude;
+            luma[i] = (byte) Math.max(0, Math.min(255, v));
+        }
+        return luma;
+    }
+}
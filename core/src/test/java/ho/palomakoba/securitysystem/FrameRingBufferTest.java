@@ -0,0 +1,140 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+public class FrameRingBufferTest {
+    private static final int FRAME_BYTES = 320 * 240 * 3 / 2;
+
+    @Test
+    public void slotsFollowTheMemoryCap() {
+        FrameRingBuffer buffer = new FrameRingBuffer(FRAME_BYTES, 4L * 1024 * 1024);
+
+        assertEquals(36, buffer.getSlotCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capMustFitTwoFrames() {
+        new FrameRingBuffer(FRAME_BYTES, FRAME_BYTES);
+    }
+
+    @Test
+    public void newestFramesOverwriteOldest() {
+        FrameRingBuffer buffer = new FrameRingBuffer(4, 16);
+
+        for (int i = 1; i <= 10; i++) {
+            write(buffer, i * 100, (byte) i);
+        }
+
+        assertEquals(4, buffer.snapshot(0));
+        for (int i = 0; i < 4; i++) {
+            assertEquals((7 + i) * 100, buffer.getSnapshotTimestamp(i));
+            assertEquals(7 + i, buffer.getSnapshotFrame(i).get(0));
+        }
+    }
+
+    @Test
+    public void snapshotKeepsOnlyTheWindow() {
+        FrameRingBuffer buffer = new FrameRingBuffer(4, 40);
+
+        for (int i = 1; i <= 6; i++) {
+            write(buffer, i * 100, (byte) i);
+        }
+
+        assertEquals(3, buffer.snapshot(400));
+        assertEquals(400, buffer.getSnapshotTimestamp(0));
+        assertEquals(600, buffer.getSnapshotTimestamp(2));
+    }
+
+    @Test
+    public void pinnedFramesSurviveStreaming() {
+        FrameRingBuffer buffer = new FrameRingBuffer(4, 16);
+        for (int i = 1; i <= 4; i++) {
+            write(buffer, i * 100, (byte) i);
+        }
+
+        assertEquals(2, buffer.snapshot(300));
+        for (int i = 5; i <= 20; i++) {
+            write(buffer, i * 100, (byte) i);
+        }
+
+        assertEquals(3, buffer.getSnapshotFrame(0).get(0));
+        assertEquals(4, buffer.getSnapshotFrame(1).get(0));
+        assertEquals(4, buffer.getSnapshotFrame(1).remaining());
+
+        buffer.releaseSnapshot();
+        assertEquals(4, buffer.snapshot(0));
+        assertEquals(20, buffer.getSnapshotFrame(3).get(0));
+    }
+
+    @Test
+    public void framesAreDroppedWhenEverySlotIsPinned() {
+        FrameRingBuffer buffer = new FrameRingBuffer(4, 8);
+        write(buffer, 100, (byte) 1);
+        write(buffer, 200, (byte) 2);
+
+        buffer.snapshot(0);
+
+        assertNull(buffer.acquire());
+        assertEquals(1, buffer.getDroppedFrames());
+        buffer.releaseSnapshot();
+        assertNotNull(buffer.acquire());
+    }
+
+    @Test
+    public void onlyOneSnapshotAtATime() {
+        FrameRingBuffer buffer = new FrameRingBuffer(4, 8);
+        write(buffer, 100, (byte) 1);
+
+        assertEquals(1, buffer.snapshot(0));
+        write(buffer, 200, (byte) 2);
+        assertEquals(-1, buffer.snapshot(0));
+        // the first one is left as it was
+        assertEquals(1, buffer.getSnapshotSize());
+        assertEquals(1, buffer.getSnapshotFrame(0).get(0));
+
+        buffer.releaseSnapshot();
+        assertEquals(2, buffer.snapshot(0));
+    }
+
+    @Test
+    public void streamingDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        FrameRingBuffer buffer = new FrameRingBuffer(FRAME_BYTES, 4L * 1024 * 1024);
+        ByteBuffer plane = ByteBuffer.allocateDirect(FRAME_BYTES);
+
+        stream(buffer, plane, 0, 10000);
+        long before = threads.getThreadAllocatedBytes(thread);
+        stream(buffer, plane, 10000, 15000);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(0, allocated);
+        assertTrue(buffer.snapshot(0) > 0);
+    }
+
+    private static void stream(FrameRingBuffer buffer, ByteBuffer plane, int from, int to) {
+        for (int i = from; i < to; i++) {
+            ByteBuffer slot = buffer.acquire();
+            plane.clear();
+            slot.put(plane);
+            buffer.commit(i * 33_000_000L, slot.position());
+        }
+    }
+
+    private static void write(FrameRingBuffer buffer, long timestamp, byte value) {
+        ByteBuffer slot = buffer.acquire();
+        for (int i = 0; i < 4; i++) {
+            slot.put(value);
+        }
+        buffer.commit(timestamp, slot.position());
+    }
+}
@@ -0,0 +1,82 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(0.5));
+    }
+
+    @Test
+    public void percentilesAreWithinTheBucketResolution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1 to 1000 ms
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertEquals(1000, histogram.getCount());
+        assertWithin(TimeUnit.MILLISECONDS.toNanos(500), histogram.getPercentileNanos(0.5));
+        assertWithin(TimeUnit.MILLISECONDS.toNanos(990), histogram.getPercentileNanos(0.99));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), histogram.getPercentileNanos(1));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), histogram.getMaxNanos());
+    }
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        int previous = 0;
+        for (long nanos = 1; nanos < 1L << 40; nanos += nanos / 8 + 1) {
+            int bucket = LatencyHistogram.bucket(nanos);
+            assertTrue(bucket >= previous);
+            assertTrue(bucket < LatencyHistogram.BUCKETS);
+            assertTrue(nanos + " above its bucket", nanos < LatencyHistogram.upperBound(bucket));
+            if (bucket > 0) {
+                assertTrue(nanos >= LatencyHistogram.upperBound(bucket - 1));
+            }
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void outOfRangeValuesAreKept() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(10);
+        histogram.record(TimeUnit.MINUTES.toNanos(5));
+        assertEquals(3, histogram.getCount());
+        assertEquals(TimeUnit.MINUTES.toNanos(5), histogram.getPercentileNanos(1));
+    }
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    histogram.record(TimeUnit.MICROSECONDS.toNanos(100 + offset * 1000 + i % 5000));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getCount());
+        assertTrue(histogram.getMaxNanos() >= TimeUnit.MICROSECONDS.toNanos(3100 + 4999));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " not near " + expected,
+                actual >= expected && actual <= expected * 1.2);
+    }
+}
@@ -0,0 +1,218 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class MotionDetectorTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    // a YUV plane with padded rows
+    private static final int ROW_STRIDE = 384;
+
+    private final MotionDetector mDetector = new MotionDetector(WIDTH, HEIGHT);
+    private final Random mRandom = new Random(7);
+    private final ByteBuffer mPlane = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT);
+
+    @Test
+    public void stillNoisySceneIsNotMotion() {
+        for (int i = 0; i < 300; i++) {
+            assertFalse("frame " + i, process(scene(0), 6));
+        }
+    }
+
+    @Test
+    public void personWalkingInIsMotion() {
+        learn();
+
+        int triggers = 0;
+        for (int x = 0; x < 200; x += 8) {
+            byte[] frame = scene(0);
+            drawPerson(frame, x);
+            if (process(frame, 6)) {
+                triggers++;
+            }
+        }
+
+        // once, the motion doesn't stop until the person leaves
+        assertEquals(1, triggers);
+    }
+
+    @Test
+    public void motionIsReportedAgainAfterStillness() {
+        learn();
+        assertTrue(walk(0, 40));
+
+        byte[] still = scene(0);
+        drawPerson(still, 40);
+        for (int i = 0; i < 20; i++) {
+            assertFalse(process(still.clone(), 6));
+        }
+
+        assertTrue(walk(40, 80));
+    }
+
+    @Test
+    public void singleFrameGlitchIsNotMotion() {
+        learn();
+        byte[] frame = scene(0);
+        drawPerson(frame, 80);
+
+        assertFalse(process(frame, 6));
+        assertFalse(process(scene(0), 6));
+        assertFalse(process(scene(0), 6));
+    }
+
+    @Test
+    public void exposureChangeIsNotMotion() {
+        learn();
+
+        for (int i = 1; i <= 10; i++) {
+            assertFalse(process(scene(i * 8), 6));
+        }
+    }
+
+    @Test
+    public void smallInsectIsNotMotion() {
+        learn();
+
+        for (int x = 0; x < 200; x += 4) {
+            byte[] frame = scene(0);
+            fill(frame, 100 + x / 4, 120, 6, 6, 20);
+            assertFalse(process(frame, 6));
+        }
+    }
+
+    @Test
+    public void flickeringScreenIsLearned() {
+        for (int i = 0; i < 60; i++) {
+            byte[] frame = scene(0);
+            // a TV in a corner, a new picture every frame
+            noise(frame, 0, 0, 64, 48);
+            process(frame, 6);
+        }
+
+        for (int i = 0; i < 60; i++) {
+            byte[] frame = scene(0);
+            noise(frame, 0, 0, 64, 48);
+            assertFalse("frame " + i, process(frame, 6));
+        }
+    }
+
+    @Test
+    public void nothingIsReportedWhileLearning() {
+        assertTrue(mDetector.isLearning());
+        byte[] frame = scene(0);
+        drawPerson(frame, 0);
+        for (int x = 0; x < 80; x += 8) {
+            byte[] moving = scene(0);
+            drawPerson(moving, x);
+            assertFalse(process(moving, 6));
+        }
+        assertFalse(mDetector.isLearning());
+    }
+
+    @Test
+    public void resetLearnsAgain() {
+        learn();
+        mDetector.reset();
+
+        assertTrue(mDetector.isLearning());
+        assertEquals(0, mDetector.getChangedBlocks());
+    }
+
+    @Test
+    public void frameCostsUnderAMillisecond() {
+        byte[] frame = scene(0);
+        for (int i = 0; i < 2000; i++) {
+            process(frame, 0);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            mPlane.clear();
+            mDetector.process(mPlane, ROW_STRIDE, 1);
+        }
+        long perFrame = (System.nanoTime() - start) / 1000;
+
+        assertTrue("took " + perFrame / 1000 + " us", perFrame < 1_000_000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void framesSmallerThanABlockAreRejected() {
+        new MotionDetector(8, 8);
+    }
+
+    // true if motion was reported while the person walked
+    private boolean walk(int from, int to) {
+        boolean reported = false;
+        for (int x = from + 8; x <= to; x += 8) {
+            byte[] frame = scene(0);
+            drawPerson(frame, x);
+            reported |= process(frame, 6);
+        }
+        return reported;
+    }
+
+    private void learn() {
+        for (int i = 0; i < 30; i++) {
+            process(scene(0), 6);
+        }
+    }
+
+    private boolean process(byte[] frame, int noise) {
+        mPlane.clear();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int v = frame[y * WIDTH + x] & 0xff;
+                if (noise > 0) {
+                    v = Math.max(0, Math.min(255, v + mRandom.nextInt(2 * noise + 1) - noise));
+                }
+                mPlane.put(y * ROW_STRIDE + x, (byte) v);
+            }
+        }
+        return mDetector.process(mPlane, ROW_STRIDE, 1);
+    }
+
+    // a room seen from a phone on the table, {@code brightness} brighter
+    private static byte[] scene(int brightness) {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int v = 70 + (int) (40 * Math.sin(x / 30.0) + 25 * Math.cos(y / 17.0));
+                if (x > 220 && y < 90) {
+                    v = 200;
+                }
+                luma[y * WIDTH + x] = (byte) Math.min(255, v + brightness);
+            }
+        }
+        return luma;
+    }
+
+    private static void drawPerson(byte[] frame, int left) {
+        // head and body
+        fill(frame, left + 20, 40, 40, 45, 180);
+        fill(frame, left, 85, 80, HEIGHT - 85, 35);
+    }
+
+    private static void fill(byte[] frame, int left, int top, int width, int height, int value) {
+        for (int y = top; y < Math.min(HEIGHT, top + height); y++) {
+            for (int x = Math.max(0, left); x < Math.min(WIDTH, left + width); x++) {
+                frame[y * WIDTH + x] = (byte) value;
+            }
+        }
+    }
+
+    private void noise(byte[] frame, int left, int top, int width, int height) {
+        for (int y = top; y < top + height; y++) {
+            for (int x = left; x < left + width; x++) {
+                frame[y * WIDTH + x] = (byte) mRandom.nextInt(256);
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+public class ProcessingProgressTest {
+    private File mRoot;
+    private CaptureIndex mIndex;
+
+    @Before
+    public void createIndex() throws IOException {
+        mRoot = Files.createTempDirectory("progress").toFile();
+        mIndex = new CaptureIndex(new File(mRoot, "captures.idx"), mRoot);
+        for (int i = 0; i < 40; i++) {
+            append(i * 1000L, "front_" + i + ".jpg");
+        }
+    }
+
+    @After
+    public void deleteFolder() throws IOException {
+        mIndex.close();
+        File[] files = mRoot.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mRoot.delete();
+    }
+
+    @Test
+    public void startsFromTheOldest() {
+        List<CaptureIndex.Entry> batch = progress().next(mIndex, 16);
+
+        assertEquals(16, batch.size());
+        assertEquals("front_0.jpg", batch.get(0).getFileName());
+        assertEquals("front_15.jpg", batch.get(15).getFileName());
+    }
+
+    @Test
+    public void stoppedPassResumesAfterTheLastDone() throws IOException {
+        ProcessingProgress progress = progress();
+        List<CaptureIndex.Entry> batch = progress.next(mIndex, 16);
+        for (CaptureIndex.Entry entry : batch.subList(0, 5)) {
+            progress.advance(entry);
+        }
+
+        // the worker was stopped, the next run starts over
+        ProcessingProgress resumed = progress();
+
+        assertEquals(5, resumed.getProcessedCount());
+        assertTrue(resumed.isDone(batch.get(4)));
+        assertFalse(resumed.isDone(batch.get(5)));
+        assertEquals("front_5.jpg", resumed.next(mIndex, 16).get(0).getFileName());
+    }
+
+    @Test
+    public void endsWhenEverythingIsDone() throws IOException {
+        ProcessingProgress progress = progress();
+        int done = 0;
+        List<CaptureIndex.Entry> batch;
+        while (!(batch = progress.next(mIndex, 16)).isEmpty()) {
+            for (CaptureIndex.Entry entry : batch) {
+                progress.advance(entry);
+                done++;
+            }
+        }
+
+        assertEquals(40, done);
+
+        append(50_000, "front_50.jpg");
+        assertEquals("front_50.jpg", progress.next(mIndex, 16).get(0).getFileName());
+    }
+
+    @Test
+    public void capturesOfTheSameTimeAreNotSkipped() throws IOException {
+        append(100_000, "lookback_b.jpg");
+        append(100_000, "lookback_a.jpg");
+        append(100_000, "lookback_c.jpg");
+        ProcessingProgress progress = progress();
+        for (CaptureIndex.Entry entry : progress.next(mIndex, 40)) {
+            progress.advance(entry);
+        }
+
+        // a batch that ends between them
+        progress.advance(progress.next(mIndex, 1).get(0));
+        List<CaptureIndex.Entry> rest = progress.next(mIndex, 1);
+
+        assertEquals(1, rest.size());
+        assertEquals("lookback_b.jpg", rest.get(0).getFileName());
+        assertEquals("lookback_c.jpg", progress.next(mIndex, 2).get(1).getFileName());
+    }
+
+    @Test
+    public void damagedProgressStartsOver() throws IOException {
+        Files.write(new File(mRoot, "processing.progress").toPath(), new byte[]{1, 2, 3});
+
+        assertEquals(0, progress().getProcessedCount());
+        assertEquals("front_0.jpg", progress().next(mIndex, 1).get(0).getFileName());
+    }
+
+    private ProcessingProgress progress() {
+        return new ProcessingProgress(new File(mRoot, "processing.progress"));
+    }
+
+    private void append(long timeMillis, String name) throws IOException {
+        mIndex.append(new CaptureIndex.Entry(timeMillis, CameraInfo.FACING_FRONT,
+                CaptureIndex.REASON_PICKUP, null, 1024, name));
+    }
+}
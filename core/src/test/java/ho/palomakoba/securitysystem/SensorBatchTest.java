@@ -0,0 +1,102 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class SensorBatchTest {
+    private static final float G = 9.80665f;
+    private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(40);
+
+    @Test
+    public void batchWithoutPickup() {
+        TriggerEngine engine = newEngine();
+        SensorBatch batch = new SensorBatch(128);
+
+        for (int i = 0; i < 100; i++) {
+            batch.add(SensorBatch.TYPE_ACCELEROMETER, i * PERIOD, new float[]{0, 0, G});
+        }
+
+        assertEquals(-1, batch.process(engine));
+        // one second window at 25 Hz
+        assertEquals(26, engine.size());
+    }
+
+    @Test
+    public void batchReportsFirstPickup() {
+        TriggerEngine engine = newEngine();
+        SensorBatch batch = new SensorBatch(128);
+        long timestamp = 0;
+
+        for (int i = 0; i < 20; i++) {
+            batch.add(SensorBatch.TYPE_ACCELEROMETER, timestamp += PERIOD, new float[]{0, 0, G});
+        }
+        for (int i = 1; i <= 12; i++) {
+            double angle = i * Math.PI / 24;
+            batch.add(SensorBatch.TYPE_ACCELEROMETER, timestamp += PERIOD,
+                    new float[]{0, (float) (G * Math.sin(angle)) + 2, (float) (G * Math.cos(angle))});
+        }
+
+        int pickup = batch.process(engine);
+        assertTrue(pickup > 20);
+
+        float[] values = new float[3];
+        batch.copyValues(pickup, values);
+        assertTrue(values[1] > 4);
+        assertEquals((pickup + 1) * PERIOD, batch.getTimestamp(pickup));
+    }
+
+    @Test
+    public void gatingEventsAreAppliedInOrder() {
+        TriggerEngine engine = newEngine();
+        SensorBatch batch = new SensorBatch(8);
+
+        batch.add(SensorBatch.TYPE_LIGHT, PERIOD, new float[]{0});
+        batch.add(SensorBatch.TYPE_PROXIMITY, 2 * PERIOD, new float[]{0, 0, 0});
+        batch.process(engine);
+        assertFalse(engine.getGate().hasLight());
+        assertTrue(engine.getGate().isInPocket());
+
+        batch.clear();
+        batch.add(SensorBatch.TYPE_LIGHT, 3 * PERIOD, new float[]{100});
+        batch.add(SensorBatch.TYPE_PROXIMITY, 4 * PERIOD, new float[]{5});
+        batch.process(engine);
+        assertTrue(engine.getGate().isArmed(4 * PERIOD));
+    }
+
+    @Test
+    public void fillsUpToCapacity() {
+        SensorBatch batch = new SensorBatch(2);
+        float[] values = {1, 2, 3};
+
+        batch.add(SensorBatch.TYPE_ACCELEROMETER, 1, values);
+        assertFalse(batch.isFull());
+        batch.add(SensorBatch.TYPE_ACCELEROMETER, 2, values);
+        assertTrue(batch.isFull());
+
+        float[] copy = new float[3];
+        batch.copyValues(1, copy);
+        assertArrayEquals(new int[]{1, 2, 3}, new int[]{(int) copy[0], (int) copy[1], (int) copy[2]});
+
+        batch.clear();
+        assertTrue(batch.isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addingToFullBatchFails() {
+        SensorBatch batch = new SensorBatch(1);
+        float[] values = {1, 2, 3};
+
+        batch.add(SensorBatch.TYPE_ACCELEROMETER, 1, values);
+        batch.add(SensorBatch.TYPE_ACCELEROMETER, 2, values);
+    }
+
+    private static TriggerEngine newEngine() {
+        return new TriggerEngine(new TriggerGate(TimeUnit.SECONDS.toNanos(10)));
+    }
+}
@@ -0,0 +1,45 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class SensorEventStatsTest {
+    private static final long COOLDOWN = TimeUnit.SECONDS.toNanos(10);
+
+    @Test
+    public void onlyArmedAccelerometerEventsCount() {
+        TriggerGate gate = new TriggerGate(COOLDOWN);
+        SensorEventStats stats = new SensorEventStats();
+
+        stats.onEvent(SensorBatch.TYPE_ACCELEROMETER, 0, 0, true, gate);
+        stats.onEvent(SensorBatch.TYPE_ACCELEROMETER, 0, 0, false, gate);
+        gate.onProximity(0);
+        stats.onEvent(SensorBatch.TYPE_ACCELEROMETER, 0, 0, true, gate);
+
+        assertEquals(3, stats.getDelivered(SensorBatch.TYPE_ACCELEROMETER));
+        assertEquals(1, stats.getUseful(SensorBatch.TYPE_ACCELEROMETER));
+    }
+
+    @Test
+    public void lightAndProximityCountWhenTheyChangeTheGate() {
+        TriggerGate gate = new TriggerGate(COOLDOWN);
+        SensorEventStats stats = new SensorEventStats();
+
+        // already light
+        stats.onEvent(SensorBatch.TYPE_LIGHT, 0, 200, true, gate);
+        stats.onEvent(SensorBatch.TYPE_LIGHT, 0, 2, true, gate);
+        gate.onLight(2);
+        stats.onEvent(SensorBatch.TYPE_PROXIMITY, 0, 5, true, gate);
+        stats.onEvent(SensorBatch.TYPE_PROXIMITY, 0, 0, true, gate);
+
+        assertEquals(2, stats.getDelivered(SensorBatch.TYPE_LIGHT));
+        assertEquals(1, stats.getUseful(SensorBatch.TYPE_LIGHT));
+        assertEquals(2, stats.getDelivered(SensorBatch.TYPE_PROXIMITY));
+        assertEquals(1, stats.getUseful(SensorBatch.TYPE_PROXIMITY));
+        assertEquals("SensorEventStats{accelerometer=0/0, light=1/2, proximity=1/2}",
+                stats.toString());
+    }
+}
@@ -0,0 +1,20 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SensorFormatTest {
+
+    @Test
+    public void valuesAreRoundedToWholeUnits() {
+        assertEquals("X: 0 Y: 7 Z: 7",
+                SensorFormat.valuesToString(new float[]{0.2f, 6.9f, 6.6f}));
+    }
+
+    @Test
+    public void negativeValuesKeepTheirSign() {
+        assertEquals("X: -3 Y: -0 Z: 10",
+                SensorFormat.valuesToString(new float[]{-2.6f, -0.4f, 9.81f}));
+    }
+}
@@ -0,0 +1,145 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class SensorSchedulerTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long HOLD = 3 * SECOND;
+    private static final long COOLDOWN = 10 * SECOND;
+    private static final long ANALYSIS = 5 * SECOND;
+
+    private final TriggerGate mGate = new TriggerGate(COOLDOWN);
+    private final SensorScheduler mScheduler = new SensorScheduler(HOLD);
+    private long mNow = TimeUnit.MINUTES.toNanos(10);
+
+    @Test
+    public void lockingArmsAndUnlockingTurnsEverythingOff() {
+        assertEquals(SensorScheduler.STATE_UNLOCKED, mScheduler.getState());
+        assertTrue(update(true));
+        assertEquals(SensorScheduler.STATE_ARMED, mScheduler.getState());
+        assertEquals(SensorScheduler.RATE_NORMAL, mScheduler.getAccelerometerRate());
+
+        assertTrue(update(false));
+        assertEquals(SensorScheduler.RATE_OFF, mScheduler.getAccelerometerRate());
+        assertEquals(SensorScheduler.RATE_OFF, mScheduler.getLightRate());
+        assertEquals(SensorScheduler.RATE_OFF, mScheduler.getProximityRate());
+    }
+
+    @Test
+    public void pocketTurnsTheAccelerometerOffAfterTheHold() {
+        update(true);
+        mGate.onProximity(0);
+
+        assertFalse(update(true));
+        assertEquals(mNow + HOLD, mScheduler.getNextUpdateNanos());
+        mNow += HOLD - 1;
+        assertFalse(update(true));
+        mNow += 1;
+        assertTrue(update(true));
+        assertEquals(SensorScheduler.STATE_POCKETED, mScheduler.getState());
+        assertEquals(SensorScheduler.RATE_OFF, mScheduler.getAccelerometerRate());
+        assertEquals(SensorScheduler.RATE_NORMAL, mScheduler.getProximityRate());
+
+        // out of the pocket, armed at once
+        mGate.onProximity(5);
+        assertTrue(update(true));
+        assertEquals(SensorScheduler.STATE_ARMED, mScheduler.getState());
+    }
+
+    @Test
+    public void flickeringLightDoesNotToggle() {
+        update(true);
+        for (int i = 0; i < 20; i++) {
+            mGate.onLight(i % 2 == 0 ? 1 : 100);
+            mNow += 2 * SECOND;
+            assertFalse(update(true));
+        }
+        assertEquals(SensorScheduler.STATE_ARMED, mScheduler.getState());
+        assertEquals(1, mScheduler.getTransitions());
+
+        mGate.onLight(1);
+        update(true);
+        mNow += HOLD;
+        assertTrue(update(true));
+        assertEquals(SensorScheduler.STATE_DARK, mScheduler.getState());
+    }
+
+    @Test
+    public void cooldownSuspendsUntilItEnds() {
+        update(true);
+        mGate.onTriggered(mNow);
+
+        assertTrue(update(true));
+        assertEquals(SensorScheduler.STATE_COOLING_DOWN, mScheduler.getState());
+        assertEquals(SensorScheduler.RATE_OFF, mScheduler.getAccelerometerRate());
+        assertEquals(mNow + COOLDOWN, mScheduler.getNextUpdateNanos());
+
+        mNow += COOLDOWN;
+        assertTrue(update(true));
+        assertEquals(SensorScheduler.STATE_ARMED, mScheduler.getState());
+        assertEquals(-1, mScheduler.getNextUpdateNanos());
+    }
+
+    @Test
+    public void darkAfterCooldownNeedsNoHold() {
+        update(true);
+        mGate.onTriggered(mNow);
+        update(true);
+        mGate.onLight(0);
+
+        mNow += COOLDOWN;
+        assertTrue(update(true));
+        assertEquals(SensorScheduler.STATE_DARK, mScheduler.getState());
+    }
+
+    @Test
+    public void motionGatedAccelerometerRunsOnlyAfterMotion() {
+        SensorScheduler scheduler = new SensorScheduler(HOLD, ANALYSIS);
+        // locking starts the accelerometer to learn how the device rests
+        assertTrue(scheduler.update(true, mGate, mNow));
+        assertEquals(SensorScheduler.STATE_ARMED, scheduler.getState());
+        assertEquals(SensorScheduler.RATE_OFF, scheduler.getMotionRate());
+        assertEquals(mNow + ANALYSIS, scheduler.getNextUpdateNanos());
+
+        mNow += ANALYSIS;
+        assertTrue(scheduler.update(true, mGate, mNow));
+        assertEquals(SensorScheduler.STATE_STILL, scheduler.getState());
+        assertEquals(SensorScheduler.RATE_OFF, scheduler.getAccelerometerRate());
+        assertEquals(SensorScheduler.RATE_NORMAL, scheduler.getMotionRate());
+        assertEquals(-1, scheduler.getNextUpdateNanos());
+
+        mNow += TimeUnit.HOURS.toNanos(1);
+        assertFalse(scheduler.update(true, mGate, mNow));
+        scheduler.onMotion(mNow);
+        assertTrue(scheduler.update(true, mGate, mNow));
+        assertEquals(SensorScheduler.STATE_ARMED, scheduler.getState());
+        assertEquals(SensorScheduler.RATE_NORMAL, scheduler.getAccelerometerRate());
+    }
+
+    @Test
+    public void pocketWhileStillNeedsNoHold() {
+        SensorScheduler scheduler = new SensorScheduler(HOLD, ANALYSIS);
+        scheduler.update(true, mGate, mNow);
+        mNow += ANALYSIS;
+        scheduler.update(true, mGate, mNow);
+
+        mGate.onProximity(0);
+        assertTrue(scheduler.update(true, mGate, mNow));
+        assertEquals(SensorScheduler.STATE_POCKETED, scheduler.getState());
+
+        // out of the pocket is a motion by itself
+        mGate.onProximity(5);
+        assertTrue(scheduler.update(true, mGate, mNow));
+        assertEquals(SensorScheduler.STATE_ARMED, scheduler.getState());
+    }
+
+    private boolean update(boolean locked) {
+        return mScheduler.update(locked, mGate, mNow);
+    }
+}
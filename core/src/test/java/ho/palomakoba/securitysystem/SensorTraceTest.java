@@ -0,0 +1,134 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+public class SensorTraceTest {
+    private File mRoot;
+    private File mTrace;
+
+    @Before
+    public void createFolder() throws IOException {
+        mRoot = Files.createTempDirectory("trace").toFile();
+        mTrace = new File(mRoot, "pickup" + SensorTraceWriter.EXTENSION);
+    }
+
+    @After
+    public void deleteFolder() {
+        File[] files = mRoot.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mRoot.delete();
+    }
+
+    @Test
+    public void recordsAreReadBackInOrder() throws IOException {
+        // more than one buffer of records
+        int count = 10000;
+        try (SensorTraceWriter writer = new SensorTraceWriter(mTrace, 1234)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(type(i), i * 20_000_000L, new float[]{i, -i, i / 2f});
+            }
+            assertEquals(count, writer.getCount());
+        }
+        assertEquals(SensorTraceWriter.HEADER_BYTES + count * SensorTraceWriter.RECORD_BYTES,
+                mTrace.length());
+
+        try (SensorTraceReader reader = new SensorTraceReader(mTrace)) {
+            assertEquals(1234, reader.getStartMillis());
+            for (int i = 0; i < count; i++) {
+                assertTrue(reader.next());
+                assertEquals(type(i), reader.getType());
+                assertEquals(i * 20_000_000L, reader.getTimestampNanos());
+                float[] expected = type(i) == SensorBatch.TYPE_ACCELEROMETER
+                        ? new float[]{i, -i, i / 2f}
+                        : new float[]{i, 0, 0};
+                assertArrayEquals(expected, reader.getValues(), 0);
+            }
+            assertFalse(reader.next());
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void queuedWritesKeepTheRecordOrder() throws Exception {
+        WriteBehindQueue queue = new WriteBehindQueue("trace", 4, 2,
+                WriteBehindQueue.OverflowPolicy.REJECT_NEWEST);
+        int count = 20000;
+        SensorTraceWriter writer = new SensorTraceWriter(mTrace, 1234, queue);
+        for (int i = 0; i < count; i++) {
+            writer.write(SensorBatch.TYPE_LIGHT, i, new float[]{i});
+            if (i % 1000 == 0) {
+                // the lock changes, the buffer is handed over before it is full
+                writer.flush();
+            }
+        }
+        writer.close();
+        queue.shutdown();
+        assertTrue(queue.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, queue.getFailed());
+
+        long written = writer.getCount();
+        assertEquals(count, written + writer.getDropped());
+        assertEquals(SensorTraceWriter.HEADER_BYTES + written * SensorTraceWriter.RECORD_BYTES,
+                mTrace.length());
+        try (SensorTraceReader reader = new SensorTraceReader(mTrace)) {
+            long last = -1;
+            while (reader.next()) {
+                assertTrue(reader.getTimestampNanos() > last);
+                last = reader.getTimestampNanos();
+            }
+        }
+    }
+
+    @Test
+    public void cutRecordIsIgnored() throws IOException {
+        try (SensorTraceWriter writer = new SensorTraceWriter(mTrace, 0)) {
+            writer.write(SensorBatch.TYPE_LIGHT, 1, new float[]{40});
+            writer.write(SensorBatch.TYPE_LIGHT, 2, new float[]{50});
+        }
+        try (RandomAccessFile file = new RandomAccessFile(mTrace, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+
+        try (SensorTraceReader reader = new SensorTraceReader(mTrace)) {
+            assertTrue(reader.next());
+            assertEquals(40, reader.getValues()[0], 0);
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        Files.write(mTrace.toPath(), "not a trace at all".getBytes());
+        new SensorTraceReader(mTrace).close();
+    }
+
+    private static int type(int i) {
+        switch (i % 10) {
+            case 0:
+                return SensorBatch.TYPE_LIGHT;
+            case 5:
+                return SensorBatch.TYPE_PROXIMITY;
+            default:
+                return SensorBatch.TYPE_ACCELEROMETER;
+        }
+    }
+}
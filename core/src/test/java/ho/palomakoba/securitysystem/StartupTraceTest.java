@@ -0,0 +1,36 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class StartupTraceTest {
+
+    @Test
+    public void firstTimeOfEachStepIsKept() {
+        StartupTrace trace = new StartupTrace();
+        trace.mark("locked boot completed", 14_200_000_000L);
+        trace.mark("armed", 14_650_000_000L);
+        // the service restarted an hour later
+        trace.mark("armed", 3_614_000_000_000L);
+
+        assertEquals(14_650_000_000L, trace.getNanos("armed"));
+        assertEquals(-1, trace.getNanos("user unlocked"));
+        assertEquals("locked boot completed 14.200 s, armed 14.650 s", trace.toString());
+    }
+
+    @Test
+    public void dumpShowsTheTimeBetweenSteps() {
+        StartupTrace trace = new StartupTrace();
+        trace.mark("service created", 20_000_000_000L);
+        trace.mark("armed", 20_125_000_000L);
+
+        StringWriter out = new StringWriter();
+        trace.dump(new PrintWriter(out));
+        assertTrue(out.toString(), out.toString().contains("20.125   +0.125"));
+    }
+}
@@ -0,0 +1,229 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class StorageRetentionTest {
+    private static final int FILES = 3000;
+    private static final int FILE_BYTES = 1000;
+    private static final long MINUTE = 60_000L;
+    private static final long NOW = FILES * MINUTE;
+
+    private File mRoot;
+    private File mFolder;
+    private CaptureIndex mIndex;
+
+    @Before
+    public void createCaptures() throws IOException {
+        mRoot = Files.createTempDirectory("retention").toFile();
+        mFolder = new File(mRoot, "security");
+        assertTrue(mFolder.mkdir());
+        mIndex = new CaptureIndex(new File(mRoot, "captures.idx"), mFolder);
+
+        byte[] bytes = new byte[FILE_BYTES];
+        for (int i = 0; i < FILES; i++) {
+            String name = "front_" + i + ".jpg";
+            Files.write(new File(mFolder, name).toPath(), bytes);
+            // every tenth capture is a look-back frame
+            mIndex.append(new CaptureIndex.Entry(i * MINUTE, CameraInfo.FACING_FRONT,
+                    i % 10 == 0 ? CaptureIndex.REASON_LOOK_BACK : CaptureIndex.REASON_PICKUP,
+                    null, FILE_BYTES, name));
+        }
+    }
+
+    @After
+    public void deleteFolder() throws IOException {
+        mIndex.close();
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        new File(mRoot, "captures.idx").delete();
+        //noinspection ResultOfMethodCallIgnored
+        mFolder.delete();
+        //noinspection ResultOfMethodCallIgnored
+        mRoot.delete();
+    }
+
+    @Test
+    public void withinLimitsNothingIsEvicted() throws IOException {
+        StorageRetention retention = new StorageRetention(mIndex, mFolder,
+                FILES * FILE_BYTES, 0, FILES, null);
+
+        assertFalse(retention.isOverLimit(NOW));
+        assertEquals(0, retention.evict(NOW, 100));
+        assertEquals(FILES, mFolder.list().length);
+    }
+
+    @Test
+    public void maxBytesEvictsOldestFirstInBatches() throws IOException {
+        StorageRetention retention = new StorageRetention(mIndex, mFolder,
+                1000L * FILE_BYTES, 0, 0, null);
+
+        int batches = 0;
+        while (retention.isOverLimit(NOW)) {
+            assertTrue(retention.evict(NOW, 8) <= 8);
+            batches++;
+        }
+
+        assertEquals(250, batches);
+        assertEquals(1000, mIndex.size());
+        assertEquals(1000L * FILE_BYTES, mIndex.getTotalBytes());
+        assertEquals(2000, retention.getEvictedCount());
+        assertEquals(1000, mFolder.list().length);
+        assertFalse(new File(mFolder, "front_1999.jpg").exists());
+        assertTrue(new File(mFolder, "front_2000.jpg").exists());
+    }
+
+    @Test
+    public void maxCountEvicts() throws IOException {
+        StorageRetention retention = new StorageRetention(mIndex, mFolder, 0, 0, 2500, null);
+
+        assertEquals(500, retention.evict(NOW, FILES));
+
+        assertEquals(2500, mIndex.size());
+        assertEquals(500, mIndex.oldest(1).get(0).getTimeMillis() / MINUTE);
+    }
+
+    @Test
+    public void maxAgeEvictsEvenWithinOtherLimits() throws IOException {
+        StorageRetention retention = new StorageRetention(mIndex, mFolder,
+                0, 60 * MINUTE, 0, StorageRetention.DEFAULT_VALUE);
+
+        retention.evict(NOW, FILES);
+
+        assertEquals(60, mIndex.size());
+        assertEquals(FILES - 60, mIndex.oldest(1).get(0).getTimeMillis() / MINUTE);
+    }
+
+    @Test
+    public void lowValueFirstEvictsLookBackFramesOfTheOldest() throws IOException {
+        StorageRetention retention = new StorageRetention(mIndex, mFolder,
+                0, 0, FILES - 5, StorageRetention.DEFAULT_VALUE);
+
+        assertEquals(5, retention.evict(NOW, 100));
+
+        // the look-back frames among the oldest 64 captures went first
+        List<CaptureIndex.Entry> oldest = mIndex.oldest(StorageRetention.LOOK_AHEAD);
+        for (CaptureIndex.Entry entry : oldest.subList(0, 50)) {
+            long minute = entry.getTimeMillis() / MINUTE;
+            assertTrue(minute % 10 != 0 || minute >= 50);
+        }
+        assertTrue(new File(mFolder, "front_1.jpg").exists());
+        assertFalse(new File(mFolder, "front_0.jpg").exists());
+        assertFalse(new File(mFolder, "front_40.jpg").exists());
+    }
+
+    @Test
+    public void missingFilesOnlyLeaveTheIndex() throws IOException {
+        assertTrue(new File(mFolder, "front_0.jpg").delete());
+        StorageRetention retention = new StorageRetention(mIndex, mFolder, 0, 0, FILES - 1, null);
+
+        assertEquals(1, retention.evict(NOW, 10));
+        assertEquals(FILES - 1, mIndex.size());
+    }
+
+    @Test
+    public void evictionsSurviveReopening() throws IOException {
+        StorageRetention retention = new StorageRetention(mIndex, mFolder, 0, 0, 100, null);
+        retention.evict(NOW, FILES);
+        mIndex.close();
+
+        mIndex = new CaptureIndex(new File(mRoot, "captures.idx"), mFolder);
+
+        assertFalse(mIndex.wasRebuilt());
+        assertEquals(100, mIndex.size());
+        assertEquals(100L * FILE_BYTES, mIndex.getTotalBytes());
+        // removals that outnumber the captures are compacted away
+        assertTrue(new File(mRoot, "captures.idx").length() < 300 * 64);
+    }
+
+    @Test
+    public void evictionDoesNotListTheFolder() throws IOException {
+        StorageRetention retention = new StorageRetention(mIndex, mFolder,
+                0, 0, FILES - 8, null);
+
+        long start = System.nanoTime();
+        retention.evict(NOW, 8);
+        long elapsed = System.nanoTime() - start;
+
+        // eight deletes, far below listing and stating thousands of files
+        assertTrue("took " + elapsed / 1000 + " us", elapsed < 50_000_000L);
+        assertEquals(FILES - 8, mIndex.size());
+    }
+
+    @Test
+    public void replaceSkipsAnEvictedCapture() throws IOException {
+        StorageRetention retention = new StorageRetention(mIndex, mFolder, 0, 0, FILES - 1, null);
+        CaptureIndex.Entry first = mIndex.oldest(2).get(0);
+        CaptureIndex.Entry second = mIndex.oldest(2).get(1);
+        File temp = new File(mFolder, "front_0.jpg.tmp");
+        Files.write(temp.toPath(), new byte[10]);
+
+        // front_0 is evicted while it is being rewritten
+        assertEquals(1, retention.evict(NOW, 10));
+        assertFalse(retention.replace(first, temp));
+        assertFalse(temp.exists());
+        assertFalse(new File(mFolder, "front_0.jpg").exists());
+        assertEquals(FILES - 1, mIndex.size());
+
+        Files.write(temp.toPath(), new byte[10]);
+        assertTrue(retention.replace(second, temp));
+        assertFalse(temp.exists());
+        assertEquals(10, new File(mFolder, "front_1.jpg").length());
+        assertEquals(FILES - 1, mIndex.size());
+        assertEquals((FILES - 2L) * FILE_BYTES + 10, mIndex.getTotalBytes());
+    }
+
+    @Test
+    public void undeletableFileDoesNotStallEviction() throws IOException {
+        // a folder with something in it can't be deleted
+        File stuck = new File(mFolder, "front_0.jpg");
+        assertTrue(stuck.delete());
+        assertTrue(stuck.mkdir());
+        File inside = new File(stuck, "inside");
+        Files.write(inside.toPath(), new byte[1]);
+        StorageRetention retention = new StorageRetention(mIndex, mFolder, 0, 0, FILES - 3, null);
+        final List<File> evicted = new ArrayList<>();
+        final List<File> failed = new ArrayList<>();
+        retention.setListener(new StorageRetention.Listener() {
+            @Override
+            public void onEvicted(File file) {
+                evicted.add(file);
+            }
+
+            @Override
+            public void onDeleteFailed(File file) {
+                failed.add(file);
+            }
+        });
+
+        try {
+            assertEquals(3, retention.evict(NOW, 10));
+            assertEquals(FILES - 3, mIndex.size());
+            assertEquals(1, retention.getFailedDeletes());
+            assertEquals(2, retention.getEvictedCount());
+            assertEquals(Collections.singletonList(stuck), failed);
+            assertEquals(new File(mFolder, "front_2.jpg"), evicted.get(1));
+            assertFalse(retention.isOverLimit(NOW));
+        } finally {
+            assertTrue(inside.delete());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class TargetCapturePolicyTest {
+    // JPEG sizes the camera2 API lists on these cameras
+    private static final int[][] NEXUS_5_BACK = {
+            {3264, 2448}, {3264, 1836}, {2592, 1944}, {2048, 1536}, {1920, 1080}, {1600, 1200},
+            {1280, 960}, {1280, 720}, {1024, 768}, {800, 600}, {800, 480}, {720, 480},
+            {640, 480}, {352, 288}, {320, 240}, {176, 144}};
+    private static final int[][] PIXEL_3_FRONT = {
+            {3264, 2448}, {3264, 1836}, {2448, 2448}, {1920, 1440}, {1920, 1080}, {1440, 1080},
+            {1280, 960}, {1280, 720}, {1024, 768}, {800, 600}, {720, 480}, {640, 480},
+            {352, 288}, {320, 240}, {176, 144}};
+    private static final int[][] LOW_END_FRONT = {
+            {1600, 1200}, {1280, 960}, {1280, 720}, {640, 480}, {320, 240}, {176, 144}};
+    private static final int[][] WIDE_ONLY = {
+            {1920, 1080}, {1280, 720}, {640, 360}};
+
+    // the stall grows with the pixels to encode, 8 MP take 160 ms
+    private static final long STALL_NANOS_PER_PIXEL = 20;
+
+    private static final Object[][] CASES = {
+            // sizes, max stall ms, max file KB, face pixels, expected size, quality
+            {NEXUS_5_BACK, 0, 0, 80, "1280x960", 95},
+            {NEXUS_5_BACK, 0, 0, 160, "2592x1944", 95},
+            {NEXUS_5_BACK, 0, 0, 0, "320x240", 95},
+            {NEXUS_5_BACK, 80, 0, 160, "2048x1536", 95},
+            {NEXUS_5_BACK, 1, 0, 80, "176x144", 95},
+            {NEXUS_5_BACK, 0, 300, 80, "1280x960", 85},
+            {NEXUS_5_BACK, 0, 100, 80, "1280x960", 50},
+            {NEXUS_5_BACK, 0, 2048, 160, "2592x1944", 90},
+            {PIXEL_3_FRONT, 0, 0, 80, "1280x960", 95},
+            {PIXEL_3_FRONT, 0, 0, 120, "1920x1440", 95},
+            {PIXEL_3_FRONT, 50, 0, 120, "1920x1080", 95},
+            {LOW_END_FRONT, 0, 0, 80, "1280x960", 95},
+            {LOW_END_FRONT, 0, 0, 200, "1600x1200", 95},
+            {WIDE_ONLY, 0, 0, 80, "1920x1080", 95},
+    };
+
+    @Test
+    public void choosesFromTargets() {
+        for (Object[] row : CASES) {
+            TargetCapturePolicy policy = new TargetCapturePolicy(
+                    (Integer) row[1] * 1_000_000L, (Integer) row[2] * 1024L, (Integer) row[3]);
+
+            CapturePolicy.Choice choice = policy.choose(camera((int[][]) row[0]));
+
+            String message = Arrays.toString(Arrays.copyOfRange(row, 1, 4));
+            assertEquals(message, row[4], choice.getSize().toString());
+            assertEquals(message, row[5], choice.getJpegQuality());
+        }
+    }
+
+    @Test
+    public void orderOfSizesDoesNotMatter() {
+        List<int[]> sizes = new ArrayList<>(Arrays.asList(NEXUS_5_BACK));
+        TargetCapturePolicy policy = new TargetCapturePolicy(0, 0, 80);
+
+        for (int i = 0; i < 20; i++) {
+            Collections.shuffle(sizes, new Random(i));
+            CapturePolicy.Choice choice = policy.choose(camera(sizes.toArray(new int[0][])));
+            assertEquals("1280x960", choice.getSize().toString());
+        }
+    }
+
+    @Test
+    public void choiceIsAnOutputSize() {
+        // the old chooseOptimalSize swapped landscape sizes to portrait
+        for (int[][] sizes : new int[][][]{NEXUS_5_BACK, PIXEL_3_FRONT, LOW_END_FRONT}) {
+            CapturePolicy.Choice choice = new TargetCapturePolicy(0, 0, 80).choose(camera(sizes));
+
+            assertTrue(Arrays.asList(camera(sizes).getJpegSizes()).contains(choice.getSize()));
+        }
+    }
+
+    @Test
+    public void choiceCarriesTheStallAndEstimate() {
+        CapturePolicy.Choice choice = new TargetCapturePolicy(0, 0, 80).choose(camera(NEXUS_5_BACK));
+
+        assertEquals(1280 * 960 * STALL_NANOS_PER_PIXEL, choice.getStallNanos());
+        assertEquals(TargetCapturePolicy.estimateBytes(new CaptureSize(1280, 960), 95),
+                choice.getEstimatedBytes());
+    }
+
+    @Test
+    public void lowerQualityIsSmaller() {
+        CaptureSize size = new CaptureSize(1920, 1080);
+        long previous = Long.MAX_VALUE;
+        for (int quality = 100; quality >= 40; quality -= 5) {
+            long bytes = TargetCapturePolicy.estimateBytes(size, quality);
+            assertTrue(bytes <= previous);
+            previous = bytes;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cameraWithoutJpegSizes() {
+        new TargetCapturePolicy(0, 0, 80).choose(camera(new int[0][]));
+    }
+
+    private static CameraInfo camera(int[][] dimensions) {
+        CaptureSize[] sizes = new CaptureSize[dimensions.length];
+        long[] stalls = new long[dimensions.length];
+        for (int i = 0; i < dimensions.length; i++) {
+            sizes[i] = new CaptureSize(dimensions[i][0], dimensions[i][1]);
+            stalls[i] = sizes[i].getArea() * STALL_NANOS_PER_PIXEL;
+        }
+        return new CameraInfo("1", CameraInfo.FACING_FRONT, 270, sizes, stalls,
+                new CaptureSize[0], new int[0]);
+    }
+}
@@ -0,0 +1,44 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ThumbnailPolicyTest {
+    private static final CaptureSize TWELVE_MP = new CaptureSize(4000, 3000);
+
+    @Test
+    public void sampleKeepsTheShortSideAboveTheTarget() {
+        // 500x375
+        assertEquals(8, ThumbnailPolicy.sampleSize(4000, 3000, 240));
+        assertEquals(8, ThumbnailPolicy.sampleSize(3000, 4000, 240));
+        // 480x270
+        assertEquals(4, ThumbnailPolicy.sampleSize(1920, 1080, 240));
+    }
+
+    @Test
+    public void exactHalvingIsAllowed() {
+        assertEquals(2, ThumbnailPolicy.sampleSize(640, 480, 240));
+    }
+
+    @Test
+    public void smallPicturesAreNotSampled() {
+        assertEquals(1, ThumbnailPolicy.sampleSize(320, 240, 240));
+        assertEquals(1, ThumbnailPolicy.sampleSize(100, 80, 240));
+    }
+
+    @Test
+    public void onlyClearlyLargerFilesAreRecompressed() {
+        // a 12 MP JPEG at quality 80 is about 2.5 MB
+        assertTrue(ThumbnailPolicy.shouldRecompress(5_400_000, TWELVE_MP, 80));
+        assertFalse(ThumbnailPolicy.shouldRecompress(3_000_000, TWELVE_MP, 80));
+        assertFalse(ThumbnailPolicy.shouldRecompress(2_000_000, TWELVE_MP, 80));
+    }
+
+    @Test
+    public void qualityZeroNeverRecompresses() {
+        assertFalse(ThumbnailPolicy.shouldRecompress(50_000_000, TWELVE_MP, 0));
+    }
+}
@@ -0,0 +1,112 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class TraceReplayTest {
+    private static final float G = 9.80665f;
+    private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Random mNoise = new Random(7);
+    private final float[] mValues = new float[3];
+    private File mRoot;
+    private File mTrace;
+    private SensorTraceWriter mWriter;
+    private long mTimestamp = TimeUnit.MINUTES.toNanos(3);
+
+    @Before
+    public void createTrace() throws IOException {
+        mRoot = Files.createTempDirectory("replay").toFile();
+        mTrace = new File(mRoot, "pickups" + SensorTraceWriter.EXTENSION);
+        mWriter = new SensorTraceWriter(mTrace, System.currentTimeMillis());
+    }
+
+    @After
+    public void deleteFolder() throws IOException {
+        mWriter.close();
+        //noinspection ResultOfMethodCallIgnored
+        mTrace.delete();
+        //noinspection ResultOfMethodCallIgnored
+        mRoot.delete();
+    }
+
+    @Test
+    public void pickupsFireOncePerCooldown() throws IOException {
+        // picked up at 2 s, again at 5.5 s within the cooldown, and at 19 s
+        still(100);
+        pickup();
+        still(150);
+        pickup();
+        still(650);
+        pickup();
+        still(100);
+        mWriter.close();
+
+        TraceReplay.Result result = new TraceReplay().replay(mTrace);
+        assertEquals(2, result.getTriggerCount());
+        long[] triggers = result.getTriggerNanos();
+        assertTrue(triggers[0] > 2 * SECOND && triggers[0] < 3 * SECOND);
+        assertTrue(triggers[1] > 19 * SECOND && triggers[1] < 20 * SECOND);
+        assertEquals(100 + 150 + 650 + 100 + 3 * 26, result.getEvents());
+        assertTrue(result.getSpeedup() > 1);
+    }
+
+    @Test
+    public void thresholdsCanBeChanged() throws IOException {
+        still(100);
+        pickup();
+        still(100);
+        mWriter.close();
+
+        assertEquals(1, new TraceReplay().replay(mTrace).getTriggerCount());
+        assertEquals(0, new TraceReplay(SECOND, 120, TriggerEngine.DEFAULT_MIN_FORCE,
+                TriggerEngine.DEFAULT_MIN_JERK).replay(mTrace).getTriggerCount());
+    }
+
+    @Test
+    public void darkPocketDoesNotFire() throws IOException {
+        mWriter.write(SensorBatch.TYPE_PROXIMITY, mTimestamp, new float[]{0});
+        still(100);
+        pickup();
+        mWriter.write(SensorBatch.TYPE_PROXIMITY, mTimestamp, new float[]{5});
+        mWriter.close();
+
+        assertEquals(0, new TraceReplay().replay(mTrace).getTriggerCount());
+    }
+
+    private void still(int samples) throws IOException {
+        for (int i = 0; i < samples; i++) {
+            write(0, 0, G);
+        }
+    }
+
+    // turned from flat on its back to upright in half a second, and dropped back
+    private void pickup() throws IOException {
+        for (int i = 1; i <= 25; i++) {
+            double progress = i / 25.0;
+            double angle = progress * Math.PI / 2;
+            float along = (float) (G * Math.sin(angle) + 3 * Math.sin(progress * Math.PI));
+            write(0, along, (float) (G * Math.cos(angle)));
+        }
+        mWriter.write(SensorBatch.TYPE_LIGHT, mTimestamp, new float[]{100});
+    }
+
+    private void write(float x, float y, float z) throws IOException {
+        mTimestamp += PERIOD;
+        mValues[0] = x + (float) mNoise.nextGaussian() * 0.05f;
+        mValues[1] = y + (float) mNoise.nextGaussian() * 0.05f;
+        mValues[2] = z + (float) mNoise.nextGaussian() * 0.05f;
+        mWriter.write(SensorBatch.TYPE_ACCELEROMETER, mTimestamp, mValues);
+    }
+}
@@ -0,0 +1,213 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class TriggerEngineTest {
+    private static final float G = 9.80665f;
+    private static final long COOLDOWN = TimeUnit.SECONDS.toNanos(10);
+    private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final Random mNoise = new Random(42);
+    private final float[] mValues = new float[3];
+    private long mTimestamp = TimeUnit.MINUTES.toNanos(1);
+
+    @Test
+    public void stillDeviceDoesNotFire() {
+        TriggerEngine engine = new TriggerEngine(new TriggerGate(COOLDOWN));
+
+        assertFalse(still(engine, 500));
+    }
+
+    @Test
+    public void portraitPickupFires() {
+        TriggerEngine engine = new TriggerEngine(new TriggerGate(COOLDOWN));
+
+        still(engine, 100);
+        assertTrue(rotate(engine, 0, 1, 25, 3));
+    }
+
+    @Test
+    public void landscapePickupFires() {
+        TriggerEngine engine = new TriggerEngine(new TriggerGate(COOLDOWN));
+
+        still(engine, 100);
+        assertTrue(rotate(engine, 1, 0, 25, 3));
+    }
+
+    @Test
+    public void slowTiltDoesNotFire() {
+        TriggerEngine engine = new TriggerEngine(new TriggerGate(COOLDOWN));
+
+        still(engine, 100);
+        assertFalse(rotate(engine, 0, 1, 500, 0));
+    }
+
+    @Test
+    public void tableBumpDoesNotFire() {
+        TriggerEngine engine = new TriggerEngine(new TriggerGate(COOLDOWN));
+        boolean fired = false;
+
+        for (int i = 0; i < 200; i++) {
+            float bump = i % 40 < 3 ? 6 : 0;
+            fired |= feed(engine, bump * 0.5f, 0, G + bump);
+        }
+
+        assertFalse(fired);
+    }
+
+    @Test
+    public void gatingSuppressesPickup() {
+        TriggerEngine engine = new TriggerEngine(new TriggerGate(COOLDOWN));
+
+        engine.onProximity(0);
+        still(engine, 100);
+        assertFalse(rotate(engine, 0, 1, 25, 3));
+
+        engine.onProximity(5);
+        engine.onLight(0);
+        assertFalse(rotate(engine, 1, 0, 25, 3));
+    }
+
+    @Test
+    public void cooldownAfterTrigger() {
+        TriggerEngine engine = new TriggerEngine(new TriggerGate(COOLDOWN));
+
+        still(engine, 100);
+        assertTrue(rotate(engine, 0, 1, 25, 3));
+        engine.onTriggered(mTimestamp);
+        assertEquals(0, engine.size());
+
+        assertFalse(rotate(engine, 1, 0, 25, 3));
+        mTimestamp += COOLDOWN;
+        still(engine, 100);
+        assertTrue(rotate(engine, 0, 1, 25, 3));
+    }
+
+    @Test
+    public void windowIsBoundedByCapacityAndTime() {
+        TriggerEngine engine = new TriggerEngine(new TriggerGate(COOLDOWN),
+                TimeUnit.MILLISECONDS.toNanos(200), 8, 2, 30, 1, 10);
+
+        still(engine, 5);
+        assertEquals(5, engine.size());
+        still(engine, 100);
+        assertEquals(8, engine.size());
+
+        mTimestamp += TimeUnit.SECONDS.toNanos(1);
+        still(engine, 1);
+        assertEquals(1, engine.size());
+    }
+
+    @Test
+    public void restingSampleSeedsAPickupSeenLate() {
+        TriggerEngine engine = new TriggerEngine(new TriggerGate(COOLDOWN));
+        float[] rest = new float[3];
+        assertFalse(engine.copyNewest(rest));
+
+        still(engine, 100);
+        assertTrue(engine.copyNewest(rest));
+        assertEquals(G, rest[2], 0.5f);
+
+        // the accelerometer was off during the pickup, it only sees the hand
+        engine.clear();
+        assertFalse(stillUpright(engine, 20));
+
+        engine.clear();
+        engine.onAccelerometer(mTimestamp, rest);
+        assertTrue(stillUpright(engine, 20));
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        TriggerEngine engine = new TriggerEngine(new TriggerGate(COOLDOWN));
+
+        int triggers = stream(engine, 0, 200_000);
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        triggers += stream(engine, 200_000, 1_000_000);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(triggers > 0);
+        assertEquals(0, allocated);
+    }
+
+    private int stream(TriggerEngine engine, int from, int to) {
+        int triggers = 0;
+        for (int i = from; i < to; i++) {
+            switch (i % 3) {
+                case 0:
+                    double angle = (i % 300) * Math.PI / 600;
+                    mValues[0] = 0;
+                    mValues[1] = (float) (G * Math.sin(angle));
+                    mValues[2] = (float) (G * Math.cos(angle));
+                    mTimestamp += PERIOD;
+                    if (engine.onAccelerometer(mTimestamp, mValues)) {
+                        engine.onTriggered(mTimestamp);
+                        triggers++;
+                    }
+                    break;
+                case 1:
+                    engine.onLight(i % 100);
+                    break;
+                default:
+                    engine.onProximity(i % 5);
+                    break;
+            }
+        }
+        return triggers;
+    }
+
+    private boolean still(TriggerEngine engine, int samples) {
+        boolean fired = false;
+        for (int i = 0; i < samples; i++) {
+            fired |= feed(engine, 0, 0, G);
+        }
+        return fired;
+    }
+
+    private boolean stillUpright(TriggerEngine engine, int samples) {
+        boolean fired = false;
+        for (int i = 0; i < samples; i++) {
+            fired |= feed(engine, 0, G, 0);
+        }
+        return fired;
+    }
+
+    /**
+     * Turns the device from flat on its back towards the given axis, pushing
+     * along it with a half sine of the given peak.
+     */
+    private boolean rotate(TriggerEngine engine, float toX, float toY, int samples, float push) {
+        boolean fired = false;
+        for (int i = 1; i <= samples; i++) {
+            double progress = (double) i / samples;
+            double angle = progress * Math.PI / 2;
+            float along = (float) (G * Math.sin(angle) + push * Math.sin(progress * Math.PI));
+            fired |= feed(engine, toX * along, toY * along, (float) (G * Math.cos(angle)));
+        }
+        return fired;
+    }
+
+    private boolean feed(TriggerEngine engine, float x, float y, float z) {
+        mTimestamp += PERIOD;
+        mValues[0] = x + noise();
+        mValues[1] = y + noise();
+        mValues[2] = z + noise();
+        return engine.onAccelerometer(mTimestamp, mValues);
+    }
+
+    private float noise() {
+        return (float) mNoise.nextGaussian() * 0.05f;
+    }
+}
@@ -0,0 +1,43 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TriggerGateTest {
+    private static final long COOLDOWN = TimeUnit.SECONDS.toNanos(10);
+
+    @Test
+    public void armedRightAfterBoot() {
+        TriggerGate gate = new TriggerGate(COOLDOWN);
+
+        assertTrue(gate.isArmed(0));
+    }
+
+    @Test
+    public void cooldownUsesEventTimestamps() {
+        TriggerGate gate = new TriggerGate(COOLDOWN);
+        long start = TimeUnit.HOURS.toNanos(5);
+
+        gate.onTriggered(start);
+
+        assertFalse(gate.isArmed(start + COOLDOWN - 1));
+        assertTrue(gate.isArmed(start + COOLDOWN));
+    }
+
+    @Test
+    public void darkOrPocketDisarms() {
+        TriggerGate gate = new TriggerGate(COOLDOWN);
+
+        gate.onLight(3);
+        assertFalse(gate.isArmed(0));
+        gate.onLight(50);
+        gate.onProximity(0);
+        assertFalse(gate.isArmed(0));
+        gate.onProximity(5);
+        assertTrue(gate.isArmed(0));
+    }
+}
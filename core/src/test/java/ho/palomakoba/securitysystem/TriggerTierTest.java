@@ -0,0 +1,19 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TriggerTierTest {
+    @Test
+    public void prefersThePickUpGesture() {
+        assertEquals(TriggerTier.TIER_PICK_UP_GESTURE, TriggerTier.choose(true, true, true));
+        assertEquals(TriggerTier.TIER_SIGNIFICANT_MOTION, TriggerTier.choose(true, false, true));
+    }
+
+    @Test
+    public void fallsBackToTheContinuousListener() {
+        assertEquals(TriggerTier.TIER_CONTINUOUS, TriggerTier.choose(true, false, false));
+        assertEquals(TriggerTier.TIER_CONTINUOUS, TriggerTier.choose(false, true, true));
+    }
+}
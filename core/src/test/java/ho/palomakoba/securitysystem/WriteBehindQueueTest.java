@@ -0,0 +1,194 @@
+package ho.palomakoba.securitysystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class WriteBehindQueueTest {
+    private final SlowFileSystem mFileSystem = new SlowFileSystem();
+    private WriteBehindQueue mQueue;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mFileSystem.open();
+        if (mQueue != null) {
+            mQueue.shutdown();
+            assertTrue(mQueue.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void submitDoesNotWaitForTheStorage() throws InterruptedException {
+        mQueue = new WriteBehindQueue("test", 4, 1, WriteBehindQueue.OverflowPolicy.REJECT_NEWEST);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(mQueue.submit(new FileTask("frame" + i)));
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(100));
+        mFileSystem.awaitBlockedWriter();
+        assertEquals(3, mQueue.getQueueDepth());
+    }
+
+    @Test
+    public void fullQueueRejectsNewest() throws InterruptedException {
+        mQueue = new WriteBehindQueue("test", 2, 1, WriteBehindQueue.OverflowPolicy.REJECT_NEWEST);
+        FileTask writing = new FileTask("writing");
+        mQueue.submit(writing);
+        mFileSystem.awaitBlockedWriter();
+
+        FileTask first = new FileTask("first");
+        FileTask second = new FileTask("second");
+        FileTask third = new FileTask("third");
+        assertTrue(mQueue.submit(first));
+        assertTrue(mQueue.submit(second));
+        assertFalse(mQueue.submit(third));
+
+        assertTrue(third.mDiscarded);
+        assertEquals(1, mQueue.getDropped());
+        mFileSystem.open();
+        mQueue.shutdown();
+        assertTrue(mQueue.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("writing", "first", "second"), mFileSystem.written());
+    }
+
+    @Test
+    public void fullQueueDropsOldest() throws InterruptedException {
+        mQueue = new WriteBehindQueue("test", 2, 1, WriteBehindQueue.OverflowPolicy.DROP_OLDEST);
+        mQueue.submit(new FileTask("writing"));
+        mFileSystem.awaitBlockedWriter();
+
+        FileTask first = new FileTask("first");
+        mQueue.submit(first);
+        mQueue.submit(new FileTask("second"));
+        assertTrue(mQueue.submit(new FileTask("third")));
+
+        assertTrue(first.mDiscarded);
+        mFileSystem.open();
+        mQueue.shutdown();
+        assertTrue(mQueue.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("writing", "second", "third"), mFileSystem.written());
+    }
+
+    @Test
+    public void shutdownDrainsQueuedWrites() throws InterruptedException {
+        mQueue = new WriteBehindQueue("test", 8, 2, WriteBehindQueue.OverflowPolicy.REJECT_NEWEST);
+        for (int i = 0; i < 8; i++) {
+            mQueue.submit(new FileTask("frame" + i));
+        }
+
+        mQueue.shutdown();
+        assertFalse(mQueue.awaitTermination(50, TimeUnit.MILLISECONDS));
+        mFileSystem.open();
+
+        assertTrue(mQueue.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(8, mFileSystem.written().size());
+        assertEquals(8, mQueue.getCompleted());
+        assertEquals(0, mQueue.getQueueDepth());
+    }
+
+    @Test
+    public void writesAreRejectedAfterShutdown() throws InterruptedException {
+        mQueue = new WriteBehindQueue("test", 2, 1, WriteBehindQueue.OverflowPolicy.REJECT_NEWEST);
+        mQueue.shutdown();
+
+        FileTask late = new FileTask("late");
+        assertFalse(mQueue.submit(late));
+        assertTrue(late.mDiscarded);
+        assertTrue(mQueue.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void countersFollowTheWrites() throws InterruptedException {
+        mQueue = new WriteBehindQueue("test", 4, 1, WriteBehindQueue.OverflowPolicy.REJECT_NEWEST);
+        mFileSystem.mDelayMillis = 20;
+        mFileSystem.open();
+
+        mQueue.submit(new FileTask("frame0"));
+        mQueue.submit(new FileTask("fail"));
+        mQueue.submit(new FileTask("frame1"));
+        mQueue.shutdown();
+        assertTrue(mQueue.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(3, mQueue.getSubmitted());
+        assertEquals(2, mQueue.getCompleted());
+        assertEquals(1, mQueue.getFailed());
+        assertNotNull(mQueue.getLastFailure());
+        assertTrue(mQueue.toString().contains("last failure"));
+        assertTrue(mQueue.getMaxQueueDepth() >= 2);
+        assertTrue(mQueue.getAverageWriteNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(mQueue.getMaxWriteNanos() >= mQueue.getAverageWriteNanos());
+    }
+
+    private class FileTask implements WriteBehindQueue.Task {
+        final String mName;
+        volatile boolean mDiscarded;
+
+        FileTask(String name) {
+            mName = name;
+        }
+
+        @Override
+        public void write() throws IOException {
+            mFileSystem.write(mName);
+        }
+
+        @Override
+        public void discard() {
+            mDiscarded = true;
+        }
+    }
+
+    /**
+     * Storage that holds every write until it is opened, then takes
+     * {@code mDelayMillis} per write.
+     */
+    private static class SlowFileSystem {
+        private final CountDownLatch mOpen = new CountDownLatch(1);
+        private final CountDownLatch mBlocked = new CountDownLatch(1);
+        private final List<String> mWritten = Collections.synchronizedList(new ArrayList<String>());
+        volatile long mDelayMillis;
+
+        void write(String name) throws IOException {
+            mBlocked.countDown();
+            try {
+                mOpen.await();
+                Thread.sleep(mDelayMillis);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (name.equals("fail")) {
+                throw new IOException("No space left");
+            }
+            mWritten.add(name);
+        }
+
+        void awaitBlockedWriter() throws InterruptedException {
+            assertTrue(mBlocked.await(5, TimeUnit.SECONDS));
+        }
+
+        void open() {
+            mOpen.countDown();
+        }
+
+        List<String> written() {
+            synchronized (mWritten) {
+                return new ArrayList<>(mWritten);
+            }
+        }
+    }
+}